@@ -55,6 +55,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nullable;
+import java.io.OutputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.*;
@@ -495,6 +496,17 @@ public class InterMwApiImpl implements InterMwApi {
         return getRegistry().getDevices(platformDeviceGraphs);
     }
 
+    @Override
+    public List<IoTDevice> listDevices(String clientId, String platformId, long offset, int limit) throws MiddlewareException {
+        List<String> deviceIds = getRegistry().getDeviceIds(platformId, offset, limit);
+        if (deviceIds.isEmpty()) {
+            return new ArrayList<>();
+        }
+        List<IoTDevice> devices = getRegistry().getDevices(deviceIds);
+        devices.sort(Comparator.comparing(IoTDevice::getDeviceId));
+        return devices;
+    }
+
     @Override
     public List<IoTDevice> deviceDiscoveryQuery(String clientId, IoTDeviceFilter query) throws MiddlewareException {
         return getRegistry().deviceDiscoveryQuery(query);
@@ -568,6 +580,11 @@ public class InterMwApiImpl implements InterMwApi {
         return getRegistry().listSubcriptions(clientId);
     }
 
+    @Override
+    public List<Subscription> listSubscriptions(String clientId, long offset, int limit) throws MiddlewareException {
+        return getRegistry().listSubcriptions(clientId, offset, limit);
+    }
+
     @Override
     public String unsubscribe(String clientId, String subscriptionId) throws MiddlewareException, NotFoundException, BadRequestException {
         Subscription subscription = getRegistry().findSubscription(clientId, subscriptionId);
@@ -748,11 +765,22 @@ public class InterMwApiImpl implements InterMwApi {
 
     @Override
     public String executeQuery(String query) {
+        return executeQuery(query, false);
+    }
+
+    @Override
+    public String executeQuery(String query, boolean useCache) {
         QueryType queryType = QueryType.extractFromQuery(query);
-        QueryReturn queryReturn = getRegistry().executeQuery(query, queryType);
+        QueryReturn queryReturn = getRegistry().executeQuery(query, queryType, useCache);
         return queryReturn.resultAsString();
     }
 
+    @Override
+    public void executeQuery(String query, OutputStream out) {
+        QueryType queryType = QueryType.extractFromQuery(query);
+        getRegistry().streamQuery(query, queryType, out);
+    }
+
     @Override
     public void registerLocationArea(LocationAreaInput input) throws ConflictException, MiddlewareException {
         if (getRegistry().getLocationArea(input.getPlatformId(), input.getLocationId()) != null) {
@@ -43,9 +43,14 @@ import eu.interiot.intermw.api.exception.NotFoundException;
 import eu.interiot.intermw.api.model.*;
 import eu.interiot.intermw.api.rest.model.MwAsyncResponse;
 import eu.interiot.intermw.comm.arm.ResponseMessageParser;
+import eu.interiot.intermw.comm.ipsm.IPSMContext;
+import eu.interiot.intermw.comm.prm.PRMContext;
 import eu.interiot.intermw.commons.Context;
+import eu.interiot.intermw.commons.RestoreProgress;
 import eu.interiot.intermw.commons.exceptions.MiddlewareException;
 import eu.interiot.intermw.commons.model.*;
+import eu.interiot.intermw.commons.model.enums.QueryType;
+import eu.interiot.intermw.services.registry.RegistryStatistics;
 import eu.interiot.message.Message;
 import io.swagger.annotations.*;
 import org.slf4j.Logger;
@@ -104,6 +109,10 @@ import static javax.ws.rs.core.MediaType.APPLICATION_JSON;
 public class InterMwApiREST {
 
     private static final Logger logger = LoggerFactory.getLogger(InterMwApiREST.class);
+    private static final String QUERY_CACHE_HEADER = "X-Query-Cache";
+    private static final String QUERY_STREAM_HEADER = "X-Query-Stream";
+    private static final String SPARQL_RESULTS_JSON = "application/sparql-results+json";
+    private static final String N_TRIPLES = "application/n-triples";
     private InterMwApiImpl interMwApi;
 
     public InterMwApiREST() throws MiddlewareException {
@@ -333,13 +342,23 @@ public class InterMwApiREST {
     @Path("/devices")
     @Produces(APPLICATION_JSON)
     @ApiOperation(value = "List all devices registered with InterIoT according to the specified filter",
+            notes = "If limit is specified, at most limit devices ordered by device ID are returned, starting at offset.",
             tags = {"Devices"})
     @ApiResponses(value = {
             @ApiResponse(code = 200, message = "Success.", response = IoTDevice.class, responseContainer = "List"),
+            @ApiResponse(code = 400, message = "Invalid offset or limit."),
             @ApiResponse(code = 401, message = "Unauthorized.")})
-    public Response listDevices(@QueryParam("platformId") String platformId) throws MiddlewareException {
-
-        List<IoTDevice> devices = interMwApi.listDevices(getClientId(), platformId);
+    public Response listDevices(@QueryParam("platformId") String platformId,
+                                @QueryParam("offset") @DefaultValue("0") long offset,
+                                @QueryParam("limit") Integer limit) throws MiddlewareException, BadRequestException {
+
+        List<IoTDevice> devices;
+        if (limit == null) {
+            devices = interMwApi.listDevices(getClientId(), platformId);
+        } else {
+            checkPage(offset, limit);
+            devices = interMwApi.listDevices(getClientId(), platformId, offset, limit);
+        }
         return Response.ok(devices).build();
     }
 
@@ -412,16 +431,95 @@ public class InterMwApiREST {
     @POST
     @Path("/query")
     @Consumes(MediaType.TEXT_PLAIN)
-    @Produces({APPLICATION_JSON, MediaType.TEXT_PLAIN})
-    @ApiOperation(value = "Execute SELECT, CONSTRUCT or ASK sparql queries directly on the intermw persistence store",
+    @Produces({APPLICATION_JSON, MediaType.TEXT_PLAIN, SPARQL_RESULTS_JSON, N_TRIPLES})
+    @ApiOperation(value = "Execute SELECT, CONSTRUCT or ASK sparql queries directly on the intermw persistence store. " +
+            "Results are served from the query result cache if the " + QUERY_CACHE_HEADER + " header is set to true. " +
+            "If the " + QUERY_STREAM_HEADER + " header is set to true, results are streamed as SPARQL JSON results " +
+            "(SELECT, ASK) or N-Triples (CONSTRUCT) instead.",
             tags = {"Query"})
     @ApiResponses(value = {
-            @ApiResponse(code = 200, message = "The request has been executed successfully.", response = Response.class)})
-    public Response queryAll(String query) {
-        String result = interMwApi.executeQuery(query);
+            @ApiResponse(code = 200, message = "The request has been executed successfully.", response = Response.class),
+            @ApiResponse(code = 400, message = "The query timed out or returned too many results.")})
+    public Response queryAll(String query, @HeaderParam(QUERY_CACHE_HEADER) @DefaultValue("false") boolean useCache,
+                             @HeaderParam(QUERY_STREAM_HEADER) @DefaultValue("false") boolean stream) {
+        if (stream) {
+            StreamingOutput output = out -> interMwApi.executeQuery(query, out);
+            String mediaType = QueryType.extractFromQuery(query) == QueryType.CONSTRUCT ? N_TRIPLES : SPARQL_RESULTS_JSON;
+            return Response.ok(output, mediaType).build();
+        }
+        String result = interMwApi.executeQuery(query, useCache);
         return Response.ok(result).build();
     }
 
+    @GET
+    @Path("/metrics/registry")
+    @Produces(APPLICATION_JSON)
+    @ApiOperation(value = "Registry metrics: latency, error and result size statistics per registry operation, " +
+            "connection pool usage and cache statistics",
+            tags = {"Metrics"})
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "Success.", response = RegistryStatistics.class),
+            @ApiResponse(code = 401, message = "Unauthorized.")})
+    public Response getRegistryMetrics() {
+        RegistryStatistics statistics = interMwApi.getRegistry().getRegistryStatistics();
+        return Response.ok(statistics).build();
+    }
+
+    @GET
+    @Path("/readiness")
+    @Produces(APPLICATION_JSON)
+    @ApiOperation(value = "Readiness of the middleware: progress of restoring client callbacks, subscriptions and " +
+            "platform bridges after a restart",
+            tags = {"Metrics"})
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "The middleware has been restored.", response = ReadinessStatus.class),
+            @ApiResponse(code = 503, message = "Restoration is in progress.", response = ReadinessStatus.class),
+            @ApiResponse(code = 401, message = "Unauthorized.")})
+    public Response getReadiness() {
+        ReadinessStatus readiness = RestoreProgress.getReadiness();
+        return Response.status(readiness.isReady() ? Response.Status.OK : Response.Status.SERVICE_UNAVAILABLE)
+                .entity(readiness).build();
+    }
+
+    @GET
+    @Path("/metrics/prm")
+    @Produces(APPLICATION_JSON)
+    @ApiOperation(value = "Platform request manager metrics: queue depth and processed message count per processing lane",
+            tags = {"Metrics"})
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "Success.", response = LaneStatistics.class, responseContainer = "List"),
+            @ApiResponse(code = 401, message = "Unauthorized.")})
+    public Response getPlatformRequestManagerMetrics() throws MiddlewareException {
+        List<LaneStatistics> statistics = PRMContext.getPlatformRequestManager().getLaneStatistics();
+        return Response.ok(statistics).build();
+    }
+
+    @GET
+    @Path("/metrics/ipsm")
+    @Produces(APPLICATION_JSON)
+    @ApiOperation(value = "IPSM translation channel metrics: parallelism, message rate and translation lag per channel",
+            tags = {"Metrics"})
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "Success.", response = IPSMChannelStatistics.class, responseContainer = "List"),
+            @ApiResponse(code = 401, message = "Unauthorized.")})
+    public Response getIPSMRequestManagerMetrics() throws MiddlewareException {
+        List<IPSMChannelStatistics> statistics = IPSMContext.getIPSMRequestManager().getChannelStatistics();
+        return Response.ok(statistics).build();
+    }
+
+    @GET
+    @Path("/metrics/ipsmrm")
+    @Produces(APPLICATION_JSON)
+    @ApiOperation(value = "IPSM request manager metrics: queue depth and processed message count per downstream and upstream processing lane",
+            tags = {"Metrics"})
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "Success.", response = LaneStatistics.class, responseContainer = "List"),
+            @ApiResponse(code = 401, message = "Unauthorized.")})
+    public Response getIPSMRequestManagerLaneMetrics() throws MiddlewareException {
+        List<LaneStatistics> statistics = IPSMContext.getIPSMRequestManager().getLaneStatistics();
+        return Response.ok(statistics).build();
+    }
+
     @POST
     @Path("/subscriptions")
     @Consumes(APPLICATION_JSON)
@@ -444,13 +542,23 @@ public class InterMwApiREST {
     @Path("/subscriptions")
     @Produces(APPLICATION_JSON)
     @ApiOperation(value = "List subscriptions",
+            notes = "If limit is specified, at most limit subscriptions ordered by conversation ID are returned, starting at offset.",
             tags = {"Subscriptions"})
     @ApiResponses(value = {
             @ApiResponse(code = 200, message = "Success.", response = Subscription.class, responseContainer = "List"),
+            @ApiResponse(code = 400, message = "Invalid offset or limit."),
             @ApiResponse(code = 401, message = "Unauthorized.")})
-    public Response listSubscriptions(@QueryParam("clientId") String clientId) throws MiddlewareException {
-
-        List<Subscription> subscriptions = interMwApi.listSubscriptions(clientId);
+    public Response listSubscriptions(@QueryParam("clientId") String clientId,
+                                      @QueryParam("offset") @DefaultValue("0") long offset,
+                                      @QueryParam("limit") Integer limit) throws MiddlewareException, BadRequestException {
+
+        List<Subscription> subscriptions;
+        if (limit == null) {
+            subscriptions = interMwApi.listSubscriptions(clientId);
+        } else {
+            checkPage(offset, limit);
+            subscriptions = interMwApi.listSubscriptions(clientId, offset, limit);
+        }
         return Response.ok(subscriptions).build();
     }
 
@@ -742,6 +850,15 @@ public class InterMwApiREST {
         return createMyAsyncResponse(conversationId);
     }
 
+    private void checkPage(long offset, int limit) throws BadRequestException {
+        if (offset < 0) {
+            throw new BadRequestException("Offset must not be negative.");
+        }
+        if (limit <= 0) {
+            throw new BadRequestException("Limit must be positive.");
+        }
+    }
+
     private Client convertRegisterClientInput(RegisterClientInput input) throws BadRequestException {
         Client client = new Client();
         client.setClientId(input.getClientId());
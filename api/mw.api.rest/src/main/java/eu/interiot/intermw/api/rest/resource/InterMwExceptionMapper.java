@@ -35,6 +35,7 @@ package eu.interiot.intermw.api.rest.resource;
 import eu.interiot.intermw.api.exception.BadRequestException;
 import eu.interiot.intermw.api.exception.ConflictException;
 import eu.interiot.intermw.api.exception.NotFoundException;
+import eu.interiot.intermw.services.registry.QueryLimitExceededException;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
@@ -58,7 +59,7 @@ public class InterMwExceptionMapper implements ExceptionMapper<Exception> {
                     .status(Status.NOT_FOUND)
                     .entity(ex.getMessage()).build();
 
-        } else if (ex instanceof BadRequestException) {
+        } else if (ex instanceof BadRequestException || ex instanceof QueryLimitExceededException) {
             return Response
                     .status(Status.BAD_REQUEST)
                     .entity(ex.getMessage()).build();
@@ -43,6 +43,7 @@ import eu.interiot.message.Message;
 
 import javax.annotation.Nullable;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.List;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeoutException;
@@ -95,6 +96,8 @@ public interface InterMwApi {
 
     List<IoTDevice> listDevices(String clientId, String platformId) throws MiddlewareException;
 
+    List<IoTDevice> listDevices(String clientId, String platformId, long offset, int limit) throws MiddlewareException;
+
     List<IoTDevice> deviceDiscoveryQuery(String clientId, IoTDeviceFilter query) throws MiddlewareException;
 
     String syncDevices(String clientId, String platformId) throws MiddlewareException;
@@ -105,6 +108,8 @@ public interface InterMwApi {
 
     List<Subscription> listSubscriptions(String clientId) throws MiddlewareException;
 
+    List<Subscription> listSubscriptions(String clientId, long offset, int limit) throws MiddlewareException;
+
     String unsubscribe(String clientId, String subscriptionId) throws MiddlewareException, NotFoundException, BadRequestException;
 
     String subscribePlat2Plat(String clientId, Plat2PlatSubscribeInput input) throws MiddlewareException, BadRequestException, ConflictException;
@@ -125,6 +130,17 @@ public interface InterMwApi {
 
     String executeQuery(String query);
 
+    /**
+     * @param useCache whether the result may be served from the registry query result cache
+     */
+    String executeQuery(String query, boolean useCache);
+
+    /**
+     * Writes query results to <code>out</code> while they are read from the persistence store: SPARQL JSON results
+     * for SELECT and ASK queries, N-Triples for CONSTRUCT queries.
+     */
+    void executeQuery(String query, OutputStream out);
+
     void registerLocationArea(LocationAreaInput input) throws ConflictException, MiddlewareException;
 
     void registerLocationPoint(LocationPointInput input) throws ConflictException, MiddlewareException;
@@ -145,5 +161,9 @@ public interface InterMwApi {
 
     void deleteLocationPoint(String locationId) throws NotFoundException, MiddlewareException;
 
+    /**
+     * Returns IDs of location points inside the given location area only. Earlier versions returned points inside
+     * any registered area.
+     */
     List<String> getLocationPointsInsideArea(String platformId, String locationId) throws NotFoundException, MiddlewareException;
 }
@@ -48,6 +48,7 @@ import spark.Spark;
 import java.lang.reflect.InvocationTargetException;
 import java.net.URL;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Main entry point to get the {@link Bridge}, {@link BridgeController}
@@ -75,7 +76,8 @@ public class BridgeContext {
 
     //FIXME moved from mw.api. The list of deployed bridge instances associated with platform identifiers should be
     //kept in this package. Context may not be the best place for this - PRO guys, refactor if you think should go elsewherer
-    private static Map<String, BridgeController> bridgesByPlatformId = new HashMap<String, BridgeController>();
+    // bridges of different platforms are created and removed concurrently (PRM lanes, parallel restoration)
+    private static Map<String, BridgeController> bridgesByPlatformId = new ConcurrentHashMap<>();
 
 
     /**
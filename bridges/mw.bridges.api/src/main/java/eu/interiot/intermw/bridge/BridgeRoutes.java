@@ -0,0 +1,89 @@
+/*
+ * Copyright 2016-2018 Universitat Politècnica de València
+ * Copyright 2016-2018 Università della Calabria
+ * Copyright 2016-2018 Prodevelop, SL
+ * Copyright 2016-2018 Technische Universiteit Eindhoven
+ * Copyright 2016-2018 Fundación de la Comunidad Valenciana para la
+ * Investigación, Promoción y Estudios Comerciales de Valenciaport
+ * Copyright 2016-2018 Rinicom Ltd
+ * Copyright 2016-2018 Association pour le développement de la formation
+ * professionnelle dans le transport
+ * Copyright 2016-2018 Noatum Ports Valenciana, S.A.U.
+ * Copyright 2016-2018 XLAB razvoj programske opreme in svetovanje d.o.o.
+ * Copyright 2016-2018 Systems Research Institute Polish Academy of Sciences
+ * Copyright 2016-2018 Azienda Sanitaria Locale TO5
+ * Copyright 2016-2018 Alessandro Bassi Consulting SARL
+ * Copyright 2016-2018 Neways Technologies B.V.
+ *
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.interiot.intermw.bridge;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Per-platform routing of messages between bridges and the platform request manager.
+ * <p>
+ * By default messages travel through the IPSM request manager in both directions. When a platform has no IPSM
+ * alignments for a direction, the IPSM request manager marks that direction as direct. Bridges then publish upstream
+ * messages straight to the PRM topic, and the PRM publishes downstream messages straight to the bridge topic. This
+ * saves one broker round trip per message. Platforms without an entry use the default route.
+ */
+public class BridgeRoutes {
+    private static final Map<String, Route> routes = new ConcurrentHashMap<>();
+
+    private BridgeRoutes() {
+    }
+
+    public static void setRoute(String platformId, boolean directUpstream, boolean directDownstream) {
+        if (directUpstream || directDownstream) {
+            routes.put(platformId, new Route(directUpstream, directDownstream));
+        } else {
+            routes.remove(platformId);
+        }
+    }
+
+    public static void removeRoute(String platformId) {
+        routes.remove(platformId);
+    }
+
+    /**
+     * Returns <code>true</code> if upstream messages of the platform may bypass the IPSM request manager.
+     */
+    public static boolean isDirectUpstream(String platformId) {
+        Route route = routes.get(platformId);
+        return route != null && route.directUpstream;
+    }
+
+    /**
+     * Returns <code>true</code> if downstream messages for the platform may bypass the IPSM request manager.
+     */
+    public static boolean isDirectDownstream(String platformId) {
+        Route route = routes.get(platformId);
+        return route != null && route.directDownstream;
+    }
+
+    private static class Route {
+        private final boolean directUpstream;
+        private final boolean directDownstream;
+
+        private Route(boolean directUpstream, boolean directDownstream) {
+            this.directUpstream = directUpstream;
+            this.directDownstream = directDownstream;
+        }
+    }
+}
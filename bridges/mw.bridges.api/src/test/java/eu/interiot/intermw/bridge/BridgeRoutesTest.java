@@ -0,0 +1,89 @@
+/*
+ * Copyright 2016-2018 Universitat Politècnica de València
+ * Copyright 2016-2018 Università della Calabria
+ * Copyright 2016-2018 Prodevelop, SL
+ * Copyright 2016-2018 Technische Universiteit Eindhoven
+ * Copyright 2016-2018 Fundación de la Comunidad Valenciana para la
+ * Investigación, Promoción y Estudios Comerciales de Valenciaport
+ * Copyright 2016-2018 Rinicom Ltd
+ * Copyright 2016-2018 Association pour le développement de la formation
+ * professionnelle dans le transport
+ * Copyright 2016-2018 Noatum Ports Valenciana, S.A.U.
+ * Copyright 2016-2018 XLAB razvoj programske opreme in svetovanje d.o.o.
+ * Copyright 2016-2018 Systems Research Institute Polish Academy of Sciences
+ * Copyright 2016-2018 Azienda Sanitaria Locale TO5
+ * Copyright 2016-2018 Alessandro Bassi Consulting SARL
+ * Copyright 2016-2018 Neways Technologies B.V.
+ *
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.interiot.intermw.bridge;
+
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class BridgeRoutesTest {
+    private static final String PLATFORM1_ID = "http://test.inter-iot.eu/routes/platform1";
+    private static final String PLATFORM2_ID = "http://test.inter-iot.eu/routes/platform2";
+
+    @After
+    public void tearDown() {
+        BridgeRoutes.removeRoute(PLATFORM1_ID);
+        BridgeRoutes.removeRoute(PLATFORM2_ID);
+    }
+
+    @Test
+    public void testDefaultRouteGoesThroughIPSMRM() {
+        assertFalse(BridgeRoutes.isDirectUpstream(PLATFORM1_ID));
+        assertFalse(BridgeRoutes.isDirectDownstream(PLATFORM1_ID));
+    }
+
+    @Test
+    public void testRouteSwitching() {
+        BridgeRoutes.setRoute(PLATFORM1_ID, true, true);
+        assertTrue(BridgeRoutes.isDirectUpstream(PLATFORM1_ID));
+        assertTrue(BridgeRoutes.isDirectDownstream(PLATFORM1_ID));
+
+        // downstream alignments added, only downstream goes through IPSMRM again
+        BridgeRoutes.setRoute(PLATFORM1_ID, true, false);
+        assertTrue(BridgeRoutes.isDirectUpstream(PLATFORM1_ID));
+        assertFalse(BridgeRoutes.isDirectDownstream(PLATFORM1_ID));
+
+        BridgeRoutes.setRoute(PLATFORM1_ID, false, true);
+        assertFalse(BridgeRoutes.isDirectUpstream(PLATFORM1_ID));
+        assertTrue(BridgeRoutes.isDirectDownstream(PLATFORM1_ID));
+
+        BridgeRoutes.setRoute(PLATFORM1_ID, false, false);
+        assertFalse(BridgeRoutes.isDirectUpstream(PLATFORM1_ID));
+        assertFalse(BridgeRoutes.isDirectDownstream(PLATFORM1_ID));
+    }
+
+    @Test
+    public void testRemoveRoute() {
+        BridgeRoutes.setRoute(PLATFORM1_ID, true, true);
+        BridgeRoutes.setRoute(PLATFORM2_ID, true, false);
+
+        BridgeRoutes.removeRoute(PLATFORM1_ID);
+        assertFalse(BridgeRoutes.isDirectUpstream(PLATFORM1_ID));
+        assertFalse(BridgeRoutes.isDirectDownstream(PLATFORM1_ID));
+        // routes of other platforms are not affected
+        assertTrue(BridgeRoutes.isDirectUpstream(PLATFORM2_ID));
+        assertFalse(BridgeRoutes.isDirectDownstream(PLATFORM2_ID));
+    }
+}
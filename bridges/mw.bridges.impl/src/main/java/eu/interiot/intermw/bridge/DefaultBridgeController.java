@@ -165,7 +165,10 @@ public class DefaultBridgeController extends AbstractBridgeController {
      */
     protected void init(Bridge bridge) throws BridgeException {
         try {
-            publisher = getPublisher(BrokerTopics.BRIDGE_IPSMRM.getTopicName(platform.getPlatformId()));
+            // upstream messages bypass IPSMRM when the platform doesn't need translation (see BridgeRoutes)
+            publisher = new UpstreamRoutingPublisher(platform.getPlatformId(),
+                    getPublisher(BrokerTopics.BRIDGE_IPSMRM.getTopicName(platform.getPlatformId())),
+                    getPublisher(BrokerTopics.IPSMRM_PRM.getTopicName()));
             bridge.setPublisher(publisher);
 
             Publisher<Message> errorPublisher = getPublisher(BrokerTopics.ERROR.getTopicName());
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2016-2018 Universitat Politècnica de València
+ * Copyright 2016-2018 Università della Calabria
+ * Copyright 2016-2018 Prodevelop, SL
+ * Copyright 2016-2018 Technische Universiteit Eindhoven
+ * Copyright 2016-2018 Fundación de la Comunidad Valenciana para la
+ * Investigación, Promoción y Estudios Comerciales de Valenciaport
+ * Copyright 2016-2018 Rinicom Ltd
+ * Copyright 2016-2018 Association pour le développement de la formation
+ * professionnelle dans le transport
+ * Copyright 2016-2018 Noatum Ports Valenciana, S.A.U.
+ * Copyright 2016-2018 XLAB razvoj programske opreme in svetovanje d.o.o.
+ * Copyright 2016-2018 Systems Research Institute Polish Academy of Sciences
+ * Copyright 2016-2018 Azienda Sanitaria Locale TO5
+ * Copyright 2016-2018 Alessandro Bassi Consulting SARL
+ * Copyright 2016-2018 Neways Technologies B.V.
+ *
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.interiot.intermw.bridge;
+
+import eu.interiot.intermw.comm.broker.Broker;
+import eu.interiot.intermw.comm.broker.Publisher;
+import eu.interiot.intermw.comm.broker.Queue;
+import eu.interiot.intermw.comm.broker.Topic;
+import eu.interiot.intermw.comm.broker.exceptions.BrokerException;
+import eu.interiot.message.Message;
+import eu.interiot.message.managers.URI.URIManagerMessageMetadata.MessageTypesEnum;
+
+import java.util.List;
+
+/**
+ * The {@link Publisher} a bridge sends its upstream messages with.
+ * <p>
+ * Messages are published to the IPSM request manager unless {@link BridgeRoutes} says the platform's upstream
+ * messages don't need translation, in which case they are published directly to the platform request manager.
+ * <code>PLATFORM_UNREGISTER</code> responses always go through the IPSM request manager, which releases the
+ * platform's resources when it receives them.
+ */
+class UpstreamRoutingPublisher implements Publisher<Message> {
+    private final String platformId;
+    private final Publisher<Message> ipsmrmPublisher;
+    private final Publisher<Message> prmPublisher;
+
+    UpstreamRoutingPublisher(String platformId, Publisher<Message> ipsmrmPublisher, Publisher<Message> prmPublisher) {
+        this.platformId = platformId;
+        this.ipsmrmPublisher = ipsmrmPublisher;
+        this.prmPublisher = prmPublisher;
+    }
+
+    @Override
+    public void publish(Message message) throws BrokerException {
+        if (BridgeRoutes.isDirectUpstream(platformId) &&
+                !message.getMetadata().getMessageTypes().contains(MessageTypesEnum.PLATFORM_UNREGISTER)) {
+            prmPublisher.publish(message);
+        } else {
+            ipsmrmPublisher.publish(message);
+        }
+    }
+
+    @Override
+    public void init(Broker broker, List<Queue> queues, Class<Topic<Message>> topicClass) throws BrokerException {
+        ipsmrmPublisher.init(broker, queues, topicClass);
+    }
+
+    @Override
+    public void init(Broker broker, List<Queue> queues, String exchangeName, Class<Message> messageClass)
+            throws BrokerException {
+        ipsmrmPublisher.init(broker, queues, exchangeName, messageClass);
+    }
+
+    @Override
+    public void init(Broker broker, Class<? extends Topic<Message>> topicClass) throws BrokerException {
+        ipsmrmPublisher.init(broker, topicClass);
+    }
+
+    @Override
+    public void init(Broker broker, String exchangeName, Class<Message> messageClass) throws BrokerException {
+        ipsmrmPublisher.init(broker, exchangeName, messageClass);
+    }
+
+    @Override
+    public void cleanUp() throws BrokerException {
+        ipsmrmPublisher.cleanUp();
+    }
+
+    @Override
+    public Topic<Message> getTopic() {
+        return ipsmrmPublisher.getTopic();
+    }
+
+    @Override
+    public void createTopic(String name) throws BrokerException {
+        ipsmrmPublisher.createTopic(name);
+    }
+
+    @Override
+    public void deleteTopic(String name) throws BrokerException {
+        ipsmrmPublisher.deleteTopic(name);
+    }
+}
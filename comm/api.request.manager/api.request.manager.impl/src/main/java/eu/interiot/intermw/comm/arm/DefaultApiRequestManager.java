@@ -35,6 +35,7 @@ package eu.interiot.intermw.comm.arm;
 import eu.interiot.intermw.comm.broker.Publisher;
 import eu.interiot.intermw.comm.broker.rabbitmq.QueueImpl;
 import eu.interiot.intermw.comm.control.abstracts.AbstractControlComponent;
+import eu.interiot.intermw.commons.RestoreProgress;
 import eu.interiot.intermw.commons.exceptions.ErrorCode;
 import eu.interiot.intermw.commons.exceptions.MiddlewareException;
 import eu.interiot.intermw.commons.interfaces.ApiCallback;
@@ -45,6 +46,7 @@ import eu.interiot.intermw.commons.model.Subscription;
 import eu.interiot.intermw.commons.model.enums.BrokerTopics;
 import eu.interiot.intermw.commons.requests.SubscribeReq;
 import eu.interiot.intermw.services.registry.ParliamentRegistry;
+import eu.interiot.intermw.services.registry.RegistrySnapshot;
 import eu.interiot.message.Message;
 import eu.interiot.message.MessageMetadata;
 import eu.interiot.message.managers.URI.URIManagerMessageMetadata;
@@ -53,6 +55,11 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * A default {@link ApiRequestManager} implementation
@@ -77,6 +84,8 @@ import java.util.*;
 public class DefaultApiRequestManager extends AbstractControlComponent implements ApiRequestManager {
 
     private final static Logger logger = LoggerFactory.getLogger(DefaultApiRequestManager.class);
+    private static final String RESTORE_PARALLELISM_PROPERTY = "arm.restore.parallelism";
+    private static final int DEFAULT_RESTORE_PARALLELISM = 8;
 
     private final Map<String, ApiCallback<Message>> clientCallbacks = Collections.synchronizedMap(new HashMap<>());
 
@@ -260,63 +269,121 @@ public class DefaultApiRequestManager extends AbstractControlComponent implement
         }
     }
 
+    /**
+     * Restores client callbacks, then restores subscriptions in the background on up to
+     * <code>arm.restore.parallelism</code> threads. A client or subscription failing to be restored doesn't affect
+     * the others, progress is reported by {@link RestoreProgress}.
+     */
     private void restoreState() throws MiddlewareException {
         logger.debug("Restoring ARM state...");
-        List<Client> clients = registry.listClients();
-        if (clients.isEmpty()) {
-            logger.debug("No clients found.");
-
-        } else {
-            logger.debug("Restoring client callbacks...");
-            for (Client client : clients) {
-                logger.debug("Restoring callback for client {}...", client.getClientId());
-                try {
-                    if (client.getResponseDelivery() == null) {
-                        logger.warn("Callback for client {} cannot be restored.", client.getClientId());
-
-                    } else {
-                        ApiCallback<Message> apiCallback;
-                        switch (client.getResponseDelivery()) {
-                            case CLIENT_PULL:
-                                apiCallback = new RabbitMQApiCallback(client.getClientId(), queue);
-                                break;
-                            case SERVER_PUSH:
-                                apiCallback = new HttpPushApiCallback(client, queue, configuration);
-                                break;
-                            default:
-                                throw new AssertionError("Unexpected response delivery: " + client.getResponseDelivery());
+        RestoreProgress progress = RestoreProgress.start(RestoreProgress.ARM);
+        ExecutorService executor = null;
+        try {
+            ParliamentRegistry restoreRegistry = new RegistrySnapshot(registry).restore();
+            Iterator<Client> clients = restoreRegistry.iterateClients();
+            if (!hasNext(clients)) {
+                logger.debug("No clients found.");
+
+            } else {
+                logger.debug("Restoring client callbacks...");
+                while (hasNext(clients)) {
+                    Client client = clients.next();
+                    logger.debug("Restoring callback for client {}...", client.getClientId());
+                    progress.submitted();
+                    try {
+                        if (client.getResponseDelivery() == null) {
+                            logger.warn("Callback for client {} cannot be restored.", client.getClientId());
+
+                        } else {
+                            ApiCallback<Message> apiCallback;
+                            switch (client.getResponseDelivery()) {
+                                case CLIENT_PULL:
+                                    apiCallback = new RabbitMQApiCallback(client.getClientId(), queue);
+                                    break;
+                                case SERVER_PUSH:
+                                    apiCallback = new HttpPushApiCallback(client, queue, configuration);
+                                    break;
+                                default:
+                                    throw new AssertionError("Unexpected response delivery: " + client.getResponseDelivery());
+                            }
+                            registerCallback(client.getClientId(), apiCallback);
                         }
-                        registerCallback(client.getClientId(), apiCallback);
+                        progress.restored();
+
+                    } catch (Exception e) {
+                        logger.error(String.format("Failed to restore callback for client %s.", client.getClientId()), e);
+                        progress.failed(client.getClientId());
                     }
-                } catch (Exception e) {
-                    throw new MiddlewareException(String.format("Failed to restore callback for client %s.",
-                            client.getClientId()), e);
                 }
             }
-        }
-
-        List<Subscription> subscriptions = registry.listSubcriptions();
-        if (subscriptions.isEmpty()) {
-            logger.debug("No subscriptions found.");
 
-        } else {
-            logger.debug("Restoring subscriptions...");
-            for (Subscription subscription : subscriptions) {
-                try {
-                    restoreSubscriptions(subscription);
-                } catch (MiddlewareException e) {
-                    logger.error(String.format("Failed to restore subscription %s: %s",
-                            subscription.getConversationId(), e.getMessage()), e);
+            Iterator<Subscription> subscriptions = restoreRegistry.iterateSubscriptions(null);
+            if (!hasNext(subscriptions)) {
+                logger.debug("No subscriptions found.");
+
+            } else {
+                logger.debug("Restoring subscriptions...");
+                executor = createRestoreExecutor();
+                while (hasNext(subscriptions)) {
+                    Subscription subscription = subscriptions.next();
+                    progress.submitted();
+                    executor.execute(() -> {
+                        try {
+                            restoreSubscriptions(restoreRegistry, subscription);
+                            progress.restored();
+                        } catch (Exception e) {
+                            logger.error(String.format("Failed to restore subscription %s: %s",
+                                    subscription.getConversationId(), e.getMessage()), e);
+                            progress.failed(subscription.getConversationId());
+                        }
+                    });
                 }
             }
+        } finally {
+            // queued subscriptions are still restored, threads exit afterwards
+            if (executor != null) {
+                executor.shutdown();
+            }
+            // also if the registry failed, so the component doesn't stay not ready forever
+            progress.allSubmitted();
         }
 
-        logger.debug("ARM state has been restored successfully.");
+        logger.debug("Restoration of ARM state has been started.");
+    }
+
+    /**
+     * Bounded executor; when its queue is full, the thread iterating over subscriptions restores them itself.
+     */
+    private ExecutorService createRestoreExecutor() {
+        String parallelismProperty = configuration.getProperty(RESTORE_PARALLELISM_PROPERTY);
+        int parallelism = parallelismProperty != null && !parallelismProperty.trim().isEmpty() ?
+                Math.max(Integer.parseInt(parallelismProperty.trim()), 1) : DEFAULT_RESTORE_PARALLELISM;
+        AtomicInteger threadCount = new AtomicInteger();
+        return new ThreadPoolExecutor(parallelism, parallelism, 0, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(parallelism * 100), runnable -> {
+            Thread thread = new Thread(runnable, "arm-restore-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }, new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    /**
+     * Unwraps registry failures raised while loading the next page of a registry listing.
+     */
+    private static boolean hasNext(Iterator<?> iterator) throws MiddlewareException {
+        try {
+            return iterator.hasNext();
+        } catch (IllegalStateException e) {
+            if (e.getCause() instanceof MiddlewareException) {
+                throw (MiddlewareException) e.getCause();
+            }
+            throw e;
+        }
     }
 
-    private void restoreSubscriptions(Subscription subscription) throws MiddlewareException {
+    private void restoreSubscriptions(ParliamentRegistry restoreRegistry, Subscription subscription) throws MiddlewareException {
         logger.debug("Restoring subscription {} for client {}...", subscription.getConversationId(), subscription.getClientId());
-        List<IoTDevice> devices = registry.getDevices(subscription.getDeviceIds());
+        List<IoTDevice> devices = restoreRegistry.getDevices(subscription.getDeviceIds());
         if (devices.isEmpty()) {
             throw new MiddlewareException(String.format("No devices found corresponding to subscription %s.", subscription.getConversationId()));
         }
@@ -45,7 +45,8 @@ import java.util.List;
 public interface Publisher<M> extends Service<M> {
 
     /**
-     * Publishes a message
+     * Publishes a message. Publishers are shared by several threads (e.g. worker lanes), so implementations must be
+     * thread-safe.
      *
      * @param message The message to be published
      * @throws BrokerException
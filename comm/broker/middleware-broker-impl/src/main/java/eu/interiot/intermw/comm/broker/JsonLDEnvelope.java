@@ -0,0 +1,352 @@
+/*
+ * Copyright 2016-2018 Universitat Politècnica de València
+ * Copyright 2016-2018 Università della Calabria
+ * Copyright 2016-2018 Prodevelop, SL
+ * Copyright 2016-2018 Technische Universiteit Eindhoven
+ * Copyright 2016-2018 Fundación de la Comunidad Valenciana para la
+ * Investigación, Promoción y Estudios Comerciales de Valenciaport
+ * Copyright 2016-2018 Rinicom Ltd
+ * Copyright 2016-2018 Association pour le développement de la formation
+ * professionnelle dans le transport
+ * Copyright 2016-2018 Noatum Ports Valenciana, S.A.U.
+ * Copyright 2016-2018 XLAB razvoj programske opreme in svetovanje d.o.o.
+ * Copyright 2016-2018 Systems Research Institute Polish Academy of Sciences
+ * Copyright 2016-2018 Azienda Sanitaria Locale TO5
+ * Copyright 2016-2018 Alessandro Bassi Consulting SARL
+ * Copyright 2016-2018 Neways Technologies B.V.
+ *
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.interiot.intermw.comm.broker;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The named graph layout of a serialized JSON-LD message, split into raw JSON fragments without building an RDF
+ * model.
+ * <p>
+ * A message is serialized as a dataset with a metadata and a payload named graph, identified by the
+ * {@link #METADATA_GRAPH} and {@link #PAYLOAD_GRAPH} IRIs (usually written as compact IRIs). The envelope only
+ * locates the boundaries of those graphs and of the <code>@context</code>, so the payload fragment can be forwarded
+ * verbatim while the (small) metadata graph is decoded on its own.
+ * <p>
+ * Blank node labels are scoped to the whole document, so graphs may only be taken apart and joined again as long as
+ * the metadata graph doesn't use any (see {@link #hasBlankNodeLabels(String)}).
+ */
+final class JsonLDEnvelope {
+    private static final String GRAPH = "@graph";
+    private static final String ID = "@id";
+    private static final String CONTEXT = "@context";
+    private static final String BLANK_NODE_PREFIX = "_:";
+    static final String METADATA_GRAPH = "http://inter-iot.eu/message/metadata";
+    static final String PAYLOAD_GRAPH = "http://inter-iot.eu/message/payload";
+
+    private final String context;
+    private final String metadata;
+    private final String payload;
+
+    private JsonLDEnvelope(String context, String metadata, String payload) {
+        this.context = context;
+        this.metadata = metadata;
+        this.payload = payload;
+    }
+
+    /**
+     * Splits a serialized message into its named graphs.
+     *
+     * @return the envelope or <code>null</code> if the document doesn't have the expected layout
+     */
+    static JsonLDEnvelope parse(String json) {
+        try {
+            Map<String, Member> members = new Scanner(json).readObject();
+            Member context = members.get(CONTEXT);
+
+            List<String> graphs = new ArrayList<>();
+            if (members.containsKey(ID)) {
+                // a single named graph is compacted to the top level
+                StringBuilder graph = new StringBuilder("{");
+                for (Member member : members.values()) {
+                    if (member != context) {
+                        graph.append(graph.length() > 1 ? "," : "").append(member.raw);
+                    }
+                }
+                graphs.add(graph.append('}').toString());
+
+            } else if (members.containsKey(GRAPH) && members.size() == (context != null ? 2 : 1)) {
+                graphs.addAll(new Scanner(members.get(GRAPH).value).readArray());
+
+            } else {
+                return null;
+            }
+
+            JsonElement contextTerms = context != null ? new JsonParser().parse(context.value) : null;
+            String metadata = null;
+            String payload = null;
+            for (String graph : graphs) {
+                Member id = new Scanner(graph).readObject().get(ID);
+                String graphId = id != null
+                        ? expandIri(new JsonParser().parse(id.value).getAsString(), contextTerms) : "";
+                if (graphId.equals(METADATA_GRAPH) && metadata == null) {
+                    metadata = graph;
+                } else if (graphId.equals(PAYLOAD_GRAPH) && payload == null) {
+                    payload = graph;
+                } else {
+                    return null;
+                }
+            }
+            if (metadata == null) {
+                return null;
+            }
+
+            return new JsonLDEnvelope(context != null ? context.value : null, metadata, payload);
+
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Expands a compact IRI using the prefixes defined in the given <code>@context</code>. Other IRIs are returned as
+     * they are.
+     */
+    private static String expandIri(String iri, JsonElement context) {
+        int colon = iri.indexOf(':');
+        if (colon < 0 || context == null || !context.isJsonObject() || iri.startsWith("//", colon + 1)) {
+            return iri;
+        }
+        JsonElement prefix = context.getAsJsonObject().get(iri.substring(0, colon));
+        if (prefix != null && prefix.isJsonObject()) {
+            prefix = prefix.getAsJsonObject().get(ID);
+        }
+        if (prefix == null || !prefix.isJsonPrimitive()) {
+            return iri;
+        }
+        return prefix.getAsString() + iri.substring(colon + 1);
+    }
+
+    /**
+     * Checks whether a JSON-LD fragment contains (or may contain) labelled blank nodes. Any string starting with
+     * <code>_:</code> is taken as a blank node label.
+     */
+    static boolean hasBlankNodeLabels(String json) {
+        Scanner scanner = new Scanner(json);
+        while (scanner.nextString()) {
+            if (json.startsWith(BLANK_NODE_PREFIX, scanner.pos + 1)) {
+                return true;
+            }
+            scanner.skipString();
+        }
+        return false;
+    }
+
+    String getMetadata() {
+        return metadata;
+    }
+
+    String getPayload() {
+        return payload;
+    }
+
+    /**
+     * A document holding only the metadata graph of this envelope.
+     */
+    String metadataDocument() {
+        return document(metadata, null);
+    }
+
+    /**
+     * A document with the payload graph of this envelope and the given metadata graph. The metadata graph must not
+     * use blank node labels, as they could clash with the labels of the payload graph.
+     */
+    String withMetadata(String metadata) {
+        return document(metadata, payload);
+    }
+
+    /**
+     * Checks whether the <code>@context</code> of this envelope defines every term of the other one the same way,
+     * i.e. whether a graph serialized with the other context can be embedded in this document.
+     */
+    boolean contextCovers(JsonLDEnvelope other) {
+        if (other.context == null || other.context.equals(context)) {
+            return true;
+        }
+        if (context == null) {
+            return false;
+        }
+        JsonParser parser = new JsonParser();
+        JsonElement ours = parser.parse(context);
+        JsonElement theirs = parser.parse(other.context);
+        if (!ours.isJsonObject() || !theirs.isJsonObject()) {
+            return ours.equals(theirs);
+        }
+        JsonObject ourTerms = ours.getAsJsonObject();
+        for (Map.Entry<String, JsonElement> term : theirs.getAsJsonObject().entrySet()) {
+            if (!term.getValue().equals(ourTerms.get(term.getKey()))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String document(String metadata, String payload) {
+        StringBuilder document = new StringBuilder("{\"").append(GRAPH).append("\":[").append(metadata);
+        if (payload != null) {
+            document.append(',').append(payload);
+        }
+        document.append(']');
+        if (context != null) {
+            document.append(",\"").append(CONTEXT).append("\":").append(context);
+        }
+        return document.append('}').toString();
+    }
+
+    private static class Member {
+        private final String raw;
+        private final String value;
+
+        private Member(String raw, String value) {
+            this.raw = raw;
+            this.value = value;
+        }
+    }
+
+    /**
+     * Finds the boundaries of JSON values without materializing them.
+     */
+    private static class Scanner {
+        private final String json;
+        private int pos;
+
+        private Scanner(String json) {
+            this.json = json;
+        }
+
+        private Map<String, Member> readObject() {
+            Map<String, Member> members = new LinkedHashMap<>();
+            expect('{');
+            if (peek() == '}') {
+                pos++;
+                return members;
+            }
+            do {
+                skipWhitespace();
+                int start = pos;
+                String key = new JsonParser().parse(json.substring(start, skipString())).getAsString();
+                expect(':');
+                skipWhitespace();
+                int valueStart = pos;
+                skipValue();
+                members.put(key, new Member(json.substring(start, pos), json.substring(valueStart, pos)));
+            } while (next(','));
+            expect('}');
+            return members;
+        }
+
+        private List<String> readArray() {
+            List<String> elements = new ArrayList<>();
+            expect('[');
+            if (peek() == ']') {
+                pos++;
+                return elements;
+            }
+            do {
+                skipWhitespace();
+                int start = pos;
+                skipValue();
+                elements.add(json.substring(start, pos));
+            } while (next(','));
+            expect(']');
+            return elements;
+        }
+
+        private void skipValue() {
+            char c = json.charAt(pos);
+            if (c == '"') {
+                skipString();
+            } else if (c == '{' || c == '[') {
+                int depth = 0;
+                do {
+                    c = json.charAt(pos);
+                    if (c == '"') {
+                        skipString();
+                        continue;
+                    }
+                    if (c == '{' || c == '[') {
+                        depth++;
+                    } else if (c == '}' || c == ']') {
+                        depth--;
+                    }
+                    pos++;
+                } while (depth > 0);
+            } else {
+                while (pos < json.length() && ",}] \t\r\n".indexOf(json.charAt(pos)) < 0) {
+                    pos++;
+                }
+            }
+        }
+
+        /**
+         * Moves to the start of the next string, returns <code>false</code> if there is none.
+         */
+        private boolean nextString() {
+            while (pos < json.length() && json.charAt(pos) != '"') {
+                pos++;
+            }
+            return pos < json.length();
+        }
+
+        private int skipString() {
+            pos++;
+            while (json.charAt(pos) != '"') {
+                pos += json.charAt(pos) == '\\' ? 2 : 1;
+            }
+            return ++pos;
+        }
+
+        private boolean next(char c) {
+            if (peek() == c) {
+                pos++;
+                return true;
+            }
+            return false;
+        }
+
+        private void expect(char c) {
+            if (peek() != c) {
+                throw new IllegalArgumentException("Expected '" + c + "' at position " + pos + ".");
+            }
+            pos++;
+        }
+
+        private char peek() {
+            skipWhitespace();
+            return json.charAt(pos);
+        }
+
+        private void skipWhitespace() {
+            while (pos < json.length() && Character.isWhitespace(json.charAt(pos))) {
+                pos++;
+            }
+        }
+    }
+}
@@ -74,13 +74,12 @@ public class JsonLDSerializer<M> implements Serializer<M> {
 
     /**
      * {@inheritDoc}
+     * <p>
+     * Only the message metadata is decoded here, the payload is decoded when it is first accessed (see
+     * {@link LazyMessage}).
      */
     @Override
     public synchronized M deserialize(String message, Class<M> type) throws BrokerException {
-        try {
-            return (M) new Message(message);
-        } catch (Exception e) {
-            throw new BrokerException("Failed to deserialize message from JSON-LD.", e);
-        }
+        return (M) LazyMessage.deserialize(message);
     }
 }
@@ -0,0 +1,157 @@
+/*
+ * Copyright 2016-2018 Universitat Politècnica de València
+ * Copyright 2016-2018 Università della Calabria
+ * Copyright 2016-2018 Prodevelop, SL
+ * Copyright 2016-2018 Technische Universiteit Eindhoven
+ * Copyright 2016-2018 Fundación de la Comunidad Valenciana para la
+ * Investigación, Promoción y Estudios Comerciales de Valenciaport
+ * Copyright 2016-2018 Rinicom Ltd
+ * Copyright 2016-2018 Association pour le développement de la formation
+ * professionnelle dans le transport
+ * Copyright 2016-2018 Noatum Ports Valenciana, S.A.U.
+ * Copyright 2016-2018 XLAB razvoj programske opreme in svetovanje d.o.o.
+ * Copyright 2016-2018 Systems Research Institute Polish Academy of Sciences
+ * Copyright 2016-2018 Azienda Sanitaria Locale TO5
+ * Copyright 2016-2018 Alessandro Bassi Consulting SARL
+ * Copyright 2016-2018 Neways Technologies B.V.
+ *
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.interiot.intermw.comm.broker;
+
+import eu.interiot.intermw.comm.broker.exceptions.BrokerException;
+import eu.interiot.message.Message;
+import eu.interiot.message.MessagePayload;
+import eu.interiot.message.payload.GOIoTPPayload;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+
+/**
+ * A {@link Message} received from the broker whose payload is decoded on first use.
+ * <p>
+ * Most hops only route messages by their metadata (message types, platform IDs, conversation ID), so only the
+ * metadata graph is decoded when the message is received. The payload graph is kept as the original JSON-LD text and
+ * is decoded the first time it is accessed. As long as the payload hasn't been touched, serializing the message
+ * forwards the original payload untouched (together with the current, possibly modified, metadata) and the original
+ * text is returned as is if the metadata hasn't changed either.
+ * <p>
+ * Messages whose metadata graph uses blank node labels are always decoded and serialized as a whole, because the
+ * labels are shared with the payload graph and would clash when the graphs are joined again.
+ */
+public class LazyMessage extends Message {
+    private final static Logger log = LoggerFactory.getLogger(LazyMessage.class);
+
+    private final String serialized;
+    private final JsonLDEnvelope envelope;
+    private boolean payloadDecoded;
+    private boolean serializingMetadata;
+
+    private LazyMessage(String serialized, JsonLDEnvelope envelope, Message metadataMessage) {
+        super();
+        this.serialized = serialized;
+        this.envelope = envelope;
+        this.payloadDecoded = false;
+        setMetadata(metadataMessage.getMetadata());
+    }
+
+    /**
+     * Deserializes a JSON-LD message, deferring payload decoding when the document has the usual metadata and
+     * payload graph layout and the metadata graph has no blank node labels. Other documents are fully decoded.
+     */
+    public static Message deserialize(String serialized) throws BrokerException {
+        try {
+            JsonLDEnvelope envelope = JsonLDEnvelope.parse(serialized);
+            if (envelope == null) {
+                log.warn("Message doesn't have the expected metadata and payload graph layout, decoding it fully.");
+                return new Message(serialized);
+            }
+            if (envelope.getPayload() == null || JsonLDEnvelope.hasBlankNodeLabels(envelope.getMetadata())) {
+                return new Message(serialized);
+            }
+            return new LazyMessage(serialized, envelope, new Message(envelope.metadataDocument()));
+
+        } catch (Exception e) {
+            throw new BrokerException("Failed to deserialize message from JSON-LD.", e);
+        }
+    }
+
+    /**
+     * Returns <code>true</code> if the payload graph has been decoded (or replaced) since the message was received.
+     */
+    public synchronized boolean isPayloadDecoded() {
+        return payloadDecoded;
+    }
+
+    @Override
+    public MessagePayload getPayload() {
+        decodePayload();
+        return super.getPayload();
+    }
+
+    @Override
+    public GOIoTPPayload getPayloadAsGOIoTPPayload() {
+        decodePayload();
+        return super.getPayloadAsGOIoTPPayload();
+    }
+
+    @Override
+    public synchronized void setPayload(MessagePayload payload) {
+        payloadDecoded = true;
+        super.setPayload(payload);
+    }
+
+    @Override
+    public synchronized String serializeToJSONLD() throws IOException {
+        if (payloadDecoded) {
+            return super.serializeToJSONLD();
+        }
+
+        String metadataDocument;
+        serializingMetadata = true;
+        try {
+            metadataDocument = super.serializeToJSONLD();
+        } finally {
+            serializingMetadata = false;
+        }
+
+        JsonLDEnvelope current = JsonLDEnvelope.parse(metadataDocument);
+        if (current != null && current.getMetadata().equals(envelope.getMetadata())) {
+            return serialized;
+        }
+        if (current == null || !envelope.contextCovers(current)
+                || JsonLDEnvelope.hasBlankNodeLabels(current.getMetadata())) {
+            log.debug("Metadata can't be joined with the original payload, serializing the whole message.");
+            decodePayload();
+            return super.serializeToJSONLD();
+        }
+        return envelope.withMetadata(current.getMetadata());
+    }
+
+    private synchronized void decodePayload() {
+        // the base class may access the payload while it is being constructed or while serializing the metadata
+        if (payloadDecoded || envelope == null || serializingMetadata) {
+            return;
+        }
+        try {
+            super.setPayload(new Message(serialized).getPayload());
+        } catch (Exception e) {
+            throw new IllegalStateException("Failed to decode message payload from JSON-LD.", e);
+        }
+        payloadDecoded = true;
+    }
+}
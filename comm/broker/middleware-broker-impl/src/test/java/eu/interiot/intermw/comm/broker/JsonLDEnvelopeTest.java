@@ -0,0 +1,117 @@
+/*
+ * Copyright 2016-2018 Universitat Politècnica de València
+ * Copyright 2016-2018 Università della Calabria
+ * Copyright 2016-2018 Prodevelop, SL
+ * Copyright 2016-2018 Technische Universiteit Eindhoven
+ * Copyright 2016-2018 Fundación de la Comunidad Valenciana para la
+ * Investigación, Promoción y Estudios Comerciales de Valenciaport
+ * Copyright 2016-2018 Rinicom Ltd
+ * Copyright 2016-2018 Association pour le développement de la formation
+ * professionnelle dans le transport
+ * Copyright 2016-2018 Noatum Ports Valenciana, S.A.U.
+ * Copyright 2016-2018 XLAB razvoj programske opreme in svetovanje d.o.o.
+ * Copyright 2016-2018 Systems Research Institute Polish Academy of Sciences
+ * Copyright 2016-2018 Azienda Sanitaria Locale TO5
+ * Copyright 2016-2018 Alessandro Bassi Consulting SARL
+ * Copyright 2016-2018 Neways Technologies B.V.
+ *
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.interiot.intermw.comm.broker;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class JsonLDEnvelopeTest {
+    private static final String CONTEXT = "{\"msg\":\"http://inter-iot.eu/message/\",\"sosa\":\"http://www.w3.org/ns/sosa/\"}";
+    private static final String METADATA = "{\"@graph\":[{\"@id\":\"msg:meta/1\",\"msg:conversationID\":\"conv1\"}],"
+            + "\"@id\":\"msg:metadata\"}";
+    private static final String PAYLOAD = "{ \"@graph\" : [ { \"@id\" : \"sosa:obs1\", \"sosa:hasSimpleResult\" : "
+            + "\"a \\\"quoted\\\" ] value }\" } ],\n  \"@id\" : \"msg:payload\" }";
+    private static final String MESSAGE = "{\n  \"@graph\" : [ " + METADATA + ", " + PAYLOAD + " ],\n"
+            + "  \"@context\" : " + CONTEXT + "\n}";
+
+    @Test
+    public void testParse() {
+        JsonLDEnvelope envelope = JsonLDEnvelope.parse(MESSAGE);
+        assertNotNull(envelope);
+        assertEquals(METADATA, envelope.getMetadata());
+        assertEquals(PAYLOAD, envelope.getPayload());
+        assertEquals("{\"@graph\":[" + METADATA + "],\"@context\":" + CONTEXT + "}", envelope.metadataDocument());
+    }
+
+    @Test
+    public void testParseCompactedSingleGraph() {
+        String metadataOnly = "{\"@graph\":[{\"@id\":\"msg:meta/1\"}],\"@id\":\"msg:metadata\",\"@context\":" + CONTEXT + "}";
+        JsonLDEnvelope envelope = JsonLDEnvelope.parse(metadataOnly);
+        assertNotNull(envelope);
+        assertEquals("{\"@graph\":[{\"@id\":\"msg:meta/1\"}],\"@id\":\"msg:metadata\"}", envelope.getMetadata());
+        assertNull(envelope.getPayload());
+    }
+
+    @Test
+    public void testWithMetadataKeepsPayloadVerbatim() {
+        JsonLDEnvelope envelope = JsonLDEnvelope.parse(MESSAGE);
+        String metadata = "{\"@graph\":[{\"@id\":\"msg:meta/1\",\"msg:conversationID\":\"conv2\"}],\"@id\":\"msg:metadata\"}";
+        String document = envelope.withMetadata(metadata);
+
+        JsonLDEnvelope reparsed = JsonLDEnvelope.parse(document);
+        assertNotNull(reparsed);
+        assertEquals(metadata, reparsed.getMetadata());
+        assertEquals(PAYLOAD, reparsed.getPayload());
+    }
+
+    @Test
+    public void testContextCovers() {
+        JsonLDEnvelope envelope = JsonLDEnvelope.parse(MESSAGE);
+        JsonLDEnvelope subset = JsonLDEnvelope.parse(
+                "{\"@id\":\"msg:metadata\",\"@graph\":[],\"@context\":{\"msg\":\"http://inter-iot.eu/message/\"}}");
+        JsonLDEnvelope conflicting = JsonLDEnvelope.parse(
+                "{\"@id\":\"" + JsonLDEnvelope.METADATA_GRAPH + "\",\"@graph\":[],\"@context\":{\"msg\":\"http://example.com/\"}}");
+        assertTrue(envelope.contextCovers(subset));
+        assertFalse(envelope.contextCovers(conflicting));
+        assertFalse(subset.contextCovers(envelope));
+    }
+
+    @Test
+    public void testParseMatchesGraphIris() {
+        String context = "\"@context\":{\"InterIoT\":\"http://inter-iot.eu/\",\"ex\":{\"@id\":\"http://example.com/\"}}";
+        assertNotNull(JsonLDEnvelope.parse("{\"@graph\":[{\"@id\":\"InterIoT:message/metadata\",\"@graph\":[]},"
+                + "{\"@id\":\"" + JsonLDEnvelope.PAYLOAD_GRAPH + "\",\"@graph\":[]}]," + context + "}"));
+        assertNull(JsonLDEnvelope.parse("{\"@graph\":[{\"@id\":\"InterIoT:message/metadata\",\"@graph\":[]},"
+                + "{\"@id\":\"ex:payload\",\"@graph\":[]}]," + context + "}"));
+        assertNull(JsonLDEnvelope.parse("{\"@graph\":[{\"@id\":\"http://example.com/metadata\",\"@graph\":[]}]}"));
+        assertNull(JsonLDEnvelope.parse("{\"@graph\":[{\"@id\":\"metadata\",\"@graph\":[]}]}"));
+    }
+
+    @Test
+    public void testHasBlankNodeLabels() {
+        assertFalse(JsonLDEnvelope.hasBlankNodeLabels(METADATA));
+        assertFalse(JsonLDEnvelope.hasBlankNodeLabels(PAYLOAD));
+        assertFalse(JsonLDEnvelope.hasBlankNodeLabels("{\"@id\":\"ex:a\",\"ex:value\":\"a \\\"_:b0\\\" value\"}"));
+        assertTrue(JsonLDEnvelope.hasBlankNodeLabels("{\"@id\":\"_:b0\",\"ex:value\":1}"));
+        assertTrue(JsonLDEnvelope.hasBlankNodeLabels("{\"@id\":\"ex:a\",\"ex:result\":{\"@id\":\"_:b1\"}}"));
+    }
+
+    @Test
+    public void testUnexpectedLayout() {
+        assertNull(JsonLDEnvelope.parse("{\"@graph\":[{\"@id\":\"ex:other\",\"@graph\":[]}]}"));
+        assertNull(JsonLDEnvelope.parse("{\"@graph\":[" + PAYLOAD + "]}"));
+        assertNull(JsonLDEnvelope.parse("{\"@graph\":[" + METADATA));
+        assertNull(JsonLDEnvelope.parse("not json"));
+    }
+}
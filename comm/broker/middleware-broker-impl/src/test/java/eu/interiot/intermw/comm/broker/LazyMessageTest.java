@@ -0,0 +1,134 @@
+/*
+ * Copyright 2016-2018 Universitat Politècnica de València
+ * Copyright 2016-2018 Università della Calabria
+ * Copyright 2016-2018 Prodevelop, SL
+ * Copyright 2016-2018 Technische Universiteit Eindhoven
+ * Copyright 2016-2018 Fundación de la Comunidad Valenciana para la
+ * Investigación, Promoción y Estudios Comerciales de Valenciaport
+ * Copyright 2016-2018 Rinicom Ltd
+ * Copyright 2016-2018 Association pour le développement de la formation
+ * professionnelle dans le transport
+ * Copyright 2016-2018 Noatum Ports Valenciana, S.A.U.
+ * Copyright 2016-2018 XLAB razvoj programske opreme in svetovanje d.o.o.
+ * Copyright 2016-2018 Systems Research Institute Polish Academy of Sciences
+ * Copyright 2016-2018 Azienda Sanitaria Locale TO5
+ * Copyright 2016-2018 Alessandro Bassi Consulting SARL
+ * Copyright 2016-2018 Neways Technologies B.V.
+ *
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.interiot.intermw.comm.broker;
+
+import eu.interiot.message.Message;
+import eu.interiot.message.MessagePayload;
+import eu.interiot.message.managers.URI.URIManagerMessageMetadata.MessageTypesEnum;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.rdf.model.Property;
+import org.apache.jena.rdf.model.Resource;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+import static org.junit.Assert.*;
+
+public class LazyMessageTest {
+    private static final String EX = "http://example.com/";
+    private static String observationJson;
+
+    private final JsonLDSerializer<Message> serializer = new JsonLDSerializer<>();
+
+    @BeforeClass
+    public static void beforeClass() throws Exception {
+        observationJson = new String(Files.readAllBytes(
+                Paths.get(LazyMessageTest.class.getClassLoader().getResource("observation.json").toURI())),
+                StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testUnchangedMessageIsForwardedVerbatim() throws Exception {
+        String serialized = serializer.serialize(createMessage("conv1"));
+
+        Message message = serializer.deserialize(serialized, Message.class);
+        assertTrue(message instanceof LazyMessage);
+        assertEquals("conv1", message.getMetadata().getConversationId().get());
+        assertEquals(serialized, serializer.serialize(message));
+        assertFalse(((LazyMessage) message).isPayloadDecoded());
+    }
+
+    @Test
+    public void testChangedMetadataKeepsPayload() throws Exception {
+        Message original = createMessage("conv1");
+        Message message = serializer.deserialize(serializer.serialize(original), Message.class);
+        message.getMetadata().setConversationId("conv2");
+
+        Message forwarded = new Message(serializer.serialize(message));
+        assertFalse(((LazyMessage) message).isPayloadDecoded());
+        assertEquals("conv2", forwarded.getMetadata().getConversationId().get());
+        assertTrue(original.getPayload().getJenaModel().isIsomorphicWith(forwarded.getPayload().getJenaModel()));
+    }
+
+    @Test
+    public void testPayloadIsDecodedOnAccess() throws Exception {
+        Message original = createMessage("conv1");
+        Message message = serializer.deserialize(serializer.serialize(original), Message.class);
+
+        assertTrue(original.getPayload().getJenaModel().isIsomorphicWith(message.getPayload().getJenaModel()));
+        assertTrue(((LazyMessage) message).isPayloadDecoded());
+
+        message.getMetadata().setConversationId("conv2");
+        Message forwarded = new Message(serializer.serialize(message));
+        assertEquals("conv2", forwarded.getMetadata().getConversationId().get());
+        assertTrue(original.getPayload().getJenaModel().isIsomorphicWith(forwarded.getPayload().getJenaModel()));
+    }
+
+    @Test
+    public void testBlankNodePayloadOfReceivedMessage() throws Exception {
+        Message original = new Message(observationJson);
+        Message message = serializer.deserialize(observationJson, Message.class);
+        assertTrue(message instanceof LazyMessage);
+
+        message.getMetadata().setConversationId("conv2");
+        Message forwarded = new Message(serializer.serialize(message));
+        assertFalse(((LazyMessage) message).isPayloadDecoded());
+        assertEquals("conv2", forwarded.getMetadata().getConversationId().get());
+        assertEquals(original.getMetadata().getMessageID(), forwarded.getMetadata().getMessageID());
+        assertTrue(original.getPayload().getJenaModel().isIsomorphicWith(forwarded.getPayload().getJenaModel()));
+    }
+
+    /**
+     * An observation whose results are blank nodes, so the payload graph uses blank node labels.
+     */
+    private static Message createMessage(String conversationId) {
+        Model model = ModelFactory.createDefaultModel();
+        Property hasResult = model.createProperty(EX, "hasResult");
+        Property hasValue = model.createProperty(EX, "hasValue");
+        for (int i = 0; i < 3; i++) {
+            Resource result = model.createResource();
+            result.addProperty(hasValue, "value" + i);
+            model.createResource(EX + "observation" + i).addProperty(hasResult, result);
+        }
+
+        Message message = new Message();
+        message.getMetadata().addMessageType(MessageTypesEnum.OBSERVATION);
+        message.getMetadata().setConversationId(conversationId);
+        message.setPayload(new MessagePayload(model));
+        return message;
+    }
+}
@@ -67,7 +67,7 @@ public class PublisherImpl<M> extends AbstractActiveMQService<M> implements Publ
     }
 
     @Override
-    public void publish(M message) throws BrokerException {
+    public synchronized void publish(M message) throws BrokerException {
         topic.setMessage(message);
         ObjectMessage objectMessage;
         try {
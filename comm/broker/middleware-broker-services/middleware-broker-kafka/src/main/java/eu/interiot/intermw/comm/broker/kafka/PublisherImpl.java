@@ -105,7 +105,7 @@ public class PublisherImpl<M> extends AbstractKafkaService<M> implements Publish
      * {@inheritDoc}
      */
     @Override
-    public void publish(M message) throws BrokerException {
+    public synchronized void publish(M message) throws BrokerException {
         if (producer == null) {
             throw new BrokerException(
                     "Producer is null! Cannot publish any message. Please check your client configuration");
@@ -65,7 +65,7 @@ public class PublisherImpl<M> extends AbstractMQTTService<M> implements Publishe
      * {@inheritDoc}
      */
     @Override
-    public void publish(M message) throws BrokerException {
+    public synchronized void publish(M message) throws BrokerException {
         try {
             this.topic.setMessage(message);
             MqttMessage mqttMessage = new MqttMessage(this.topic.serialize().getBytes());
@@ -90,7 +90,7 @@ public class PublisherImpl<M> extends AbstractRabbitService<M> implements Publis
      * {@inheritDoc}
      */
     @Override
-    public void publish(M message) throws BrokerException {
+    public synchronized void publish(M message) throws BrokerException {
         try {
             topic.setMessage(message);
             List<String> routingKeys = topic.getPublishingRoutings();
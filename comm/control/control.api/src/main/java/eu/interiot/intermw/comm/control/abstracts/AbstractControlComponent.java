@@ -42,10 +42,10 @@ import eu.interiot.message.Message;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * INTER-IoT. Interoperability of IoT Platforms.
@@ -74,8 +74,8 @@ import java.util.Map;
 public abstract class AbstractControlComponent implements ControlComponent {
     private final static Logger logger = LoggerFactory.getLogger(AbstractControlComponent.class);
 
-    private final Map<String, Publisher> publishers = new HashMap<String, Publisher>();
-    private final Map<String, List<Subscriber>> subscribers = new HashMap<String, List<Subscriber>>();
+    private final Map<String, Publisher> publishers = new ConcurrentHashMap<>();
+    private final Map<String, List<Subscriber>> subscribers = new ConcurrentHashMap<>();
     private ErrorReporter errorReporter;
 
     /**
@@ -125,15 +125,19 @@ public abstract class AbstractControlComponent implements ControlComponent {
      *                             {@link Publisher} instance
      */
     public <M> Publisher<M> getPublisher(String topicName, Class<M> messageClass, String brokerImplementation) throws MiddlewareException {
-        Publisher<M> publisher;
-
-        if (publishers.containsKey(topicName)) {
-            publisher = publishers.get(topicName);
-        } else {
-            Broker broker = BrokerContext.getBroker(brokerImplementation);
-            publisher = broker.createPublisher(topicName, messageClass);
-            publishers.put(topicName, publisher);
-            logger.debug("Create publisher for " + topicName);
+        Publisher<M> publisher = publishers.get(topicName);
+
+        if (publisher == null) {
+            // publishers may be requested concurrently, e.g. from the PRM worker lanes
+            synchronized (publishers) {
+                publisher = publishers.get(topicName);
+                if (publisher == null) {
+                    Broker broker = BrokerContext.getBroker(brokerImplementation);
+                    publisher = broker.createPublisher(topicName, messageClass);
+                    publishers.put(topicName, publisher);
+                    logger.debug("Create publisher for " + topicName);
+                }
+            }
         }
 
         return publisher;
@@ -185,12 +189,8 @@ public abstract class AbstractControlComponent implements ControlComponent {
             logger.info("Subscribing to topic {}...", topicName);
             Broker broker = BrokerContext.getBroker(brokerImplementation);
             Subscriber<M> subscriber = broker.createSubscriber(topicName, messageClass);
-            List<Subscriber> subscribersByTopic = subscribers.get(topicName);
-
-            if (subscribersByTopic == null) {
-                subscribersByTopic = new ArrayList<Subscriber>();
-                subscribers.put(topicName, subscribersByTopic);
-            }
+            // platforms may be registered and unregistered concurrently, e.g. from the IPSMRM worker lanes
+            List<Subscriber> subscribersByTopic = subscribers.computeIfAbsent(topicName, topic -> new CopyOnWriteArrayList<>());
 
             subscriber.subscribe(listener);
             subscribersByTopic.add(subscriber);
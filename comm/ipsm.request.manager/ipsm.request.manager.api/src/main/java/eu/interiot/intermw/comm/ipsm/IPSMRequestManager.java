@@ -32,6 +32,11 @@
  */
 package eu.interiot.intermw.comm.ipsm;
 
+import eu.interiot.intermw.commons.model.IPSMChannelStatistics;
+import eu.interiot.intermw.commons.model.LaneStatistics;
+
+import java.util.List;
+
 /**
  * IPSM Request Manager Interface
  *
@@ -39,4 +44,13 @@ package eu.interiot.intermw.comm.ipsm;
  */
 public interface IPSMRequestManager {
 
+    /**
+     * @return load and parallelism of the IPSM translation channels
+     */
+    List<IPSMChannelStatistics> getChannelStatistics();
+
+    /**
+     * @return backlog and throughput of the downstream and upstream message processing lanes
+     */
+    List<LaneStatistics> getLaneStatistics();
 }
@@ -32,15 +32,22 @@
  */
 package eu.interiot.intermw.comm.ipsm;
 
+import eu.interiot.intermw.bridge.BridgeRoutes;
 import eu.interiot.intermw.comm.broker.Publisher;
 import eu.interiot.intermw.comm.control.abstracts.AbstractControlComponent;
+import eu.interiot.intermw.comm.ipsm.translation.LocalTranslationEngine;
+import eu.interiot.intermw.comm.ipsm.translation.Translation;
+import eu.interiot.intermw.commons.LaneExecutor;
 import eu.interiot.intermw.commons.exceptions.ErrorCode;
 import eu.interiot.intermw.commons.exceptions.MiddlewareException;
 import eu.interiot.intermw.commons.interfaces.Configuration;
+import eu.interiot.intermw.commons.model.IPSMChannelStatistics;
+import eu.interiot.intermw.commons.model.LaneStatistics;
 import eu.interiot.intermw.commons.model.Platform;
 import eu.interiot.intermw.commons.model.enums.BrokerTopics;
 import eu.interiot.intermw.commons.requests.RegisterPlatformReq;
 import eu.interiot.intermw.commons.requests.UpdatePlatformReq;
+import eu.interiot.intermw.services.registry.ParliamentRegistry;
 import eu.interiot.message.Message;
 import eu.interiot.message.MessageMetadata;
 import eu.interiot.message.managers.URI.URIManagerMessageMetadata.MessageTypesEnum;
@@ -48,6 +55,9 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 /**
  * The IPSM Request Manager routes messages towards Sripas's or trivial IPSM for translation,
@@ -60,10 +70,40 @@ import java.util.*;
 public class DefaultIPSMRequestManager extends AbstractControlComponent implements IPSMRequestManager {
     private final static Logger logger = LoggerFactory.getLogger(DefaultIPSMRequestManager.class);
     private final static String IPSM_BROKER_TYPE = "kafka";
+    private final static String DIRECT_ROUTING_PROPERTY = "ipsmrm.directRouting";
+    private final static String LOCAL_TRANSLATION_PROPERTY = "ipsmrm.localTranslation";
+    private static final long LANE_SHUTDOWN_TIMEOUT = 30000;
     private Publisher<Message> publisherPRM;
     private Publisher<Message> publisherARM;
     private IPSMApiClient ipsmApiClient;
-    private Map<String, IPSMRoutingInfo> ipsmRoutingTable;
+    private IPSMChannelScaler channelScaler;
+    /**
+     * Routing information by platform ID. Entries are added and removed by the lanes of the platform and read by
+     * all lanes and IPSM listeners.
+     */
+    private final Map<String, IPSMRoutingInfo> ipsmRoutingTable = new ConcurrentHashMap<>();
+    /**
+     * Platforms whose IPSM channels have been set up at startup, by platform ID. An entry is used by the first
+     * registration of the platform only.
+     */
+    private final Map<String, Platform> reconciledPlatforms = new ConcurrentHashMap<>();
+    /**
+     * Worker lanes for messages going to platforms (from PRM), partitioned by platform ID
+     */
+    private LaneExecutor downstreamLanes;
+    private DownstreamDispatcher downstreamDispatcher;
+    /**
+     * Worker lanes for messages coming from platforms (from bridges), partitioned by platform ID
+     */
+    private LaneExecutor upstreamLanes;
+    /**
+     * Whether messages not needing IPSM translation may bypass IPSMRM, see {@link BridgeRoutes}
+     */
+    private boolean directRouting;
+    /**
+     * Translates messages in-process for alignments it supports, <code>null</code> if local translation is disabled
+     */
+    private LocalTranslationEngine localTranslationEngine;
 
     /**
      * @param configuration The configuration for this ipsm request manager
@@ -73,12 +113,51 @@ public class DefaultIPSMRequestManager extends AbstractControlComponent implemen
         logger.debug("DefaultIPSMRequestManager is initializing...");
         publisherPRM = getPublisher(BrokerTopics.IPSMRM_PRM.getTopicName(), Message.class);
         publisherARM = getPublisher(BrokerTopics.PRM_ARM.getTopicName(), Message.class);
-        ipsmApiClient = new IPSMApiClient(configuration.getIPSMApiBaseUrl());
+        ipsmApiClient = new IPSMApiClient(configuration);
+        channelScaler = new IPSMChannelScaler(configuration, ipsmApiClient, this::publishToIPSM);
+        ipsmApiClient.setParallelismPolicy(channelScaler);
+        reconcileIPSMChannels(configuration);
+        String directRoutingProperty = configuration.getProperty(DIRECT_ROUTING_PROPERTY);
+        directRouting = directRoutingProperty == null || Boolean.parseBoolean(directRoutingProperty);
+        if (Boolean.parseBoolean(configuration.getProperty(LOCAL_TRANSLATION_PROPERTY))) {
+            localTranslationEngine = new LocalTranslationEngine(ipsmApiClient::getAlignment);
+        }
+        downstreamLanes = LaneExecutor.create("ipsmrm-downstream", configuration, "ipsmrm.downstream.");
+        downstreamDispatcher = new DownstreamDispatcher(downstreamLanes, this::handleFromPRM,
+                this::reportDownstreamFailure);
+        upstreamLanes = LaneExecutor.create("ipsmrm-upstream", configuration, "ipsmrm.upstream.");
         setUpListeners();
-        ipsmRoutingTable = new HashMap<>();
         logger.debug("DefaultIPSMRequestManager has been initialized successfully.");
     }
 
+    /**
+     * Sets up the IPSM channels of all registered platforms in one go (one channel listing, changes applied in
+     * parallel), so the platform registrations PRM sends when restoring its state find their channels in place.
+     */
+    private void reconcileIPSMChannels(Configuration configuration) {
+        try {
+            List<Platform> platforms = new ParliamentRegistry(configuration).listPlatforms().stream()
+                    .filter(DefaultIPSMRequestManager::hasAlignments)
+                    .collect(Collectors.toList());
+            if (platforms.isEmpty()) {
+                return;
+            }
+            Map<String, MiddlewareException> errors = ipsmApiClient.reconcileChannels(platforms);
+            for (Map.Entry<String, MiddlewareException> error : errors.entrySet()) {
+                logger.error(String.format("Failed to set up IPSM channels for platform %s: %s",
+                        error.getKey(), error.getValue().getMessage()), error.getValue());
+            }
+            for (Platform platform : platforms) {
+                if (!errors.containsKey(platform.getPlatformId())) {
+                    reconciledPlatforms.put(platform.getPlatformId(), platform);
+                }
+            }
+
+        } catch (Exception e) {
+            logger.error("Failed to set up IPSM channels of registered platforms: " + e.getMessage(), e);
+        }
+    }
+
     private String getTopicIpsmrmToBridge(String platformId) {
         return BrokerTopics.IPSMRM_BRIDGE.getTopicName(platformId);
     }
@@ -221,17 +300,15 @@ public class DefaultIPSMRequestManager extends AbstractControlComponent implemen
         IPSMRoutingInfo ipsmRoutingInfo = new IPSMRoutingInfo();
         ipsmRoutingTable.put(platformId, ipsmRoutingInfo);
 
-        if (platform.getDownstreamInputAlignmentName().isEmpty() &&
-                platform.getDownstreamOutputAlignmentName().isEmpty() &&
-                platform.getUpstreamInputAlignmentName().isEmpty() &&
-                platform.getUpstreamOutputAlignmentName().isEmpty()) {
-
-            ipsmRoutingInfo.useIPSMDownstream = false;
-            ipsmRoutingInfo.useIPSMUpstream = false;
-
-        } else {
-            ipsmApiClient.setupChannelsForPlatform(platform);
+        if (hasAlignments(platform)) {
+            Platform reconciledPlatform = reconciledPlatforms.remove(platformId);
+            if (reconciledPlatform != null && hasSameAlignments(reconciledPlatform, platform)) {
+                logger.debug("IPSM channels for platform {} have been set up at startup.", platformId);
+            } else {
+                ipsmApiClient.setupChannelsForPlatform(platform);
+            }
             setupIPSMPublishersSubscribers(platform);
+            setupLocalTranslations(platform);
         }
 
         // create publisher (RabbitMQ) for messages going downstream from IPSMRM to bridge
@@ -243,35 +320,81 @@ public class DefaultIPSMRequestManager extends AbstractControlComponent implemen
         String bridgeToIpsmrmTopic = getTopicBridgeToIpsmrm(platformId);
         logger.debug("Creating subscriber for queue {} (bridge -> IPSMRM) for the platform {}.", bridgeToIpsmrmTopic, platformId);
         subscribe(bridgeToIpsmrmTopic, message -> {
-            try {
-                logger.debug("Received upstream message of type {} from the bridge (from queue {}) with ID {} and conversationId {} from platform {}.",
-                        message.getMetadata().getMessageTypes(),
-                        bridgeToIpsmrmTopic,
-                        message.getMetadata().getMessageID().orElse(null),
-                        message.getMetadata().getConversationId().orElse(null),
-                        platformId);
-
-                handleFromBridge(message, platformId);
-
-            } catch (Exception e) {
-                String description = String.format("IPSMRM failed to handle upstream message %s of type %s received from the bridge.",
-                        message.getMetadata().getMessageID().orElse("N/A"), message.getMetadata().getMessageTypes());
-                logger.error(description, e);
-                getErrorReporter().sendErrorResponseMessage(message, e, description,
-                        ErrorCode.ERROR_HANDLING_RECEIVED_MESSAGE, publisherARM);
-            }
+            logger.debug("Received upstream message of type {} from the bridge (from queue {}) with ID {} and conversationId {} from platform {}.",
+                    message.getMetadata().getMessageTypes(),
+                    bridgeToIpsmrmTopic,
+                    message.getMetadata().getMessageID().orElse(null),
+                    message.getMetadata().getConversationId().orElse(null),
+                    platformId);
+
+            upstreamLanes.execute(platformId, () -> {
+                try {
+                    handleFromBridge(message, platformId);
+
+                } catch (Exception e) {
+                    String description = String.format("IPSMRM failed to handle upstream message %s of type %s received from the bridge.",
+                            message.getMetadata().getMessageID().orElse("N/A"), message.getMetadata().getMessageTypes());
+                    logger.error(description, e);
+                    getErrorReporter().sendErrorResponseMessage(message, e, description,
+                            ErrorCode.ERROR_HANDLING_RECEIVED_MESSAGE, publisherARM);
+                }
+            });
         }, Message.class);
+
+        updateDirectRoute(platformId);
     }
 
+    private static boolean hasAlignments(Platform platform) {
+        return !platform.getDownstreamInputAlignmentName().isEmpty() ||
+                !platform.getDownstreamOutputAlignmentName().isEmpty() ||
+                !platform.getUpstreamInputAlignmentName().isEmpty() ||
+                !platform.getUpstreamOutputAlignmentName().isEmpty();
+    }
+
+    private static boolean hasSameAlignments(Platform platform1, Platform platform2) {
+        return Objects.equals(platform1.getDownstreamInputAlignmentName(), platform2.getDownstreamInputAlignmentName()) &&
+                Objects.equals(platform1.getDownstreamInputAlignmentVersion(), platform2.getDownstreamInputAlignmentVersion()) &&
+                Objects.equals(platform1.getDownstreamOutputAlignmentName(), platform2.getDownstreamOutputAlignmentName()) &&
+                Objects.equals(platform1.getDownstreamOutputAlignmentVersion(), platform2.getDownstreamOutputAlignmentVersion()) &&
+                Objects.equals(platform1.getUpstreamInputAlignmentName(), platform2.getUpstreamInputAlignmentName()) &&
+                Objects.equals(platform1.getUpstreamInputAlignmentVersion(), platform2.getUpstreamInputAlignmentVersion()) &&
+                Objects.equals(platform1.getUpstreamOutputAlignmentName(), platform2.getUpstreamOutputAlignmentName()) &&
+                Objects.equals(platform1.getUpstreamOutputAlignmentVersion(), platform2.getUpstreamOutputAlignmentVersion());
+    }
+
+    /**
+     * Lets bridge and PRM bypass IPSMRM for the directions of the platform that don't need IPSM translation.
+     * Messages already on their way through IPSMRM are still delivered, so only messages published around the
+     * switch may overtake each other.
+     */
+    private void updateDirectRoute(String platformId) {
+        IPSMRoutingInfo ipsmRoutingInfo = ipsmRoutingTable.get(platformId);
+        if (!directRouting || ipsmRoutingInfo == null) {
+            BridgeRoutes.removeRoute(platformId);
+            return;
+        }
+        BridgeRoutes.setRoute(platformId, !ipsmRoutingInfo.useIPSMUpstream, !ipsmRoutingInfo.useIPSMDownstream);
+        logger.debug("Direct routing for platform {}: upstream={}, downstream={}.",
+                platformId, !ipsmRoutingInfo.useIPSMUpstream, !ipsmRoutingInfo.useIPSMDownstream);
+    }
+
+    /**
+     * Creates or removes the IPSM publishers and subscribers of the platform so they match its alignments. Calling it
+     * again after the alignments have changed only applies the difference.
+     */
     private void setupIPSMPublishersSubscribers(Platform platform) throws MiddlewareException {
         String platformId = platform.getPlatformId();
+        IPSMRoutingInfo ipsmRoutingInfo = ipsmRoutingTable.get(platformId);
         if (platform.getDownstreamInputAlignmentName().isEmpty() && platform.getDownstreamOutputAlignmentName().isEmpty()) {
             logger.debug("Downstream channel alignments are not given, there will be no IPSM translation for downstream messages.");
-            ipsmRoutingTable.get(platformId).useIPSMDownstream = false;
+            if (ipsmRoutingInfo.useIPSMDownstream) {
+                unsubscribeFromIPSM(getTopicFromIPSMDownstream(platformId));
+            }
+            ipsmRoutingInfo.useIPSMDownstream = false;
 
-        } else {
+        } else if (!ipsmRoutingInfo.useIPSMDownstream) {
             logger.debug("Downstream channel alignments are given, IPSM translation for downstream messages is required.");
-            ipsmRoutingTable.get(platformId).useIPSMDownstream = true;
+            ipsmRoutingInfo.useIPSMDownstream = true;
 
             // create publisher for downstream messages going to IPSM
             String topicToIPSMDownstream = getTopicToIPSMDownstream(platformId);
@@ -290,6 +413,7 @@ public class DefaultIPSMRequestManager extends AbstractControlComponent implemen
                             message.getMetadata().getConversationId().orElse(null),
                             platformId);
 
+                    channelScaler.recordReceived(platformId, true, message);
                     publishToBridge(message, platformId);
 
                 } catch (Exception e) {
@@ -305,11 +429,14 @@ public class DefaultIPSMRequestManager extends AbstractControlComponent implemen
         // upstream messages
         if (platform.getUpstreamInputAlignmentName().isEmpty() && platform.getUpstreamOutputAlignmentName().isEmpty()) {
             logger.debug("Upstream channel alignments are not given, there will be no IPSM translation for upstream messages.");
-            ipsmRoutingTable.get(platformId).useIPSMUpstream = false;
+            if (ipsmRoutingInfo.useIPSMUpstream) {
+                unsubscribeFromIPSM(getTopicFromIPSMUpstream(platformId));
+            }
+            ipsmRoutingInfo.useIPSMUpstream = false;
 
-        } else {
+        } else if (!ipsmRoutingInfo.useIPSMUpstream) {
             logger.debug("Upstream channel alignments are given, IPSM translation for upstream messages is required.");
-            ipsmRoutingTable.get(platformId).useIPSMUpstream = true;
+            ipsmRoutingInfo.useIPSMUpstream = true;
 
             // create subscriber for upstream messages coming from IPSM
             String topicFromIPSMUpstream = getTopicFromIPSMUpstream(platformId);
@@ -323,6 +450,7 @@ public class DefaultIPSMRequestManager extends AbstractControlComponent implemen
                             message.getMetadata().getConversationId().orElse(null),
                             platformId);
 
+                    channelScaler.recordReceived(platformId, false, message);
                     publisherPRM.publish(message);
 
                 } catch (Exception e) {
@@ -336,17 +464,74 @@ public class DefaultIPSMRequestManager extends AbstractControlComponent implemen
         }
     }
 
+    /**
+     * Compiles the alignments of the platform for local translation. IPSM channels are kept in any case, messages
+     * fall back to them if local translation fails.
+     */
+    private void setupLocalTranslations(Platform platform) {
+        if (localTranslationEngine == null) {
+            return;
+        }
+        IPSMRoutingInfo ipsmRoutingInfo = ipsmRoutingTable.get(platform.getPlatformId());
+        ipsmRoutingInfo.downstreamTranslation = !ipsmRoutingInfo.useIPSMDownstream ? null :
+                localTranslationEngine.getTranslation(
+                        platform.getDownstreamInputAlignmentName(), platform.getDownstreamInputAlignmentVersion(),
+                        platform.getDownstreamOutputAlignmentName(), platform.getDownstreamOutputAlignmentVersion());
+        ipsmRoutingInfo.upstreamTranslation = !ipsmRoutingInfo.useIPSMUpstream ? null :
+                localTranslationEngine.getTranslation(
+                        platform.getUpstreamInputAlignmentName(), platform.getUpstreamInputAlignmentVersion(),
+                        platform.getUpstreamOutputAlignmentName(), platform.getUpstreamOutputAlignmentVersion());
+        logger.debug("Local translation for platform {}: downstream={}, upstream={}.", platform.getPlatformId(),
+                ipsmRoutingInfo.downstreamTranslation, ipsmRoutingInfo.upstreamTranslation);
+    }
+
+    /**
+     * Translates the message in-process if a local translation is available.
+     *
+     * @return <code>false</code> if the message has to be translated by IPSM
+     */
+    private boolean translateLocally(Message message, Translation translation, String platformId) {
+        if (translation == null) {
+            return false;
+        }
+        try {
+            translation.apply(message);
+            logger.debug("Message {} for platform {} has been translated locally using {}.",
+                    message.getMetadata().getMessageID().orElse(null), platformId, translation);
+            return true;
+
+        } catch (Exception e) {
+            logger.warn(String.format("Local translation of message %s for platform %s failed, it will be translated by IPSM: %s",
+                    message.getMetadata().getMessageID().orElse("N/A"), platformId, e.getMessage()), e);
+            return false;
+        }
+    }
+
     private void updatePlatform(UpdatePlatformReq req) throws MiddlewareException {
         Platform platform = req.getPlatform();
         String platformId = platform.getPlatformId();
         logger.debug("Updating IPSM configuration for platform {}...", platformId);
+        reconciledPlatforms.remove(platformId);
 
-        if (!platform.getDownstreamInputAlignmentName().isEmpty() ||
-                !platform.getDownstreamOutputAlignmentName().isEmpty() ||
-                !platform.getUpstreamInputAlignmentName().isEmpty() ||
-                !platform.getUpstreamOutputAlignmentName().isEmpty()) {
+        IPSMRoutingInfo ipsmRoutingInfo = ipsmRoutingTable.get(platformId);
+        if (ipsmRoutingInfo == null) {
+            throw new MiddlewareException(String.format("IPSM routing table doesn't contain any information about platform %s.", platformId));
+        }
 
+        // channels are also set up if alignments have been removed, so the obsolete ones get deleted
+        if (hasAlignments(platform) || ipsmRoutingInfo.useIPSMDownstream || ipsmRoutingInfo.useIPSMUpstream) {
             ipsmApiClient.setupChannelsForPlatform(platform);
+            setupIPSMPublishersSubscribers(platform);
+            setupLocalTranslations(platform);
+        }
+        updateDirectRoute(platformId);
+    }
+
+    private void unsubscribeFromIPSM(String topic) throws MiddlewareException {
+        try {
+            unsubscribe(topic);
+        } catch (Exception e) {
+            throw new MiddlewareException(String.format("Failed to unsubscribe from IPSM topic %s.", topic), e);
         }
     }
 
@@ -354,6 +539,9 @@ public class DefaultIPSMRequestManager extends AbstractControlComponent implemen
         String platformId = responseMessage.getMetadata().asPlatformMessageMetadata().getSenderPlatformId().get().toString();
         logger.debug("Unregistering platform {}...", platformId);
         ipsmRoutingTable.remove(platformId);
+        reconciledPlatforms.remove(platformId);
+        BridgeRoutes.removeRoute(platformId);
+        channelScaler.removePlatform(platformId);
 
         try {
             removePublisher(getTopicIpsmrmToBridge(platformId));
@@ -376,15 +564,18 @@ public class DefaultIPSMRequestManager extends AbstractControlComponent implemen
      */
     private void publishToIPSMDownstream(Message message, String platformId) throws MiddlewareException {
 
-        if (!ipsmRoutingTable.containsKey(platformId)) {
+        IPSMRoutingInfo ipsmRoutingInfo = ipsmRoutingTable.get(platformId);
+        if (ipsmRoutingInfo == null) {
             throw new MiddlewareException(String.format("IPSM routing table doesn't contain any information about platform %s.", platformId));
         }
+        if (ipsmRoutingInfo.useIPSMDownstream && translateLocally(message, ipsmRoutingInfo.downstreamTranslation, platformId)) {
+            publishToBridge(message, platformId);
 
-        if (ipsmRoutingTable.get(platformId).useIPSMDownstream) {
+        } else if (ipsmRoutingInfo.useIPSMDownstream) {
             String topic = getTopicToIPSMDownstream(platformId);
             logger.debug("Publishing message for platform {} to IPSM using {} broker on topic {}...",
                     platformId, IPSM_BROKER_TYPE, topic);
-            getPublisher(topic, Message.class, IPSM_BROKER_TYPE).publish(message);
+            channelScaler.send(platformId, true, message);
 
         } else {
             publishToBridge(message, platformId);
@@ -401,17 +592,34 @@ public class DefaultIPSMRequestManager extends AbstractControlComponent implemen
 
         String platformId = message.getMetadata().asPlatformMessageMetadata().getSenderPlatformId().get().toString();
 
-        if (ipsmRoutingTable.get(platformId).useIPSMUpstream) {
+        IPSMRoutingInfo ipsmRoutingInfo = ipsmRoutingTable.get(platformId);
+        if (ipsmRoutingInfo == null) {
+            throw new MiddlewareException(String.format("IPSM routing table doesn't contain any information about platform %s.", platformId));
+        }
+        if (ipsmRoutingInfo.useIPSMUpstream && translateLocally(message, ipsmRoutingInfo.upstreamTranslation, platformId)) {
+            publisherPRM.publish(message);
+
+        } else if (ipsmRoutingInfo.useIPSMUpstream) {
             String topic = getTopicToIPSMUpstream(platformId);
             logger.debug("Publishing message from platform {} to IPSM using {} broker on topic {}...",
                     platformId, IPSM_BROKER_TYPE, topic);
-            getPublisher(topic, Message.class, IPSM_BROKER_TYPE).publish(message);
+            channelScaler.send(platformId, false, message);
 
         } else {
             publisherPRM.publish(message);
         }
     }
 
+    private void publishToIPSM(String topic, Message message) throws MiddlewareException {
+        try {
+            getPublisher(topic, Message.class, IPSM_BROKER_TYPE).publish(message);
+        } catch (MiddlewareException | RuntimeException e) {
+            // the channel may have been changed in IPSM, the channel list is retrieved again when it is needed next
+            ipsmApiClient.invalidateChannels();
+            throw e;
+        }
+    }
+
     /**
      * Handle message, coming from a bridge
      *
@@ -463,21 +671,56 @@ public class DefaultIPSMRequestManager extends AbstractControlComponent implemen
                     metadata.getMessageTypes(), BrokerTopics.PRM_IPSMRM.getTopicName(),
                     metadata.getMessageID().orElse(null), metadata.getConversationId().orElse(null));
 
-            try {
-                handleFromPRM(message);
-
-            } catch (Exception e) {
-                String description = String.format("IPSMRM failed to handle downstream message %s of type %s received from PRM.",
-                        message.getMetadata().getMessageID().orElse("N/A"), message.getMetadata().getMessageTypes());
-                logger.error(description, e);
-                getErrorReporter().sendErrorResponseMessage(message, e, description,
-                        ErrorCode.ERROR_HANDLING_RECEIVED_MESSAGE, publisherARM);
-            }
+            downstreamDispatcher.dispatch(message);
         }, Message.class);
     }
 
+    private void reportDownstreamFailure(Message message, Exception e) {
+        String description = String.format("IPSMRM failed to handle downstream message %s of type %s received from PRM.",
+                message.getMetadata().getMessageID().orElse("N/A"), message.getMetadata().getMessageTypes());
+        logger.error(description, e);
+        getErrorReporter().sendErrorResponseMessage(message, e, description,
+                ErrorCode.ERROR_HANDLING_RECEIVED_MESSAGE, publisherARM);
+    }
+
+    @Override
+    public List<IPSMChannelStatistics> getChannelStatistics() {
+        return channelScaler.getStatistics();
+    }
+
+    /**
+     * @return backlog and throughput of the downstream and upstream message processing lanes
+     */
+    @Override
+    public List<LaneStatistics> getLaneStatistics() {
+        List<LaneStatistics> statistics = new ArrayList<>(downstreamLanes.getStatistics());
+        statistics.addAll(upstreamLanes.getStatistics());
+        return statistics;
+    }
+
+    /**
+     * Finishes messages queued on the lanes before releasing broker resources.
+     */
+    @Override
+    public void destroy() throws MiddlewareException {
+        try {
+            downstreamLanes.shutdown(LANE_SHUTDOWN_TIMEOUT, TimeUnit.MILLISECONDS);
+            upstreamLanes.shutdown(LANE_SHUTDOWN_TIMEOUT, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.warn("Interrupted while waiting for queued messages to be processed.");
+        }
+        channelScaler.shutdown();
+        super.destroy();
+    }
+
+    /**
+     * Fields are updated by the lanes of the platform and read by the lanes and IPSM listeners of both directions.
+     */
     private class IPSMRoutingInfo {
-        public boolean useIPSMDownstream;
-        public boolean useIPSMUpstream;
+        public volatile boolean useIPSMDownstream;
+        public volatile boolean useIPSMUpstream;
+        public volatile Translation downstreamTranslation;
+        public volatile Translation upstreamTranslation;
     }
 }
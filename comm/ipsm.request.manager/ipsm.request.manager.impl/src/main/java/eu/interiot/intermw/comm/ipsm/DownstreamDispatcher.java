@@ -0,0 +1,86 @@
+/*
+ * Copyright 2016-2018 Universitat Politècnica de València
+ * Copyright 2016-2018 Università della Calabria
+ * Copyright 2016-2018 Prodevelop, SL
+ * Copyright 2016-2018 Technische Universiteit Eindhoven
+ * Copyright 2016-2018 Fundación de la Comunidad Valenciana para la
+ * Investigación, Promoción y Estudios Comerciales de Valenciaport
+ * Copyright 2016-2018 Rinicom Ltd
+ * Copyright 2016-2018 Association pour le développement de la formation
+ * professionnelle dans le transport
+ * Copyright 2016-2018 Noatum Ports Valenciana, S.A.U.
+ * Copyright 2016-2018 XLAB razvoj programske opreme in svetovanje d.o.o.
+ * Copyright 2016-2018 Systems Research Institute Polish Academy of Sciences
+ * Copyright 2016-2018 Azienda Sanitaria Locale TO5
+ * Copyright 2016-2018 Alessandro Bassi Consulting SARL
+ * Copyright 2016-2018 Neways Technologies B.V.
+ *
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.interiot.intermw.comm.ipsm;
+
+import eu.interiot.intermw.commons.LaneExecutor;
+import eu.interiot.message.ID.EntityID;
+import eu.interiot.message.Message;
+
+import java.util.Set;
+
+/**
+ * Hands downstream messages received from PRM over to the worker lanes. Messages are partitioned by the receiving
+ * platform, so messages of one platform (including its registration and update) are processed in order, while a
+ * slow platform doesn't hold up the messages of other platforms.
+ */
+class DownstreamDispatcher {
+    private final LaneExecutor lanes;
+    private final MessageHandler handler;
+    private final FailureHandler failureHandler;
+
+    DownstreamDispatcher(LaneExecutor lanes, MessageHandler handler, FailureHandler failureHandler) {
+        this.lanes = lanes;
+        this.handler = handler;
+        this.failureHandler = failureHandler;
+    }
+
+    void dispatch(Message message) {
+        lanes.execute(getLaneKey(message), () -> {
+            try {
+                handler.handle(message);
+
+            } catch (Exception e) {
+                failureHandler.failed(message, e);
+            }
+        });
+    }
+
+    /**
+     * @return the receiving platform, messages not addressed to a platform are spread by conversation
+     */
+    static String getLaneKey(Message message) {
+        Set<EntityID> receivingPlatformIds = message.getMetadata().asPlatformMessageMetadata().getReceivingPlatformIDs();
+        if (receivingPlatformIds != null && !receivingPlatformIds.isEmpty()) {
+            return receivingPlatformIds.iterator().next().toString();
+        }
+        return message.getMetadata().getConversationId().orElse(null);
+    }
+
+    interface MessageHandler {
+        void handle(Message message) throws Exception;
+    }
+
+    interface FailureHandler {
+        void failed(Message message, Exception e);
+    }
+}
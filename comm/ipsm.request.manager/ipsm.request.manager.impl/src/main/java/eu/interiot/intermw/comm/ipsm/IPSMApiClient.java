@@ -35,7 +35,13 @@ package eu.interiot.intermw.comm.ipsm;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import eu.interiot.intermw.commons.exceptions.MiddlewareException;
+import eu.interiot.intermw.commons.interfaces.Configuration;
 import eu.interiot.intermw.commons.model.Platform;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.glassfish.jersey.apache.connector.ApacheClientProperties;
+import org.glassfish.jersey.apache.connector.ApacheConnectorProvider;
+import org.glassfish.jersey.client.ClientConfig;
+import org.glassfish.jersey.client.ClientProperties;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -46,143 +52,306 @@ import javax.ws.rs.client.WebTarget;
 import javax.ws.rs.core.GenericType;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
-import java.util.List;
-
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Client of the IPSM control-plane API (channels and alignments).
+ * <p>
+ * The list of IPSM channels is retrieved once and then kept up to date with the channels this client creates and
+ * removes, so setting up channels for a platform doesn't need a listing call. The list is retrieved again only when
+ * IPSM reports it is out of date (a channel to be created already exists) or after {@link #invalidateChannels()}.
+ * HTTP connections are pooled and requests time out according to the <code>ipsm.api.*</code> configuration
+ * properties.
+ */
 public class IPSMApiClient {
     private final static Logger logger = LoggerFactory.getLogger(IPSMApiClient.class);
+    private static final String PROPERTY_PREFIX = "ipsm.api.";
+    private static final String CONNECT_TIMEOUT = "connectTimeout";
+    private static final String READ_TIMEOUT = "readTimeout";
+    private static final String MAX_CONNECTIONS = "maxConnections";
+    private static final String PARALLELISM = "parallelism";
+
     private WebTarget webTarget;
     private ObjectMapper objectMapper;
+    private final int parallelism;
+    private volatile ParallelismPolicy parallelismPolicy = (platformId, channelInput, existingParallelism) -> 1;
+
+    /**
+     * Known IPSM channels by source and sink topic, loaded on first use
+     */
+    private final Map<String, CachedChannel> channels = new ConcurrentHashMap<>();
+    private volatile boolean channelsLoaded;
 
     public IPSMApiClient(String ipsmApiBaseUrl) {
-        Client client = ClientBuilder.newClient();
+        this(ipsmApiBaseUrl, new Properties());
+    }
+
+    public IPSMApiClient(Configuration configuration) {
+        this(configuration.getIPSMApiBaseUrl(), configuration.getPropertiesWithPrefix(PROPERTY_PREFIX, true));
+    }
+
+    private IPSMApiClient(String ipsmApiBaseUrl, Properties properties) {
+        int connectTimeout = Integer.parseInt(properties.getProperty(CONNECT_TIMEOUT, "5000"));
+        int readTimeout = Integer.parseInt(properties.getProperty(READ_TIMEOUT, "30000"));
+        int maxConnections = Integer.parseInt(properties.getProperty(MAX_CONNECTIONS, "20"));
+        parallelism = Math.max(1, Integer.parseInt(properties.getProperty(PARALLELISM, "8")));
+
+        PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setMaxTotal(maxConnections);
+        connectionManager.setDefaultMaxPerRoute(maxConnections);
+
+        ClientConfig clientConfig = new ClientConfig()
+                .connectorProvider(new ApacheConnectorProvider())
+                .property(ApacheClientProperties.CONNECTION_MANAGER, connectionManager)
+                .property(ClientProperties.CONNECT_TIMEOUT, connectTimeout)
+                .property(ClientProperties.READ_TIMEOUT, readTimeout);
+        Client client = ClientBuilder.newClient(clientConfig);
         webTarget = client.target(ipsmApiBaseUrl);
         objectMapper = new ObjectMapper();
+        logger.debug("IPSM API client for {} created: connectTimeout={} ms, readTimeout={} ms, maxConnections={}, " +
+                "parallelism={}.", ipsmApiBaseUrl, connectTimeout, readTimeout, maxConnections, parallelism);
     }
 
     public void setupChannelsForPlatform(Platform platform) throws MiddlewareException {
-
         logger.debug("setupChannelsForPlatform started.");
-        String topicToIPSMDownstream = DefaultIPSMRequestManager.getTopicToIPSMDownstream(platform.getPlatformId());
-        String topicFromIPSMDownstream = DefaultIPSMRequestManager.getTopicFromIPSMDownstream(platform.getPlatformId());
-        String topicToIPSMUpstream = DefaultIPSMRequestManager.getTopicToIPSMUpstream(platform.getPlatformId());
-        String topicFromIPSMUpstream = DefaultIPSMRequestManager.getTopicFromIPSMUpstream(platform.getPlatformId());
+        loadChannels();
+        try {
+            for (ChannelChange change : planChannelChanges(platform)) {
+                change.apply();
+            }
+        } catch (StaleChannelsException e) {
+            // channels have been changed in IPSM since they were retrieved, e.g. by another middleware instance
+            logger.debug("{} Retrieving list of channels and setting up channels for platform {} again...",
+                    e.getMessage(), platform.getPlatformId());
+            refreshChannels();
+            for (ChannelChange change : planChannelChanges(platform)) {
+                change.apply();
+            }
+        }
+        logger.debug("IPSM channels have been set up successfully.");
+    }
 
-        logger.debug("Retrieving list of channels from IPSM...");
-        GenericType<List<ChannelInfo>> channelListGenericType = new GenericType<List<ChannelInfo>>() {
-        };
-        List<ChannelInfo> channelInfos = webTarget.path("/channels")
-                .request(MediaType.APPLICATION_JSON_TYPE)
-                .get(channelListGenericType);
+    /**
+     * Brings the IPSM channels of all given platforms in line with their alignments. The channel list is retrieved
+     * at most once and the required channel creations and removals are run in parallel.
+     *
+     * @return errors by ID of the platform whose channels couldn't be set up, empty if all succeeded
+     */
+    public Map<String, MiddlewareException> reconcileChannels(Collection<Platform> platforms) throws MiddlewareException {
+        logger.debug("Reconciling IPSM channels of {} platforms...", platforms.size());
+        loadChannels();
 
-        ChannelInfo downstreamChannel = null;
-        ChannelInfo upstreamChannel = null;
-        for (ChannelInfo channelInfo : channelInfos) {
-            if (topicToIPSMDownstream.equals(channelInfo.getSource()) && topicFromIPSMDownstream.equals(channelInfo.getSink())) {
-                downstreamChannel = channelInfo;
+        List<ChannelChange> changes = new ArrayList<>();
+        for (Platform platform : platforms) {
+            changes.addAll(planChannelChanges(platform));
+        }
+
+        Map<String, MiddlewareException> errors = new LinkedHashMap<>();
+        if (changes.isEmpty()) {
+            logger.debug("IPSM channels of all platforms are up to date.");
+            return errors;
+        }
 
-            } else if (topicToIPSMUpstream.equals(channelInfo.getSource()) && topicFromIPSMUpstream.equals(channelInfo.getSink())) {
-                upstreamChannel = channelInfo;
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(parallelism, changes.size()));
+        try {
+            Map<ChannelChange, Future<?>> futures = new LinkedHashMap<>();
+            for (ChannelChange change : changes) {
+                futures.put(change, executor.submit(() -> {
+                    change.apply();
+                    return null;
+                }));
+            }
+            for (Map.Entry<ChannelChange, Future<?>> entry : futures.entrySet()) {
+                String platformId = entry.getKey().platformId;
+                try {
+                    entry.getValue().get();
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    errors.putIfAbsent(platformId, cause instanceof MiddlewareException ? (MiddlewareException) cause :
+                            new MiddlewareException(String.format("Failed to set up IPSM channels for platform %s.", platformId), cause));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new MiddlewareException("Interrupted while reconciling IPSM channels.", e);
+                }
             }
+        } finally {
+            executor.shutdownNow();
         }
 
+        logger.debug("IPSM channels have been reconciled: {} changes applied, {} platforms failed.", changes.size(), errors.size());
+        return errors;
+    }
+
+    public void removeChannelsForPlatform(String platformId) throws MiddlewareException {
+        logger.debug("Removing channels for platform {}...", platformId);
+        loadChannels();
+
+        ChannelInfo downstreamChannel = getChannel(DefaultIPSMRequestManager.getTopicToIPSMDownstream(platformId),
+                DefaultIPSMRequestManager.getTopicFromIPSMDownstream(platformId));
+        ChannelInfo upstreamChannel = getChannel(DefaultIPSMRequestManager.getTopicToIPSMUpstream(platformId),
+                DefaultIPSMRequestManager.getTopicFromIPSMUpstream(platformId));
+
         logger.debug("Downstream channel: {}", downstreamChannel != null ? downstreamChannel.getDescId() : "N/A");
         logger.debug("Upstream channel: {}", upstreamChannel != null ? upstreamChannel.getDescId() : "N/A");
 
+        if (downstreamChannel != null) {
+            removeChannel(downstreamChannel);
+        }
+        if (upstreamChannel != null) {
+            removeChannel(upstreamChannel);
+        }
+    }
+
+    /**
+     * Sets the policy deciding how many parallel translation workers IPSM runs for a new channel.
+     */
+    public void setParallelismPolicy(ParallelismPolicy parallelismPolicy) {
+        this.parallelismPolicy = parallelismPolicy;
+    }
+
+    /**
+     * Re-creates the channel between the given topics with a different parallelism, keeping its alignments. If the
+     * new channel can't be created, the channel is re-created with its previous parallelism.
+     * <p>
+     * IPSM rejects a second channel between the same topics, so the channel is removed before it is created again.
+     * Messages published to the source topic in between may not be translated, callers should hold them back until
+     * this method returns (see {@link IPSMChannelScaler}).
+     *
+     * @return <code>false</code> if the channel doesn't exist
+     * @throws MiddlewareException if the channel couldn't be re-created with the new parallelism
+     */
+    public boolean rescaleChannel(String source, String sink, int parallelism) throws MiddlewareException {
+        loadChannels();
+        ChannelInfo channelInfo = getChannel(source, sink);
+        if (channelInfo == null) {
+            return false;
+        }
+
+        ChannelInput channelInput = new ChannelInput();
+        channelInput.setSource(source);
+        channelInput.setSink(sink);
+        channelInput.setInpAlignmentName(channelInfo.getInpAlignmentName());
+        channelInput.setInpAlignmentVersion(channelInfo.getInpAlignmentVersion());
+        channelInput.setOutAlignmentName(channelInfo.getOutAlignmentName());
+        channelInput.setOutAlignmentVersion(channelInfo.getOutAlignmentVersion());
+        channelInput.setParallelism(parallelism);
+
+        logger.debug("Re-creating IPSM channel {} with parallelism {} (was {})...", source, parallelism, channelInfo.getParallelism());
+        removeChannel(channelInfo);
+        try {
+            createChannel(channelInput);
+        } catch (MiddlewareException | RuntimeException e) {
+            channelInput.setParallelism(channelInfo.getParallelism());
+            try {
+                createChannel(channelInput);
+                logger.warn("Failed to re-create IPSM channel {} with parallelism {}, it has been restored with parallelism {}.",
+                        source, parallelism, channelInfo.getParallelism());
+            } catch (MiddlewareException | RuntimeException restoreException) {
+                e.addSuppressed(restoreException);
+                logger.error("Failed to re-create IPSM channel {} with parallelism {} and to restore it with parallelism {}. " +
+                        "Messages on the channel won't be translated until it is set up again.", source, parallelism,
+                        channelInfo.getParallelism(), restoreException);
+            }
+            throw e;
+        }
+        logger.info("IPSM channel {} has been re-created with parallelism {}.", source, parallelism);
+        return true;
+    }
+
+    /**
+     * Discards the known channels, the channel list is retrieved from IPSM again when it is needed next. Use it if
+     * channels may have been changed by someone else.
+     */
+    public synchronized void invalidateChannels() {
+        channelsLoaded = false;
+        channels.clear();
+    }
+
+    private List<ChannelChange> planChannelChanges(Platform platform) {
+        String platformId = platform.getPlatformId();
+        List<ChannelChange> changes = new ArrayList<>();
+
+        String topicToIPSMDownstream = DefaultIPSMRequestManager.getTopicToIPSMDownstream(platformId);
+        String topicFromIPSMDownstream = DefaultIPSMRequestManager.getTopicFromIPSMDownstream(platformId);
+        ChannelInfo downstreamChannel = getChannel(topicToIPSMDownstream, topicFromIPSMDownstream);
+        logger.debug("Downstream channel: {}", downstreamChannel != null ? downstreamChannel.getDescId() : "N/A");
+
         if (platform.getDownstreamInputAlignmentName().isEmpty() && platform.getDownstreamOutputAlignmentName().isEmpty()) {
             // alignments are not given, downstream channel is not required
             logger.debug("Downstream alignments are not given, downstream IPSM channel is not needed.");
             if (downstreamChannel != null) {
                 logger.debug("Downstream IPSM channel exists but is not needed. It will be removed.");
-                removeChannel(downstreamChannel);
+                changes.add(new ChannelChange(platformId, downstreamChannel, null));
             }
 
         } else {
             // alignments are given, downstream channel is required
+            ChannelInput channelInput = createDownstreamChannelInput(platform, topicToIPSMDownstream, topicFromIPSMDownstream,
+                    downstreamChannel);
             if (downstreamChannel == null) {
                 logger.debug("Downstream IPSM channel doesn't exists, it has to be created.");
-                createDownstreamChannel(platform, topicToIPSMDownstream, topicFromIPSMDownstream);
+                changes.add(new ChannelChange(platformId, null, channelInput));
 
-            } else if (platform.getDownstreamInputAlignmentName().equals(downstreamChannel.getInpAlignmentName()) &&
-                    platform.getDownstreamInputAlignmentVersion().equals(downstreamChannel.getInpAlignmentVersion()) &&
-                    platform.getDownstreamOutputAlignmentName().equals(downstreamChannel.getOutAlignmentName()) &&
-                    platform.getDownstreamOutputAlignmentVersion().equals(downstreamChannel.getOutAlignmentVersion())) {
+            } else if (matches(downstreamChannel, channelInput)) {
                 logger.debug("Downstream channel already exists, nothing has to be done.");
 
             } else {
-                logger.debug("Downstream channel exists but doesn't use correct alignments. It will be removed and new one created.");
-                removeChannel(downstreamChannel);
-                createDownstreamChannel(platform, topicToIPSMDownstream, topicFromIPSMDownstream);
+                logger.debug("Downstream channel exists but doesn't use correct alignments or parallelism. It will be removed and new one created.");
+                changes.add(new ChannelChange(platformId, downstreamChannel, channelInput));
             }
         }
 
+        String topicToIPSMUpstream = DefaultIPSMRequestManager.getTopicToIPSMUpstream(platformId);
+        String topicFromIPSMUpstream = DefaultIPSMRequestManager.getTopicFromIPSMUpstream(platformId);
+        ChannelInfo upstreamChannel = getChannel(topicToIPSMUpstream, topicFromIPSMUpstream);
+        logger.debug("Upstream channel: {}", upstreamChannel != null ? upstreamChannel.getDescId() : "N/A");
+
         if (platform.getUpstreamInputAlignmentName().isEmpty() && platform.getUpstreamOutputAlignmentName().isEmpty()) {
             // alignments are not given, upstream channel is not required
             logger.debug("Upstream alignments are not given, upstream IPSM channel is not needed.");
             if (upstreamChannel != null) {
                 logger.debug("Upstream IPSM channel exists but is not needed. It will be removed.");
-                removeChannel(upstreamChannel);
+                changes.add(new ChannelChange(platformId, upstreamChannel, null));
             }
 
         } else {
             // alignments are given, upstream channel is required
+            ChannelInput channelInput = createUpstreamChannelInput(platform, topicToIPSMUpstream, topicFromIPSMUpstream,
+                    upstreamChannel);
             if (upstreamChannel == null) {
                 logger.debug("Upstream IPSM channel doesn't exists, it has to be created.");
-                createUpstreamChannel(platform, topicToIPSMUpstream, topicFromIPSMUpstream);
+                changes.add(new ChannelChange(platformId, null, channelInput));
 
-            } else if (platform.getUpstreamInputAlignmentName().equals(upstreamChannel.getInpAlignmentName()) &&
-                    platform.getUpstreamInputAlignmentVersion().equals(upstreamChannel.getInpAlignmentVersion()) &&
-                    platform.getUpstreamOutputAlignmentName().equals(upstreamChannel.getOutAlignmentName()) &&
-                    platform.getUpstreamOutputAlignmentVersion().equals(upstreamChannel.getOutAlignmentVersion())) {
+            } else if (matches(upstreamChannel, channelInput)) {
                 logger.debug("Upstream channel already exists, nothing has to be done.");
 
             } else {
-                logger.debug("Upstream channel exists but doesn't use correct alignments. It will be removed and new one created.");
-                removeChannel(upstreamChannel);
-                createUpstreamChannel(platform, topicToIPSMUpstream, topicFromIPSMUpstream);
+                logger.debug("Upstream channel exists but doesn't use correct alignments or parallelism. It will be removed and new one created.");
+                changes.add(new ChannelChange(platformId, upstreamChannel, channelInput));
             }
         }
 
-        logger.debug("IPSM channels have been set up successfully.");
+        return changes;
     }
 
-    public void removeChannelsForPlatform(String platformId) throws MiddlewareException {
-        logger.debug("Removing channels for platform {}...", platformId);
-        String topicToIPSMDownstream = DefaultIPSMRequestManager.getTopicToIPSMDownstream(platformId);
-        String topicFromIPSMDownstream = DefaultIPSMRequestManager.getTopicFromIPSMDownstream(platformId);
-        String topicToIPSMUpstream = DefaultIPSMRequestManager.getTopicToIPSMUpstream(platformId);
-        String topicFromIPSMUpstream = DefaultIPSMRequestManager.getTopicFromIPSMUpstream(platformId);
-
-        logger.debug("Retrieving list of channels from IPSM...");
-        GenericType<List<ChannelInfo>> channelListGenericType = new GenericType<List<ChannelInfo>>() {
-        };
-        List<ChannelInfo> channelInfos = webTarget.path("/channels")
-                .request(MediaType.APPLICATION_JSON_TYPE)
-                .get(channelListGenericType);
-
-        ChannelInfo downstreamChannel = null;
-        ChannelInfo upstreamChannel = null;
-        for (ChannelInfo channelInfo : channelInfos) {
-            if (topicToIPSMDownstream.equals(channelInfo.getSource()) && topicFromIPSMDownstream.equals(channelInfo.getSink())) {
-                downstreamChannel = channelInfo;
-
-            } else if (topicToIPSMUpstream.equals(channelInfo.getSource()) && topicFromIPSMUpstream.equals(channelInfo.getSink())) {
-                upstreamChannel = channelInfo;
-            }
-        }
-
-        logger.debug("Downstream channel: {}", downstreamChannel != null ? downstreamChannel.getDescId() : "N/A");
-        logger.debug("Upstream channel: {}", upstreamChannel != null ? upstreamChannel.getDescId() : "N/A");
-
-        if (downstreamChannel != null) {
-            removeChannel(downstreamChannel);
-        }
-        if (upstreamChannel != null) {
-            removeChannel(upstreamChannel);
-        }
+    /**
+     * A channel running with more parallelism than required (e.g. scaled up before a restart) still matches.
+     */
+    private static boolean matches(ChannelInfo channelInfo, ChannelInput channelInput) {
+        return channelInput.getInpAlignmentName().equals(channelInfo.getInpAlignmentName()) &&
+                channelInput.getInpAlignmentVersion().equals(channelInfo.getInpAlignmentVersion()) &&
+                channelInput.getOutAlignmentName().equals(channelInfo.getOutAlignmentName()) &&
+                channelInput.getOutAlignmentVersion().equals(channelInfo.getOutAlignmentVersion()) &&
+                channelInfo.getParallelism() >= channelInput.getParallelism();
     }
 
-    private void createDownstreamChannel(Platform platform,
-                                         String topicToIPSMDownstream, String topicFromIPSMDownstream) throws MiddlewareException {
+    private ChannelInput createDownstreamChannelInput(Platform platform, String topicToIPSMDownstream,
+                                                      String topicFromIPSMDownstream, ChannelInfo existingChannel) {
         ChannelInput channelInput = new ChannelInput();
         channelInput.setSource(topicToIPSMDownstream);
         channelInput.setSink(topicFromIPSMDownstream);
@@ -190,18 +359,13 @@ public class IPSMApiClient {
         channelInput.setInpAlignmentVersion(platform.getDownstreamInputAlignmentVersion());
         channelInput.setOutAlignmentName(platform.getDownstreamOutputAlignmentName());
         channelInput.setOutAlignmentVersion(platform.getDownstreamOutputAlignmentVersion());
-        channelInput.setParallelism(1);
-
-        if (logger.isDebugEnabled()) {
-            logger.debug("Creating downstream IPSM channel for platform {}:\n{}",
-                    platform.getPlatformId(), dump(channelInput));
-        }
-        createChannel(channelInput);
-        logger.info("Downstream IPSM channel for platform {} has been created successfully.", platform.getPlatformId());
+        channelInput.setParallelism(parallelismPolicy.getParallelism(platform.getPlatformId(), channelInput,
+                existingChannel != null ? existingChannel.getParallelism() : 0));
+        return channelInput;
     }
 
-    private void createUpstreamChannel(Platform platform,
-                                       String topicToIPSMUpstream, String topicFromIPSMUpstream) throws MiddlewareException {
+    private ChannelInput createUpstreamChannelInput(Platform platform, String topicToIPSMUpstream,
+                                                    String topicFromIPSMUpstream, ChannelInfo existingChannel) {
         ChannelInput channelInput = new ChannelInput();
         channelInput.setSource(topicToIPSMUpstream);
         channelInput.setSink(topicFromIPSMUpstream);
@@ -209,37 +373,122 @@ public class IPSMApiClient {
         channelInput.setInpAlignmentVersion(platform.getUpstreamInputAlignmentVersion());
         channelInput.setOutAlignmentName(platform.getUpstreamOutputAlignmentName());
         channelInput.setOutAlignmentVersion(platform.getUpstreamOutputAlignmentVersion());
-        channelInput.setParallelism(1);
+        channelInput.setParallelism(parallelismPolicy.getParallelism(platform.getPlatformId(), channelInput,
+                existingChannel != null ? existingChannel.getParallelism() : 0));
+        return channelInput;
+    }
 
-        if (logger.isDebugEnabled()) {
-            logger.debug("Creating upstream IPSM channel for platform {}:\n{}",
-                    platform.getPlatformId(), dump(channelInput));
+    /**
+     * Retrieves the list of channels from IPSM unless it has already been retrieved.
+     */
+    private synchronized void loadChannels() throws MiddlewareException {
+        if (!channelsLoaded) {
+            refreshChannels();
         }
-        createChannel(channelInput);
-        logger.info("Upstream IPSM channel for platform {} has been created successfully.", platform.getPlatformId());
+    }
+
+    /**
+     * Retrieves the list of channels from IPSM and replaces the known channels with it. Channels created while the
+     * list was being retrieved are kept.
+     */
+    private synchronized void refreshChannels() throws MiddlewareException {
+        logger.debug("Retrieving list of channels from IPSM...");
+        long listingStart = System.nanoTime();
+        GenericType<List<ChannelInfo>> channelListGenericType = new GenericType<List<ChannelInfo>>() {
+        };
+        List<ChannelInfo> channelInfos;
+        try {
+            channelInfos = webTarget.path("/channels")
+                    .request(MediaType.APPLICATION_JSON_TYPE)
+                    .get(channelListGenericType);
+        } catch (Exception e) {
+            throw new MiddlewareException("Failed to retrieve list of channels from IPSM.", e);
+        }
+
+        Set<String> listedKeys = new HashSet<>();
+        for (ChannelInfo channelInfo : channelInfos) {
+            String key = channelKey(channelInfo.getSource(), channelInfo.getSink());
+            listedKeys.add(key);
+            channels.put(key, new CachedChannel(channelInfo, true));
+        }
+        channels.entrySet().removeIf(entry ->
+                !listedKeys.contains(entry.getKey()) && entry.getValue().cachedAt - listingStart < 0);
+        channelsLoaded = true;
+        logger.debug("{} IPSM channels retrieved.", channelInfos.size());
+    }
+
+    private ChannelInfo getChannel(String source, String sink) {
+        CachedChannel cachedChannel = channels.get(channelKey(source, sink));
+        return cachedChannel != null ? cachedChannel.channelInfo : null;
+    }
+
+    private static String channelKey(String source, String sink) {
+        return source + " -> " + sink;
     }
 
     private void createChannel(ChannelInput channelInput) throws MiddlewareException {
         Response response = webTarget.path("/channels")
                 .request()
                 .post(Entity.json(channelInput));
-        if (response.getStatusInfo().getFamily() != Response.Status.Family.SUCCESSFUL) {
-            String content = response.readEntity(String.class);
-            throw new MiddlewareException("Failed to create IPSM channel %s. Response from IPSM API: %s: %s.",
-                    dump(channelInput), response.getStatusInfo(), content);
-        }
+        try {
+            if (response.getStatus() == Response.Status.CONFLICT.getStatusCode()) {
+                throw new StaleChannelsException(String.format("IPSM channel %s already exists.", channelInput.getSource()));
+            }
+            if (response.getStatusInfo().getFamily() != Response.Status.Family.SUCCESSFUL) {
+                String content = response.readEntity(String.class);
+                throw new MiddlewareException("Failed to create IPSM channel %s. Response from IPSM API: %s: %s.",
+                        dump(channelInput), response.getStatusInfo(), content);
+            }
+        } finally {
+            response.close();
+        }
+
+        // IPSM doesn't return the ID of the new channel, it is resolved with the next listing if it is ever needed
+        ChannelInfo channelInfo = new ChannelInfo();
+        channelInfo.setSource(channelInput.getSource());
+        channelInfo.setSink(channelInput.getSink());
+        channelInfo.setInpAlignmentName(channelInput.getInpAlignmentName());
+        channelInfo.setInpAlignmentVersion(channelInput.getInpAlignmentVersion());
+        channelInfo.setOutAlignmentName(channelInput.getOutAlignmentName());
+        channelInfo.setOutAlignmentVersion(channelInput.getOutAlignmentVersion());
+        channelInfo.setParallelism(channelInput.getParallelism());
+        channels.put(channelKey(channelInput.getSource(), channelInput.getSink()), new CachedChannel(channelInfo, false));
     }
 
     private void removeChannel(ChannelInfo channelInfo) throws MiddlewareException {
+        String key = channelKey(channelInfo.getSource(), channelInfo.getSink());
+        CachedChannel cachedChannel = channels.get(key);
+        if (cachedChannel != null && !cachedChannel.resolved) {
+            logger.debug("ID of IPSM channel {} is not known yet, retrieving list of channels...", key);
+            refreshChannels();
+            cachedChannel = channels.get(key);
+            if (cachedChannel == null || !cachedChannel.resolved) {
+                logger.debug("IPSM channel {} doesn't exist anymore.", key);
+                channels.remove(key);
+                return;
+            }
+            channelInfo = cachedChannel.channelInfo;
+        }
+
         Response response = webTarget.path("/channels/{channelId}")
                 .resolveTemplate("channelId", channelInfo.getId())
                 .request()
                 .delete();
-        if (response.getStatusInfo().getFamily() != Response.Status.Family.SUCCESSFUL) {
-            String content = response.readEntity(String.class);
-            throw new MiddlewareException("Failed to remove IPSM channel %s. Response from IPSM API: %s: %s.",
-                    channelInfo.getId(), response.getStatusInfo(), content);
+        try {
+            if (response.getStatus() == Response.Status.NOT_FOUND.getStatusCode()) {
+                logger.debug("IPSM channel with ID {} doesn't exist anymore.", channelInfo.getId());
+                channels.remove(key);
+                return;
+            }
+            if (response.getStatusInfo().getFamily() != Response.Status.Family.SUCCESSFUL) {
+                String content = response.readEntity(String.class);
+                throw new MiddlewareException("Failed to remove IPSM channel %s. Response from IPSM API: %s: %s.",
+                        channelInfo.getId(), response.getStatusInfo(), content);
+            }
+        } finally {
+            response.close();
         }
+        channels.remove(key);
         logger.debug("IPSM channel with ID {} has been removed.", channelInfo.getId());
     }
 
@@ -255,10 +504,96 @@ public class IPSMApiClient {
         Response response = webTarget.path("/alignments")
                 .request()
                 .post(Entity.xml(alignmentData));
-        if (response.getStatusInfo().getFamily() != Response.Status.Family.SUCCESSFUL) {
-            String content = response.readEntity(String.class);
-            throw new MiddlewareException("Failed to create IPSM alignment. Response from IPSM API: %s: %s.",
-                    response.getStatusInfo(), content);
+        try {
+            if (response.getStatusInfo().getFamily() != Response.Status.Family.SUCCESSFUL) {
+                String content = response.readEntity(String.class);
+                throw new MiddlewareException("Failed to create IPSM alignment. Response from IPSM API: %s: %s.",
+                        response.getStatusInfo(), content);
+            }
+        } finally {
+            response.close();
+        }
+    }
+
+    /**
+     * Returns the source (RDF/XML) of the alignment registered in IPSM.
+     */
+    public String getAlignment(String name, String version) throws MiddlewareException {
+        Response response = webTarget.path("/alignments/{name}/{version}")
+                .resolveTemplate("name", name)
+                .resolveTemplate("version", version)
+                .request(MediaType.APPLICATION_XML)
+                .get();
+        try {
+            if (response.getStatusInfo().getFamily() != Response.Status.Family.SUCCESSFUL) {
+                String content = response.readEntity(String.class);
+                throw new MiddlewareException("Failed to retrieve IPSM alignment %s:%s. Response from IPSM API: %s: %s.",
+                        name, version, response.getStatusInfo(), content);
+            }
+            return response.readEntity(String.class);
+        } finally {
+            response.close();
+        }
+    }
+
+    /**
+     * Decides the number of parallel IPSM translation workers of a channel.
+     */
+    public interface ParallelismPolicy {
+        /**
+         * @param existingParallelism parallelism of the channel currently existing in IPSM, 0 if there is none
+         */
+        int getParallelism(String platformId, ChannelInput channelInput, int existingParallelism);
+    }
+
+    /**
+     * IPSM rejected a channel change because the known channels don't match the channels in IPSM
+     */
+    private static class StaleChannelsException extends MiddlewareException {
+        private StaleChannelsException(String message) {
+            super(message);
+        }
+    }
+
+    private static class CachedChannel {
+        private final ChannelInfo channelInfo;
+        /**
+         * Whether the channel comes from an IPSM listing and its ID is known
+         */
+        private final boolean resolved;
+        private final long cachedAt = System.nanoTime();
+
+        private CachedChannel(ChannelInfo channelInfo, boolean resolved) {
+            this.channelInfo = channelInfo;
+            this.resolved = resolved;
+        }
+    }
+
+    /**
+     * Creation and/or removal of one channel. An obsolete channel is removed before its replacement is created.
+     */
+    private class ChannelChange {
+        private final String platformId;
+        private final ChannelInfo toRemove;
+        private final ChannelInput toCreate;
+
+        private ChannelChange(String platformId, ChannelInfo toRemove, ChannelInput toCreate) {
+            this.platformId = platformId;
+            this.toRemove = toRemove;
+            this.toCreate = toCreate;
+        }
+
+        private void apply() throws MiddlewareException {
+            if (toRemove != null) {
+                removeChannel(toRemove);
+            }
+            if (toCreate != null) {
+                if (logger.isDebugEnabled()) {
+                    logger.debug("Creating IPSM channel for platform {}:\n{}", platformId, dump(toCreate));
+                }
+                createChannel(toCreate);
+                logger.info("IPSM channel {} for platform {} has been created successfully.", toCreate.getSource(), platformId);
+            }
         }
     }
 
@@ -0,0 +1,373 @@
+/*
+ * Copyright 2016-2018 Universitat Politècnica de València
+ * Copyright 2016-2018 Università della Calabria
+ * Copyright 2016-2018 Prodevelop, SL
+ * Copyright 2016-2018 Technische Universiteit Eindhoven
+ * Copyright 2016-2018 Fundación de la Comunidad Valenciana para la
+ * Investigación, Promoción y Estudios Comerciales de Valenciaport
+ * Copyright 2016-2018 Rinicom Ltd
+ * Copyright 2016-2018 Association pour le développement de la formation
+ * professionnelle dans le transport
+ * Copyright 2016-2018 Noatum Ports Valenciana, S.A.U.
+ * Copyright 2016-2018 XLAB razvoj programske opreme in svetovanje d.o.o.
+ * Copyright 2016-2018 Systems Research Institute Polish Academy of Sciences
+ * Copyright 2016-2018 Azienda Sanitaria Locale TO5
+ * Copyright 2016-2018 Alessandro Bassi Consulting SARL
+ * Copyright 2016-2018 Neways Technologies B.V.
+ *
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.interiot.intermw.comm.ipsm;
+
+import eu.interiot.intermw.commons.exceptions.MiddlewareException;
+import eu.interiot.intermw.commons.interfaces.Configuration;
+import eu.interiot.intermw.commons.model.IPSMChannelStatistics;
+import eu.interiot.message.Message;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Decides the parallelism of IPSM translation channels and raises it for channels that don't keep up.
+ * <p>
+ * A channel starts with the parallelism configured for its platform in <code>ipsm.channel.parallelism.platforms</code>
+ * (comma separated <code>platformId=parallelism</code> pairs), or with <code>ipsm.channel.parallelism</code>. IPSMRM
+ * reports every message it sends to IPSM and every translated message it gets back. With
+ * <code>ipsm.channel.autoscale</code> enabled, the message rate and translation lag of each channel are evaluated
+ * periodically. A channel whose rate per translation worker or whose lag stays above the thresholds for several
+ * consecutive intervals is re-created with twice the parallelism, up to <code>ipsm.channel.maxParallelism</code>.
+ * A channel already running in IPSM with more parallelism, e.g. scaled up before a restart, keeps it.
+ * <p>
+ * IPSM doesn't allow two channels between the same topics, so a channel is re-created by removing it first. Messages
+ * sent through {@link #send(String, boolean, Message)} while a channel of the platform is being re-created are held
+ * back and published in order once the channel exists again, so IPSM doesn't miss them.
+ * <p>
+ * Translation lag is measured by matching message IDs. Messages IPSM gives a new ID to are counted as pending until
+ * they expire.
+ */
+public class IPSMChannelScaler implements IPSMApiClient.ParallelismPolicy {
+    private final static Logger logger = LoggerFactory.getLogger(IPSMChannelScaler.class);
+    static final String DOWNSTREAM = "downstream";
+    static final String UPSTREAM = "upstream";
+
+    private static final String PROPERTY_PREFIX = "ipsm.channel.";
+    private static final String PARALLELISM = "parallelism";
+    private static final String PLATFORM_PARALLELISM = "parallelism.platforms";
+    private static final String MAX_PARALLELISM = "maxParallelism";
+    private static final String AUTOSCALE = "autoscale";
+    private static final String AUTOSCALE_INTERVAL = "autoscale.interval";
+    private static final String AUTOSCALE_MESSAGE_RATE = "autoscale.messageRate";
+    private static final String AUTOSCALE_LAG = "autoscale.lag";
+    private static final String AUTOSCALE_INTERVALS = "autoscale.intervals";
+    private static final int MAX_PENDING_MESSAGES = 10000;
+
+    private final IPSMApiClient ipsmApiClient;
+    private final ChannelPublisher publisher;
+    private final int defaultParallelism;
+    private final Map<String, Integer> platformParallelism;
+    private final int maxParallelism;
+    private final double messageRateThreshold;
+    private final long lagThreshold;
+    private final int overloadedIntervalsThreshold;
+    private final long pendingExpiry;
+    private final ScheduledExecutorService scheduler;
+
+    /**
+     * Channels by source topic
+     */
+    private final Map<String, ChannelLoad> channels = new ConcurrentHashMap<>();
+
+    /**
+     * @param publisher publishes messages to the source topics of IPSM channels
+     */
+    public IPSMChannelScaler(Configuration configuration, IPSMApiClient ipsmApiClient, ChannelPublisher publisher) {
+        this(configuration.getPropertiesWithPrefix(PROPERTY_PREFIX, true), ipsmApiClient, publisher);
+    }
+
+    IPSMChannelScaler(Properties properties, IPSMApiClient ipsmApiClient, ChannelPublisher publisher) {
+        this.ipsmApiClient = ipsmApiClient;
+        this.publisher = publisher;
+        defaultParallelism = Math.max(1, Integer.parseInt(properties.getProperty(PARALLELISM, "1")));
+        platformParallelism = parsePlatformParallelism(properties.getProperty(PLATFORM_PARALLELISM, ""));
+        maxParallelism = Math.max(defaultParallelism, Integer.parseInt(properties.getProperty(MAX_PARALLELISM, "8")));
+        messageRateThreshold = Double.parseDouble(properties.getProperty(AUTOSCALE_MESSAGE_RATE, "50"));
+        lagThreshold = Long.parseLong(properties.getProperty(AUTOSCALE_LAG, "2000"));
+        overloadedIntervalsThreshold = Math.max(1, Integer.parseInt(properties.getProperty(AUTOSCALE_INTERVALS, "3")));
+        long interval = Long.parseLong(properties.getProperty(AUTOSCALE_INTERVAL, "30000"));
+        pendingExpiry = Math.max(interval, lagThreshold) * 10;
+
+        if (Boolean.parseBoolean(properties.getProperty(AUTOSCALE, "false"))) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "ipsm-channel-scaler");
+                thread.setDaemon(true);
+                return thread;
+            });
+            scheduler.scheduleWithFixedDelay(this::evaluate, interval, interval, TimeUnit.MILLISECONDS);
+        } else {
+            scheduler = null;
+        }
+        logger.debug("IPSM channel scaler created: parallelism={}, platform parallelism={}, maxParallelism={}, " +
+                        "autoscale={}, interval={} ms, messageRate={}/s, lag={} ms.", defaultParallelism, platformParallelism,
+                maxParallelism, scheduler != null, interval, messageRateThreshold, lagThreshold);
+    }
+
+    static Map<String, Integer> parsePlatformParallelism(String value) {
+        Map<String, Integer> parallelism = new HashMap<>();
+        for (String entry : value.split(",")) {
+            entry = entry.trim();
+            if (entry.isEmpty()) {
+                continue;
+            }
+            // platform IDs are URIs, the last '=' separates the parallelism
+            int separator = entry.lastIndexOf('=');
+            if (separator <= 0) {
+                throw new IllegalArgumentException(String.format(
+                        "Invalid IPSM channel parallelism '%s', expected <platformId>=<parallelism>.", entry));
+            }
+            parallelism.put(entry.substring(0, separator).trim(), Integer.parseInt(entry.substring(separator + 1).trim()));
+        }
+        return parallelism;
+    }
+
+    @Override
+    public int getParallelism(String platformId, IPSMApiClient.ChannelInput channelInput, int existingParallelism) {
+        String direction = channelInput.getSource().equals(DefaultIPSMRequestManager.getTopicToIPSMDownstream(platformId)) ?
+                DOWNSTREAM : UPSTREAM;
+        ChannelLoad load = channels.computeIfAbsent(channelInput.getSource(), source -> new ChannelLoad(platformId, direction,
+                source, channelInput.getSink(), Math.max(existingParallelism, Math.min(maxParallelism,
+                platformParallelism.getOrDefault(platformId, defaultParallelism)))));
+        if (existingParallelism > load.parallelism) {
+            // the channel has been scaled up by someone else
+            load.parallelism = existingParallelism;
+        }
+        return load.parallelism;
+    }
+
+    /**
+     * Sends a message to IPSM for translation and records it. The message is held back while the channel is being
+     * re-created.
+     */
+    public void send(String platformId, boolean downstream, Message message) throws MiddlewareException {
+        String source = getSource(platformId, downstream);
+        recordSent(platformId, downstream, message.getMetadata().getMessageID().orElse(null));
+        ChannelLoad load = channels.get(source);
+        if (load != null) {
+            synchronized (load) {
+                if (load.heldMessages != null) {
+                    load.heldMessages.add(message);
+                    return;
+                }
+            }
+        }
+        publisher.publish(source, message);
+    }
+
+    void recordSent(String platformId, boolean downstream, String messageId) {
+        ChannelLoad load = channels.get(getSource(platformId, downstream));
+        if (load == null) {
+            return;
+        }
+        load.sent.increment();
+        if (messageId != null && load.pending.size() < MAX_PENDING_MESSAGES) {
+            load.pending.put(messageId, System.nanoTime());
+        }
+    }
+
+    /**
+     * Records a translated message received from IPSM.
+     */
+    public void recordReceived(String platformId, boolean downstream, Message message) {
+        recordReceived(platformId, downstream, message.getMetadata().getMessageID().orElse(null));
+    }
+
+    void recordReceived(String platformId, boolean downstream, String messageId) {
+        ChannelLoad load = channels.get(getSource(platformId, downstream));
+        if (load == null) {
+            return;
+        }
+        Long sentAt = messageId != null ? load.pending.remove(messageId) : null;
+        if (sentAt != null) {
+            load.lagSum.add(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - sentAt));
+            load.lagCount.increment();
+            load.idsPreserved = true;
+        }
+    }
+
+    public void removePlatform(String platformId) {
+        channels.values().removeIf(load -> load.platformId.equals(platformId));
+    }
+
+    public List<IPSMChannelStatistics> getStatistics() {
+        List<IPSMChannelStatistics> statistics = new ArrayList<>();
+        for (ChannelLoad load : channels.values()) {
+            IPSMChannelStatistics channelStatistics = new IPSMChannelStatistics();
+            channelStatistics.setPlatformId(load.platformId);
+            channelStatistics.setDirection(load.direction);
+            channelStatistics.setParallelism(load.parallelism);
+            channelStatistics.setMessageRate(load.messageRate);
+            channelStatistics.setTranslationLag(load.translationLag);
+            channelStatistics.setPendingMessages(load.pending.size());
+            channelStatistics.setScaleUps(load.scaleUps);
+            statistics.add(channelStatistics);
+        }
+        return statistics;
+    }
+
+    public void shutdown() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    void evaluate() {
+        for (ChannelLoad load : channels.values()) {
+            try {
+                evaluate(load);
+            } catch (Exception e) {
+                logger.warn(String.format("Failed to scale IPSM channel %s: %s", load.source, e.getMessage()), e);
+            }
+        }
+    }
+
+    private void evaluate(ChannelLoad load) throws MiddlewareException {
+        long now = System.nanoTime();
+        double seconds = (now - load.lastEvaluation) / 1e9;
+        load.lastEvaluation = now;
+
+        long sent = load.sent.sumThenReset();
+        long lagSum = load.lagSum.sumThenReset();
+        long lagCount = load.lagCount.sumThenReset();
+        load.messageRate = seconds > 0 ? sent / seconds : 0;
+        load.translationLag = lagCount > 0 ? lagSum / lagCount : -1;
+
+        // messages still waiting for translation count as lagging too, so a stalled channel is detected
+        long lag = load.translationLag;
+        Iterator<Long> pending = load.pending.values().iterator();
+        while (pending.hasNext()) {
+            long age = TimeUnit.NANOSECONDS.toMillis(now - pending.next());
+            if (age > pendingExpiry) {
+                pending.remove();
+            } else if (load.idsPreserved) {
+                lag = Math.max(lag, age);
+            }
+        }
+
+        boolean overloaded = load.messageRate > messageRateThreshold * load.parallelism ||
+                (lagThreshold > 0 && lag > lagThreshold);
+        load.overloadedIntervals = overloaded ? load.overloadedIntervals + 1 : 0;
+        if (load.overloadedIntervals < overloadedIntervalsThreshold || load.parallelism >= maxParallelism) {
+            return;
+        }
+
+        int previous = load.parallelism;
+        int parallelism = Math.min(maxParallelism, previous * 2);
+        logger.info("IPSM channel {} is overloaded ({} messages/s, lag {} ms), raising its parallelism from {} to {}...",
+                load.source, String.format("%.1f", load.messageRate), lag, previous, parallelism);
+        load.overloadedIntervals = 0;
+        // set first, so a concurrent channel setup for the platform doesn't revert it
+        load.parallelism = parallelism;
+        boolean rescaled = false;
+        synchronized (load) {
+            load.heldMessages = new ArrayList<>();
+        }
+        try {
+            rescaled = ipsmApiClient.rescaleChannel(load.source, load.sink, parallelism);
+        } finally {
+            if (rescaled) {
+                load.scaleUps++;
+            } else {
+                load.parallelism = previous;
+            }
+            releaseHeldMessages(load);
+        }
+    }
+
+    /**
+     * Publishes the messages held back while the channel was being re-created. Messages sent meanwhile wait, so the
+     * order is kept.
+     */
+    private void releaseHeldMessages(ChannelLoad load) {
+        synchronized (load) {
+            if (!load.heldMessages.isEmpty()) {
+                logger.debug("Publishing {} messages held back while IPSM channel {} was being re-created...",
+                        load.heldMessages.size(), load.source);
+            }
+            for (Message message : load.heldMessages) {
+                try {
+                    publisher.publish(load.source, message);
+                } catch (MiddlewareException | RuntimeException e) {
+                    logger.error(String.format("Failed to publish message %s held back while IPSM channel %s was being " +
+                            "re-created.", message.getMetadata().getMessageID().orElse("N/A"), load.source), e);
+                }
+            }
+            load.heldMessages = null;
+        }
+    }
+
+    private static String getSource(String platformId, boolean downstream) {
+        return downstream ? DefaultIPSMRequestManager.getTopicToIPSMDownstream(platformId) :
+                DefaultIPSMRequestManager.getTopicToIPSMUpstream(platformId);
+    }
+
+    /**
+     * Publishes messages to the source topic of an IPSM channel.
+     */
+    @FunctionalInterface
+    public interface ChannelPublisher {
+        void publish(String topic, Message message) throws MiddlewareException;
+    }
+
+    private static class ChannelLoad {
+        private final String platformId;
+        private final String direction;
+        private final String source;
+        private final String sink;
+        private volatile int parallelism;
+
+        private final LongAdder sent = new LongAdder();
+        private final LongAdder lagSum = new LongAdder();
+        private final LongAdder lagCount = new LongAdder();
+        /**
+         * Send time (System.nanoTime) by ID of the messages not yet received back from IPSM
+         */
+        private final Map<String, Long> pending = new ConcurrentHashMap<>();
+        private volatile boolean idsPreserved;
+        /**
+         * Messages held back while the channel is being re-created, null otherwise. Guarded by the channel load.
+         */
+        private List<Message> heldMessages;
+
+        private long lastEvaluation = System.nanoTime();
+        private int overloadedIntervals;
+        private volatile double messageRate;
+        private volatile long translationLag = -1;
+        private volatile int scaleUps;
+
+        private ChannelLoad(String platformId, String direction, String source, String sink, int parallelism) {
+            this.platformId = platformId;
+            this.direction = direction;
+            this.source = source;
+            this.sink = sink;
+            this.parallelism = parallelism;
+        }
+    }
+}
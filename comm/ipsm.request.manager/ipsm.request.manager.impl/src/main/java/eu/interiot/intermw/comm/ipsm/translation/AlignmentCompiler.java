@@ -0,0 +1,493 @@
+/*
+ * Copyright 2016-2018 Universitat Politècnica de València
+ * Copyright 2016-2018 Università della Calabria
+ * Copyright 2016-2018 Prodevelop, SL
+ * Copyright 2016-2018 Technische Universiteit Eindhoven
+ * Copyright 2016-2018 Fundación de la Comunidad Valenciana para la
+ * Investigación, Promoción y Estudios Comerciales de Valenciaport
+ * Copyright 2016-2018 Rinicom Ltd
+ * Copyright 2016-2018 Association pour le développement de la formation
+ * professionnelle dans le transport
+ * Copyright 2016-2018 Noatum Ports Valenciana, S.A.U.
+ * Copyright 2016-2018 XLAB razvoj programske opreme in svetovanje d.o.o.
+ * Copyright 2016-2018 Systems Research Institute Polish Academy of Sciences
+ * Copyright 2016-2018 Azienda Sanitaria Locale TO5
+ * Copyright 2016-2018 Alessandro Bassi Consulting SARL
+ * Copyright 2016-2018 Neways Technologies B.V.
+ *
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.interiot.intermw.comm.ipsm.translation;
+
+import org.apache.jena.query.QueryParseException;
+import org.apache.jena.update.UpdateFactory;
+import org.apache.jena.update.UpdateRequest;
+import org.w3c.dom.*;
+import org.xml.sax.InputSource;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.StringReader;
+import java.util.*;
+import java.util.regex.Pattern;
+
+/**
+ * Compiles IPSM alignments (IPSM-AF, RDF/XML) into SPARQL updates applied by the local translation engine.
+ * <p>
+ * Each alignment cell becomes one <code>DELETE/INSERT ... WHERE</code> update: the triples matched by
+ * <code>entity1</code> are replaced by the triples of <code>entity2</code>, the rest of the graph is left as is.
+ * Cells are applied in the order of the alignment steps. <code>sripas:node_*</code> and <code>sripas:pred_*</code>
+ * elements are variables, node variables of <code>entity2</code> bound neither by <code>entity1</code> nor by a
+ * transformation become new blank nodes.
+ * <p>
+ * Datatype filters and the <code>replace</code> and <code>concat</code> transformation functions are supported.
+ * Function values are embedded as SPARQL string literals, so <code>\\s</code> in an alignment stands for the regular
+ * expression <code>\s</code>. Any other construct makes the alignment unsupported.
+ */
+public final class AlignmentCompiler {
+    private static final String ALIGN_NS = "http://knowledgeweb.semanticweb.org/heterogeneity/alignment#";
+    private static final String SRIPAS_NS = "http://www.inter-iot.eu/sripas#";
+    private static final String VARIABLE_NS = "http://www.inter-iot.eu/sripas/var#";
+    private static final String RDF_NS = "http://www.w3.org/1999/02/22-rdf-syntax-ns#";
+    private static final String DC_NS = "http://purl.org/dc/elements/1.1/";
+    private static final String EXMO_NS = "http://exmo.inrialpes.fr/align/ext/1.0/#";
+    private static final String NODE_PREFIX = "node_";
+    private static final String PREDICATE_PREFIX = "pred_";
+    private static final Pattern VARIABLE_NAME = Pattern.compile("[A-Za-z0-9][A-Za-z0-9_]*");
+    private static final Pattern INVALID_IRI_CHARACTERS = Pattern.compile("[\\s<>\"{}|^`\\\\]");
+
+    private AlignmentCompiler() {
+    }
+
+    public static CompiledAlignment compile(String alignmentData) throws UnsupportedAlignmentException {
+        Element alignment = parseAlignment(alignmentData);
+        String name = childText(alignment, DC_NS, "title");
+        String version = childText(alignment, EXMO_NS, "version");
+
+        List<UpdateRequest> rules = new ArrayList<>();
+        for (Element cell : getCells(alignment)) {
+            String update = compileCell(cell);
+            try {
+                rules.add(UpdateFactory.create(update));
+            } catch (QueryParseException e) {
+                throw new UnsupportedAlignmentException(String.format(
+                        "Cell %s of alignment %s doesn't compile to a valid SPARQL update.", cellId(cell), name), e);
+            }
+        }
+        return new CompiledAlignment(name, version, rules);
+    }
+
+    private static Element parseAlignment(String alignmentData) throws UnsupportedAlignmentException {
+        Document document;
+        try {
+            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            factory.setNamespaceAware(true);
+            factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+            document = factory.newDocumentBuilder().parse(new InputSource(new StringReader(alignmentData)));
+        } catch (Exception e) {
+            throw new UnsupportedAlignmentException("Alignment is not a valid XML document.", e);
+        }
+
+        NodeList alignments = document.getElementsByTagNameNS(ALIGN_NS, "Alignment");
+        if (alignments.getLength() != 1) {
+            throw new UnsupportedAlignmentException("Expected one align:Alignment element, found %d.", alignments.getLength());
+        }
+        return (Element) alignments.item(0);
+    }
+
+    /**
+     * Returns the cells in the order given by the alignment steps, or in document order if there are no steps.
+     */
+    private static List<Element> getCells(Element alignment) throws UnsupportedAlignmentException {
+        Map<String, Element> cells = new LinkedHashMap<>();
+        NodeList cellNodes = alignment.getElementsByTagNameNS(ALIGN_NS, "Cell");
+        for (int i = 0; i < cellNodes.getLength(); i++) {
+            Element cell = (Element) cellNodes.item(i);
+            cells.put(cellId(cell).isEmpty() ? "#" + i : cellId(cell), cell);
+        }
+
+        NodeList stepNodes = alignment.getElementsByTagNameNS(SRIPAS_NS, "step");
+        if (stepNodes.getLength() == 0) {
+            return new ArrayList<>(cells.values());
+        }
+
+        Map<Element, Integer> stepOrder = new HashMap<>();
+        for (int i = 0; i < stepNodes.getLength(); i++) {
+            Element step = (Element) stepNodes.item(i);
+            try {
+                stepOrder.put(step, Integer.parseInt(attribute(step, "order").trim()));
+            } catch (NumberFormatException e) {
+                throw new UnsupportedAlignmentException("Invalid alignment step order '%s'.", attribute(step, "order"));
+            }
+        }
+        List<Element> steps = new ArrayList<>(stepOrder.keySet());
+        steps.sort(Comparator.comparing(stepOrder::get));
+
+        List<Element> orderedCells = new ArrayList<>();
+        for (Element step : steps) {
+            Element cell = cells.get(attribute(step, "cell"));
+            if (cell == null) {
+                throw new UnsupportedAlignmentException("Alignment step refers to unknown cell '%s'.", attribute(step, "cell"));
+            }
+            orderedCells.add(cell);
+        }
+        return orderedCells;
+    }
+
+    private static String compileCell(Element cell) throws UnsupportedAlignmentException {
+        String cellId = cellId(cell);
+        Element entity1 = child(cell, ALIGN_NS, "entity1");
+        Element entity2 = child(cell, ALIGN_NS, "entity2");
+        if (entity1 == null || entity2 == null) {
+            throw new UnsupportedAlignmentException("Cell %s doesn't have both entities.", cellId);
+        }
+
+        CellWriter writer = new CellWriter(cellId);
+        List<String> pattern = writer.writePattern(entity1);
+        List<String> expressions = new ArrayList<>();
+        for (Element element : elementChildren(cell)) {
+            if (!SRIPAS_NS.equals(element.getNamespaceURI())) {
+                continue;
+            }
+            if ("filters".equals(element.getLocalName())) {
+                expressions.addAll(writer.writeFilters(element));
+            } else if ("transformation".equals(element.getLocalName())) {
+                expressions.addAll(writer.writeTransformation(element));
+            } else {
+                throw new UnsupportedAlignmentException("Cell %s: sripas:%s is not supported.", cellId, element.getLocalName());
+            }
+        }
+        List<String> template = writer.writeTemplate(entity2);
+
+        StringBuilder update = new StringBuilder();
+        appendBlock(update, "DELETE", pattern);
+        appendBlock(update, "INSERT", template);
+        List<String> where = new ArrayList<>(pattern);
+        where.addAll(expressions);
+        appendBlock(update, "WHERE", where);
+        return update.toString();
+    }
+
+    private static void appendBlock(StringBuilder update, String keyword, List<String> lines) {
+        update.append(keyword).append(" {\n");
+        for (String line : lines) {
+            update.append("  ").append(line).append('\n');
+        }
+        update.append("}\n");
+    }
+
+    private static String cellId(Element cell) {
+        return cell.getAttributeNS(RDF_NS, "about");
+    }
+
+    /**
+     * Returns the value of an attribute given with or without the sripas namespace.
+     */
+    private static String attribute(Element element, String localName) {
+        String value = element.getAttributeNS(SRIPAS_NS, localName);
+        if (value == null || value.isEmpty()) {
+            value = element.getAttribute(localName);
+        }
+        return value != null ? value : "";
+    }
+
+    private static Element child(Element parent, String namespace, String localName) {
+        for (Element element : elementChildren(parent)) {
+            if (namespace.equals(element.getNamespaceURI()) && localName.equals(element.getLocalName())) {
+                return element;
+            }
+        }
+        return null;
+    }
+
+    private static String childText(Element parent, String namespace, String localName) {
+        Element element = child(parent, namespace, localName);
+        return element != null ? element.getTextContent().trim() : "";
+    }
+
+    private static List<Element> elementChildren(Element parent) {
+        List<Element> children = new ArrayList<>();
+        for (Node node = parent.getFirstChild(); node != null; node = node.getNextSibling()) {
+            if (node.getNodeType() == Node.ELEMENT_NODE) {
+                children.add((Element) node);
+            }
+        }
+        return children;
+    }
+
+    private static boolean hasText(Element element) {
+        for (Node node = element.getFirstChild(); node != null; node = node.getNextSibling()) {
+            if ((node.getNodeType() == Node.TEXT_NODE || node.getNodeType() == Node.CDATA_SECTION_NODE) &&
+                    !node.getNodeValue().trim().isEmpty()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isNamespaceDeclaration(Attr attribute) {
+        return XMLConstants.XMLNS_ATTRIBUTE_NS_URI.equals(attribute.getNamespaceURI());
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"")
+                .replace("\n", "\\n").replace("\r", "\\r").replace("\t", "\\t");
+    }
+
+    /**
+     * Writes the SPARQL triples and expressions of one cell, keeping track of the variables bound so far.
+     */
+    private static class CellWriter {
+        private final String cellId;
+        private final Set<String> matched = new HashSet<>();
+        private final Set<String> bound = new HashSet<>();
+        private List<String> triples;
+        private boolean template;
+        private int anonymousNodes;
+
+        private CellWriter(String cellId) {
+            this.cellId = cellId;
+        }
+
+        private List<String> writePattern(Element entity) throws UnsupportedAlignmentException {
+            template = false;
+            List<String> pattern = writeEntity(entity);
+            matched.addAll(bound);
+            return pattern;
+        }
+
+        private List<String> writeTemplate(Element entity) throws UnsupportedAlignmentException {
+            template = true;
+            return writeEntity(entity);
+        }
+
+        private List<String> writeEntity(Element entity) throws UnsupportedAlignmentException {
+            triples = new ArrayList<>();
+            List<Element> nodes = elementChildren(entity);
+            if (nodes.isEmpty() || hasText(entity)) {
+                throw new UnsupportedAlignmentException("Cell %s: entity %s is not a graph pattern.", cellId, entity.getLocalName());
+            }
+            for (Element node : nodes) {
+                writeNode(node);
+            }
+            return triples;
+        }
+
+        private String writeNode(Element node) throws UnsupportedAlignmentException {
+            String term;
+            String namespace = node.getNamespaceURI();
+            if (SRIPAS_NS.equals(namespace) && node.getLocalName().startsWith(NODE_PREFIX)) {
+                term = variable(node.getLocalName().substring(NODE_PREFIX.length()));
+            } else {
+                String about = node.getAttributeNS(RDF_NS, "about");
+                term = about.isEmpty() ? anonymousNode() : iri(about);
+                if (!(RDF_NS.equals(namespace) && "Description".equals(node.getLocalName()))) {
+                    triples.add(term + " " + iri(RDF_NS + "type") + " " + iri(elementIri(node)) + " .");
+                }
+            }
+
+            NamedNodeMap attributes = node.getAttributes();
+            for (int i = 0; i < attributes.getLength(); i++) {
+                Attr attribute = (Attr) attributes.item(i);
+                if (!isNamespaceDeclaration(attribute) &&
+                        !(RDF_NS.equals(attribute.getNamespaceURI()) && "about".equals(attribute.getLocalName()))) {
+                    throw new UnsupportedAlignmentException("Cell %s: attribute %s of node %s is not supported.",
+                            cellId, attribute.getName(), node.getTagName());
+                }
+            }
+            if (hasText(node)) {
+                throw new UnsupportedAlignmentException("Cell %s: node %s contains text.", cellId, node.getTagName());
+            }
+            for (Element property : elementChildren(node)) {
+                writeProperty(term, property);
+            }
+            return term;
+        }
+
+        private void writeProperty(String subject, Element property) throws UnsupportedAlignmentException {
+            NamedNodeMap attributes = property.getAttributes();
+            for (int i = 0; i < attributes.getLength(); i++) {
+                Attr attribute = (Attr) attributes.item(i);
+                boolean supported = isNamespaceDeclaration(attribute) ||
+                        RDF_NS.equals(attribute.getNamespaceURI()) &&
+                                ("resource".equals(attribute.getLocalName()) || "datatype".equals(attribute.getLocalName())) ||
+                        XMLConstants.XML_NS_URI.equals(attribute.getNamespaceURI()) && "lang".equals(attribute.getLocalName());
+                if (!supported) {
+                    throw new UnsupportedAlignmentException("Cell %s: attribute %s of property %s is not supported.",
+                            cellId, attribute.getName(), property.getTagName());
+                }
+            }
+
+            String object;
+            String resource = property.getAttributeNS(RDF_NS, "resource");
+            List<Element> children = elementChildren(property);
+            if (children.size() > 1 || !children.isEmpty() && (!resource.isEmpty() || hasText(property))) {
+                throw new UnsupportedAlignmentException("Cell %s: property %s must have a single value.", cellId, property.getTagName());
+            } else if (!resource.isEmpty()) {
+                object = iri(resource);
+            } else if (children.size() == 1) {
+                object = writeNode(children.get(0));
+            } else {
+                String datatype = property.getAttributeNS(RDF_NS, "datatype");
+                String language = property.getAttributeNS(XMLConstants.XML_NS_URI, "lang");
+                object = "\"" + escape(property.getTextContent()) + "\"" +
+                        (!datatype.isEmpty() ? "^^" + iri(datatype) : !language.isEmpty() ? "@" + language : "");
+            }
+            triples.add(subject + " " + predicate(property) + " " + object + " .");
+        }
+
+        private String predicate(Element property) throws UnsupportedAlignmentException {
+            if (SRIPAS_NS.equals(property.getNamespaceURI()) && property.getLocalName().startsWith(PREDICATE_PREFIX)) {
+                String name = property.getLocalName().substring(PREDICATE_PREFIX.length());
+                if (template && !bound.contains(name)) {
+                    throw new UnsupportedAlignmentException("Cell %s: predicate variable %s is not bound.", cellId, name);
+                }
+                return variable(name);
+            }
+            return iri(elementIri(property));
+        }
+
+        private List<String> writeFilters(Element filters) throws UnsupportedAlignmentException {
+            List<String> expressions = new ArrayList<>();
+            for (Element filter : elementChildren(filters)) {
+                NamedNodeMap attributes = filter.getAttributes();
+                for (int i = 0; i < attributes.getLength(); i++) {
+                    Attr attribute = (Attr) attributes.item(i);
+                    String name = attribute.getLocalName();
+                    if (!isNamespaceDeclaration(attribute) && !"about".equals(name) && !"datatype".equals(name)) {
+                        throw new UnsupportedAlignmentException("Cell %s: filter attribute %s is not supported.", cellId, attribute.getName());
+                    }
+                }
+                String variable = variableOf(attribute(filter, "about"));
+                String datatype = attribute(filter, "datatype");
+                if (!SRIPAS_NS.equals(filter.getNamespaceURI()) || !"filter".equals(filter.getLocalName()) ||
+                        !matched.contains(variable) || datatype.isEmpty()) {
+                    throw new UnsupportedAlignmentException("Cell %s: filter on %s is not supported.", cellId, variable);
+                }
+                expressions.add("FILTER (datatype(?" + variable + ") = " + iri(datatype) + ")");
+            }
+            return expressions;
+        }
+
+        private List<String> writeTransformation(Element transformation) throws UnsupportedAlignmentException {
+            List<String> expressions = new ArrayList<>();
+            for (Element function : elementChildren(transformation)) {
+                String functionName = attribute(function, "about");
+                if (!SRIPAS_NS.equals(function.getNamespaceURI()) || !"function".equals(function.getLocalName())) {
+                    throw new UnsupportedAlignmentException("Cell %s: transformation element %s is not supported.",
+                            cellId, function.getTagName());
+                }
+
+                Map<Element, Integer> paramOrder = new HashMap<>();
+                String result = null;
+                for (Element element : elementChildren(function)) {
+                    if ("param".equals(element.getLocalName())) {
+                        try {
+                            paramOrder.put(element, Integer.parseInt(attribute(element, "order").trim()));
+                        } catch (NumberFormatException e) {
+                            throw new UnsupportedAlignmentException("Cell %s: invalid parameter order '%s'.", cellId, attribute(element, "order"));
+                        }
+                    } else if ("return".equals(element.getLocalName()) && result == null) {
+                        result = variableOf(attribute(element, "about"));
+                    } else {
+                        throw new UnsupportedAlignmentException("Cell %s: function element %s is not supported.", cellId, element.getTagName());
+                    }
+                }
+                if (result == null || bound.contains(result)) {
+                    throw new UnsupportedAlignmentException("Cell %s: function %s must return a new variable.", cellId, functionName);
+                }
+
+                List<Element> params = new ArrayList<>(paramOrder.keySet());
+                params.sort(Comparator.comparing(paramOrder::get));
+                List<String> arguments = new ArrayList<>();
+                for (Element param : params) {
+                    String about = attribute(param, "about");
+                    if (!about.isEmpty()) {
+                        String variable = variableOf(about);
+                        if (!bound.contains(variable)) {
+                            throw new UnsupportedAlignmentException("Cell %s: variable %s is not bound.", cellId, variable);
+                        }
+                        arguments.add("STR(?" + variable + ")");
+                    } else {
+                        // kept verbatim, escape sequences are interpreted by the SPARQL parser
+                        arguments.add("\"" + attribute(param, "val").replace("\"", "\\\"").replace("\n", "\\n") + "\"");
+                    }
+                }
+
+                String expression;
+                if ("replace".equals(functionName) && (arguments.size() == 3 || arguments.size() == 4)) {
+                    expression = "REPLACE(" + String.join(", ", arguments) + ")";
+                } else if ("concat".equals(functionName) && !arguments.isEmpty()) {
+                    expression = "CONCAT(" + String.join(", ", arguments) + ")";
+                } else {
+                    throw new UnsupportedAlignmentException("Cell %s: function %s with %d parameters is not supported.",
+                            cellId, functionName, arguments.size());
+                }
+                bound.add(result);
+                expressions.add("BIND (" + expression + " AS ?" + result + ")");
+            }
+            return expressions;
+        }
+
+        private String variable(String name) throws UnsupportedAlignmentException {
+            if (!VARIABLE_NAME.matcher(name).matches()) {
+                throw new UnsupportedAlignmentException("Cell %s: invalid variable name '%s'.", cellId, name);
+            }
+            if (!template) {
+                bound.add(name);
+                return "?" + name;
+            }
+            return bound.contains(name) ? "?" + name : "_:" + name;
+        }
+
+        /**
+         * Returns the name of the variable identified by <code>sripas:node_x</code> or <code>sripas/var#x</code>.
+         */
+        private String variableOf(String iri) throws UnsupportedAlignmentException {
+            String name;
+            if (iri.startsWith(SRIPAS_NS + NODE_PREFIX)) {
+                name = iri.substring(SRIPAS_NS.length() + NODE_PREFIX.length());
+            } else if (iri.startsWith(VARIABLE_NS)) {
+                name = iri.substring(VARIABLE_NS.length());
+            } else {
+                throw new UnsupportedAlignmentException("Cell %s: '%s' doesn't identify a variable.", cellId, iri);
+            }
+            if (!VARIABLE_NAME.matcher(name).matches()) {
+                throw new UnsupportedAlignmentException("Cell %s: invalid variable name '%s'.", cellId, name);
+            }
+            return name;
+        }
+
+        private String anonymousNode() {
+            anonymousNodes++;
+            return (template ? "_:_a" : "?_a") + anonymousNodes;
+        }
+
+        private String elementIri(Element element) throws UnsupportedAlignmentException {
+            if (element.getNamespaceURI() == null) {
+                throw new UnsupportedAlignmentException("Cell %s: element %s has no namespace.", cellId, element.getTagName());
+            }
+            return element.getNamespaceURI() + element.getLocalName();
+        }
+
+        private String iri(String value) throws UnsupportedAlignmentException {
+            if (!value.contains(":") || INVALID_IRI_CHARACTERS.matcher(value).find()) {
+                throw new UnsupportedAlignmentException("Cell %s: '%s' is not an absolute IRI.", cellId, value);
+            }
+            return "<" + value + ">";
+        }
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2016-2018 Universitat Politècnica de València
+ * Copyright 2016-2018 Università della Calabria
+ * Copyright 2016-2018 Prodevelop, SL
+ * Copyright 2016-2018 Technische Universiteit Eindhoven
+ * Copyright 2016-2018 Fundación de la Comunidad Valenciana para la
+ * Investigación, Promoción y Estudios Comerciales de Valenciaport
+ * Copyright 2016-2018 Rinicom Ltd
+ * Copyright 2016-2018 Association pour le développement de la formation
+ * professionnelle dans le transport
+ * Copyright 2016-2018 Noatum Ports Valenciana, S.A.U.
+ * Copyright 2016-2018 XLAB razvoj programske opreme in svetovanje d.o.o.
+ * Copyright 2016-2018 Systems Research Institute Polish Academy of Sciences
+ * Copyright 2016-2018 Azienda Sanitaria Locale TO5
+ * Copyright 2016-2018 Alessandro Bassi Consulting SARL
+ * Copyright 2016-2018 Neways Technologies B.V.
+ *
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.interiot.intermw.comm.ipsm.translation;
+
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.update.UpdateAction;
+import org.apache.jena.update.UpdateRequest;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An alignment compiled into SPARQL updates, one per cell in step order. Compiled alignments are immutable and
+ * shared by all platforms and threads using the alignment.
+ */
+public class CompiledAlignment {
+    private final String name;
+    private final String version;
+    private final List<UpdateRequest> rules;
+
+    CompiledAlignment(String name, String version, List<UpdateRequest> rules) {
+        this.name = name;
+        this.version = version;
+        this.rules = Collections.unmodifiableList(rules);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getVersion() {
+        return version;
+    }
+
+    public int getRuleCount() {
+        return rules.size();
+    }
+
+    /**
+     * Rewrites the model in place.
+     */
+    public void apply(Model model) {
+        for (UpdateRequest rule : rules) {
+            UpdateAction.execute(rule, model);
+        }
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2016-2018 Universitat Politècnica de València
+ * Copyright 2016-2018 Università della Calabria
+ * Copyright 2016-2018 Prodevelop, SL
+ * Copyright 2016-2018 Technische Universiteit Eindhoven
+ * Copyright 2016-2018 Fundación de la Comunidad Valenciana para la
+ * Investigación, Promoción y Estudios Comerciales de Valenciaport
+ * Copyright 2016-2018 Rinicom Ltd
+ * Copyright 2016-2018 Association pour le développement de la formation
+ * professionnelle dans le transport
+ * Copyright 2016-2018 Noatum Ports Valenciana, S.A.U.
+ * Copyright 2016-2018 XLAB razvoj programske opreme in svetovanje d.o.o.
+ * Copyright 2016-2018 Systems Research Institute Polish Academy of Sciences
+ * Copyright 2016-2018 Azienda Sanitaria Locale TO5
+ * Copyright 2016-2018 Alessandro Bassi Consulting SARL
+ * Copyright 2016-2018 Neways Technologies B.V.
+ *
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.interiot.intermw.comm.ipsm.translation;
+
+import eu.interiot.intermw.commons.exceptions.MiddlewareException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-process translation of messages with IPSM alignments, sparing the Kafka round trip through the remote IPSM for
+ * alignments {@link AlignmentCompiler} can handle.
+ * <p>
+ * Alignments are retrieved once and compiled once, compiled alignments are cached by name and version (alignments
+ * registered in IPSM don't change). Alignments that can't be compiled are remembered too, so they are not retrieved
+ * again. An alignment that can't be retrieved is retried the next time it is needed.
+ */
+public class LocalTranslationEngine {
+    private final static Logger logger = LoggerFactory.getLogger(LocalTranslationEngine.class);
+
+    private final AlignmentSource alignmentSource;
+    private final Map<String, Optional<CompiledAlignment>> alignments = new ConcurrentHashMap<>();
+
+    public LocalTranslationEngine(AlignmentSource alignmentSource) {
+        this.alignmentSource = alignmentSource;
+    }
+
+    /**
+     * Returns the translation applying the input alignment and then the output alignment, like an IPSM channel, or
+     * <code>null</code> if one of them can't be applied locally. Alignments with empty names are skipped.
+     */
+    public Translation getTranslation(String inputAlignmentName, String inputAlignmentVersion,
+                                      String outputAlignmentName, String outputAlignmentVersion) {
+        List<CompiledAlignment> chain = new ArrayList<>();
+        if (!addAlignment(chain, inputAlignmentName, inputAlignmentVersion) ||
+                !addAlignment(chain, outputAlignmentName, outputAlignmentVersion)) {
+            return null;
+        }
+        return new Translation(chain);
+    }
+
+    private boolean addAlignment(List<CompiledAlignment> chain, String name, String version) {
+        if (name == null || name.isEmpty()) {
+            return true;
+        }
+        CompiledAlignment alignment = getAlignment(name, version);
+        if (alignment == null) {
+            return false;
+        }
+        chain.add(alignment);
+        return true;
+    }
+
+    private CompiledAlignment getAlignment(String name, String version) {
+        String key = name + ":" + version;
+        Optional<CompiledAlignment> alignment = alignments.get(key);
+        if (alignment == null) {
+            String alignmentData;
+            try {
+                alignmentData = alignmentSource.getAlignment(name, version);
+            } catch (Exception e) {
+                logger.warn("Failed to retrieve alignment {} for local translation: {}", key, e.getMessage());
+                return null;
+            }
+
+            try {
+                CompiledAlignment compiledAlignment = AlignmentCompiler.compile(alignmentData);
+                logger.info("Alignment {} has been compiled into {} rules for local translation.",
+                        key, compiledAlignment.getRuleCount());
+                alignment = Optional.of(compiledAlignment);
+            } catch (UnsupportedAlignmentException e) {
+                logger.info("Alignment {} can't be applied locally, messages will be translated by IPSM: {}",
+                        key, e.getMessage());
+                alignment = Optional.empty();
+            }
+            alignments.putIfAbsent(key, alignment);
+        }
+        return alignment.orElse(null);
+    }
+
+    /**
+     * Provides the source (RDF/XML) of alignments.
+     */
+    public interface AlignmentSource {
+        String getAlignment(String name, String version) throws MiddlewareException;
+    }
+}
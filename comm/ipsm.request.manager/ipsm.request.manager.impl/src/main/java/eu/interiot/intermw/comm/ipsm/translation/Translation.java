@@ -0,0 +1,79 @@
+/*
+ * Copyright 2016-2018 Universitat Politècnica de València
+ * Copyright 2016-2018 Università della Calabria
+ * Copyright 2016-2018 Prodevelop, SL
+ * Copyright 2016-2018 Technische Universiteit Eindhoven
+ * Copyright 2016-2018 Fundación de la Comunidad Valenciana para la
+ * Investigación, Promoción y Estudios Comerciales de Valenciaport
+ * Copyright 2016-2018 Rinicom Ltd
+ * Copyright 2016-2018 Association pour le développement de la formation
+ * professionnelle dans le transport
+ * Copyright 2016-2018 Noatum Ports Valenciana, S.A.U.
+ * Copyright 2016-2018 XLAB razvoj programske opreme in svetovanje d.o.o.
+ * Copyright 2016-2018 Systems Research Institute Polish Academy of Sciences
+ * Copyright 2016-2018 Azienda Sanitaria Locale TO5
+ * Copyright 2016-2018 Alessandro Bassi Consulting SARL
+ * Copyright 2016-2018 Neways Technologies B.V.
+ *
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.interiot.intermw.comm.ipsm.translation;
+
+import eu.interiot.message.Message;
+import eu.interiot.message.MessagePayload;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Compiled alignments applied to message payloads one after another, the local counterpart of an IPSM channel.
+ */
+public class Translation {
+    private final List<CompiledAlignment> alignments;
+
+    Translation(List<CompiledAlignment> alignments) {
+        this.alignments = Collections.unmodifiableList(alignments);
+    }
+
+    public List<CompiledAlignment> getAlignments() {
+        return alignments;
+    }
+
+    /**
+     * Translates the payload of the message. The payload is replaced only after all alignments have been applied, so
+     * a failed translation leaves the message unchanged.
+     */
+    public void apply(Message message) {
+        Model payload = message.getPayload().getJenaModel();
+        Model model = ModelFactory.createDefaultModel();
+        model.setNsPrefixes(payload.getNsPrefixMap());
+        model.add(payload);
+        for (CompiledAlignment alignment : alignments) {
+            alignment.apply(model);
+        }
+        message.setPayload(new MessagePayload(model));
+    }
+
+    @Override
+    public String toString() {
+        return alignments.stream()
+                .map(alignment -> alignment.getName() + ":" + alignment.getVersion())
+                .collect(Collectors.joining(" -> "));
+    }
+}
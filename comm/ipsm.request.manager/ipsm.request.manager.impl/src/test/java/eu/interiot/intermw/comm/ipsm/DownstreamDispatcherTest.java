@@ -0,0 +1,158 @@
+/*
+ * Copyright 2016-2018 Universitat Politècnica de València
+ * Copyright 2016-2018 Università della Calabria
+ * Copyright 2016-2018 Prodevelop, SL
+ * Copyright 2016-2018 Technische Universiteit Eindhoven
+ * Copyright 2016-2018 Fundación de la Comunidad Valenciana para la
+ * Investigación, Promoción y Estudios Comerciales de Valenciaport
+ * Copyright 2016-2018 Rinicom Ltd
+ * Copyright 2016-2018 Association pour le développement de la formation
+ * professionnelle dans le transport
+ * Copyright 2016-2018 Noatum Ports Valenciana, S.A.U.
+ * Copyright 2016-2018 XLAB razvoj programske opreme in svetovanje d.o.o.
+ * Copyright 2016-2018 Systems Research Institute Polish Academy of Sciences
+ * Copyright 2016-2018 Azienda Sanitaria Locale TO5
+ * Copyright 2016-2018 Alessandro Bassi Consulting SARL
+ * Copyright 2016-2018 Neways Technologies B.V.
+ *
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.interiot.intermw.comm.ipsm;
+
+import eu.interiot.intermw.commons.LaneExecutor;
+import eu.interiot.intermw.commons.exceptions.MiddlewareException;
+import eu.interiot.message.ID.EntityID;
+import eu.interiot.message.Message;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class DownstreamDispatcherTest {
+    private static final String PLATFORM1_ID = "http://test.inter-iot.eu/platforms/platform1";
+    private static final String PLATFORM2_ID = "http://test.inter-iot.eu/platforms/platform2";
+
+    private final LaneExecutor lanes = new LaneExecutor("test", 4, 1000);
+    private final Map<String, List<String>> handled = new HashMap<>();
+    private final List<String> failed = Collections.synchronizedList(new ArrayList<>());
+
+    public DownstreamDispatcherTest() {
+        handled.put(PLATFORM1_ID, Collections.synchronizedList(new ArrayList<>()));
+        handled.put(PLATFORM2_ID, Collections.synchronizedList(new ArrayList<>()));
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        lanes.shutdown(10, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void testLaneKey() {
+        // messages of a platform share the lane regardless of the conversation
+        assertEquals(PLATFORM1_ID, DownstreamDispatcher.getLaneKey(createMessage("conv1", PLATFORM1_ID)));
+        assertEquals(PLATFORM1_ID, DownstreamDispatcher.getLaneKey(createMessage("conv2", PLATFORM1_ID)));
+        assertEquals(PLATFORM2_ID, DownstreamDispatcher.getLaneKey(createMessage("conv1", PLATFORM2_ID)));
+
+        // messages not addressed to a platform are spread by conversation
+        assertEquals("conv3", DownstreamDispatcher.getLaneKey(createMessage("conv3", null)));
+    }
+
+    @Test
+    public void testMessagesOfPlatformAreHandledInOrder() throws InterruptedException {
+        DownstreamDispatcher dispatcher = new DownstreamDispatcher(lanes, this::record, this::recordFailure);
+
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            String conversationId = "conv" + i;
+            expected.add(conversationId);
+            dispatcher.dispatch(createMessage(conversationId, PLATFORM1_ID));
+            dispatcher.dispatch(createMessage(conversationId, PLATFORM2_ID));
+        }
+        assertTrue(lanes.shutdown(10, TimeUnit.SECONDS));
+
+        assertEquals(expected, handled.get(PLATFORM1_ID));
+        assertEquals(expected, handled.get(PLATFORM2_ID));
+        assertTrue(failed.isEmpty());
+    }
+
+    @Test
+    public void testPlatformsDontBlockEachOther() throws InterruptedException {
+        CountDownLatch platform1Released = new CountDownLatch(1);
+        CountDownLatch platform2Handled = new CountDownLatch(3);
+        DownstreamDispatcher dispatcher = new DownstreamDispatcher(lanes, message -> {
+            String platformId = DownstreamDispatcher.getLaneKey(message);
+            if (platformId.equals(PLATFORM1_ID)) {
+                platform1Released.await();
+            }
+            record(message);
+            if (platformId.equals(PLATFORM2_ID)) {
+                platform2Handled.countDown();
+            }
+        }, this::recordFailure);
+
+        // the two platforms are on different lanes, the first one is stuck on its first message
+        for (int i = 0; i < 3; i++) {
+            dispatcher.dispatch(createMessage("conv" + i, PLATFORM1_ID));
+            dispatcher.dispatch(createMessage("conv" + i, PLATFORM2_ID));
+        }
+        assertTrue(platform2Handled.await(5, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("conv0", "conv1", "conv2"), handled.get(PLATFORM2_ID));
+        assertTrue(handled.get(PLATFORM1_ID).isEmpty());
+
+        platform1Released.countDown();
+        assertTrue(lanes.shutdown(10, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("conv0", "conv1", "conv2"), handled.get(PLATFORM1_ID));
+    }
+
+    @Test
+    public void testFailureDoesNotStopLane() throws InterruptedException {
+        DownstreamDispatcher dispatcher = new DownstreamDispatcher(lanes, message -> {
+            if (message.getMetadata().getConversationId().get().equals("conv1")) {
+                throw new MiddlewareException("Failed to handle message.");
+            }
+            record(message);
+        }, this::recordFailure);
+
+        for (int i = 0; i < 3; i++) {
+            dispatcher.dispatch(createMessage("conv" + i, PLATFORM1_ID));
+        }
+        assertTrue(lanes.shutdown(10, TimeUnit.SECONDS));
+
+        assertEquals(Arrays.asList("conv0", "conv2"), handled.get(PLATFORM1_ID));
+        assertEquals(Collections.singletonList("conv1"), failed);
+    }
+
+    private void record(Message message) {
+        handled.get(DownstreamDispatcher.getLaneKey(message)).add(message.getMetadata().getConversationId().get());
+    }
+
+    private void recordFailure(Message message, Exception e) {
+        failed.add(message.getMetadata().getConversationId().get());
+    }
+
+    private static Message createMessage(String conversationId, String platformId) {
+        Message message = new Message();
+        message.getMetadata().setConversationId(conversationId);
+        if (platformId != null) {
+            message.getMetadata().asPlatformMessageMetadata().addReceivingPlatformID(new EntityID(platformId));
+        }
+        return message;
+    }
+}
@@ -0,0 +1,282 @@
+/*
+ * Copyright 2016-2018 Universitat Politècnica de València
+ * Copyright 2016-2018 Università della Calabria
+ * Copyright 2016-2018 Prodevelop, SL
+ * Copyright 2016-2018 Technische Universiteit Eindhoven
+ * Copyright 2016-2018 Fundación de la Comunidad Valenciana para la
+ * Investigación, Promoción y Estudios Comerciales de Valenciaport
+ * Copyright 2016-2018 Rinicom Ltd
+ * Copyright 2016-2018 Association pour le développement de la formation
+ * professionnelle dans le transport
+ * Copyright 2016-2018 Noatum Ports Valenciana, S.A.U.
+ * Copyright 2016-2018 XLAB razvoj programske opreme in svetovanje d.o.o.
+ * Copyright 2016-2018 Systems Research Institute Polish Academy of Sciences
+ * Copyright 2016-2018 Azienda Sanitaria Locale TO5
+ * Copyright 2016-2018 Alessandro Bassi Consulting SARL
+ * Copyright 2016-2018 Neways Technologies B.V.
+ *
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.interiot.intermw.comm.ipsm;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import eu.interiot.intermw.commons.exceptions.MiddlewareException;
+import eu.interiot.intermw.commons.model.Platform;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests planning of IPSM channel changes against a fake IPSM API recording the requests it gets.
+ */
+public class IPSMApiClientTest {
+    private static final String PLATFORM1_ID = "http://test.inter-iot.eu/platforms/platform1";
+    private static final String PLATFORM2_ID = "http://test.inter-iot.eu/platforms/platform2";
+
+    private FakeIPSM ipsm;
+    private IPSMApiClient ipsmApiClient;
+
+    @Before
+    public void setUp() throws IOException {
+        ipsm = new FakeIPSM();
+        ipsmApiClient = new IPSMApiClient(ipsm.getBaseUrl());
+    }
+
+    @After
+    public void tearDown() {
+        ipsm.stop();
+    }
+
+    @Test
+    public void testMissingChannelsAreCreated() throws MiddlewareException {
+        Map<String, MiddlewareException> errors = ipsmApiClient.reconcileChannels(Arrays.asList(
+                createPlatform(PLATFORM1_ID, "down", "1.0", "up", "1.0"),
+                createPlatform(PLATFORM2_ID, "down", "1.0", "", "")));
+
+        assertTrue(errors.isEmpty());
+        assertEquals(1, ipsm.count("GET /channels"));
+        assertEquals(3, ipsm.count("POST /channels"));
+        assertEquals(3, ipsm.channels.size());
+        assertNotNull(ipsm.find(DefaultIPSMRequestManager.getTopicToIPSMUpstream(PLATFORM1_ID)));
+        assertNull(ipsm.find(DefaultIPSMRequestManager.getTopicToIPSMUpstream(PLATFORM2_ID)));
+    }
+
+    @Test
+    public void testUpToDateChannelsAreKept() throws MiddlewareException {
+        ipsm.addChannel(DefaultIPSMRequestManager.getTopicToIPSMDownstream(PLATFORM1_ID),
+                DefaultIPSMRequestManager.getTopicFromIPSMDownstream(PLATFORM1_ID), "down", "1.0", 1);
+        // scaled up before a restart, more parallelism than required still matches
+        ipsm.addChannel(DefaultIPSMRequestManager.getTopicToIPSMUpstream(PLATFORM1_ID),
+                DefaultIPSMRequestManager.getTopicFromIPSMUpstream(PLATFORM1_ID), "up", "1.0", 4);
+
+        Map<String, MiddlewareException> errors = ipsmApiClient.reconcileChannels(Collections.singletonList(
+                createPlatform(PLATFORM1_ID, "down", "1.0", "up", "1.0")));
+
+        assertTrue(errors.isEmpty());
+        assertEquals(Collections.singletonList("GET /channels"), ipsm.requests);
+    }
+
+    @Test
+    public void testChangedAndUnneededChannels() throws MiddlewareException {
+        IPSMApiClient.ChannelInfo downstream = ipsm.addChannel(DefaultIPSMRequestManager.getTopicToIPSMDownstream(PLATFORM1_ID),
+                DefaultIPSMRequestManager.getTopicFromIPSMDownstream(PLATFORM1_ID), "down", "1.0", 1);
+        IPSMApiClient.ChannelInfo upstream = ipsm.addChannel(DefaultIPSMRequestManager.getTopicToIPSMUpstream(PLATFORM1_ID),
+                DefaultIPSMRequestManager.getTopicFromIPSMUpstream(PLATFORM1_ID), "up", "1.0", 1);
+
+        // downstream alignment has a new version, upstream alignments have been removed
+        ipsmApiClient.reconcileChannels(Collections.singletonList(createPlatform(PLATFORM1_ID, "down", "2.0", "", "")));
+
+        assertEquals(1, ipsm.count("DELETE /channels/" + downstream.getId()));
+        assertEquals(1, ipsm.count("DELETE /channels/" + upstream.getId()));
+        assertEquals(1, ipsm.count("POST /channels"));
+        assertEquals(1, ipsm.channels.size());
+        assertEquals("2.0", ipsm.find(downstream.getSource()).getInpAlignmentVersion());
+    }
+
+    @Test
+    public void testPlatformSetupUsesKnownChannels() throws MiddlewareException {
+        Platform platform = createPlatform(PLATFORM1_ID, "down", "1.0", "", "");
+        ipsmApiClient.setupChannelsForPlatform(platform);
+        assertEquals(Arrays.asList("GET /channels", "POST /channels"), ipsm.requests);
+
+        ipsm.requests.clear();
+        ipsmApiClient.setupChannelsForPlatform(platform);
+        ipsmApiClient.setupChannelsForPlatform(createPlatform(PLATFORM2_ID, "down", "1.0", "", ""));
+
+        assertEquals(Collections.singletonList("POST /channels"), ipsm.requests);
+        assertEquals(2, ipsm.channels.size());
+    }
+
+    @Test
+    public void testPlatformSetupSeesChannelCreatedInIPSM() throws MiddlewareException {
+        ipsmApiClient.setupChannelsForPlatform(createPlatform(PLATFORM1_ID, "down", "1.0", "", ""));
+
+        // created by someone else after the channels have been retrieved
+        ipsm.addChannel(DefaultIPSMRequestManager.getTopicToIPSMDownstream(PLATFORM2_ID),
+                DefaultIPSMRequestManager.getTopicFromIPSMDownstream(PLATFORM2_ID), "down", "0.9", 1);
+        ipsm.requests.clear();
+        ipsmApiClient.setupChannelsForPlatform(createPlatform(PLATFORM2_ID, "down", "1.0", "", ""));
+
+        assertEquals(Arrays.asList("POST /channels", "GET /channels", "DELETE /channels/2", "POST /channels"),
+                ipsm.requests);
+        assertEquals("1.0", ipsm.find(DefaultIPSMRequestManager.getTopicToIPSMDownstream(PLATFORM2_ID))
+                .getInpAlignmentVersion());
+    }
+
+    @Test
+    public void testPlatformSetupSeesChannelRemovedInIPSM() throws MiddlewareException {
+        ipsm.addChannel(DefaultIPSMRequestManager.getTopicToIPSMDownstream(PLATFORM1_ID),
+                DefaultIPSMRequestManager.getTopicFromIPSMDownstream(PLATFORM1_ID), "down", "1.0", 1);
+        ipsmApiClient.reconcileChannels(Collections.singletonList(createPlatform(PLATFORM1_ID, "down", "1.0", "", "")));
+
+        // removed by someone else after the channels have been retrieved
+        ipsm.channels.clear();
+        ipsm.requests.clear();
+        ipsmApiClient.setupChannelsForPlatform(createPlatform(PLATFORM1_ID, "down", "2.0", "", ""));
+
+        assertEquals(Arrays.asList("DELETE /channels/1", "POST /channels"), ipsm.requests);
+        assertEquals(1, ipsm.channels.size());
+    }
+
+    @Test
+    public void testFailedChangeIsReportedPerPlatform() throws MiddlewareException {
+        ipsm.failCreate = true;
+        Map<String, MiddlewareException> errors = ipsmApiClient.reconcileChannels(Collections.singletonList(
+                createPlatform(PLATFORM1_ID, "down", "1.0", "", "")));
+
+        assertEquals(Collections.singleton(PLATFORM1_ID), errors.keySet());
+    }
+
+    private static Platform createPlatform(String platformId, String downstreamAlignment, String downstreamVersion,
+                                           String upstreamAlignment, String upstreamVersion) {
+        Platform platform = new Platform();
+        platform.setPlatformId(platformId);
+        platform.setDownstreamInputAlignmentName(downstreamAlignment);
+        platform.setDownstreamInputAlignmentVersion(downstreamVersion);
+        platform.setDownstreamOutputAlignmentName("");
+        platform.setDownstreamOutputAlignmentVersion("");
+        platform.setUpstreamInputAlignmentName(upstreamAlignment);
+        platform.setUpstreamInputAlignmentVersion(upstreamVersion);
+        platform.setUpstreamOutputAlignmentName("");
+        platform.setUpstreamOutputAlignmentVersion("");
+        return platform;
+    }
+
+    /**
+     * Minimal IPSM channel API keeping channels in memory
+     */
+    private static class FakeIPSM {
+        private final HttpServer server;
+        private final ObjectMapper objectMapper = new ObjectMapper();
+        private final List<IPSMApiClient.ChannelInfo> channels = new CopyOnWriteArrayList<>();
+        private final List<String> requests = new CopyOnWriteArrayList<>();
+        private final AtomicInteger nextId = new AtomicInteger(1);
+        private volatile boolean failCreate;
+
+        private FakeIPSM() throws IOException {
+            server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+            server.createContext("/channels", this::handle);
+            server.start();
+        }
+
+        private String getBaseUrl() {
+            return "http://localhost:" + server.getAddress().getPort();
+        }
+
+        private void stop() {
+            server.stop(0);
+        }
+
+        private IPSMApiClient.ChannelInfo addChannel(String source, String sink, String alignmentName,
+                                                     String alignmentVersion, int parallelism) {
+            IPSMApiClient.ChannelInfo channelInfo = new IPSMApiClient.ChannelInfo();
+            channelInfo.setId(nextId.getAndIncrement());
+            channelInfo.setSource(source);
+            channelInfo.setSink(sink);
+            channelInfo.setInpAlignmentName(alignmentName);
+            channelInfo.setInpAlignmentVersion(alignmentVersion);
+            channelInfo.setOutAlignmentName("");
+            channelInfo.setOutAlignmentVersion("");
+            channelInfo.setParallelism(parallelism);
+            channels.add(channelInfo);
+            return channelInfo;
+        }
+
+        private IPSMApiClient.ChannelInfo find(String source) {
+            for (IPSMApiClient.ChannelInfo channelInfo : channels) {
+                if (channelInfo.getSource().equals(source)) {
+                    return channelInfo;
+                }
+            }
+            return null;
+        }
+
+        private long count(String request) {
+            return requests.stream().filter(request::equals).count();
+        }
+
+        private void handle(HttpExchange exchange) throws IOException {
+            String method = exchange.getRequestMethod();
+            String path = exchange.getRequestURI().getPath();
+            requests.add(method + " " + path);
+
+            if (method.equals("GET")) {
+                byte[] body = objectMapper.writeValueAsBytes(channels);
+                exchange.getResponseHeaders().add("Content-Type", "application/json");
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+                return;
+            }
+
+            int status;
+            if (method.equals("POST") && !failCreate) {
+                IPSMApiClient.ChannelInput channelInput = objectMapper.readValue(exchange.getRequestBody(),
+                        IPSMApiClient.ChannelInput.class);
+                if (find(channelInput.getSource()) != null) {
+                    status = 409;
+                } else {
+                    addChannel(channelInput.getSource(), channelInput.getSink(), channelInput.getInpAlignmentName(),
+                            channelInput.getInpAlignmentVersion(), channelInput.getParallelism());
+                    status = 200;
+                }
+            } else if (method.equals("DELETE")) {
+                int id = Integer.parseInt(path.substring(path.lastIndexOf('/') + 1));
+                status = channels.removeIf(channelInfo -> channelInfo.getId() == id) ? 200 : 404;
+            } else {
+                status = 500;
+            }
+            byte[] body = "{}".getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(status, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        }
+    }
+}
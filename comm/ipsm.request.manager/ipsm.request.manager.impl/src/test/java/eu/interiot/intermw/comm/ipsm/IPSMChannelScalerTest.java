@@ -0,0 +1,272 @@
+/*
+ * Copyright 2016-2018 Universitat Politècnica de València
+ * Copyright 2016-2018 Università della Calabria
+ * Copyright 2016-2018 Prodevelop, SL
+ * Copyright 2016-2018 Technische Universiteit Eindhoven
+ * Copyright 2016-2018 Fundación de la Comunidad Valenciana para la
+ * Investigación, Promoción y Estudios Comerciales de Valenciaport
+ * Copyright 2016-2018 Rinicom Ltd
+ * Copyright 2016-2018 Association pour le développement de la formation
+ * professionnelle dans le transport
+ * Copyright 2016-2018 Noatum Ports Valenciana, S.A.U.
+ * Copyright 2016-2018 XLAB razvoj programske opreme in svetovanje d.o.o.
+ * Copyright 2016-2018 Systems Research Institute Polish Academy of Sciences
+ * Copyright 2016-2018 Azienda Sanitaria Locale TO5
+ * Copyright 2016-2018 Alessandro Bassi Consulting SARL
+ * Copyright 2016-2018 Neways Technologies B.V.
+ *
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.interiot.intermw.comm.ipsm;
+
+import eu.interiot.intermw.commons.exceptions.MiddlewareException;
+import eu.interiot.intermw.commons.model.IPSMChannelStatistics;
+import eu.interiot.message.Message;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class IPSMChannelScalerTest {
+    private static final String PLATFORM1_ID = "http://test.inter-iot.eu/platforms/platform1";
+    private static final String PLATFORM2_ID = "http://test.inter-iot.eu/platforms/platform2?type=test";
+
+    private RecordingIPSMApiClient ipsmApiClient;
+    private List<String> published;
+    private IPSMChannelScaler.ChannelPublisher publisher;
+
+    @Before
+    public void setUp() {
+        ipsmApiClient = new RecordingIPSMApiClient();
+        published = new ArrayList<>();
+        publisher = (topic, message) ->
+                published.add(topic + " " + message.getMetadata().getConversationId().orElse(null));
+    }
+
+    @Test
+    public void testParsePlatformParallelism() {
+        Map<String, Integer> parallelism = IPSMChannelScaler.parsePlatformParallelism(
+                " " + PLATFORM1_ID + " = 2 ,, " + PLATFORM2_ID + "=4,");
+        assertEquals(2, parallelism.size());
+        assertEquals(Integer.valueOf(2), parallelism.get(PLATFORM1_ID));
+        assertEquals(Integer.valueOf(4), parallelism.get(PLATFORM2_ID));
+
+        assertTrue(IPSMChannelScaler.parsePlatformParallelism("").isEmpty());
+        assertTrue(IPSMChannelScaler.parsePlatformParallelism(" , ").isEmpty());
+
+        for (String invalid : Arrays.asList(PLATFORM1_ID, "=2", PLATFORM1_ID + "=two")) {
+            try {
+                IPSMChannelScaler.parsePlatformParallelism(invalid);
+                fail("IllegalArgumentException expected for " + invalid);
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void testInitialParallelism() {
+        Properties properties = new Properties();
+        properties.setProperty("parallelism", "2");
+        properties.setProperty("maxParallelism", "8");
+        properties.setProperty("parallelism.platforms", PLATFORM1_ID + "=16");
+        IPSMChannelScaler scaler = new IPSMChannelScaler(properties, ipsmApiClient, publisher);
+
+        // capped by the maximum parallelism
+        assertEquals(8, scaler.getParallelism(PLATFORM1_ID, createDownstreamInput(PLATFORM1_ID), 0));
+        assertEquals(2, scaler.getParallelism(PLATFORM2_ID, createDownstreamInput(PLATFORM2_ID), 0));
+        // an existing channel with more parallelism keeps it
+        assertEquals(4, scaler.getParallelism(PLATFORM2_ID, createUpstreamInput(PLATFORM2_ID), 4));
+        assertEquals(12, scaler.getParallelism(PLATFORM2_ID, createDownstreamInput(PLATFORM2_ID), 12));
+        assertEquals(12, scaler.getParallelism(PLATFORM2_ID, createDownstreamInput(PLATFORM2_ID), 0));
+    }
+
+    @Test
+    public void testScaleUpOnMessageRate() {
+        IPSMChannelScaler scaler = createAutoscaler("0.001", "0");
+        scaler.getParallelism(PLATFORM1_ID, createDownstreamInput(PLATFORM1_ID), 0);
+
+        // overloaded for a single interval only
+        scaler.recordSent(PLATFORM1_ID, true, "msg1");
+        scaler.evaluate();
+        scaler.evaluate();
+        scaler.recordSent(PLATFORM1_ID, true, "msg2");
+        scaler.evaluate();
+        assertTrue(ipsmApiClient.rescaled.isEmpty());
+
+        scaler.recordSent(PLATFORM1_ID, true, "msg3");
+        scaler.evaluate();
+        assertEquals(Collections.singletonList(2), ipsmApiClient.rescaled);
+        assertEquals(2, getStatistics(scaler).getParallelism());
+        assertEquals(1, getStatistics(scaler).getScaleUps());
+
+        // doubled up to the maximum parallelism only
+        for (int i = 0; i < 6; i++) {
+            scaler.recordSent(PLATFORM1_ID, true, "msg" + (i + 4));
+            scaler.evaluate();
+        }
+        assertEquals(Arrays.asList(2, 4), ipsmApiClient.rescaled);
+        assertEquals(4, getStatistics(scaler).getParallelism());
+    }
+
+    @Test
+    public void testScaleUpOnLag() throws InterruptedException {
+        IPSMChannelScaler scaler = createAutoscaler("1000000000", "5");
+        scaler.getParallelism(PLATFORM1_ID, createUpstreamInput(PLATFORM1_ID), 0);
+
+        // translated in time
+        scaler.recordSent(PLATFORM1_ID, false, "msg1");
+        scaler.recordReceived(PLATFORM1_ID, false, "msg1");
+        scaler.evaluate();
+        assertEquals(0, getStatistics(scaler).getPendingMessages());
+
+        // still waiting for translation in both intervals
+        scaler.recordSent(PLATFORM1_ID, false, "msg2");
+        Thread.sleep(20);
+        scaler.evaluate();
+        assertEquals(1, getStatistics(scaler).getPendingMessages());
+        assertTrue(ipsmApiClient.rescaled.isEmpty());
+        scaler.evaluate();
+        assertEquals(Collections.singletonList(2), ipsmApiClient.rescaled);
+    }
+
+    @Test
+    public void testFailedRescaleKeepsParallelism() {
+        IPSMChannelScaler scaler = createAutoscaler("0.001", "0");
+        scaler.getParallelism(PLATFORM1_ID, createDownstreamInput(PLATFORM1_ID), 0);
+
+        ipsmApiClient.failure = new MiddlewareException("IPSM is not available.");
+        for (int i = 0; i < 2; i++) {
+            scaler.recordSent(PLATFORM1_ID, true, "msg" + i);
+            scaler.evaluate();
+        }
+        assertEquals(1, getStatistics(scaler).getParallelism());
+        assertEquals(0, getStatistics(scaler).getScaleUps());
+
+        // the channel no longer exists in IPSM
+        ipsmApiClient.failure = null;
+        ipsmApiClient.channelExists = false;
+        for (int i = 0; i < 2; i++) {
+            scaler.recordSent(PLATFORM1_ID, true, "msg" + i);
+            scaler.evaluate();
+        }
+        assertEquals(1, getStatistics(scaler).getParallelism());
+        assertEquals(2, ipsmApiClient.rescaled.size());
+    }
+
+    @Test
+    public void testMessagesHeldWhileRescaling() {
+        IPSMChannelScaler scaler = createAutoscaler("0.001", "0");
+        scaler.getParallelism(PLATFORM1_ID, createDownstreamInput(PLATFORM1_ID), 0);
+        String source1 = DefaultIPSMRequestManager.getTopicToIPSMDownstream(PLATFORM1_ID);
+        String source2 = DefaultIPSMRequestManager.getTopicToIPSMDownstream(PLATFORM2_ID);
+
+        // sent while the channel doesn't exist in IPSM, messages of other channels are not held
+        ipsmApiClient.duringRescale = () -> {
+            send(scaler, PLATFORM1_ID, "conv3");
+            send(scaler, PLATFORM1_ID, "conv4");
+            send(scaler, PLATFORM2_ID, "conv5");
+            assertEquals(Arrays.asList(source1 + " conv1", source1 + " conv2", source2 + " conv5"), published);
+        };
+        send(scaler, PLATFORM1_ID, "conv1");
+        scaler.evaluate();
+        send(scaler, PLATFORM1_ID, "conv2");
+        scaler.evaluate();
+        assertEquals(Collections.singletonList(2), ipsmApiClient.rescaled);
+        assertEquals(Arrays.asList(source1 + " conv1", source1 + " conv2", source2 + " conv5", source1 + " conv3",
+                source1 + " conv4"), published);
+
+        // held messages are released even if the channel couldn't be re-created
+        published.clear();
+        ipsmApiClient.failure = new MiddlewareException("IPSM is not available.");
+        ipsmApiClient.duringRescale = () -> send(scaler, PLATFORM1_ID, "conv8");
+        send(scaler, PLATFORM1_ID, "conv6");
+        scaler.evaluate();
+        send(scaler, PLATFORM1_ID, "conv7");
+        scaler.evaluate();
+        assertEquals(Arrays.asList(2, 4), ipsmApiClient.rescaled);
+        assertEquals(Arrays.asList(source1 + " conv6", source1 + " conv7", source1 + " conv8"), published);
+
+        send(scaler, PLATFORM1_ID, "conv9");
+        assertEquals(source1 + " conv9", published.get(3));
+    }
+
+    private static void send(IPSMChannelScaler scaler, String platformId, String conversationId) {
+        Message message = new Message();
+        message.getMetadata().setConversationId(conversationId);
+        try {
+            scaler.send(platformId, true, message);
+        } catch (MiddlewareException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private IPSMChannelScaler createAutoscaler(String messageRate, String lag) {
+        Properties properties = new Properties();
+        properties.setProperty("maxParallelism", "4");
+        properties.setProperty("autoscale.messageRate", messageRate);
+        properties.setProperty("autoscale.lag", lag);
+        properties.setProperty("autoscale.intervals", "2");
+        // evaluated by the test
+        properties.setProperty("autoscale", "false");
+        return new IPSMChannelScaler(properties, ipsmApiClient, publisher);
+    }
+
+    private static IPSMChannelStatistics getStatistics(IPSMChannelScaler scaler) {
+        List<IPSMChannelStatistics> statistics = scaler.getStatistics();
+        assertEquals(1, statistics.size());
+        return statistics.get(0);
+    }
+
+    private static IPSMApiClient.ChannelInput createDownstreamInput(String platformId) {
+        IPSMApiClient.ChannelInput channelInput = new IPSMApiClient.ChannelInput();
+        channelInput.setSource(DefaultIPSMRequestManager.getTopicToIPSMDownstream(platformId));
+        channelInput.setSink(DefaultIPSMRequestManager.getTopicFromIPSMDownstream(platformId));
+        return channelInput;
+    }
+
+    private static IPSMApiClient.ChannelInput createUpstreamInput(String platformId) {
+        IPSMApiClient.ChannelInput channelInput = new IPSMApiClient.ChannelInput();
+        channelInput.setSource(DefaultIPSMRequestManager.getTopicToIPSMUpstream(platformId));
+        channelInput.setSink(DefaultIPSMRequestManager.getTopicFromIPSMUpstream(platformId));
+        return channelInput;
+    }
+
+    private static class RecordingIPSMApiClient extends IPSMApiClient {
+        private final List<Integer> rescaled = new ArrayList<>();
+        private MiddlewareException failure;
+        private boolean channelExists = true;
+        private Runnable duringRescale;
+
+        RecordingIPSMApiClient() {
+            super("http://localhost:8888");
+        }
+
+        @Override
+        public boolean rescaleChannel(String source, String sink, int parallelism) throws MiddlewareException {
+            rescaled.add(parallelism);
+            if (duringRescale != null) {
+                duringRescale.run();
+            }
+            if (failure != null) {
+                throw failure;
+            }
+            return channelExists;
+        }
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2016-2018 Universitat Politècnica de València
+ * Copyright 2016-2018 Università della Calabria
+ * Copyright 2016-2018 Prodevelop, SL
+ * Copyright 2016-2018 Technische Universiteit Eindhoven
+ * Copyright 2016-2018 Fundación de la Comunidad Valenciana para la
+ * Investigación, Promoción y Estudios Comerciales de Valenciaport
+ * Copyright 2016-2018 Rinicom Ltd
+ * Copyright 2016-2018 Association pour le développement de la formation
+ * professionnelle dans le transport
+ * Copyright 2016-2018 Noatum Ports Valenciana, S.A.U.
+ * Copyright 2016-2018 XLAB razvoj programske opreme in svetovanje d.o.o.
+ * Copyright 2016-2018 Systems Research Institute Polish Academy of Sciences
+ * Copyright 2016-2018 Azienda Sanitaria Locale TO5
+ * Copyright 2016-2018 Alessandro Bassi Consulting SARL
+ * Copyright 2016-2018 Neways Technologies B.V.
+ *
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.interiot.intermw.comm.ipsm.translation;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.jena.datatypes.xsd.XSDDatatype;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.rdf.model.Property;
+import org.apache.jena.rdf.model.Resource;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+public class AlignmentCompilerTest {
+    private static final String MY_PORT = "http://www.myport.com/geo/my_port#";
+    private static final String WGS84 = "http://www.w3.org/2003/01/geo/wgs84_pos#";
+
+    @Test
+    public void testCompile() throws Exception {
+        CompiledAlignment alignment = AlignmentCompiler.compile(readAlignment("test-downstream-alignment.rdf"));
+        assertEquals("Test_Downstream_Alignment", alignment.getName());
+        assertEquals("1.0", alignment.getVersion());
+        assertEquals(3, alignment.getRuleCount());
+    }
+
+    @Test
+    public void testApply() throws Exception {
+        CompiledAlignment alignment = AlignmentCompiler.compile(readAlignment("test-downstream-alignment.rdf"));
+
+        Model model = ModelFactory.createDefaultModel();
+        Resource position = model.createResource("http://example.com/position");
+        Property label = model.createProperty("http://www.w3.org/2000/01/rdf-schema#label");
+        position.addProperty(model.createProperty(MY_PORT + "hasGPSlatitude"), "42", XSDDatatype.XSDinteger);
+        position.addProperty(label, "Gate 1");
+
+        alignment.apply(model);
+
+        assertFalse(model.contains(position, model.createProperty(MY_PORT + "hasGPSlatitude")));
+        assertTrue(model.contains(position, model.createProperty(WGS84 + "lat"),
+                model.createTypedLiteral("42", XSDDatatype.XSDinteger)));
+        assertTrue(model.contains(position, label, "Gate 1"));
+        assertEquals(2, model.size());
+    }
+
+    @Test(expected = UnsupportedAlignmentException.class)
+    public void testUnsupportedFunction() throws Exception {
+        String alignmentData = readAlignment("test-downstream-alignment.rdf")
+                .replace("<sripas:function about=\"replace\">", "<sripas:function about=\"sum\">");
+        AlignmentCompiler.compile(alignmentData);
+    }
+
+    private static String readAlignment(String name) throws IOException {
+        try (InputStream in = AlignmentCompilerTest.class.getResourceAsStream("/alignments/" + name)) {
+            return IOUtils.toString(in, StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -32,6 +32,10 @@
  */
 package eu.interiot.intermw.comm.prm;
 
+import eu.interiot.intermw.commons.model.LaneStatistics;
+
+import java.util.List;
+
 /**
  * Platform Request Manager Interface
  *
@@ -39,6 +43,11 @@ package eu.interiot.intermw.comm.prm;
  */
 public interface PlatformRequestManager {
 
+    /**
+     * Returns queue depth and throughput of the lanes messages are processed on
+     */
+    List<LaneStatistics> getLaneStatistics();
+
     /**
      * Push IPSM-translated message upstream towards the user
      *
@@ -33,13 +33,17 @@
 package eu.interiot.intermw.comm.prm;
 
 import eu.interiot.intermw.bridge.BridgeContext;
+import eu.interiot.intermw.bridge.BridgeRoutes;
 import eu.interiot.intermw.comm.broker.Publisher;
 import eu.interiot.intermw.comm.broker.exceptions.BrokerException;
 import eu.interiot.intermw.comm.control.abstracts.AbstractControlComponent;
+import eu.interiot.intermw.commons.LaneExecutor;
+import eu.interiot.intermw.commons.RestoreProgress;
 import eu.interiot.intermw.commons.exceptions.ErrorCode;
 import eu.interiot.intermw.commons.exceptions.MiddlewareException;
 import eu.interiot.intermw.commons.interfaces.Configuration;
 import eu.interiot.intermw.commons.model.IoTDevice;
+import eu.interiot.intermw.commons.model.LaneStatistics;
 import eu.interiot.intermw.commons.model.Plat2PlatSubscription;
 import eu.interiot.intermw.commons.model.Platform;
 import eu.interiot.intermw.commons.model.QueryReturn;
@@ -47,7 +51,11 @@ import eu.interiot.intermw.commons.model.enums.BrokerTopics;
 import eu.interiot.intermw.commons.model.enums.QueryType;
 import eu.interiot.intermw.commons.requests.*;
 import eu.interiot.intermw.commons.responses.DeviceRemoveRes;
+import eu.interiot.intermw.services.registry.AsyncRegistry;
+import eu.interiot.intermw.services.registry.DeviceWriteBehindQueue;
+import eu.interiot.intermw.services.registry.DeviceWriteResult;
 import eu.interiot.intermw.services.registry.ParliamentRegistry;
+import eu.interiot.intermw.services.registry.RegistrySnapshot;
 import eu.interiot.message.ID.EntityID;
 import eu.interiot.message.ID.PropertyID;
 import eu.interiot.message.Message;
@@ -55,6 +63,7 @@ import eu.interiot.message.MessageMetadata;
 import eu.interiot.message.MessagePayload;
 import eu.interiot.message.managers.URI.URIManagerINTERMW;
 import eu.interiot.message.managers.URI.URIManagerMessageMetadata.MessageTypesEnum;
+import eu.interiot.message.metadata.PlatformMessageMetadata;
 import eu.interiot.message.metadata.QueryMessageMetadata;
 import eu.interiot.message.payload.GOIoTPPayload;
 import eu.interiot.message.payload.types.ObservationPayload;
@@ -66,6 +75,9 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
 
 import static eu.interiot.message.managers.URI.URIManagerMessageMetadata.MessageTypesEnum.*;
 
@@ -88,18 +100,31 @@ import static eu.interiot.message.managers.URI.URIManagerMessageMetadata.Message
 public class DefaultPlatformRequestManager extends AbstractControlComponent implements PlatformRequestManager {
 
     private final static Logger logger = LoggerFactory.getLogger(DefaultPlatformRequestManager.class);
+    private static final long LANE_SHUTDOWN_TIMEOUT = 30000;
     private Publisher<Message> publisherIPSMRM;
     private Publisher<Message> publisherARM;
     private ParliamentRegistry registry;
     /**
-     * Conversation ID to Plat2PlatSubscription objects mapping used for routing observation messages originating from plat-to-plat subscriptions
+     * Registry facade used on hot paths, so listener threads don't wait for registry I/O
      */
-    private Map<String, Plat2PlatSubscription> plat2PlatSubscriptionsRoutingMap = new HashMap<>();
+    private AsyncRegistry asyncRegistry;
+    /**
+     * Coalesces and batches device discovery writes, null if disabled
+     */
+    private DeviceWriteBehindQueue deviceWriteBehindQueue;
+    /**
+     * Binary registry snapshot the state is restored from at boot and written on shutdown
+     */
+    private RegistrySnapshot registrySnapshot;
+    /**
+     * Routing of plat-to-plat subscriptions, kept in line with the registry
+     */
+    private Plat2PlatSubscriptionRouting plat2PlatRouting;
 
     /**
-     * Conversation ID of UNSUBSCRIBE message to subscription ID mapping for platform-to-platform subscriptions.
+     * Worker lanes messages of both directions are processed on, partitioned by platform ID
      */
-    private Map<String, String> plat2PlatUnsubscribeConversationIdMap = new HashMap<>();
+    private LaneExecutor lanes;
 
     /**
      * @param configuration The configuration for this platform request manager
@@ -108,10 +133,19 @@ public class DefaultPlatformRequestManager extends AbstractControlComponent impl
         super();
         logger.debug("DefaultPlatformRequestManager is initializing...");
         registry = initParliamentRegistry(configuration);
+        asyncRegistry = new AsyncRegistry(registry);
+        plat2PlatRouting = new Plat2PlatSubscriptionRouting(asyncRegistry::addPlat2PlatSubscription,
+                asyncRegistry::deletePlat2PlatSubscription, this::publishDownstream);
+        if (DeviceWriteBehindQueue.isEnabled(configuration)) {
+            deviceWriteBehindQueue = new DeviceWriteBehindQueue(registry);
+        }
         publisherIPSMRM = getPublisher(BrokerTopics.PRM_IPSMRM.getTopicName(), Message.class);
         publisherARM = getPublisher(BrokerTopics.PRM_ARM.getTopicName(), Message.class);
+        registrySnapshot = new RegistrySnapshot(registry);
+        lanes = LaneExecutor.create("prm", configuration, "prm.");
         setUpListeners();
         restoreState();
+        registrySnapshot.start();
         logger.debug("DefaultPlatformRequestManager has been initialized successfully.");
     }
 
@@ -119,6 +153,29 @@ public class DefaultPlatformRequestManager extends AbstractControlComponent impl
         return new ParliamentRegistry(configuration);
     }
 
+    /**
+     * Finishes messages queued on the lanes, then writes queued device discovery updates and the registry snapshot
+     * before releasing broker resources.
+     */
+    @Override
+    public void destroy() throws MiddlewareException {
+        try {
+            lanes.shutdown(LANE_SHUTDOWN_TIMEOUT, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.warn("Interrupted while waiting for queued messages to be processed.");
+        }
+        if (deviceWriteBehindQueue != null) {
+            deviceWriteBehindQueue.close();
+        }
+        try {
+            registrySnapshot.close();
+        } catch (MiddlewareException e) {
+            logger.error("Failed to write registry snapshot: " + e.getMessage(), e);
+        }
+        super.destroy();
+    }
+
     private void setUpListeners() throws MiddlewareException {
         logger.debug("Setting up PRM listeners...");
 
@@ -128,16 +185,18 @@ public class DefaultPlatformRequestManager extends AbstractControlComponent impl
                     BrokerTopics.IPSMRM_PRM.getTopicName(), metadata.getMessageTypes(), metadata.getMessageID().get(),
                     metadata.getConversationId().get());
 
-            try {
-                handleFromIPSMRM(message);
-
-            } catch (Exception e) {
-                String description = String.format("PRM failed to handle upstream message %s of type %s received from IPSMRM.",
-                        metadata.getMessageID().orElse("N/A"), metadata.getMessageTypes());
-                logger.error(description, e);
-                getErrorReporter().sendErrorResponseMessage(message, e, description,
-                        ErrorCode.ERROR_HANDLING_RECEIVED_MESSAGE, publisherARM);
-            }
+            lanes.execute(getLaneKey(message), () -> {
+                try {
+                    handleFromIPSMRM(message);
+
+                } catch (Exception e) {
+                    String description = String.format("PRM failed to handle upstream message %s of type %s received from IPSMRM.",
+                            metadata.getMessageID().orElse("N/A"), metadata.getMessageTypes());
+                    logger.error(description, e);
+                    getErrorReporter().sendErrorResponseMessage(message, e, description,
+                            ErrorCode.ERROR_HANDLING_RECEIVED_MESSAGE, publisherARM);
+                }
+            });
         }, Message.class);
 
         subscribe(BrokerTopics.ARM_PRM.getTopicName(), message -> {
@@ -146,21 +205,68 @@ public class DefaultPlatformRequestManager extends AbstractControlComponent impl
                     BrokerTopics.ARM_PRM.getTopicName(), metadata.getMessageTypes(), metadata.getMessageID().get(),
                     metadata.getConversationId().get());
 
-            try {
-                handleFromARM(message);
-
-            } catch (Exception e) {
-                String description = String.format("PRM failed to handle downstream message %s of type %s received from ARM.",
-                        metadata.getMessageID().orElse("N/A"), metadata.getMessageTypes());
-                logger.error(description, e);
-                getErrorReporter().sendErrorResponseMessage(message, e, description,
-                        ErrorCode.ERROR_HANDLING_RECEIVED_MESSAGE, publisherARM);
-            }
+            lanes.execute(getLaneKey(message), () -> {
+                try {
+                    handleFromARM(message);
+
+                } catch (Exception e) {
+                    String description = String.format("PRM failed to handle downstream message %s of type %s received from ARM.",
+                            metadata.getMessageID().orElse("N/A"), metadata.getMessageTypes());
+                    logger.error(description, e);
+                    getErrorReporter().sendErrorResponseMessage(message, e, description,
+                            ErrorCode.ERROR_HANDLING_RECEIVED_MESSAGE, publisherARM);
+                }
+            });
         }, Message.class);
 
         logger.debug("Listeners have been set up successfully.");
     }
 
+    /**
+     * Messages are partitioned by the platform they come from or go to, so messages of one platform are processed
+     * in order. Messages not related to a single platform are partitioned by conversation ID.
+     */
+    private static String getLaneKey(Message message) {
+        PlatformMessageMetadata metadata = message.getMetadata().asPlatformMessageMetadata();
+        Optional<EntityID> senderPlatformId = metadata.getSenderPlatformId();
+        if (senderPlatformId.isPresent()) {
+            return senderPlatformId.get().toString();
+        }
+        Set<EntityID> receivingPlatformIds = metadata.getReceivingPlatformIDs();
+        if (receivingPlatformIds != null && receivingPlatformIds.size() == 1) {
+            return receivingPlatformIds.iterator().next().toString();
+        }
+        return message.getMetadata().getConversationId().orElse(null);
+    }
+
+    /**
+     * Publishes a downstream message to IPSMRM or, if the receiving platform doesn't need IPSM translation (see
+     * {@link BridgeRoutes}), directly to the platform's bridge. Platform registration and update messages always go
+     * through IPSMRM because it sets up the platform's IPSM channels and routes.
+     */
+    private void publishDownstream(Message message) throws MiddlewareException {
+        MessageMetadata metadata = message.getMetadata();
+        Set<EntityID> receivingPlatformIds = metadata.asPlatformMessageMetadata().getReceivingPlatformIDs();
+        if (receivingPlatformIds != null && receivingPlatformIds.size() == 1 &&
+                Collections.disjoint(metadata.getMessageTypes(), EnumSet.of(PLATFORM_REGISTER, PLATFORM_UPDATE))) {
+
+            String platformId = receivingPlatformIds.iterator().next().toString();
+            if (BridgeRoutes.isDirectDownstream(platformId)) {
+                getPublisher(BrokerTopics.IPSMRM_BRIDGE.getTopicName(platformId), Message.class).publish(message);
+                return;
+            }
+        }
+        publisherIPSMRM.publish(message);
+    }
+
+    /**
+     * @return queue depth and throughput of the message processing lanes
+     */
+    @Override
+    public List<LaneStatistics> getLaneStatistics() {
+        return lanes.getStatistics();
+    }
+
     /**
      * Handle message coming from ARM going downstream
      *
@@ -181,65 +287,65 @@ public class DefaultPlatformRequestManager extends AbstractControlComponent impl
 
             RegisterPlatformReq registerPlatformReq = new RegisterPlatformReq(message);
             registerPlatform(registerPlatformReq);
-            publisherIPSMRM.publish(message);
+            publishDownstream(message);
 
         } else if (messageTypes.contains(MessageTypesEnum.PLATFORM_UPDATE)) {
 
             UpdatePlatformReq updatePlatformReq = new UpdatePlatformReq(message);
             updatePlatform(updatePlatformReq);
-            publisherIPSMRM.publish(message);
+            publishDownstream(message);
 
         } else if (messageTypes.contains(MessageTypesEnum.PLATFORM_UNREGISTER)) {
 
-            publisherIPSMRM.publish(message);
+            publishDownstream(message);
 
         } else if (messageTypes.contains(MessageTypesEnum.PLATFORM_CREATE_DEVICE)) {
 
             PlatformCreateDeviceReq req = new PlatformCreateDeviceReq(message);
             platformCreateDevice(req);
-            publisherIPSMRM.publish(message);
+            publishDownstream(message);
 
         } else if (messageTypes.contains(MessageTypesEnum.PLATFORM_UPDATE_DEVICE)) {
 
             PlatformUpdateDeviceReq req = new PlatformUpdateDeviceReq(message);
             platformUpdateDevice(req);
-            publisherIPSMRM.publish(message);
+            publishDownstream(message);
 
         } else if (messageTypes.contains(MessageTypesEnum.PLATFORM_DELETE_DEVICE)) {
 
             PlatformDeleteDeviceReq req = new PlatformDeleteDeviceReq(message);
             platformDeleteDevice(req);
-            publisherIPSMRM.publish(message);
+            publishDownstream(message);
 
         } else if (messageTypes.contains(MessageTypesEnum.SUBSCRIBE)) {
 
-            publisherIPSMRM.publish(message);
+            publishDownstream(message);
 
         } else if (messageTypes.contains(MessageTypesEnum.UNSUBSCRIBE)) {
 
-            publisherIPSMRM.publish(message);
+            publishDownstream(message);
 
         } else if (messageTypes.contains(MessageTypesEnum.OBSERVATION)) {
 
-            publisherIPSMRM.publish(message);
+            publishDownstream(message);
 
         } else if (messageTypes.contains(MessageTypesEnum.VIRTUAL_SUBSCRIBE)) {
 
             Plat2PlatSubscribeReq req = new Plat2PlatSubscribeReq(message);
-            subscribePlat2Plat(req);
+            subscribePlat2Plat(message, req);
 
         } else if (messageTypes.contains(MessageTypesEnum.VIRTUAL_UNSUBSCRIBE)) {
 
             Plat2PlatUnsubscribeReq req = new Plat2PlatUnsubscribeReq(message);
-            unsubscribePlat2Plat(req);
+            unsubscribePlat2Plat(message, req);
 
         } else if (messageTypes.contains(MessageTypesEnum.LIST_DEVICES)) {
 
-            publisherIPSMRM.publish(message);
+            publishDownstream(message);
 
         } else if (messageTypes.contains(MessageTypesEnum.ACTUATION)) {
 
-            publisherIPSMRM.publish(message);
+            publishDownstream(message);
 
         } else if (messageTypes.contains(MessageTypesEnum.LIST_SUPPORTED_PLATFORM_TYPES)) {
 
@@ -248,7 +354,7 @@ public class DefaultPlatformRequestManager extends AbstractControlComponent impl
 
         } else if (messageTypes.contains(QUERY)) {
 
-            publisherIPSMRM.publish(message);
+            publishDownstream(message);
 
         } else if (messageTypes.contains(MessageTypesEnum.DEVICE_DISCOVERY_QUERY)) {
             Message responseMsg = discoveryQuery(message);
@@ -280,7 +386,7 @@ public class DefaultPlatformRequestManager extends AbstractControlComponent impl
             RegisterPlatformReq req = new RegisterPlatformReq(platform);
             Message message = req.toMessage();
             message.getMetadata().addMessageType(MessageTypesEnum.SYS_INIT);
-            publisherIPSMRM.publish(message);
+            publishDownstream(message);
 
         } catch (Exception e) {
             throw new MiddlewareException(String.format("Failed to create bridge for the platform %s.",
@@ -303,6 +409,11 @@ public class DefaultPlatformRequestManager extends AbstractControlComponent impl
         try {
             logger.debug("Removing bridge for the platform {}...", platformId);
             BridgeContext.removeBridge(platformId);
+            removePublisher(BrokerTopics.IPSMRM_BRIDGE.getTopicName(platformId));
+            if (deviceWriteBehindQueue != null) {
+                // a batch being written could otherwise re-create devices of the removed platform
+                deviceWriteBehindQueue.discardPlatform(platformId).join();
+            }
             getRegistry().removePlatform(platformId);
 
         } catch (Exception e) {
@@ -312,18 +423,28 @@ public class DefaultPlatformRequestManager extends AbstractControlComponent impl
     }
 
     private void platformCreateDevice(PlatformCreateDeviceReq req) throws MiddlewareException {
-        getRegistry().registerDevices(req.getDevices());
+        DeviceWriteResult result = getRegistry().registerDevices(req.getDevices());
+        checkDeviceWriteResult(result, "register");
     }
 
     private void platformUpdateDevice(PlatformUpdateDeviceReq req) throws MiddlewareException {
-        getRegistry().updateDevices(req.getDevices());
+        DeviceWriteResult result = getRegistry().updateDevices(req.getDevices());
+        checkDeviceWriteResult(result, "update");
     }
 
     private void platformDeleteDevice(PlatformDeleteDeviceReq req) throws MiddlewareException {
-        getRegistry().removeDevices(req.getDeviceIds());
+        DeviceWriteResult result = getRegistry().removeDevices(req.getDeviceIds());
+        checkDeviceWriteResult(result, "remove");
     }
 
-    private void subscribePlat2Plat(Plat2PlatSubscribeReq req) throws MiddlewareException {
+    private void checkDeviceWriteResult(DeviceWriteResult result, String operation) throws MiddlewareException {
+        if (result.hasFailures()) {
+            throw new MiddlewareException("Failed to %s devices %s (%d succeeded).", operation,
+                    result.getFailedDevices(), result.getSucceededDeviceIds().size());
+        }
+    }
+
+    private void subscribePlat2Plat(Message message, Plat2PlatSubscribeReq req) throws MiddlewareException {
         logger.debug("subscribePlat2Plat started.");
         Plat2PlatSubscription sub = new Plat2PlatSubscription();
         sub.setConversationId(req.getConversationId());
@@ -333,9 +454,6 @@ public class DefaultPlatformRequestManager extends AbstractControlComponent impl
         sub.setSourceDeviceId(req.getSourceDeviceId());
         sub.setSourcePlatformId(req.getSourcePlatformId());
 
-        registry.addPlat2PlatSubscription(sub);
-        logger.debug("Plat-to-plat subscription {} has been stored to the registry.", req.getConversationId());
-
         SubscribeReq subscribeReq = new SubscribeReq();
         subscribeReq.setClientId(req.getClientId());
         subscribeReq.setConversationId(req.getConversationId());
@@ -347,19 +465,29 @@ public class DefaultPlatformRequestManager extends AbstractControlComponent impl
         ioTDevice.setHostedBy(req.getSourcePlatformId());
         subscribeReq.setDevices(Collections.singletonList(ioTDevice));
 
-        publisherIPSMRM.publish(subscribeReq.toMessage());
-        logger.debug("Published SUBSCRIBE request with conversationID {} to the platform {} for device {} relating to plat-to-plat subscription {}.",
-                req.getConversationId(), req.getSourcePlatformId(), req.getSourceDeviceId(), req.getConversationId());
-
-        plat2PlatSubscriptionsRoutingMap.put(req.getConversationId(), sub);
-        logger.debug("Plat-to-plat subscription {} has been stored to the routing map.", req.getConversationId());
+        // the platform is subscribed to only after the subscription has been stored to the registry
+        plat2PlatRouting.subscribe(sub, subscribeReq.toMessage()).whenComplete((result, e) -> {
+            if (e != null) {
+                reportAsyncFailure(message, e,
+                        String.format("Failed to create plat-to-plat subscription %s.", req.getConversationId()));
+            } else {
+                logger.debug("Published SUBSCRIBE request with conversationID {} to the platform {} for device {} relating to plat-to-plat subscription {}.",
+                        req.getConversationId(), req.getSourcePlatformId(), req.getSourceDeviceId(), req.getConversationId());
+            }
+        });
     }
 
-    private void unsubscribePlat2Plat(Plat2PlatUnsubscribeReq req) throws MiddlewareException {
+    private void unsubscribePlat2Plat(Message message, Plat2PlatUnsubscribeReq req) throws MiddlewareException {
         String subscriptionId = req.getSubscriptionId();
         logger.debug("Canceling plat-to-plat subscription {}...", subscriptionId);
 
-        Plat2PlatSubscription plat2PlatSubscription = registry.getPlat2PlatSubscription(subscriptionId);
+        Plat2PlatSubscription plat2PlatSubscription = plat2PlatRouting.getSubscription(subscriptionId);
+        if (plat2PlatSubscription == null) {
+            plat2PlatSubscription = registry.getPlat2PlatSubscription(subscriptionId);
+        }
+        if (plat2PlatSubscription == null) {
+            throw new MiddlewareException("Plat-to-plat subscription %s doesn't exist.", subscriptionId);
+        }
         UnsubscribeReq unsubscribeReq = new UnsubscribeReq();
         unsubscribeReq.setClientId(req.getClientId());
         unsubscribeReq.setConversationId(req.getConversationId());
@@ -367,24 +495,24 @@ public class DefaultPlatformRequestManager extends AbstractControlComponent impl
         unsubscribeReq.setPlatformId(plat2PlatSubscription.getSourcePlatformId());
         unsubscribeReq.setDeviceIds(Collections.singletonList(plat2PlatSubscription.getSourceDeviceId()));
 
-        publisherIPSMRM.publish(unsubscribeReq.toMessage());
-        plat2PlatUnsubscribeConversationIdMap.put(unsubscribeReq.getConversationId(), subscriptionId);
-        logger.debug("Published UNSUBSCRIBE request with conversationID {} to the platform {} for device {} relating to plat-to-plat subscription {}.",
-                unsubscribeReq.getConversationId(), unsubscribeReq.getPlatformId(), plat2PlatSubscription.getSourceDeviceId(),
-                subscriptionId);
-
-
-        registry.deletePlat2PlatSubscription(subscriptionId);
-
-        plat2PlatSubscriptionsRoutingMap.remove(subscriptionId);
-        logger.debug("Plat-to-plat subscription {} has been removed from the routing map.", subscriptionId);
-
-        logger.debug("Plat-to-plat subscription {} has been canceled successfuly.", subscriptionId);
+        // the platform is unsubscribed from only after the subscription has been deleted from the registry
+        String sourceDeviceId = plat2PlatSubscription.getSourceDeviceId();
+        plat2PlatRouting.unsubscribe(subscriptionId, unsubscribeReq.toMessage()).whenComplete((result, e) -> {
+            if (e != null) {
+                reportAsyncFailure(message, e,
+                        String.format("Failed to cancel plat-to-plat subscription %s.", subscriptionId));
+            } else {
+                logger.debug("Published UNSUBSCRIBE request with conversationID {} to the platform {} for device {} relating to plat-to-plat subscription {}.",
+                        unsubscribeReq.getConversationId(), unsubscribeReq.getPlatformId(), sourceDeviceId, subscriptionId);
+                logger.debug("Plat-to-plat subscription {} has been canceled successfuly.", subscriptionId);
+            }
+        });
     }
 
-    private void restorePlat2PlatSubscriptions(List<Plat2PlatSubscription> subscriptions) {
-        for (Plat2PlatSubscription sub : subscriptions) {
-            plat2PlatSubscriptionsRoutingMap.put(sub.getConversationId(), sub);
+    private void restorePlat2PlatSubscriptions(Iterator<Plat2PlatSubscription> subscriptions) {
+        while (subscriptions.hasNext()) {
+            Plat2PlatSubscription sub = subscriptions.next();
+            plat2PlatRouting.restore(sub);
             logger.debug("Plat-to-plat subscription {} has been restored.", sub.getConversationId());
         }
     }
@@ -456,22 +584,29 @@ public class DefaultPlatformRequestManager extends AbstractControlComponent impl
         if (messageTypes.contains(DEVICE_REGISTRY_INITIALIZE)
                 || messageTypes.contains(DEVICE_ADD_OR_UPDATE)) {
             String platformId = message.getMetadata().asPlatformMessageMetadata().getSenderPlatformId().get().toString();
-            getRegistry().registerDevices(platformId, message);
+            CompletableFuture<Void> registration = deviceWriteBehindQueue != null ?
+                    deviceWriteBehindQueue.submit(platformId, message) :
+                    asyncRegistry.registerDevices(platformId, message);
+            registration.whenComplete((result, e) -> {
+                if (e != null) {
+                    reportAsyncFailure(message, e, String.format("Failed to register devices of the platform %s.", platformId));
+                }
+            });
         } else if (messageTypes.contains(MessageTypesEnum.PLATFORM_UNREGISTER)) {
             String platformId = message.getMetadata().asPlatformMessageMetadata().getSenderPlatformId().get().toString();
             unregisterPlatform(platformId);
             publisherARM.publish(message);
 
         } else if (messageTypes.contains(DEVICE_REMOVE)) {
-            removeDevice(new DeviceRemoveRes(message));
+            removeDevice(message, new DeviceRemoveRes(message));
 
         } else if (messageTypes.contains(LIST_DEVICES)) {
             // nothing to do
 
-        } else if (messageTypes.contains(SUBSCRIBE) && plat2PlatSubscriptionsRoutingMap.containsKey(conversationId)) {
+        } else if (messageTypes.contains(SUBSCRIBE) && plat2PlatRouting.getSubscription(conversationId) != null) {
             sendPlat2PlatSubscribeResponse(message, conversationId);
 
-        } else if (messageTypes.contains(UNSUBSCRIBE) && plat2PlatUnsubscribeConversationIdMap.containsKey(conversationId)) {
+        } else if (messageTypes.contains(UNSUBSCRIBE) && plat2PlatRouting.getUnsubscribedSubscriptionId(conversationId) != null) {
             sendPlat2PlatUnsubscribeResponse(message, conversationId);
 
         } else if (messageTypes.contains(OBSERVATION)) {
@@ -482,10 +617,41 @@ public class DefaultPlatformRequestManager extends AbstractControlComponent impl
         }
     }
 
-    private void removeDevice(DeviceRemoveRes response) throws MiddlewareException {
+    private void removeDevice(Message message, DeviceRemoveRes response) {
         List<String> deviceIds = Collections.singletonList(response.getDevice().getDeviceId());
         logger.debug("DeviceDiscovery - Removing " + deviceIds + " devices");
-        getRegistry().removeDevices(deviceIds);
+        // ordered by platform, so removal doesn't overtake a preceding registration of the same device
+        String platformId = message.getMetadata().asPlatformMessageMetadata().getSenderPlatformId()
+                .map(Object::toString).orElse(null);
+        // a queued registration must not be written after the removal, one being written has to finish first
+        CompletableFuture<Void> discarded = deviceWriteBehindQueue != null ?
+                deviceWriteBehindQueue.discard(deviceIds) :
+                CompletableFuture.completedFuture(null);
+        discarded.thenCompose(v -> asyncRegistry.removeDevices(deviceIds, platformId)).whenComplete((result, e) -> {
+            try {
+                if (e != null) {
+                    throw new MiddlewareException(String.format("Failed to remove devices %s.", deviceIds), e);
+                }
+                checkDeviceWriteResult(result, "remove");
+            } catch (MiddlewareException ex) {
+                reportAsyncFailure(message, ex, ex.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Reports a failed asynchronous registry operation to the ARM, the same way as failures of synchronous
+     * message handling are reported by the listeners.
+     */
+    private void reportAsyncFailure(Message message, Throwable e, String description) {
+        Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+        logger.error(description, cause);
+        try {
+            getErrorReporter().sendErrorResponseMessage(message, cause instanceof Exception ? (Exception) cause : new Exception(cause),
+                    description, ErrorCode.ERROR_HANDLING_RECEIVED_MESSAGE, publisherARM);
+        } catch (Exception reportException) {
+            logger.error("Failed to report registry failure.", reportException);
+        }
     }
 
     private void sendPlat2PlatSubscribeResponse(Message originalMessage, String conversationId) throws BrokerException {
@@ -500,7 +666,7 @@ public class DefaultPlatformRequestManager extends AbstractControlComponent impl
     }
 
     private void sendPlat2PlatUnsubscribeResponse(Message originalMessage, String conversationId) throws BrokerException {
-        String subscriptionId = plat2PlatUnsubscribeConversationIdMap.get(conversationId);
+        String subscriptionId = plat2PlatRouting.getUnsubscribedSubscriptionId(conversationId);
         logger.debug("Received UNSUBSCRIBE response message from the platform {} corresponding to plat-to-plat subscription {}.",
                 originalMessage.getMetadata().asPlatformMessageMetadata().getSenderPlatformId(), subscriptionId);
         Message responseMsg = new Message();
@@ -513,9 +679,9 @@ public class DefaultPlatformRequestManager extends AbstractControlComponent impl
     }
 
     private void handleObservationMessage(Message message, String conversationId) throws MiddlewareException {
-        if (plat2PlatSubscriptionsRoutingMap.containsKey(conversationId)) {
+        Plat2PlatSubscription sub = plat2PlatRouting.getSubscription(conversationId);
+        if (sub != null) {
             MessageMetadata metadata = message.getMetadata();
-            Plat2PlatSubscription sub = plat2PlatSubscriptionsRoutingMap.get(conversationId);
             logger.debug("Observation message corresponds to plat-to-plat subscription {}.", sub.getConversationId());
             String senderPlatformId = metadata.asPlatformMessageMetadata().getSenderPlatformId().isPresent() ?
                     metadata.asPlatformMessageMetadata().getSenderPlatformId().get().toString() : null;
@@ -532,7 +698,7 @@ public class DefaultPlatformRequestManager extends AbstractControlComponent impl
                 observationPayload.setMadeBySensor(observationEntityID, new EntityID(sub.getTargetDeviceId()));
             }
 
-            publisherIPSMRM.publish(message);
+            publishDownstream(message);
             logger.debug("Observation message has been published to the platform {}.", sub.getTargetPlatformId());
 
         } else {
@@ -540,32 +706,55 @@ public class DefaultPlatformRequestManager extends AbstractControlComponent impl
         }
     }
 
+    /**
+     * Restores plat-to-plat subscription routing and queues restoration of the bridges of registered platforms on
+     * the platform lanes, so platforms are restored in parallel and messages of a platform received afterwards are
+     * processed once its bridge exists. A platform failing to be restored doesn't affect the others, progress is
+     * reported by {@link RestoreProgress}.
+     */
     private void restoreState() throws MiddlewareException {
         logger.debug("Restoring PRM state...");
-        List<Platform> platforms = getRegistry().listPlatforms();
-        if (platforms.isEmpty()) {
-            logger.debug("No platforms registered.");
-        }
-        for (Platform platform : platforms) {
-            logger.debug("Restoring bridge for the platform {}...", platform.getPlatformId());
-            try {
-                restorePlatform(platform);
+        RestoreProgress progress = RestoreProgress.start(RestoreProgress.PRM);
+        List<Platform> platforms;
+        try {
+            ParliamentRegistry restoreRegistry = registrySnapshot.restore();
 
-            } catch (Exception e) {
-                throw new MiddlewareException(String.format("Failed to restore bridge for the platform %s.",
-                        platform.getPlatformId()), e);
+            logger.debug("Restoring plat-to-plat subscriptions...");
+            try {
+                Iterator<Plat2PlatSubscription> plat2PlatSubscriptions = restoreRegistry.iteratePlat2PlatSubscriptions(null);
+                if (!plat2PlatSubscriptions.hasNext()) {
+                    logger.debug("No plat-to-plat subscriptions registered.");
+                } else {
+                    restorePlat2PlatSubscriptions(plat2PlatSubscriptions);
+                }
+            } catch (IllegalStateException e) {
+                throw new MiddlewareException("Failed to restore plat-to-plat subscriptions.", e.getCause());
             }
-        }
 
-        logger.debug("Restoring plat-to-plat subscriptions...");
-        List<Plat2PlatSubscription> plat2PlatSubscriptions = registry.listPlat2PlatSubscriptions();
-        if (plat2PlatSubscriptions.isEmpty()) {
-            logger.debug("No plat-to-plat subscriptions registered.");
-        } else {
-            restorePlat2PlatSubscriptions(plat2PlatSubscriptions);
+            platforms = restoreRegistry.listPlatforms();
+            if (platforms.isEmpty()) {
+                logger.debug("No platforms registered.");
+            }
+            for (Platform platform : platforms) {
+                progress.submitted();
+                lanes.execute(platform.getPlatformId(), () -> {
+                    logger.debug("Restoring bridge for the platform {}...", platform.getPlatformId());
+                    try {
+                        restorePlatform(platform);
+                        progress.restored();
+
+                    } catch (Exception e) {
+                        logger.error(String.format("Failed to restore bridge for the platform %s.", platform.getPlatformId()), e);
+                        progress.failed(platform.getPlatformId());
+                    }
+                });
+            }
+        } finally {
+            // also if the registry failed, so the component doesn't stay not ready forever
+            progress.allSubmitted();
         }
 
-        logger.debug("PRM state has been restored successfully.");
+        logger.debug("Restoration of {} platforms has been queued.", platforms.size());
     }
 
     public ParliamentRegistry getRegistry() {
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2016-2018 Universitat Politècnica de València
+ * Copyright 2016-2018 Università della Calabria
+ * Copyright 2016-2018 Prodevelop, SL
+ * Copyright 2016-2018 Technische Universiteit Eindhoven
+ * Copyright 2016-2018 Fundación de la Comunidad Valenciana para la
+ * Investigación, Promoción y Estudios Comerciales de Valenciaport
+ * Copyright 2016-2018 Rinicom Ltd
+ * Copyright 2016-2018 Association pour le développement de la formation
+ * professionnelle dans le transport
+ * Copyright 2016-2018 Noatum Ports Valenciana, S.A.U.
+ * Copyright 2016-2018 XLAB razvoj programske opreme in svetovanje d.o.o.
+ * Copyright 2016-2018 Systems Research Institute Polish Academy of Sciences
+ * Copyright 2016-2018 Azienda Sanitaria Locale TO5
+ * Copyright 2016-2018 Alessandro Bassi Consulting SARL
+ * Copyright 2016-2018 Neways Technologies B.V.
+ *
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.interiot.intermw.comm.prm;
+
+import eu.interiot.intermw.commons.exceptions.MiddlewareException;
+import eu.interiot.intermw.commons.model.Plat2PlatSubscription;
+import eu.interiot.message.Message;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Routing of platform-to-platform subscriptions. A subscription is routed and subscribed to at the source platform
+ * only once it has been stored to the registry, and is unsubscribed from and no longer routed only once it has been
+ * deleted from the registry. A failed registry write leaves the routing unchanged, so it never contains
+ * subscriptions the registry doesn't know about.
+ */
+class Plat2PlatSubscriptionRouting {
+    private final Function<Plat2PlatSubscription, CompletableFuture<Void>> store;
+    private final Function<String, CompletableFuture<Void>> delete;
+    private final DownstreamPublisher publisher;
+    /**
+     * Conversation ID to Plat2PlatSubscription objects mapping used for routing observation messages originating from plat-to-plat subscriptions
+     */
+    private final Map<String, Plat2PlatSubscription> subscriptions = new ConcurrentHashMap<>();
+    /**
+     * Conversation ID of UNSUBSCRIBE message to subscription ID mapping for platform-to-platform subscriptions.
+     */
+    private final Map<String, String> unsubscribeConversationIds = new ConcurrentHashMap<>();
+
+    /**
+     * @param store     stores a subscription to the registry
+     * @param delete    deletes a subscription from the registry by its conversation ID
+     * @param publisher publishes SUBSCRIBE and UNSUBSCRIBE requests to the source platform
+     */
+    Plat2PlatSubscriptionRouting(Function<Plat2PlatSubscription, CompletableFuture<Void>> store,
+                                 Function<String, CompletableFuture<Void>> delete, DownstreamPublisher publisher) {
+        this.store = store;
+        this.delete = delete;
+        this.publisher = publisher;
+    }
+
+    /**
+     * Stores the subscription, then routes it and publishes the SUBSCRIBE request.
+     *
+     * @return completed when the request has been published, failed if storing or publishing failed
+     */
+    CompletableFuture<Void> subscribe(Plat2PlatSubscription subscription, Message subscribeMessage) {
+        return store.apply(subscription).thenCompose(stored -> {
+            // routed before publishing, the response may be processed on another lane
+            subscriptions.put(subscription.getConversationId(), subscription);
+            return publish(subscribeMessage);
+        });
+    }
+
+    /**
+     * Deletes the subscription, then stops routing it and publishes the UNSUBSCRIBE request.
+     *
+     * @return completed when the request has been published, failed if deleting or publishing failed
+     */
+    CompletableFuture<Void> unsubscribe(String subscriptionId, Message unsubscribeMessage) {
+        String conversationId = unsubscribeMessage.getMetadata().getConversationId().orElse(null);
+        return delete.apply(subscriptionId).thenCompose(deleted -> {
+            subscriptions.remove(subscriptionId);
+            if (conversationId != null) {
+                unsubscribeConversationIds.put(conversationId, subscriptionId);
+            }
+            return publish(unsubscribeMessage);
+        });
+    }
+
+    /**
+     * Routes a subscription restored from the registry.
+     */
+    void restore(Plat2PlatSubscription subscription) {
+        subscriptions.put(subscription.getConversationId(), subscription);
+    }
+
+    /**
+     * @return the routed subscription with the given conversation ID, <code>null</code> if there is none
+     */
+    Plat2PlatSubscription getSubscription(String conversationId) {
+        return subscriptions.get(conversationId);
+    }
+
+    /**
+     * @return ID of the subscription canceled by the UNSUBSCRIBE request with the given conversation ID,
+     * <code>null</code> if the request doesn't belong to a plat-to-plat subscription
+     */
+    String getUnsubscribedSubscriptionId(String unsubscribeConversationId) {
+        return unsubscribeConversationIds.get(unsubscribeConversationId);
+    }
+
+    private CompletableFuture<Void> publish(Message message) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        try {
+            publisher.publish(message);
+            future.complete(null);
+        } catch (MiddlewareException | RuntimeException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    interface DownstreamPublisher {
+        void publish(Message message) throws MiddlewareException;
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright 2016-2018 Universitat Politècnica de València
+ * Copyright 2016-2018 Università della Calabria
+ * Copyright 2016-2018 Prodevelop, SL
+ * Copyright 2016-2018 Technische Universiteit Eindhoven
+ * Copyright 2016-2018 Fundación de la Comunidad Valenciana para la
+ * Investigación, Promoción y Estudios Comerciales de Valenciaport
+ * Copyright 2016-2018 Rinicom Ltd
+ * Copyright 2016-2018 Association pour le développement de la formation
+ * professionnelle dans le transport
+ * Copyright 2016-2018 Noatum Ports Valenciana, S.A.U.
+ * Copyright 2016-2018 XLAB razvoj programske opreme in svetovanje d.o.o.
+ * Copyright 2016-2018 Systems Research Institute Polish Academy of Sciences
+ * Copyright 2016-2018 Azienda Sanitaria Locale TO5
+ * Copyright 2016-2018 Alessandro Bassi Consulting SARL
+ * Copyright 2016-2018 Neways Technologies B.V.
+ *
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.interiot.intermw.comm.prm;
+
+import eu.interiot.intermw.commons.exceptions.MiddlewareException;
+import eu.interiot.intermw.commons.model.Plat2PlatSubscription;
+import eu.interiot.message.Message;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class Plat2PlatSubscriptionRoutingTest {
+    private static final String SUBSCRIPTION_ID = "conv1";
+
+    private CompletableFuture<Void> store;
+    private CompletableFuture<Void> delete;
+    private List<Message> published;
+    private Plat2PlatSubscriptionRouting routing;
+
+    @Before
+    public void setUp() {
+        store = new CompletableFuture<>();
+        delete = new CompletableFuture<>();
+        published = new ArrayList<>();
+        routing = new Plat2PlatSubscriptionRouting(subscription -> store, subscriptionId -> delete, published::add);
+    }
+
+    @Test
+    public void testSubscribeAfterStore() throws Exception {
+        Message subscribeMessage = new Message();
+        CompletableFuture<Void> subscribed = routing.subscribe(createSubscription(), subscribeMessage);
+        assertFalse(subscribed.isDone());
+        assertNull(routing.getSubscription(SUBSCRIPTION_ID));
+        assertTrue(published.isEmpty());
+
+        store.complete(null);
+        subscribed.get(5, TimeUnit.SECONDS);
+        assertEquals("http://test.inter-iot.eu/platforms/platform1", routing.getSubscription(SUBSCRIPTION_ID).getSourcePlatformId());
+        assertEquals(1, published.size());
+        assertSame(subscribeMessage, published.get(0));
+    }
+
+    @Test
+    public void testFailedStore() throws Exception {
+        CompletableFuture<Void> subscribed = routing.subscribe(createSubscription(), new Message());
+        store.completeExceptionally(new MiddlewareException("Registry failure."));
+
+        assertFailed(subscribed);
+        assertNull(routing.getSubscription(SUBSCRIPTION_ID));
+        assertTrue(published.isEmpty());
+    }
+
+    @Test
+    public void testUnsubscribeAfterDelete() throws Exception {
+        routing.restore(createSubscription());
+        Message unsubscribeMessage = new Message();
+        unsubscribeMessage.getMetadata().setConversationId("conv2");
+        CompletableFuture<Void> unsubscribed = routing.unsubscribe(SUBSCRIPTION_ID, unsubscribeMessage);
+        assertNotNull(routing.getSubscription(SUBSCRIPTION_ID));
+        assertTrue(published.isEmpty());
+
+        delete.complete(null);
+        unsubscribed.get(5, TimeUnit.SECONDS);
+        assertNull(routing.getSubscription(SUBSCRIPTION_ID));
+        assertEquals(SUBSCRIPTION_ID, routing.getUnsubscribedSubscriptionId("conv2"));
+        assertEquals(1, published.size());
+    }
+
+    @Test
+    public void testFailedDelete() throws Exception {
+        routing.restore(createSubscription());
+        Message unsubscribeMessage = new Message();
+        unsubscribeMessage.getMetadata().setConversationId("conv2");
+        CompletableFuture<Void> unsubscribed = routing.unsubscribe(SUBSCRIPTION_ID, unsubscribeMessage);
+        delete.completeExceptionally(new MiddlewareException("Registry failure."));
+
+        assertFailed(unsubscribed);
+        assertNotNull(routing.getSubscription(SUBSCRIPTION_ID));
+        assertNull(routing.getUnsubscribedSubscriptionId("conv2"));
+        assertTrue(published.isEmpty());
+    }
+
+    @Test
+    public void testFailedPublish() throws Exception {
+        routing = new Plat2PlatSubscriptionRouting(subscription -> store, subscriptionId -> delete, message -> {
+            throw new MiddlewareException("Broker failure.");
+        });
+        store.complete(null);
+
+        assertFailed(routing.subscribe(createSubscription(), new Message()));
+    }
+
+    private static void assertFailed(CompletableFuture<Void> future) throws Exception {
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            fail("ExecutionException expected.");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof MiddlewareException);
+        }
+    }
+
+    private static Plat2PlatSubscription createSubscription() {
+        Plat2PlatSubscription subscription = new Plat2PlatSubscription();
+        subscription.setConversationId(SUBSCRIPTION_ID);
+        subscription.setClientId("client1");
+        subscription.setSourceDeviceId("http://test.inter-iot.eu/devices/device1");
+        subscription.setSourcePlatformId("http://test.inter-iot.eu/platforms/platform1");
+        subscription.setTargetDeviceId("http://test.inter-iot.eu/devices/device2");
+        subscription.setTargetPlatformId("http://test.inter-iot.eu/platforms/platform2");
+        return subscription;
+    }
+}
@@ -35,6 +35,11 @@ package eu.interiot.intermw.integrationtests.utils;
 import com.google.common.io.Resources;
 import eu.interiot.intermw.comm.ipsm.IPSMApiClient;
 import eu.interiot.intermw.commons.interfaces.Configuration;
+import eu.interiot.intermw.services.registry.DeviceCache;
+import eu.interiot.intermw.services.registry.PlatformStatisticsTracker;
+import eu.interiot.intermw.services.registry.QueryResultCache;
+import eu.interiot.intermw.services.registry.SpatialIndex;
+import eu.interiot.intermw.services.registry.SubscriptionIndex;
 import org.apache.commons.io.Charsets;
 import org.apache.jena.query.QueryExecution;
 import org.apache.jena.query.QuerySolution;
@@ -76,6 +81,11 @@ public class TestUtils {
                 conn.update(updateRequest);
             }
         }
+        DeviceCache.getInstance(conf).invalidateAll();
+        SpatialIndex.getInstance(conf).invalidateAll();
+        PlatformStatisticsTracker.getInstance(conf).invalidateAll();
+        QueryResultCache.getInstance(conf).invalidateAll();
+        SubscriptionIndex.getInstance(conf).invalidateAll();
         logger.debug("Parliament has been cleared.");
     }
 
@@ -0,0 +1,211 @@
+/*
+ * Copyright 2016-2018 Universitat Politècnica de València
+ * Copyright 2016-2018 Università della Calabria
+ * Copyright 2016-2018 Prodevelop, SL
+ * Copyright 2016-2018 Technische Universiteit Eindhoven
+ * Copyright 2016-2018 Fundación de la Comunidad Valenciana para la
+ * Investigación, Promoción y Estudios Comerciales de Valenciaport
+ * Copyright 2016-2018 Rinicom Ltd
+ * Copyright 2016-2018 Association pour le développement de la formation
+ * professionnelle dans le transport
+ * Copyright 2016-2018 Noatum Ports Valenciana, S.A.U.
+ * Copyright 2016-2018 XLAB razvoj programske opreme in svetovanje d.o.o.
+ * Copyright 2016-2018 Systems Research Institute Polish Academy of Sciences
+ * Copyright 2016-2018 Azienda Sanitaria Locale TO5
+ * Copyright 2016-2018 Alessandro Bassi Consulting SARL
+ * Copyright 2016-2018 Neways Technologies B.V.
+ *
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.interiot.intermw.commons;
+
+import eu.interiot.intermw.commons.interfaces.Configuration;
+import eu.interiot.intermw.commons.model.LaneStatistics;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs tasks on a fixed number of worker lanes, each a single thread with its own bounded queue. Tasks are assigned
+ * to lanes by a partition key (e.g. a platform ID), so tasks with the same key run one after another in submission
+ * order, while tasks with different keys run in parallel. Tasks without a key are spread over all lanes.
+ * <p>
+ * When a lane queue is full, {@link #execute(String, Runnable)} blocks, which throttles the producer (usually a
+ * broker listener thread). With zero lanes tasks run on the calling thread.
+ */
+public class LaneExecutor {
+    private final static Logger logger = LoggerFactory.getLogger(LaneExecutor.class);
+
+    private static final String LANES = "lanes";
+    private static final String QUEUE_SIZE = "lanes.queueSize";
+    private static final int DEFAULT_QUEUE_SIZE = 1000;
+    private static final Runnable STOP = () -> {
+    };
+
+    private final String name;
+    private final Lane[] lanes;
+    private final AtomicInteger nextLane = new AtomicInteger();
+    private volatile boolean shutdown;
+
+    /**
+     * @param name      executor name, used for thread names and statistics
+     * @param laneCount number of lanes, 0 runs tasks on the calling thread
+     * @param queueSize max. number of tasks waiting in a single lane
+     */
+    public LaneExecutor(String name, int laneCount, int queueSize) {
+        this.name = name;
+        this.lanes = new Lane[laneCount];
+        for (int i = 0; i < laneCount; i++) {
+            lanes[i] = new Lane(i, queueSize);
+        }
+        logger.debug("Lane executor {} has been started with {} lanes, queue size {}.", name, laneCount, queueSize);
+    }
+
+    /**
+     * Creates an executor configured by the properties <code>&lt;prefix&gt;lanes</code> (number of lanes, if empty
+     * the number of available processors) and <code>&lt;prefix&gt;lanes.queueSize</code> (default 1000).
+     */
+    public static LaneExecutor create(String name, Configuration conf, String propertyPrefix) {
+        String laneCount = conf.getProperty(propertyPrefix + LANES);
+        String queueSize = conf.getProperty(propertyPrefix + QUEUE_SIZE);
+        return new LaneExecutor(name,
+                StringUtils.isNotBlank(laneCount) ?
+                        Math.max(Integer.parseInt(laneCount.trim()), 0) : Runtime.getRuntime().availableProcessors(),
+                StringUtils.isNotBlank(queueSize) ? Math.max(Integer.parseInt(queueSize.trim()), 1) : DEFAULT_QUEUE_SIZE);
+    }
+
+    /**
+     * Queues the task on the lane of the partition key, waiting while the lane queue is full. Exceptions thrown by
+     * the task are logged, tasks should handle their own failures.
+     *
+     * @param key partition key, null if the task can run on any lane
+     */
+    public void execute(String key, Runnable task) {
+        if (shutdown) {
+            throw new RejectedExecutionException(String.format("Lane executor %s has been shut down.", name));
+        }
+        if (lanes.length == 0) {
+            task.run();
+            return;
+        }
+        int index = key != null ? Math.floorMod(key.hashCode(), lanes.length) :
+                Math.floorMod(nextLane.getAndIncrement(), lanes.length);
+        lanes[index].put(task);
+    }
+
+    public int getLaneCount() {
+        return lanes.length;
+    }
+
+    public List<LaneStatistics> getStatistics() {
+        List<LaneStatistics> statistics = new ArrayList<>();
+        for (Lane lane : lanes) {
+            LaneStatistics laneStatistics = new LaneStatistics();
+            laneStatistics.setExecutor(name);
+            laneStatistics.setLane(lane.index);
+            laneStatistics.setQueueDepth(lane.queue.size());
+            laneStatistics.setMaxQueueDepth(lane.maxQueueDepth.get());
+            laneStatistics.setProcessedCount(lane.processedCount.get());
+            laneStatistics.setFailedCount(lane.failedCount.get());
+            statistics.add(laneStatistics);
+        }
+        return statistics;
+    }
+
+    /**
+     * Stops accepting tasks and waits until the tasks already queued have been run.
+     *
+     * @return false if some lanes didn't finish within the timeout
+     */
+    public boolean shutdown(long timeout, TimeUnit unit) throws InterruptedException {
+        shutdown = true;
+        for (Lane lane : lanes) {
+            lane.put(STOP);
+        }
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        boolean terminated = true;
+        for (Lane lane : lanes) {
+            lane.thread.join(Math.max(TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime()), 1));
+            terminated &= !lane.thread.isAlive();
+        }
+        if (!terminated) {
+            logger.warn("Lane executor {} didn't finish queued tasks in time.", name);
+        }
+        return terminated;
+    }
+
+    private class Lane implements Runnable {
+        private final int index;
+        private final BlockingQueue<Runnable> queue;
+        private final Thread thread;
+        private final AtomicInteger maxQueueDepth = new AtomicInteger();
+        private final AtomicLong processedCount = new AtomicLong();
+        private final AtomicLong failedCount = new AtomicLong();
+
+        Lane(int index, int queueSize) {
+            this.index = index;
+            this.queue = new LinkedBlockingQueue<>(queueSize);
+            this.thread = new Thread(this, name + "-lane-" + index);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        void put(Runnable task) {
+            try {
+                queue.put(task);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RejectedExecutionException(String.format(
+                        "Interrupted while waiting for lane %d of %s.", index, name), e);
+            }
+            int depth = queue.size();
+            maxQueueDepth.accumulateAndGet(depth, Math::max);
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                Runnable task;
+                try {
+                    task = queue.take();
+                } catch (InterruptedException e) {
+                    logger.warn("Lane {} of {} has been interrupted.", index, name);
+                    return;
+                }
+                if (task == STOP) {
+                    return;
+                }
+                try {
+                    task.run();
+                } catch (Throwable e) {
+                    failedCount.incrementAndGet();
+                    logger.error(String.format("Task failed on lane %d of %s.", index, name), e);
+                } finally {
+                    processedCount.incrementAndGet();
+                }
+            }
+        }
+    }
+}
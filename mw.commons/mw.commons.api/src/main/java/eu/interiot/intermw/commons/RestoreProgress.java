@@ -0,0 +1,169 @@
+/*
+ * Copyright 2016-2018 Universitat Politècnica de València
+ * Copyright 2016-2018 Università della Calabria
+ * Copyright 2016-2018 Prodevelop, SL
+ * Copyright 2016-2018 Technische Universiteit Eindhoven
+ * Copyright 2016-2018 Fundación de la Comunidad Valenciana para la
+ * Investigación, Promoción y Estudios Comerciales de Valenciaport
+ * Copyright 2016-2018 Rinicom Ltd
+ * Copyright 2016-2018 Association pour le développement de la formation
+ * professionnelle dans le transport
+ * Copyright 2016-2018 Noatum Ports Valenciana, S.A.U.
+ * Copyright 2016-2018 XLAB razvoj programske opreme in svetovanje d.o.o.
+ * Copyright 2016-2018 Systems Research Institute Polish Academy of Sciences
+ * Copyright 2016-2018 Azienda Sanitaria Locale TO5
+ * Copyright 2016-2018 Alessandro Bassi Consulting SARL
+ * Copyright 2016-2018 Neways Technologies B.V.
+ *
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.interiot.intermw.commons;
+
+import eu.interiot.intermw.commons.model.ReadinessStatus;
+import eu.interiot.intermw.commons.model.RestoreStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+
+/**
+ * Tracks how far middleware components (ARM, PRM) are with restoring their state at startup. Items (platforms,
+ * subscriptions) are restored in the background, each one counted as restored or failed; the middleware is ready
+ * once every expected component (ARM and PRM) and every other component started has finished, so it isn't reported
+ * ready before a component has even started. Failed items don't prevent readiness, they are reported instead.
+ */
+public class RestoreProgress {
+    private final static Logger logger = LoggerFactory.getLogger(RestoreProgress.class);
+    private static final int MAX_REPORTED_FAILURES = 100;
+    public static final String ARM = "arm";
+    public static final String PRM = "prm";
+
+    private static final Map<String, RestoreProgress> components = new ConcurrentSkipListMap<>();
+    private static final Set<String> expectedComponents = new CopyOnWriteArraySet<>(Arrays.asList(ARM, PRM));
+
+    private final String component;
+    private final long startTime = System.currentTimeMillis();
+    private final List<String> failedItems = new ArrayList<>();
+    private int total;
+    private int restored;
+    private int failed;
+    private boolean submitted;
+    private long endTime;
+
+    private RestoreProgress(String component) {
+        this.component = component;
+    }
+
+    /**
+     * Starts tracking restoration of the component, replacing any previous progress of the component.
+     */
+    public static RestoreProgress start(String component) {
+        RestoreProgress progress = new RestoreProgress(component);
+        components.put(component, progress);
+        return progress;
+    }
+
+    /**
+     * Counts an item whose restoration has been started or queued.
+     */
+    public synchronized void submitted() {
+        total++;
+    }
+
+    public synchronized void restored() {
+        restored++;
+        checkFinished();
+    }
+
+    public synchronized void failed(String itemId) {
+        failed++;
+        if (failedItems.size() < MAX_REPORTED_FAILURES) {
+            failedItems.add(itemId);
+        }
+        checkFinished();
+    }
+
+    /**
+     * Marks that all items have been submitted, restoration finishes when the last of them is done.
+     */
+    public synchronized void allSubmitted() {
+        submitted = true;
+        checkFinished();
+    }
+
+    public synchronized boolean isFinished() {
+        return endTime != 0;
+    }
+
+    public synchronized RestoreStatus getStatus() {
+        RestoreStatus status = new RestoreStatus();
+        status.setComponent(component);
+        status.setFinished(isFinished());
+        status.setTotal(total);
+        status.setRestored(restored);
+        status.setFailed(failed);
+        status.setFailedItems(new ArrayList<>(failedItems));
+        status.setDuration((isFinished() ? endTime : System.currentTimeMillis()) - startTime);
+        return status;
+    }
+
+    /**
+     * Sets the components the middleware waits for, whether they have been started yet or not.
+     */
+    static void setExpectedComponents(Collection<String> components) {
+        expectedComponents.clear();
+        expectedComponents.addAll(components);
+    }
+
+    /**
+     * @return the middleware is ready if all expected components have been started and all started components
+     * have finished
+     */
+    public static ReadinessStatus getReadiness() {
+        Set<String> names = new TreeSet<>(expectedComponents);
+        names.addAll(components.keySet());
+        List<RestoreStatus> statuses = new ArrayList<>();
+        boolean ready = !names.isEmpty();
+        for (String name : names) {
+            RestoreProgress progress = components.get(name);
+            RestoreStatus status = progress != null ? progress.getStatus() : getNotStartedStatus(name);
+            ready &= status.isFinished();
+            statuses.add(status);
+        }
+        ReadinessStatus readiness = new ReadinessStatus();
+        readiness.setReady(ready);
+        readiness.setComponents(statuses);
+        return readiness;
+    }
+
+    private static RestoreStatus getNotStartedStatus(String component) {
+        RestoreStatus status = new RestoreStatus();
+        status.setComponent(component);
+        status.setFinished(false);
+        status.setFailedItems(new ArrayList<>());
+        return status;
+    }
+
+    private void checkFinished() {
+        if (endTime == 0 && submitted && restored + failed >= total) {
+            endTime = System.currentTimeMillis();
+            logger.info("{} state has been restored in {} ms: {} restored, {} failed.", component, endTime - startTime,
+                    restored, failed);
+        }
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2016-2018 Universitat Politècnica de València
+ * Copyright 2016-2018 Università della Calabria
+ * Copyright 2016-2018 Prodevelop, SL
+ * Copyright 2016-2018 Technische Universiteit Eindhoven
+ * Copyright 2016-2018 Fundación de la Comunidad Valenciana para la
+ * Investigación, Promoción y Estudios Comerciales de Valenciaport
+ * Copyright 2016-2018 Rinicom Ltd
+ * Copyright 2016-2018 Association pour le développement de la formation
+ * professionnelle dans le transport
+ * Copyright 2016-2018 Noatum Ports Valenciana, S.A.U.
+ * Copyright 2016-2018 XLAB razvoj programske opreme in svetovanje d.o.o.
+ * Copyright 2016-2018 Systems Research Institute Polish Academy of Sciences
+ * Copyright 2016-2018 Azienda Sanitaria Locale TO5
+ * Copyright 2016-2018 Alessandro Bassi Consulting SARL
+ * Copyright 2016-2018 Neways Technologies B.V.
+ *
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.interiot.intermw.commons.model;
+
+/**
+ * Load and parallelism of the IPSM translation channel of a platform in one direction.
+ */
+public class IPSMChannelStatistics {
+
+    private String platformId;
+    private String direction;
+    private int parallelism;
+    /**
+     * Messages per second sent to IPSM during the last measurement interval
+     */
+    private double messageRate;
+    /**
+     * Average time in milliseconds until a message came back translated during the last measurement interval,
+     * -1 if unknown
+     */
+    private long translationLag;
+    /**
+     * Messages sent to IPSM that haven't come back yet
+     */
+    private int pendingMessages;
+    private int scaleUps;
+
+    public String getPlatformId() {
+        return platformId;
+    }
+
+    public void setPlatformId(String platformId) {
+        this.platformId = platformId;
+    }
+
+    public String getDirection() {
+        return direction;
+    }
+
+    public void setDirection(String direction) {
+        this.direction = direction;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    public void setParallelism(int parallelism) {
+        this.parallelism = parallelism;
+    }
+
+    public double getMessageRate() {
+        return messageRate;
+    }
+
+    public void setMessageRate(double messageRate) {
+        this.messageRate = messageRate;
+    }
+
+    public long getTranslationLag() {
+        return translationLag;
+    }
+
+    public void setTranslationLag(long translationLag) {
+        this.translationLag = translationLag;
+    }
+
+    public int getPendingMessages() {
+        return pendingMessages;
+    }
+
+    public void setPendingMessages(int pendingMessages) {
+        this.pendingMessages = pendingMessages;
+    }
+
+    public int getScaleUps() {
+        return scaleUps;
+    }
+
+    public void setScaleUps(int scaleUps) {
+        this.scaleUps = scaleUps;
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2016-2018 Universitat Politècnica de València
+ * Copyright 2016-2018 Università della Calabria
+ * Copyright 2016-2018 Prodevelop, SL
+ * Copyright 2016-2018 Technische Universiteit Eindhoven
+ * Copyright 2016-2018 Fundación de la Comunidad Valenciana para la
+ * Investigación, Promoción y Estudios Comerciales de Valenciaport
+ * Copyright 2016-2018 Rinicom Ltd
+ * Copyright 2016-2018 Association pour le développement de la formation
+ * professionnelle dans le transport
+ * Copyright 2016-2018 Noatum Ports Valenciana, S.A.U.
+ * Copyright 2016-2018 XLAB razvoj programske opreme in svetovanje d.o.o.
+ * Copyright 2016-2018 Systems Research Institute Polish Academy of Sciences
+ * Copyright 2016-2018 Azienda Sanitaria Locale TO5
+ * Copyright 2016-2018 Alessandro Bassi Consulting SARL
+ * Copyright 2016-2018 Neways Technologies B.V.
+ *
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.interiot.intermw.commons;
+
+import eu.interiot.intermw.commons.model.LaneStatistics;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class LaneExecutorTest {
+
+    @Test
+    public void testOrderingPerKey() throws InterruptedException {
+        LaneExecutor executor = new LaneExecutor("test", 4, 100);
+        List<Integer> platform1 = Collections.synchronizedList(new ArrayList<>());
+        List<Integer> platform2 = Collections.synchronizedList(new ArrayList<>());
+        for (int i = 0; i < 200; i++) {
+            int value = i;
+            executor.execute("platform1", () -> platform1.add(value));
+            executor.execute("platform2", () -> platform2.add(value));
+        }
+        assertTrue(executor.shutdown(10, TimeUnit.SECONDS));
+
+        assertEquals(200, platform1.size());
+        for (int i = 0; i < 200; i++) {
+            assertEquals(i, (int) platform1.get(i));
+            assertEquals(i, (int) platform2.get(i));
+        }
+    }
+
+    @Test
+    public void testLanesRunInParallel() throws InterruptedException {
+        LaneExecutor executor = new LaneExecutor("test", 2, 10);
+        CountDownLatch blocked = new CountDownLatch(1);
+        CountDownLatch released = new CountDownLatch(1);
+        String key1 = "a";
+        // a key on the other lane than key1
+        String key2 = "b";
+        assertNotEquals(Math.floorMod(key1.hashCode(), 2), Math.floorMod(key2.hashCode(), 2));
+
+        executor.execute(key1, () -> {
+            try {
+                blocked.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        executor.execute(key2, released::countDown);
+        assertTrue(released.await(5, TimeUnit.SECONDS));
+
+        List<LaneStatistics> statistics = executor.getStatistics();
+        assertEquals(2, statistics.size());
+        blocked.countDown();
+        assertTrue(executor.shutdown(5, TimeUnit.SECONDS));
+        long processed = 0;
+        for (LaneStatistics laneStatistics : executor.getStatistics()) {
+            assertEquals(0, laneStatistics.getQueueDepth());
+            processed += laneStatistics.getProcessedCount();
+        }
+        assertEquals(2, processed);
+    }
+
+    @Test
+    public void testFailedTaskDoesNotStopLane() throws InterruptedException {
+        LaneExecutor executor = new LaneExecutor("test", 1, 10);
+        CountDownLatch done = new CountDownLatch(1);
+        executor.execute("key", () -> {
+            throw new IllegalStateException("Test failure.");
+        });
+        executor.execute("key", done::countDown);
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertTrue(executor.shutdown(5, TimeUnit.SECONDS));
+        assertEquals(1, executor.getStatistics().get(0).getFailedCount());
+        assertEquals(2, executor.getStatistics().get(0).getProcessedCount());
+    }
+
+    @Test
+    public void testInline() throws InterruptedException {
+        LaneExecutor executor = new LaneExecutor("test", 0, 10);
+        Thread[] thread = new Thread[1];
+        executor.execute("key", () -> thread[0] = Thread.currentThread());
+        assertSame(Thread.currentThread(), thread[0]);
+        assertTrue(executor.getStatistics().isEmpty());
+        assertTrue(executor.shutdown(1, TimeUnit.SECONDS));
+    }
+
+    @Test(expected = RejectedExecutionException.class)
+    public void testRejectAfterShutdown() throws InterruptedException {
+        LaneExecutor executor = new LaneExecutor("test", 1, 10);
+        executor.shutdown(1, TimeUnit.SECONDS);
+        executor.execute("key", () -> {
+        });
+    }
+}
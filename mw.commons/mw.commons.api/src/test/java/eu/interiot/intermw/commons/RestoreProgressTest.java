@@ -0,0 +1,104 @@
+/*
+ * Copyright 2016-2018 Universitat Politècnica de València
+ * Copyright 2016-2018 Università della Calabria
+ * Copyright 2016-2018 Prodevelop, SL
+ * Copyright 2016-2018 Technische Universiteit Eindhoven
+ * Copyright 2016-2018 Fundación de la Comunidad Valenciana para la
+ * Investigación, Promoción y Estudios Comerciales de Valenciaport
+ * Copyright 2016-2018 Rinicom Ltd
+ * Copyright 2016-2018 Association pour le développement de la formation
+ * professionnelle dans le transport
+ * Copyright 2016-2018 Noatum Ports Valenciana, S.A.U.
+ * Copyright 2016-2018 XLAB razvoj programske opreme in svetovanje d.o.o.
+ * Copyright 2016-2018 Systems Research Institute Polish Academy of Sciences
+ * Copyright 2016-2018 Azienda Sanitaria Locale TO5
+ * Copyright 2016-2018 Alessandro Bassi Consulting SARL
+ * Copyright 2016-2018 Neways Technologies B.V.
+ *
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.interiot.intermw.commons;
+
+import eu.interiot.intermw.commons.model.ReadinessStatus;
+import eu.interiot.intermw.commons.model.RestoreStatus;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+public class RestoreProgressTest {
+
+    @After
+    public void tearDown() {
+        RestoreProgress.setExpectedComponents(Arrays.asList(RestoreProgress.ARM, RestoreProgress.PRM));
+    }
+
+    @Test
+    public void testProgress() {
+        RestoreProgress progress = RestoreProgress.start("test-component");
+        progress.submitted();
+        progress.submitted();
+        progress.restored();
+        assertFalse(progress.isFinished());
+
+        // all items submitted, one still in progress
+        progress.allSubmitted();
+        assertFalse(progress.isFinished());
+        assertFalse(RestoreProgress.getReadiness().isReady());
+
+        progress.failed("http://test.inter-iot.eu/platform2");
+        assertTrue(progress.isFinished());
+
+        RestoreStatus status = progress.getStatus();
+        assertEquals("test-component", status.getComponent());
+        assertEquals(2, status.getTotal());
+        assertEquals(1, status.getRestored());
+        assertEquals(1, status.getFailed());
+        assertEquals(Collections.singletonList("http://test.inter-iot.eu/platform2"), status.getFailedItems());
+    }
+
+    @Test
+    public void testNothingToRestore() {
+        RestoreProgress progress = RestoreProgress.start("test-empty");
+        assertFalse(progress.isFinished());
+        progress.allSubmitted();
+        assertTrue(progress.isFinished());
+
+        ReadinessStatus readiness = RestoreProgress.getReadiness();
+        assertTrue(readiness.getComponents().stream().anyMatch(c -> c.getComponent().equals("test-empty")));
+    }
+
+    @Test
+    public void testReadinessWaitsForExpectedComponents() {
+        RestoreProgress.setExpectedComponents(Arrays.asList("test-first", "test-second"));
+        RestoreProgress.start("test-first").allSubmitted();
+
+        // the second component hasn't started yet
+        ReadinessStatus readiness = RestoreProgress.getReadiness();
+        assertFalse(readiness.isReady());
+        RestoreStatus second = readiness.getComponents().stream()
+                .filter(c -> c.getComponent().equals("test-second"))
+                .findFirst()
+                .orElseThrow(AssertionError::new);
+        assertFalse(second.isFinished());
+
+        RestoreProgress.start("test-second").allSubmitted();
+        assertTrue(RestoreProgress.getReadiness().isReady());
+    }
+}
@@ -0,0 +1,270 @@
+/*
+ * Copyright 2016-2018 Universitat Politècnica de València
+ * Copyright 2016-2018 Università della Calabria
+ * Copyright 2016-2018 Prodevelop, SL
+ * Copyright 2016-2018 Technische Universiteit Eindhoven
+ * Copyright 2016-2018 Fundación de la Comunidad Valenciana para la
+ * Investigación, Promoción y Estudios Comerciales de Valenciaport
+ * Copyright 2016-2018 Rinicom Ltd
+ * Copyright 2016-2018 Association pour le développement de la formation
+ * professionnelle dans le transport
+ * Copyright 2016-2018 Noatum Ports Valenciana, S.A.U.
+ * Copyright 2016-2018 XLAB razvoj programske opreme in svetovanje d.o.o.
+ * Copyright 2016-2018 Systems Research Institute Polish Academy of Sciences
+ * Copyright 2016-2018 Azienda Sanitaria Locale TO5
+ * Copyright 2016-2018 Alessandro Bassi Consulting SARL
+ * Copyright 2016-2018 Neways Technologies B.V.
+ *
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.interiot.intermw.services.registry;
+
+import eu.interiot.intermw.commons.exceptions.MiddlewareException;
+import eu.interiot.intermw.commons.interfaces.Configuration;
+import eu.interiot.intermw.commons.model.IoTDevice;
+import eu.interiot.intermw.commons.model.Plat2PlatSubscription;
+import eu.interiot.intermw.commons.model.Platform;
+import eu.interiot.intermw.commons.model.Subscription;
+import eu.interiot.message.Message;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Non-blocking facade of {@link ParliamentRegistry}. Registry calls run on a bounded I/O executor shared by all
+ * facades of the same store and every call returns a {@link CompletableFuture}, which fails with a
+ * {@link TimeoutException} if the call doesn't finish in time after it has been submitted. A call which times out
+ * before it starts is skipped. One which is already running can't be stopped (store requests don't react to
+ * interrupts), it runs to the end and its result is discarded.
+ * <p>
+ * Calls with the same ordering key are executed one after another in submission order, so e.g. registering and
+ * removing devices of one platform can't be reordered. A call starts only once the previous call with the same key
+ * has actually finished, even if that one has already timed out. Calls without a key may run in any order.
+ * <p>
+ * Configuration properties:
+ * <ul>
+ * <li><code>registry.async.threads</code> - number of I/O threads (default 8)</li>
+ * <li><code>registry.async.queueSize</code> - max. number of queued calls (default 1000). When the queue is
+ * full, the calling thread runs the call itself, which throttles producers.</li>
+ * <li><code>registry.async.timeout</code> - default timeout in milliseconds (default 30000)</li>
+ * <li><code>registry.async.timeout.&lt;operation&gt;</code> - timeout of a single operation,
+ * e.g. <code>registry.async.timeout.registerDevices</code></li>
+ * </ul>
+ */
+public class AsyncRegistry {
+    private final static Logger logger = LoggerFactory.getLogger(AsyncRegistry.class);
+    private static final String PROPERTY_PREFIX = "registry.async.";
+    private static final String THREADS = "threads";
+    private static final String QUEUE_SIZE = "queueSize";
+    private static final String TIMEOUT = "timeout";
+
+    private static final Map<String, ExecutorService> executors = new ConcurrentHashMap<>();
+    private static final ScheduledExecutorService timeoutScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "registry-async-timeout");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    @FunctionalInterface
+    public interface RegistryCall<T> {
+        T call(ParliamentRegistry registry) throws MiddlewareException;
+    }
+
+    private final ParliamentRegistry registry;
+    private final ExecutorService executor;
+    private final Map<String, Long> timeouts = new ConcurrentHashMap<>();
+    /**
+     * Completion of the actual execution of the last call submitted with each ordering key
+     */
+    private final Map<String, CompletableFuture<Void>> orderingTails = new ConcurrentHashMap<>();
+    private final long defaultTimeout;
+
+    public AsyncRegistry(ParliamentRegistry registry) {
+        this.registry = registry;
+        Configuration conf = registry.getConf();
+        this.executor = executors.computeIfAbsent(RegistryBackendFactory.getRegistryId(conf), id -> createExecutor(conf));
+        String timeout = conf.getProperty(PROPERTY_PREFIX + TIMEOUT);
+        this.defaultTimeout = timeout != null ? Long.parseLong(timeout) : 30000;
+    }
+
+    public ParliamentRegistry getRegistry() {
+        return registry;
+    }
+
+    /**
+     * Runs any registry call on the I/O executor.
+     *
+     * @param operation   operation name, used for logging and to look up the operation timeout
+     * @param orderingKey calls with the same key run in submission order, null if ordering doesn't matter
+     */
+    public <T> CompletableFuture<T> submit(String operation, String orderingKey, RegistryCall<T> call) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        CompletableFuture<Void> finished = new CompletableFuture<>();
+        scheduleTimeout(operation, future);
+        if (orderingKey == null) {
+            execute(operation, call, future, finished);
+            return future;
+        }
+
+        CompletableFuture<Void> previous = orderingTails.put(orderingKey, finished);
+        finished.whenComplete((result, e) -> orderingTails.remove(orderingKey, finished));
+        if (previous == null) {
+            execute(operation, call, future, finished);
+        } else {
+            // chained on the execution of the previous call, not on its (possibly timed out) future, so it runs
+            // on the I/O thread which finished the previous call
+            previous.whenComplete((result, e) -> execute(operation, call, future, finished));
+        }
+        return future;
+    }
+
+    public CompletableFuture<DeviceWriteResult> registerDevices(List<IoTDevice> devices, String orderingKey) {
+        return submit("registerDevices", orderingKey, r -> r.registerDevices(devices));
+    }
+
+    public CompletableFuture<Void> registerDevices(String platformId, Message message) {
+        return submit("registerDevices", platformId, r -> {
+            r.registerDevices(platformId, message);
+            return null;
+        });
+    }
+
+    public CompletableFuture<DeviceWriteResult> updateDevices(List<IoTDevice> devices, String orderingKey) {
+        return submit("updateDevices", orderingKey, r -> r.updateDevices(devices));
+    }
+
+    public CompletableFuture<DeviceWriteResult> removeDevices(List<String> deviceIds, String orderingKey) {
+        return submit("removeDevices", orderingKey, r -> r.removeDevices(deviceIds));
+    }
+
+    public CompletableFuture<List<IoTDevice>> getDevices(List<String> deviceIds) {
+        return submit("getDevices", null, r -> r.getDevices(deviceIds));
+    }
+
+    public CompletableFuture<List<String>> getDeviceIds(String platformId) {
+        return submit("getDeviceIds", null, r -> r.getDeviceIds(platformId));
+    }
+
+    public CompletableFuture<List<Platform>> listPlatforms() {
+        return submit("listPlatforms", null, ParliamentRegistry::listPlatforms);
+    }
+
+    public CompletableFuture<Platform> getPlatformById(String platformId) {
+        return submit("getPlatformById", null, r -> r.getPlatformById(platformId));
+    }
+
+    public CompletableFuture<Void> subscribe(Subscription subscription) {
+        return submit("subscribe", subscription.getConversationId(), r -> {
+            r.subscribe(subscription);
+            return null;
+        });
+    }
+
+    public CompletableFuture<Void> deleteSubscription(String conversationId) {
+        return submit("deleteSubscription", conversationId, r -> {
+            r.deleteSubscription(conversationId);
+            return null;
+        });
+    }
+
+    public CompletableFuture<Void> addPlat2PlatSubscription(Plat2PlatSubscription subscription) {
+        return submit("addPlat2PlatSubscription", subscription.getConversationId(), r -> {
+            r.addPlat2PlatSubscription(subscription);
+            return null;
+        });
+    }
+
+    public CompletableFuture<Void> deletePlat2PlatSubscription(String conversationId) {
+        return submit("deletePlat2PlatSubscription", conversationId, r -> {
+            r.deletePlat2PlatSubscription(conversationId);
+            return null;
+        });
+    }
+
+    public CompletableFuture<Plat2PlatSubscription> getPlat2PlatSubscription(String conversationId) {
+        return submit("getPlat2PlatSubscription", conversationId, r -> r.getPlat2PlatSubscription(conversationId));
+    }
+
+    /**
+     * Runs the call on the I/O executor. <code>finished</code> is completed once the call has returned, or has
+     * been skipped because <code>future</code> had already timed out.
+     */
+    private <T> void execute(String operation, RegistryCall<T> call, CompletableFuture<T> future,
+                             CompletableFuture<Void> finished) {
+        try {
+            executor.execute(() -> {
+                try {
+                    if (future.isDone()) {
+                        logger.debug("Registry operation {} timed out before it started, skipping it.", operation);
+                    } else {
+                        future.complete(call.call(registry));
+                    }
+                } catch (Throwable e) {
+                    future.completeExceptionally(e);
+                } finally {
+                    finished.complete(null);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(e);
+            finished.complete(null);
+        }
+    }
+
+    /**
+     * Fails the future when the operation timeout expires. Only the future is completed on the timeout thread,
+     * nothing is submitted from it.
+     */
+    private void scheduleTimeout(String operation, CompletableFuture<?> future) {
+        long timeout = getTimeout(operation);
+        ScheduledFuture<?> timeoutTask = timeoutScheduler.schedule(() -> {
+            if (future.completeExceptionally(new TimeoutException(
+                    String.format("Registry operation %s timed out after %d ms.", operation, timeout)))) {
+                logger.warn("Registry operation {} timed out after {} ms.", operation, timeout);
+            }
+        }, timeout, TimeUnit.MILLISECONDS);
+        future.whenComplete((result, e) -> timeoutTask.cancel(false));
+    }
+
+    private long getTimeout(String operation) {
+        return timeouts.computeIfAbsent(operation, op -> {
+            String timeout = registry.getConf().getProperty(PROPERTY_PREFIX + TIMEOUT + "." + op);
+            return timeout != null ? Long.parseLong(timeout) : defaultTimeout;
+        });
+    }
+
+    private static ExecutorService createExecutor(Configuration conf) {
+        String threadsProperty = conf.getProperty(PROPERTY_PREFIX + THREADS);
+        String queueSizeProperty = conf.getProperty(PROPERTY_PREFIX + QUEUE_SIZE);
+        int threads = threadsProperty != null ? Integer.parseInt(threadsProperty) : 8;
+        int queueSize = queueSizeProperty != null ? Integer.parseInt(queueSizeProperty) : 1000;
+
+        AtomicInteger threadCount = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueSize), runnable -> {
+            Thread thread = new Thread(runnable, "registry-io-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }, new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.allowCoreThreadTimeOut(true);
+        logger.debug("Registry I/O executor created with {} threads and queue size {}.", threads, queueSize);
+        return executor;
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright 2016-2018 Universitat Politècnica de València
+ * Copyright 2016-2018 Università della Calabria
+ * Copyright 2016-2018 Prodevelop, SL
+ * Copyright 2016-2018 Technische Universiteit Eindhoven
+ * Copyright 2016-2018 Fundación de la Comunidad Valenciana para la
+ * Investigación, Promoción y Estudios Comerciales de Valenciaport
+ * Copyright 2016-2018 Rinicom Ltd
+ * Copyright 2016-2018 Association pour le développement de la formation
+ * professionnelle dans le transport
+ * Copyright 2016-2018 Noatum Ports Valenciana, S.A.U.
+ * Copyright 2016-2018 XLAB razvoj programske opreme in svetovanje d.o.o.
+ * Copyright 2016-2018 Systems Research Institute Polish Academy of Sciences
+ * Copyright 2016-2018 Azienda Sanitaria Locale TO5
+ * Copyright 2016-2018 Alessandro Bassi Consulting SARL
+ * Copyright 2016-2018 Neways Technologies B.V.
+ *
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.interiot.intermw.services.registry;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import eu.interiot.intermw.commons.interfaces.Configuration;
+import eu.interiot.intermw.commons.model.IoTDevice;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Bounded in-memory cache of registry devices, keyed by device ID. Entries are evicted in LRU order once
+ * <code>registry.deviceCache.maxSize</code> is reached (0 disables caching).
+ * <p>
+ * The cache is filled on registry reads and invalidated on every device write. A read that started before an
+ * invalidation doesn't put its (possibly stale) result to the cache. Cached devices are copied on the way in and
+ * out, so callers can't modify cached entries.
+ */
+public class DeviceCache {
+    private static final String MAX_SIZE_PROPERTY = "registry.deviceCache.maxSize";
+    private static final long DEFAULT_MAX_SIZE = 10000;
+
+    private static final Map<String, DeviceCache> caches = new ConcurrentHashMap<>();
+
+    private final Cache<String, IoTDevice> cache;
+    private final long maxSize;
+    private final Object lock = new Object();
+    private volatile long invalidationCount;
+
+    DeviceCache(long maxSize) {
+        this.maxSize = maxSize;
+        cache = CacheBuilder.newBuilder()
+                .maximumSize(maxSize)
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * Returns the device cache shared by all registry instances using the same store.
+     */
+    public static DeviceCache getInstance(Configuration conf) {
+        return caches.computeIfAbsent(RegistryBackendFactory.getRegistryId(conf), id -> create(conf));
+    }
+
+    /**
+     * Creates a device cache which isn't shared with other registry instances.
+     */
+    static DeviceCache create(Configuration conf) {
+        String maxSize = conf.getProperty(MAX_SIZE_PROPERTY);
+        return new DeviceCache(maxSize != null ? Long.parseLong(maxSize) : DEFAULT_MAX_SIZE);
+    }
+
+    public boolean isEnabled() {
+        return maxSize > 0;
+    }
+
+    /**
+     * Returns copies of cached devices for the given IDs. Devices not in the cache are counted as misses.
+     */
+    public Map<String, IoTDevice> getAll(Collection<String> deviceIds) {
+        Map<String, IoTDevice> result = new HashMap<>();
+        for (Map.Entry<String, IoTDevice> entry : cache.getAllPresent(deviceIds).entrySet()) {
+            result.put(entry.getKey(), copy(entry.getValue()));
+        }
+        return result;
+    }
+
+    /**
+     * Marks the start of a registry read. The returned value has to be passed to {@link #putAll(Collection, long)}.
+     */
+    public long startRead() {
+        return invalidationCount;
+    }
+
+    /**
+     * Stores devices read from the registry, unless a write happened since the read started.
+     */
+    public void putAll(Collection<IoTDevice> devices, long readStamp) {
+        if (!isEnabled()) {
+            return;
+        }
+        synchronized (lock) {
+            if (invalidationCount != readStamp) {
+                return;
+            }
+            for (IoTDevice device : devices) {
+                if (device.getDeviceId() != null) {
+                    cache.put(device.getDeviceId(), copy(device));
+                }
+            }
+        }
+    }
+
+    public void invalidate(Collection<String> deviceIds) {
+        synchronized (lock) {
+            invalidationCount++;
+            cache.invalidateAll(deviceIds);
+        }
+    }
+
+    public void invalidateAll() {
+        synchronized (lock) {
+            invalidationCount++;
+            cache.invalidateAll();
+        }
+    }
+
+    public CacheStatistics getStatistics() {
+        CacheStats stats = cache.stats();
+        CacheStatistics statistics = new CacheStatistics();
+        statistics.setSize(cache.size());
+        statistics.setMaxSize(maxSize);
+        statistics.setHitCount(stats.hitCount());
+        statistics.setMissCount(stats.missCount());
+        statistics.setEvictionCount(stats.evictionCount());
+        return statistics;
+    }
+
+    static IoTDevice copy(IoTDevice device) {
+        IoTDevice copy = new IoTDevice(device.getDeviceId(), device.getName(), device.getHostedBy(),
+                device.getLocation(), device.getDeviceTypes() != null ? device.getDeviceTypes().clone() : null);
+        if (device.getHosts() != null) {
+            copy.setHosts(new ArrayList<>(device.getHosts()));
+        }
+        if (device.getForProperty() != null) {
+            copy.setForProperty(new HashSet<>(device.getForProperty()));
+        }
+        if (device.getObserves() != null) {
+            copy.setObserves(new HashSet<>(device.getObserves()));
+        }
+        copy.setMadeActuation(device.getMadeActuation());
+        copy.setImplementsProcedure(device.getImplementsProcedure());
+        copy.setDetects(device.getDetects());
+        copy.setMadeObservation(device.getMadeObservation());
+        return copy;
+    }
+}
@@ -0,0 +1,398 @@
+/*
+ * Copyright 2016-2018 Universitat Politècnica de València
+ * Copyright 2016-2018 Università della Calabria
+ * Copyright 2016-2018 Prodevelop, SL
+ * Copyright 2016-2018 Technische Universiteit Eindhoven
+ * Copyright 2016-2018 Fundación de la Comunidad Valenciana para la
+ * Investigación, Promoción y Estudios Comerciales de Valenciaport
+ * Copyright 2016-2018 Rinicom Ltd
+ * Copyright 2016-2018 Association pour le développement de la formation
+ * professionnelle dans le transport
+ * Copyright 2016-2018 Noatum Ports Valenciana, S.A.U.
+ * Copyright 2016-2018 XLAB razvoj programske opreme in svetovanje d.o.o.
+ * Copyright 2016-2018 Systems Research Institute Polish Academy of Sciences
+ * Copyright 2016-2018 Azienda Sanitaria Locale TO5
+ * Copyright 2016-2018 Alessandro Bassi Consulting SARL
+ * Copyright 2016-2018 Neways Technologies B.V.
+ *
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.interiot.intermw.services.registry;
+
+import eu.interiot.intermw.commons.exceptions.MiddlewareException;
+import eu.interiot.intermw.commons.interfaces.Configuration;
+import eu.interiot.message.Message;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Write-behind stage for device discovery messages (<code>DEVICE_REGISTRY_INITIALIZE</code>,
+ * <code>DEVICE_ADD_OR_UPDATE</code>).
+ * <p>
+ * Device graphs are queued instead of being written one message at a time. A graph queued again before it has been
+ * written replaces the queued one, so only the latest version of each device is written. Queued graphs are
+ * written in batches of <code>registry.writeBehind.batchSize</code> as soon as a batch is full, or when the oldest
+ * queued graph has waited <code>registry.writeBehind.flushInterval</code> ms. Once
+ * <code>registry.writeBehind.maxPending</code> graphs are waiting, {@link #submit(String, Message)} blocks until the
+ * store catches up. Queued graphs are written on {@link #close()} and on JVM shutdown.
+ * <p>
+ * Registry reads don't see queued graphs, so the queue trades read-your-writes consistency of device discovery for
+ * write throughput and is only used if <code>registry.writeBehind.enabled</code> is set.
+ * <p>
+ * Graphs taken from the queue stay tracked until their batch has been written, so {@link #discard(Collection)} and
+ * {@link #discardPlatform(String)} also cover graphs whose INSERT is already running. Removals should wait for the
+ * returned future, otherwise the running INSERT may re-create the removed devices.
+ */
+public class DeviceWriteBehindQueue implements AutoCloseable {
+    private final static Logger logger = LoggerFactory.getLogger(DeviceWriteBehindQueue.class);
+
+    private static final String PROPERTY_PREFIX = "registry.writeBehind.";
+    private static final String ENABLED = "enabled";
+    private static final String BATCH_SIZE = "batchSize";
+    private static final String FLUSH_INTERVAL = "flushInterval";
+    private static final String MAX_PENDING = "maxPending";
+
+    private final ParliamentRegistry registry;
+    private final int batchSize;
+    private final long flushIntervalNanos;
+    private final int maxPending;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private final LinkedHashMap<String, PendingGraph> pending = new LinkedHashMap<>();
+    private final List<InFlightBatch> inFlight = new ArrayList<>();
+    private final Thread writer;
+    private final Thread shutdownHook;
+    private boolean closed;
+
+    public DeviceWriteBehindQueue(ParliamentRegistry registry) {
+        this.registry = registry;
+        Configuration conf = registry.getConf();
+        batchSize = Math.max(Integer.parseInt(getProperty(conf, BATCH_SIZE, "200")), 1);
+        flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(Long.parseLong(getProperty(conf, FLUSH_INTERVAL, "200")));
+        maxPending = Math.max(Integer.parseInt(getProperty(conf, MAX_PENDING, "10000")), batchSize);
+
+        writer = new Thread(this::writeLoop, "registry-write-behind");
+        writer.setDaemon(true);
+        writer.start();
+        shutdownHook = new Thread(this::close, "registry-write-behind-shutdown");
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
+
+        logger.debug("Device write-behind queue created: batchSize={}, flushInterval={} ms, maxPending={}.",
+                batchSize, TimeUnit.NANOSECONDS.toMillis(flushIntervalNanos), maxPending);
+    }
+
+    /**
+     * @return whether device discovery messages should go through the write-behind queue
+     * (<code>registry.writeBehind.enabled</code>, disabled by default). Queued devices aren't visible to registry
+     * reads until their batch has been written, so clients may not see a device right after it has been reported.
+     */
+    public static boolean isEnabled(Configuration conf) {
+        return Boolean.parseBoolean(getProperty(conf, ENABLED, "false"));
+    }
+
+    /**
+     * Queues device graphs of a device discovery message, blocking while the queue is full.
+     *
+     * @return future completed when all device graphs of the message (or graphs which replaced them) have been
+     * written
+     * @throws MiddlewareException if interrupted while waiting for space in the queue
+     */
+    public CompletableFuture<Void> submit(String platformId, Message message) throws MiddlewareException {
+        List<DeviceGraph> deviceGraphs = ParliamentRegistry.getDeviceGraphs(platformId, message);
+        if (deviceGraphs.isEmpty()) {
+            logger.warn("Trying to register devices with empty device list, no devices will be registered");
+            return CompletableFuture.completedFuture(null);
+        }
+
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        List<PendingGraph> directWrites = new ArrayList<>();
+        InFlightBatch directBatch = null;
+        lock.lock();
+        try {
+            for (DeviceGraph deviceGraph : deviceGraphs) {
+                String deviceId = deviceGraph.getDeviceId();
+                while (!closed && !pending.containsKey(deviceId) && pending.size() >= maxPending) {
+                    notFull.await();
+                }
+                if (closed) {
+                    directWrites.add(new PendingGraph(deviceGraph));
+                    continue;
+                }
+                PendingGraph pendingGraph = pending.get(deviceId);
+                if (pendingGraph != null) {
+                    pendingGraph.deviceGraph = deviceGraph;
+                } else {
+                    pendingGraph = new PendingGraph(deviceGraph);
+                    pending.put(deviceId, pendingGraph);
+                }
+                futures.add(pendingGraph.future);
+            }
+            notEmpty.signalAll();
+            if (!directWrites.isEmpty()) {
+                directBatch = new InFlightBatch(directWrites);
+                inFlight.add(directBatch);
+            }
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MiddlewareException("Interrupted while waiting for the device write-behind queue.", e);
+
+        } finally {
+            lock.unlock();
+        }
+
+        if (directBatch != null) {
+            // late messages during shutdown are written directly
+            try {
+                registry.registerDeviceGraphs(directBatch.deviceGraphs);
+            } finally {
+                finishBatch(directBatch);
+            }
+        }
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]));
+    }
+
+    /**
+     * Drops queued graphs of the given devices, e.g. because the devices are being removed. Futures of dropped
+     * graphs are completed without writing them.
+     *
+     * @return future completed when batches already being written which contain any of the devices have finished,
+     * the removal has to run after it
+     */
+    public CompletableFuture<Void> discard(Collection<String> deviceIds) {
+        lock.lock();
+        try {
+            for (String deviceId : deviceIds) {
+                PendingGraph pendingGraph = pending.remove(deviceId);
+                if (pendingGraph != null) {
+                    pendingGraph.future.complete(null);
+                }
+            }
+            notFull.signalAll();
+
+            List<CompletableFuture<Void>> running = new ArrayList<>();
+            for (InFlightBatch batch : inFlight) {
+                if (!Collections.disjoint(batch.deviceIds, deviceIds)) {
+                    running.add(batch.done);
+                }
+            }
+            return allOf(running);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Drops all queued graphs of the platform, e.g. because the platform is being unregistered.
+     *
+     * @return future completed when batches already being written which contain devices of the platform have
+     * finished, the removal of the platform has to run after it
+     */
+    public CompletableFuture<Void> discardPlatform(String platformId) {
+        lock.lock();
+        try {
+            Iterator<PendingGraph> iterator = pending.values().iterator();
+            while (iterator.hasNext()) {
+                PendingGraph pendingGraph = iterator.next();
+                if (pendingGraph.deviceGraph.getPlatformId().equals(platformId)) {
+                    iterator.remove();
+                    pendingGraph.future.complete(null);
+                }
+            }
+            notFull.signalAll();
+
+            List<CompletableFuture<Void>> running = new ArrayList<>();
+            for (InFlightBatch batch : inFlight) {
+                if (batch.platformIds.contains(platformId)) {
+                    running.add(batch.done);
+                }
+            }
+            return allOf(running);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getPendingCount() {
+        lock.lock();
+        try {
+            return pending.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Writes all queued graphs and stops the writer thread. Graphs submitted afterwards are written directly.
+     */
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            notEmpty.signalAll();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.warn("Interrupted while flushing the device write-behind queue, {} device graphs have not been written.",
+                    getPendingCount());
+        }
+        try {
+            Runtime.getRuntime().removeShutdownHook(shutdownHook);
+        } catch (IllegalStateException e) {
+            // already shutting down
+        }
+        logger.debug("Device write-behind queue has been closed.");
+    }
+
+    private void writeLoop() {
+        while (true) {
+            InFlightBatch batch;
+            try {
+                batch = takeBatch();
+            } catch (InterruptedException e) {
+                logger.warn("Device write-behind writer has been interrupted, {} device graphs have not been written.",
+                        getPendingCount());
+                return;
+            }
+            if (batch == null) {
+                return;
+            }
+            write(batch);
+        }
+    }
+
+    /**
+     * Waits until a batch is full, the oldest queued graph has waited for the flush interval or the queue is closed.
+     *
+     * The batch is tracked as in flight from the moment it leaves the queue.
+     *
+     * @return next batch, <code>null</code> when the queue is closed and drained
+     */
+    private InFlightBatch takeBatch() throws InterruptedException {
+        lock.lock();
+        try {
+            while (pending.isEmpty()) {
+                if (closed) {
+                    return null;
+                }
+                notEmpty.await();
+            }
+            long deadline = pending.values().iterator().next().queuedAt + flushIntervalNanos;
+            long remaining;
+            while (pending.size() < batchSize && !closed && (remaining = deadline - System.nanoTime()) > 0) {
+                notEmpty.awaitNanos(remaining);
+            }
+
+            List<PendingGraph> batch = new ArrayList<>(Math.min(pending.size(), batchSize));
+            Iterator<PendingGraph> iterator = pending.values().iterator();
+            while (iterator.hasNext() && batch.size() < batchSize) {
+                batch.add(iterator.next());
+                iterator.remove();
+            }
+            notFull.signalAll();
+            InFlightBatch inFlightBatch = new InFlightBatch(batch);
+            inFlight.add(inFlightBatch);
+            return inFlightBatch;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void write(InFlightBatch batch) {
+        try {
+            registry.registerDeviceGraphs(batch.deviceGraphs);
+            for (PendingGraph pendingGraph : batch.pendingGraphs) {
+                pendingGraph.future.complete(null);
+            }
+        } catch (Exception e) {
+            logger.error("Failed to write a batch of {} device graphs.", batch.deviceGraphs.size(), e);
+            for (PendingGraph pendingGraph : batch.pendingGraphs) {
+                pendingGraph.future.completeExceptionally(e);
+            }
+        } finally {
+            finishBatch(batch);
+        }
+    }
+
+    private void finishBatch(InFlightBatch batch) {
+        lock.lock();
+        try {
+            inFlight.remove(batch);
+        } finally {
+            lock.unlock();
+        }
+        batch.done.complete(null);
+    }
+
+    private static CompletableFuture<Void> allOf(List<CompletableFuture<Void>> futures) {
+        if (futures.isEmpty()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]));
+    }
+
+    private static String getProperty(Configuration conf, String name, String defaultValue) {
+        String value = conf.getProperty(PROPERTY_PREFIX + name);
+        return value != null ? value : defaultValue;
+    }
+
+    private static class PendingGraph {
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+        private final long queuedAt = System.nanoTime();
+        private DeviceGraph deviceGraph;
+
+        PendingGraph(DeviceGraph deviceGraph) {
+            this.deviceGraph = deviceGraph;
+        }
+    }
+
+    private static class InFlightBatch {
+        private final CompletableFuture<Void> done = new CompletableFuture<>();
+        private final List<PendingGraph> pendingGraphs;
+        private final List<DeviceGraph> deviceGraphs;
+        private final Set<String> deviceIds = new HashSet<>();
+        private final Set<String> platformIds = new HashSet<>();
+
+        InFlightBatch(List<PendingGraph> pendingGraphs) {
+            this.pendingGraphs = pendingGraphs;
+            deviceGraphs = new ArrayList<>(pendingGraphs.size());
+            for (PendingGraph pendingGraph : pendingGraphs) {
+                DeviceGraph deviceGraph = pendingGraph.deviceGraph;
+                deviceGraphs.add(deviceGraph);
+                deviceIds.add(deviceGraph.getDeviceId());
+                platformIds.add(deviceGraph.getPlatformId());
+            }
+        }
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2016-2018 Universitat Politècnica de València
+ * Copyright 2016-2018 Università della Calabria
+ * Copyright 2016-2018 Prodevelop, SL
+ * Copyright 2016-2018 Technische Universiteit Eindhoven
+ * Copyright 2016-2018 Fundación de la Comunidad Valenciana para la
+ * Investigación, Promoción y Estudios Comerciales de Valenciaport
+ * Copyright 2016-2018 Rinicom Ltd
+ * Copyright 2016-2018 Association pour le développement de la formation
+ * professionnelle dans le transport
+ * Copyright 2016-2018 Noatum Ports Valenciana, S.A.U.
+ * Copyright 2016-2018 XLAB razvoj programske opreme in svetovanje d.o.o.
+ * Copyright 2016-2018 Systems Research Institute Polish Academy of Sciences
+ * Copyright 2016-2018 Azienda Sanitaria Locale TO5
+ * Copyright 2016-2018 Alessandro Bassi Consulting SARL
+ * Copyright 2016-2018 Neways Technologies B.V.
+ *
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.interiot.intermw.services.registry;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Outcome of a batched device write (register, update or remove). Devices are written in chunks, when a chunk
+ * fails its devices are retried one by one so that failures can be reported per device.
+ */
+public class DeviceWriteResult {
+
+    private final List<String> succeededDeviceIds = new ArrayList<>();
+    private final Map<String, String> failedDevices = new LinkedHashMap<>();
+
+    void addSucceeded(String deviceId) {
+        succeededDeviceIds.add(deviceId);
+    }
+
+    void addFailed(String deviceId, String error) {
+        failedDevices.put(deviceId, error);
+    }
+
+    public List<String> getSucceededDeviceIds() {
+        return Collections.unmodifiableList(succeededDeviceIds);
+    }
+
+    /**
+     * @return failed device IDs mapped to error messages
+     */
+    public Map<String, String> getFailedDevices() {
+        return Collections.unmodifiableMap(failedDevices);
+    }
+
+    public boolean hasFailures() {
+        return !failedDevices.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return "DeviceWriteResult{succeeded=" + succeededDeviceIds.size() + ", failed=" + failedDevices + "}";
+    }
+}
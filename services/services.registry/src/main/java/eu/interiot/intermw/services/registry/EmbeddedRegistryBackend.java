@@ -0,0 +1,165 @@
+/*
+ * Copyright 2016-2018 Universitat Politècnica de València
+ * Copyright 2016-2018 Università della Calabria
+ * Copyright 2016-2018 Prodevelop, SL
+ * Copyright 2016-2018 Technische Universiteit Eindhoven
+ * Copyright 2016-2018 Fundación de la Comunidad Valenciana para la
+ * Investigación, Promoción y Estudios Comerciales de Valenciaport
+ * Copyright 2016-2018 Rinicom Ltd
+ * Copyright 2016-2018 Association pour le développement de la formation
+ * professionnelle dans le transport
+ * Copyright 2016-2018 Noatum Ports Valenciana, S.A.U.
+ * Copyright 2016-2018 XLAB razvoj programske opreme in svetovanje d.o.o.
+ * Copyright 2016-2018 Systems Research Institute Polish Academy of Sciences
+ * Copyright 2016-2018 Azienda Sanitaria Locale TO5
+ * Copyright 2016-2018 Alessandro Bassi Consulting SARL
+ * Copyright 2016-2018 Neways Technologies B.V.
+ *
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.interiot.intermw.services.registry;
+
+import org.apache.jena.query.Dataset;
+import org.apache.jena.query.ReadWrite;
+import org.apache.jena.rdfconnection.RDFConnection;
+import org.apache.jena.rdfconnection.RDFConnectionFactory;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Registry backend on an embedded, transactional Jena dataset (TDB2 or in-memory).
+ * <p>
+ * Registry code reads query results after the query call returns, so each connection runs in its own transaction
+ * which is ended when the connection is closed. The transaction is begun by the first connection call: a read
+ * transaction for queries, so reads don't wait for (or block) writers, and a write transaction for updates, which is
+ * committed on close, or aborted if any connection call failed. A connection which writes after having read switches
+ * to a write transaction, as read transactions can't be promoted in this Jena version.
+ * <p>
+ * Connections used while the thread is already in a transaction join it. A write through a joined connection
+ * switches the thread's read transaction to a write transaction.
+ */
+public class EmbeddedRegistryBackend implements RegistryBackend {
+    private static final Set<String> WRITE_METHODS = new HashSet<>(Arrays.asList(
+            "update", "load", "loadDataset", "put", "putDataset", "delete", "deleteDataset"));
+
+    private final String id;
+    private final Dataset dataset;
+    private final ThreadLocal<TransactionalConnection> transactionOwner = new ThreadLocal<>();
+
+    EmbeddedRegistryBackend(String id, Dataset dataset) {
+        this.id = id;
+        this.dataset = dataset;
+    }
+
+    @Override
+    public RDFConnection connect() {
+        RDFConnection connection = RDFConnectionFactory.connect(dataset);
+        return (RDFConnection) Proxy.newProxyInstance(RDFConnection.class.getClassLoader(),
+                new Class<?>[]{RDFConnection.class}, new TransactionalConnection(connection));
+    }
+
+    @Override
+    public String getId() {
+        return id;
+    }
+
+    public Dataset getDataset() {
+        return dataset;
+    }
+
+    private class TransactionalConnection implements InvocationHandler {
+        private final RDFConnection connection;
+        private ReadWrite transaction;
+        private boolean joined;
+        private boolean failed;
+        private boolean closed;
+
+        TransactionalConnection(RDFConnection connection) {
+            this.connection = connection;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            if (method.getName().equals("close") && method.getParameterCount() == 0) {
+                close();
+                return null;
+            }
+            if (method.getDeclaringClass() != Object.class && !method.getName().equals("isClosed")) {
+                beginOrJoin(WRITE_METHODS.contains(method.getName()) ? ReadWrite.WRITE : ReadWrite.READ);
+            }
+            try {
+                return method.invoke(connection, args);
+            } catch (InvocationTargetException e) {
+                failed = true;
+                throw e.getCause();
+            }
+        }
+
+        private void beginOrJoin(ReadWrite mode) {
+            if (transaction == null && !joined && dataset.isInTransaction()) {
+                joined = true;
+            }
+            if (!joined) {
+                begin(mode);
+                return;
+            }
+            TransactionalConnection owner = transactionOwner.get();
+            if (owner != null) {
+                owner.begin(mode);
+            }
+        }
+
+        private void begin(ReadWrite mode) {
+            if (transaction == ReadWrite.WRITE || transaction == mode) {
+                return;
+            }
+            if (transaction != null) {
+                dataset.end();
+            }
+            dataset.begin(mode);
+            transaction = mode;
+            transactionOwner.set(this);
+        }
+
+        private void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                if (transaction == ReadWrite.WRITE) {
+                    if (failed) {
+                        dataset.abort();
+                    } else {
+                        dataset.commit();
+                    }
+                }
+            } finally {
+                if (transaction != null) {
+                    dataset.end();
+                    transactionOwner.remove();
+                }
+                connection.close();
+            }
+        }
+    }
+}
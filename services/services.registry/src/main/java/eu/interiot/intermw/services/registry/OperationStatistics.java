@@ -0,0 +1,159 @@
+/*
+ * Copyright 2016-2018 Universitat Politècnica de València
+ * Copyright 2016-2018 Università della Calabria
+ * Copyright 2016-2018 Prodevelop, SL
+ * Copyright 2016-2018 Technische Universiteit Eindhoven
+ * Copyright 2016-2018 Fundación de la Comunidad Valenciana para la
+ * Investigación, Promoción y Estudios Comerciales de Valenciaport
+ * Copyright 2016-2018 Rinicom Ltd
+ * Copyright 2016-2018 Association pour le développement de la formation
+ * professionnelle dans le transport
+ * Copyright 2016-2018 Noatum Ports Valenciana, S.A.U.
+ * Copyright 2016-2018 XLAB razvoj programske opreme in svetovanje d.o.o.
+ * Copyright 2016-2018 Systems Research Institute Polish Academy of Sciences
+ * Copyright 2016-2018 Azienda Sanitaria Locale TO5
+ * Copyright 2016-2018 Alessandro Bassi Consulting SARL
+ * Copyright 2016-2018 Neways Technologies B.V.
+ *
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.interiot.intermw.services.registry;
+
+import java.util.Map;
+
+/**
+ * Snapshot of {@link RegistryMetrics} for a single registry operation. Latencies are in milliseconds, percentiles
+ * are upper bounds of the histogram buckets they fall into (-1 if above the largest bound). Latency buckets are
+ * cumulative and keyed by their upper bound.
+ */
+public class OperationStatistics {
+
+    private String operation;
+    private long count;
+    private long errorCount;
+    private long inFlight;
+    private double meanMillis;
+    private double maxMillis;
+    private long p50Millis;
+    private long p95Millis;
+    private long p99Millis;
+    private Map<String, Long> latencyBuckets;
+    private long lastResultSize;
+    private double meanResultSize;
+
+    public String getOperation() {
+        return operation;
+    }
+
+    public void setOperation(String operation) {
+        this.operation = operation;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public void setCount(long count) {
+        this.count = count;
+    }
+
+    public long getErrorCount() {
+        return errorCount;
+    }
+
+    public void setErrorCount(long errorCount) {
+        this.errorCount = errorCount;
+    }
+
+    public long getInFlight() {
+        return inFlight;
+    }
+
+    public void setInFlight(long inFlight) {
+        this.inFlight = inFlight;
+    }
+
+    public double getMeanMillis() {
+        return meanMillis;
+    }
+
+    public void setMeanMillis(double meanMillis) {
+        this.meanMillis = meanMillis;
+    }
+
+    public double getMaxMillis() {
+        return maxMillis;
+    }
+
+    public void setMaxMillis(double maxMillis) {
+        this.maxMillis = maxMillis;
+    }
+
+    public long getP50Millis() {
+        return p50Millis;
+    }
+
+    public void setP50Millis(long p50Millis) {
+        this.p50Millis = p50Millis;
+    }
+
+    public long getP95Millis() {
+        return p95Millis;
+    }
+
+    public void setP95Millis(long p95Millis) {
+        this.p95Millis = p95Millis;
+    }
+
+    public long getP99Millis() {
+        return p99Millis;
+    }
+
+    public void setP99Millis(long p99Millis) {
+        this.p99Millis = p99Millis;
+    }
+
+    public Map<String, Long> getLatencyBuckets() {
+        return latencyBuckets;
+    }
+
+    public void setLatencyBuckets(Map<String, Long> latencyBuckets) {
+        this.latencyBuckets = latencyBuckets;
+    }
+
+    public long getLastResultSize() {
+        return lastResultSize;
+    }
+
+    public void setLastResultSize(long lastResultSize) {
+        this.lastResultSize = lastResultSize;
+    }
+
+    public double getMeanResultSize() {
+        return meanResultSize;
+    }
+
+    public void setMeanResultSize(double meanResultSize) {
+        this.meanResultSize = meanResultSize;
+    }
+
+    @Override
+    public String toString() {
+        return "OperationStatistics{operation=" + operation + ", count=" + count + ", errorCount=" + errorCount +
+                ", inFlight=" + inFlight + ", meanMillis=" + meanMillis + ", maxMillis=" + maxMillis +
+                ", p95Millis=" + p95Millis + ", meanResultSize=" + meanResultSize + "}";
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2016-2018 Universitat Politècnica de València
+ * Copyright 2016-2018 Università della Calabria
+ * Copyright 2016-2018 Prodevelop, SL
+ * Copyright 2016-2018 Technische Universiteit Eindhoven
+ * Copyright 2016-2018 Fundación de la Comunidad Valenciana para la
+ * Investigación, Promoción y Estudios Comerciales de Valenciaport
+ * Copyright 2016-2018 Rinicom Ltd
+ * Copyright 2016-2018 Association pour le développement de la formation
+ * professionnelle dans le transport
+ * Copyright 2016-2018 Noatum Ports Valenciana, S.A.U.
+ * Copyright 2016-2018 XLAB razvoj programske opreme in svetovanje d.o.o.
+ * Copyright 2016-2018 Systems Research Institute Polish Academy of Sciences
+ * Copyright 2016-2018 Azienda Sanitaria Locale TO5
+ * Copyright 2016-2018 Alessandro Bassi Consulting SARL
+ * Copyright 2016-2018 Neways Technologies B.V.
+ *
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.interiot.intermw.services.registry;
+
+import eu.interiot.intermw.commons.exceptions.MiddlewareException;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Iterates over a registry listing one page at a time, so only a single page is held in memory.
+ * <p>
+ * Pages are loaded with offset and limit, so entries added or removed while iterating may be skipped or
+ * returned twice. If loading a page fails, the {@link MiddlewareException} is rethrown wrapped in an
+ * {@link IllegalStateException}.
+ */
+public class PagedIterator<T> implements Iterator<T> {
+
+    @FunctionalInterface
+    public interface PageLoader<T> {
+        List<T> load(long offset, int limit) throws MiddlewareException;
+    }
+
+    private final PageLoader<T> pageLoader;
+    private final int pageSize;
+    private Iterator<T> page;
+    private long offset;
+    private boolean lastPage;
+
+    public PagedIterator(PageLoader<T> pageLoader, int pageSize) {
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("Page size must be positive.");
+        }
+        this.pageLoader = pageLoader;
+        this.pageSize = pageSize;
+    }
+
+    @Override
+    public boolean hasNext() {
+        while ((page == null || !page.hasNext()) && !lastPage) {
+            List<T> entries;
+            try {
+                entries = pageLoader.load(offset, pageSize);
+            } catch (MiddlewareException e) {
+                throw new IllegalStateException("Failed to load registry page at offset " + offset + ".", e);
+            }
+            offset += entries.size();
+            lastPage = entries.size() < pageSize;
+            page = entries.iterator();
+        }
+        return page.hasNext();
+    }
+
+    @Override
+    public T next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return page.next();
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright 2016-2018 Universitat Politècnica de València
+ * Copyright 2016-2018 Università della Calabria
+ * Copyright 2016-2018 Prodevelop, SL
+ * Copyright 2016-2018 Technische Universiteit Eindhoven
+ * Copyright 2016-2018 Fundación de la Comunidad Valenciana para la
+ * Investigación, Promoción y Estudios Comerciales de Valenciaport
+ * Copyright 2016-2018 Rinicom Ltd
+ * Copyright 2016-2018 Association pour le développement de la formation
+ * professionnelle dans le transport
+ * Copyright 2016-2018 Noatum Ports Valenciana, S.A.U.
+ * Copyright 2016-2018 XLAB razvoj programske opreme in svetovanje d.o.o.
+ * Copyright 2016-2018 Systems Research Institute Polish Academy of Sciences
+ * Copyright 2016-2018 Azienda Sanitaria Locale TO5
+ * Copyright 2016-2018 Alessandro Bassi Consulting SARL
+ * Copyright 2016-2018 Neways Technologies B.V.
+ *
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.interiot.intermw.services.registry;
+
+import eu.interiot.intermw.commons.interfaces.Configuration;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+import org.apache.jena.rdfconnection.RDFConnection;
+import org.apache.jena.rdfconnection.RDFConnectionRemote;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parliament registry backend, a shared HTTP connection pool used by the registry to talk to Parliament.
+ * <p>
+ * Registry instances are created in several places (API, API request manager, platform request manager,
+ * authorization filters), so one pool is kept per Parliament URL and shared by all of them. Connections are
+ * kept alive between requests, idle and expired connections are evicted periodically.
+ * <p>
+ * Pool settings are read from the <code>parliament.pool.*</code> configuration properties.
+ */
+public class ParliamentConnectionPool implements RegistryBackend {
+    private final static Logger logger = LoggerFactory.getLogger(ParliamentConnectionPool.class);
+
+    private static final String PROPERTY_PREFIX = "parliament.pool.";
+    private static final String MAX_TOTAL = "maxTotal";
+    private static final String MAX_PER_ROUTE = "maxPerRoute";
+    private static final String CONNECT_TIMEOUT = "connectTimeout";
+    private static final String READ_TIMEOUT = "readTimeout";
+    private static final String KEEP_ALIVE = "keepAlive";
+    private static final String IDLE_TIMEOUT = "idleTimeout";
+
+    private static final Map<String, ParliamentConnectionPool> pools = new ConcurrentHashMap<>();
+
+    private final String parliamentUrl;
+    private final PoolingHttpClientConnectionManager connectionManager;
+    private final CloseableHttpClient httpClient;
+    private final ScheduledExecutorService evictor;
+
+    private ParliamentConnectionPool(String parliamentUrl, Properties properties) {
+        this.parliamentUrl = parliamentUrl;
+
+        int maxTotal = Integer.parseInt(properties.getProperty(MAX_TOTAL, "50"));
+        int maxPerRoute = Integer.parseInt(properties.getProperty(MAX_PER_ROUTE, "20"));
+        int connectTimeout = Integer.parseInt(properties.getProperty(CONNECT_TIMEOUT, "5000"));
+        int readTimeout = Integer.parseInt(properties.getProperty(READ_TIMEOUT, "60000"));
+        long keepAlive = Long.parseLong(properties.getProperty(KEEP_ALIVE, "60000"));
+        long idleTimeout = Long.parseLong(properties.getProperty(IDLE_TIMEOUT, "30000"));
+
+        connectionManager = new PoolingHttpClientConnectionManager(keepAlive, TimeUnit.MILLISECONDS);
+        connectionManager.setMaxTotal(maxTotal);
+        connectionManager.setDefaultMaxPerRoute(maxPerRoute);
+
+        RequestConfig requestConfig = RequestConfig.custom()
+                .setConnectTimeout(connectTimeout)
+                .setSocketTimeout(readTimeout)
+                .setConnectionRequestTimeout(connectTimeout)
+                .build();
+
+        // The connection manager is marked as shared, so closing an RDFConnection never shuts the pool down
+        httpClient = HttpClientBuilder.create()
+                .setConnectionManager(connectionManager)
+                .setConnectionManagerShared(true)
+                .setDefaultRequestConfig(requestConfig)
+                .setKeepAliveStrategy((response, context) -> keepAlive)
+                .build();
+
+        evictor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "parliament-pool-evictor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long evictionPeriod = Math.max(idleTimeout / 2, 1000);
+        evictor.scheduleWithFixedDelay(() -> {
+            connectionManager.closeExpiredConnections();
+            connectionManager.closeIdleConnections(idleTimeout, TimeUnit.MILLISECONDS);
+        }, evictionPeriod, evictionPeriod, TimeUnit.MILLISECONDS);
+
+        logger.debug("Parliament connection pool for {} created: maxTotal={}, maxPerRoute={}, connectTimeout={} ms, " +
+                        "readTimeout={} ms, keepAlive={} ms, idleTimeout={} ms.", parliamentUrl, maxTotal, maxPerRoute,
+                connectTimeout, readTimeout, keepAlive, idleTimeout);
+    }
+
+    /**
+     * Returns the pool for the Parliament instance configured in <code>conf</code>, creating it on first use.
+     */
+    public static ParliamentConnectionPool getInstance(Configuration conf) {
+        return getInstance(conf.getParliamentUrl(), conf);
+    }
+
+    /**
+     * Returns the pool for the given Parliament URL (e.g. a read replica), configured like the pool of
+     * <code>parliament.url</code>.
+     */
+    public static ParliamentConnectionPool getInstance(String parliamentUrl, Configuration conf) {
+        return pools.computeIfAbsent(parliamentUrl,
+                url -> new ParliamentConnectionPool(url, conf.getPropertiesWithPrefix(PROPERTY_PREFIX, true)));
+    }
+
+    /**
+     * Opens a connection to Parliament backed by the pooled HTTP client. Closing the connection releases the
+     * underlying HTTP connection back to the pool.
+     */
+    @Override
+    public RDFConnection connect() {
+        return new RDFConnectionRemote(httpClient, parliamentUrl, "sparql", "sparql", "sparql");
+    }
+
+    public HttpClient getHttpClient() {
+        return httpClient;
+    }
+
+    @Override
+    public String getId() {
+        return parliamentUrl;
+    }
+
+    public ConnectionPoolStats getStats() {
+        PoolStats totalStats = connectionManager.getTotalStats();
+        ConnectionPoolStats stats = new ConnectionPoolStats();
+        stats.setLeased(totalStats.getLeased());
+        stats.setPending(totalStats.getPending());
+        stats.setAvailable(totalStats.getAvailable());
+        stats.setMax(totalStats.getMax());
+        return stats;
+    }
+
+    /**
+     * Closes all pooled connections and stops the eviction task. A subsequent {@link #getInstance(Configuration)}
+     * call for the same URL creates a new pool.
+     */
+    public void shutdown() {
+        pools.remove(parliamentUrl, this);
+        evictor.shutdownNow();
+        try {
+            httpClient.close();
+        } catch (IOException e) {
+            logger.warn("Failed to close Parliament HTTP client.", e);
+        }
+        connectionManager.shutdown();
+        logger.debug("Parliament connection pool for {} has been shut down.", parliamentUrl);
+    }
+}
@@ -32,8 +32,6 @@
  */
 package eu.interiot.intermw.services.registry;
 
-import com.google.common.base.Charsets;
-import com.google.common.io.Resources;
 import eu.interiot.intermw.commons.exceptions.MiddlewareException;
 import eu.interiot.intermw.commons.interfaces.Configuration;
 import eu.interiot.intermw.commons.model.*;
@@ -44,6 +42,7 @@ import eu.interiot.intermw.commons.responses.DeviceRegistryInitializeRes;
 import eu.interiot.message.ID.EntityID;
 import eu.interiot.message.Message;
 import eu.interiot.message.payload.types.IoTDevicePayload;
+import com.google.common.collect.Lists;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.jena.graph.Graph;
 import org.apache.jena.graph.GraphExtract;
@@ -52,19 +51,31 @@ import org.apache.jena.graph.TripleBoundary;
 import org.apache.jena.query.*;
 import org.apache.jena.rdf.model.*;
 import org.apache.jena.rdfconnection.RDFConnection;
-import org.apache.jena.rdfconnection.RDFConnectionFactory;
 import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.RDFFormat;
+import org.apache.jena.riot.system.StreamRDF;
+import org.apache.jena.riot.system.StreamRDFWriter;
+import org.apache.jena.sparql.graph.GraphFactory;
+import org.apache.jena.sparql.core.Var;
 import org.apache.jena.riot.RDFDataMgr;
+import org.apache.jena.update.Update;
 import org.apache.jena.update.UpdateRequest;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nullable;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 
 public class ParliamentRegistry {
@@ -92,11 +103,55 @@ public class ParliamentRegistry {
     private static final String CLIENT_PREFIX = "http://inter-iot.eu/clients#";
     private static final String CLIENTS_GRAPH = "http://inter-iot.eu/clients";
     private static final String MIDDLEWARE_NAMESPACE = "http://interiot.eu/ont/middleware.owl#";
+    private static final String BATCH_SIZE_PROPERTY = "parliament.batch.size";
+    private static final int DEFAULT_BATCH_SIZE = 200;
+    private static final String PAGE_SIZE_PROPERTY = "registry.page.size";
+    private static final int DEFAULT_PAGE_SIZE = 500;
+    private static final String FETCH_CHUNK_SIZE_PROPERTY = "registry.fetch.chunkSize";
+    private static final int DEFAULT_FETCH_CHUNK_SIZE = 200;
+    private static final String FETCH_PARALLELISM_PROPERTY = "registry.fetch.parallelism";
+    private static final int DEFAULT_FETCH_PARALLELISM = 4;
+
+    private static final Map<String, ExecutorService> fetchExecutors = new ConcurrentHashMap<>();
+    private static final Set<String> CONNECTION_WRITE_METHODS = new HashSet<>(Arrays.asList(
+            "update", "load", "loadDataset", "put", "putDataset", "delete", "deleteDataset"));
+    // operations which may read from a replica (see RegistryBackend.connectForRead) unless their results are cached
+    private static final Set<String> REPLICA_READ_OPERATIONS = new HashSet<>(Arrays.asList(
+            "device-getByIds", "device-discovery-query", "platforms-getAll", "platforms-getByIds",
+            "location_area_getById", "location_point_getById", "location_in_area_getById"));
 
     private Configuration conf;
+    private RegistryBackend backend;
+    private DeviceCache deviceCache;
+    private SpatialIndex spatialIndex;
+    private PlatformStatisticsTracker platformStatisticsTracker;
+    private QueryResultCache queryResultCache;
+    private RegistryMetrics metrics;
+    private SubscriptionIndex subscriptionIndex;
 
     public ParliamentRegistry(Configuration conf) {
+        this(conf, RegistryBackendFactory.getBackend(conf), true);
+    }
+
+    /**
+     * Creates a registry reading from the given backend instead of the configured store, e.g. a restored snapshot.
+     * It has its own caches and indexes, so nothing read from the backend ends up in those of the configured store.
+     * Only the metrics are shared.
+     */
+    ParliamentRegistry(Configuration conf, RegistryBackend backend) {
+        this(conf, backend, false);
+    }
+
+    private ParliamentRegistry(Configuration conf, RegistryBackend backend, boolean shared) {
         this.conf = conf;
+        this.backend = backend;
+        this.deviceCache = shared ? DeviceCache.getInstance(conf) : DeviceCache.create(conf);
+        this.spatialIndex = shared ? SpatialIndex.getInstance(conf) : SpatialIndex.create(conf);
+        this.platformStatisticsTracker = shared ? PlatformStatisticsTracker.getInstance(conf) :
+                PlatformStatisticsTracker.create(conf);
+        this.queryResultCache = shared ? QueryResultCache.getInstance(conf) : QueryResultCache.create(conf);
+        this.metrics = RegistryMetrics.getInstance(conf);
+        this.subscriptionIndex = shared ? SubscriptionIndex.getInstance(conf) : SubscriptionIndex.create(conf);
     }
 
     public void registerClient(Client client) throws MiddlewareException {
@@ -122,7 +177,7 @@ public class ParliamentRegistry {
         }
 
         UpdateRequest updateRequest = pss.asUpdate();
-        try (RDFConnection conn = connect()) {
+        try (RDFConnection conn = connect("client-create")) {
             conn.update(clientRefInsert);
             conn.update(updateRequest);
         }
@@ -140,7 +195,7 @@ public class ParliamentRegistry {
         }
 
         Query query = pss.asQuery();
-        try (RDFConnection conn = connect()) {
+        try (RDFConnection conn = connect("client-exists")) {
             QueryExecution queryExecution = conn.query(query);
             return queryExecution.execAsk();
         }
@@ -158,7 +213,7 @@ public class ParliamentRegistry {
         Client client = new Client();
         client.setClientId(clientId);
         Query query = pss.asQuery();
-        try (RDFConnection conn = connect()) {
+        try (RDFConnection conn = connect("client-getById-construct")) {
             Model clientModel = conn.queryConstruct(query);
             StmtIterator stmtIterator = clientModel.listStatements();
 
@@ -186,16 +241,32 @@ public class ParliamentRegistry {
     }
 
     public List<Client> listClients() throws MiddlewareException {
-        List<Client> clients = new ArrayList<>();
-        ParameterizedSparqlString pss = getPSSfromTemplate("client-getAll.rq");
-        Query query = pss.asQuery();
+        return queryClients(getPSSfromTemplate("client-getAll.rq").asQuery());
+    }
 
-        String sparql = pss.toString();
+    /**
+     * Returns a page of clients ordered by client ID.
+     */
+    public List<Client> listClients(long offset, int limit) throws MiddlewareException {
+        Query query = getPSSfromTemplate("client-getAll.rq").asQuery();
+        setPage(query, "client", offset, limit);
+        return queryClients(query);
+    }
+
+    /**
+     * Iterates over all clients, loading them from the registry one page at a time.
+     */
+    public Iterator<Client> iterateClients() {
+        return new PagedIterator<>(this::listClients, getPageSize());
+    }
+
+    private List<Client> queryClients(Query query) throws MiddlewareException {
+        List<Client> clients = new ArrayList<>();
         if (logger.isTraceEnabled()) {
-            logger.trace("SPARQL query:\n{}", sparql);
+            logger.trace("SPARQL query:\n{}", query);
         }
 
-        try (RDFConnection conn = connect()) {
+        try (RDFConnection conn = connect("client-getAll")) {
             QueryExecution queryExecution = conn.query(query);
             ResultSet resultSet = queryExecution.execSelect();
 
@@ -240,7 +311,7 @@ public class ParliamentRegistry {
             logger.trace("SPARQL query:\n{}", sparql);
         }
 
-        try (RDFConnection conn = connect()) {
+        try (RDFConnection conn = connect("client-remove")) {
             conn.update(updateRequest);
             logger.debug("Client {} has been removed.", clientId);
         }
@@ -258,7 +329,7 @@ public class ParliamentRegistry {
         pss.setLiteral("?responseDelivery", client.getResponseDelivery() != null ? client.getResponseDelivery().name() : "");
         pss.setLiteral("?responseFormat", client.getResponseFormat().name());
 
-        update(pss);
+        update("client-update", pss);
     }
 
     public void registerPlatform(Platform platform) throws MiddlewareException {
@@ -288,44 +359,43 @@ public class ParliamentRegistry {
         pss.setLiteral("?upstreamOutputAlignmentName", platform.getUpstreamOutputAlignmentName());
         pss.setLiteral("?upstreamOutputAlignmentVersion", platform.getUpstreamOutputAlignmentVersion());
 
-        update(pss);
+        update("platform-register", pss);
     }
 
     public List<Platform> listPlatforms() throws MiddlewareException {
-        URL url = Resources.getResource("platforms-getAll.rq");
-        String selectAllPlatforms;
-        try {
-            selectAllPlatforms = Resources.toString(url, Charsets.UTF_8);
-        } catch (IOException e) {
-            throw new MiddlewareException("Failed to load SPARQL query.", e);
-        }
+        String selectAllPlatforms = SparqlTemplates.getInstance().getText("platforms-getAll.rq");
 
-        try (RDFConnection conn = connect()) {
+        List<String> platformIds = new ArrayList<>();
+        try (RDFConnection conn = connect("platforms-getAll")) {
             Model allPlatformsModel = conn.queryConstruct(selectAllPlatforms);
 
             StmtIterator stmtIterator = allPlatformsModel.listStatements();
-
-            List<String> platformIds = new ArrayList<>();
             while (stmtIterator.hasNext()) {
                 Statement statement = stmtIterator.next();
                 platformIds.add(statement.getObject().toString());
             }
+        }
 
-            List<Platform> platformList = new ArrayList<>();
-            if (!platformIds.isEmpty()) {
-                String platformsQuery = getPlatformsQuery(platformIds);
+        List<Platform> platformList = new ArrayList<>();
+        if (!platformIds.isEmpty()) {
+            ParameterizedSparqlString pss = getPSSfromTemplate("platforms-getByIds.rq",
+                    Collections.singletonMap("{platform_graphs}", getIriList(platformIds)));
 
-                logger.debug("SPARQL construct:\n{}", platformsQuery);
-                Model platforms = conn.queryConstruct(platformsQuery);
-                try {
-                    platformList = extractPlatformList(platforms);
-                } catch (MalformedURLException e) {
-                    throw new MiddlewareException("Failed to extract platform list from jena model.", e);
-                }
+            if (logger.isTraceEnabled()) {
+                logger.trace("SPARQL query:\n{}", pss.toString());
+            }
+            Model platforms;
+            try (RDFConnection conn = connect("platforms-getByIds")) {
+                platforms = conn.queryConstruct(pss.asQuery());
+            }
+            try {
+                platformList = extractPlatformList(platforms);
+            } catch (MalformedURLException e) {
+                throw new MiddlewareException("Failed to extract platform list from jena model.", e);
             }
-
-            return setPlatformStatistics(platformList);
         }
+
+        return setPlatformStatistics(platformList);
     }
 
     public Platform getPlatformById(String platformId) throws MiddlewareException {
@@ -338,7 +408,7 @@ public class ParliamentRegistry {
         }
 
         Query query = pss.asQuery();
-        try (RDFConnection conn = connect()) {
+        try (RDFConnection conn = connect("platform-getById")) {
             Model platformModel = conn.queryConstruct(query);
             List<Platform> platformList = extractPlatformList(platformModel);
             if (platformList.isEmpty()) {
@@ -368,7 +438,7 @@ public class ParliamentRegistry {
             logger.trace("SPARQL query:\n{}", sparql);
         }
 
-        try (RDFConnection conn = connect()) {
+        try (RDFConnection conn = connect("platform-remove")) {
             conn.update(updateRequest);
             logger.debug("Platform {} has been removed.", platformId);
         }
@@ -427,69 +497,65 @@ public class ParliamentRegistry {
         pss.setLiteral("?upstreamOutputAlignmentName", platform.getUpstreamOutputAlignmentName());
         pss.setLiteral("?upstreamOutputAlignmentVersion", platform.getUpstreamOutputAlignmentVersion());
 
-        update(pss);
+        update("platform-update", pss);
     }
 
-    public void registerDevices(List<IoTDevice> devices) throws MiddlewareException {
-        logger.debug("Registering devices...");
+    public DeviceWriteResult registerDevices(List<IoTDevice> devices) throws MiddlewareException {
+        logger.debug("Registering {} devices...", devices.size());
 
-        List<UpdateRequest> updateRequests = new ArrayList<>();
+        Map<String, UpdateRequest> updateRequests = new LinkedHashMap<>();
         for (IoTDevice ioTDevice : devices) {
-
-            Map<String, String> replacements = new HashMap<>();
-            replacements.put("{type}", getDeviceTypeQueryClause(ioTDevice));
-
-            ParameterizedSparqlString pss = getPSSfromTemplate("device-create.rq", replacements);
-
-            pss.setIri("?deviceId", ioTDevice.getDeviceId());
-            pss.setLiteral("?name", ioTDevice.getName());
-            pss.setIri("?hostedBy", ioTDevice.getHostedBy());
-            pss.setIri("?location", ioTDevice.getLocation());
-
-            UpdateRequest updateRequest = pss.asUpdate();
-            updateRequests.add(updateRequest);
+            updateRequests.put(ioTDevice.getDeviceId(), getDeviceUpdateRequest("device-create.rq", ioTDevice));
         }
-
-        try (RDFConnection conn = connect()) {
-            logger.trace("SPARQL queries:");
-            for (UpdateRequest updateRequest1 : updateRequests) {
-                if (logger.isTraceEnabled()) {
-                    logger.trace(updateRequest1.getOperations().get(0).toString());
-                }
-                conn.update(updateRequest1);
-            }
+        DeviceWriteResult result;
+        try {
+            result = executeDeviceBatch("device-create", updateRequests);
+        } finally {
+            invalidateQueryResults(devices);
         }
+        trackDevicePlatforms(devices, result);
+        return result;
     }
 
-    public void updateDevices(List<IoTDevice> devices) throws MiddlewareException {
-        logger.debug("Updating devices...");
+    public DeviceWriteResult updateDevices(List<IoTDevice> devices) throws MiddlewareException {
+        logger.debug("Updating {} devices...", devices.size());
 
-        List<UpdateRequest> updateRequests = new ArrayList<>();
+        Map<String, UpdateRequest> updateRequests = new LinkedHashMap<>();
         for (IoTDevice ioTDevice : devices) {
-            Map<String, String> replacements = new HashMap<>();
-            replacements.put("{type}", getDeviceTypeQueryClause(ioTDevice));
-            ParameterizedSparqlString pss = getPSSfromTemplate("device-update.rq", replacements);
-            pss.setIri("?deviceId", ioTDevice.getDeviceId());
-            pss.setLiteral("?name", ioTDevice.getName());
-            pss.setIri("?hostedBy", ioTDevice.getHostedBy());
-            pss.setIri("?location", ioTDevice.getLocation());
-
-            UpdateRequest updateRequest = pss.asUpdate();
-            updateRequests.add(updateRequest);
+            updateRequests.put(ioTDevice.getDeviceId(), getDeviceUpdateRequest("device-update.rq", ioTDevice));
+        }
+        DeviceWriteResult result;
+        try {
+            result = executeDeviceBatch("device-update", updateRequests);
+        } finally {
+            invalidateQueryResults(devices);
         }
+        trackDevicePlatforms(devices, result);
+        return result;
+    }
 
-        try (RDFConnection conn = connect()) {
-            logger.trace("SPARQL queries :");
-            for (UpdateRequest updateRequest : updateRequests) {
-                if (logger.isTraceEnabled()) {
-                    logger.trace(updateRequest.getOperations().get(0).toString());
-                }
-                conn.update(updateRequest);
+    private void invalidateQueryResults(List<IoTDevice> devices) {
+        Set<String> deviceIds = new HashSet<>();
+        Set<String> platformIds = new HashSet<>();
+        for (IoTDevice device : devices) {
+            deviceIds.add(device.getDeviceId());
+            if (device.getHostedBy() != null) {
+                platformIds.add(device.getHostedBy());
             }
         }
+        queryResultCache.invalidateDeviceWrites(deviceIds, platformIds);
     }
 
+    /**
+     * Returns devices matching the filter. Results are cached, see {@link QueryResultCache}.
+     */
     public List<IoTDevice> deviceDiscoveryQuery(IoTDeviceFilter ioTDeviceFilter) throws MiddlewareException {
+        List<IoTDevice> cachedDevices = queryResultCache.getDiscoveryResult(ioTDeviceFilter);
+        if (cachedDevices != null) {
+            return cachedDevices;
+        }
+        long readStamp = queryResultCache.startDiscoveryRead();
+
         Map<String, String> replacementMap = new HashMap<>();
 
         String conditions = ioTDeviceFilter.buildConditions();
@@ -499,10 +565,13 @@ public class ParliamentRegistry {
 
         Query query = pss.asQuery();
 
-        try (RDFConnection conn = connect()) {
+        List<IoTDevice> devices;
+        try (RDFConnection conn = connect("device-discovery-query", queryResultCache.isEnabled())) {
             Model model = conn.queryConstruct(query);
-            return IoTDeviceExtractor.fromIoTDevicePayload(new IoTDevicePayload(model));
+            devices = IoTDeviceExtractor.fromIoTDevicePayload(new IoTDevicePayload(model));
         }
+        queryResultCache.putDiscoveryResult(ioTDeviceFilter, devices, readStamp);
+        return devices;
     }
 
     public void registerDevices(String platformId, Message message) throws MiddlewareException {
@@ -515,32 +584,132 @@ public class ParliamentRegistry {
             return;
         }
 
-        try (RDFConnection conn = connect()) {
+        Set<String> deviceIds = getSubjectIds(message.getPayload().getJenaModel());
+        boolean written = false;
+        try (RDFConnection conn = connect("device-discovery-insert")) {
             String updateString = buildDeviceDiscoverySparqlInsert(platformId, message);
             if (logger.isTraceEnabled()) {
                 logger.trace("Register devices insert: " + updateString);
             }
             conn.update(updateString);
+            written = true;
+        } finally {
+            deviceCache.invalidate(deviceIds);
+            queryResultCache.invalidateDeviceWrites(deviceIds, Collections.singleton(platformId));
+            if (written) {
+                for (String deviceId : deviceIds) {
+                    platformStatisticsTracker.setDevicePlatform(deviceId, platformId);
+                }
+            } else {
+                // it is not known which graphs have been written
+                platformStatisticsTracker.invalidateAll();
+            }
         }
+    }
 
+    /**
+     * Writes device graphs collected from device discovery messages (see {@link #getDeviceGraphs(String, Message)})
+     * in a single update request.
+     */
+    public void registerDeviceGraphs(Collection<DeviceGraph> deviceGraphs) throws MiddlewareException {
+        if (deviceGraphs.isEmpty()) {
+            return;
+        }
+        logger.debug("Registering {} device graphs...", deviceGraphs.size());
+
+        StringWriter sw = new StringWriter();
+        for (DeviceGraph deviceGraph : deviceGraphs) {
+            appendDeviceGraphInsert(sw, deviceGraph);
+        }
+        String updateString = sw.toString();
+        if (logger.isTraceEnabled()) {
+            logger.trace("Register device graphs insert: " + updateString);
+        }
+
+        boolean written = false;
+        try (RDFConnection conn = connect("device-discovery-insert")) {
+            conn.update(updateString);
+            written = true;
+        } finally {
+            Set<String> deviceIds = new HashSet<>();
+            Set<String> platformIds = new HashSet<>();
+            for (DeviceGraph deviceGraph : deviceGraphs) {
+                deviceIds.add(deviceGraph.getDeviceId());
+                platformIds.add(deviceGraph.getPlatformId());
+            }
+            deviceCache.invalidate(deviceIds);
+            queryResultCache.invalidateDeviceWrites(deviceIds, platformIds);
+            if (written) {
+                for (DeviceGraph deviceGraph : deviceGraphs) {
+                    platformStatisticsTracker.setDevicePlatform(deviceGraph.getDeviceId(), deviceGraph.getPlatformId());
+                }
+            } else {
+                platformStatisticsTracker.invalidateAll();
+            }
+        }
+    }
+
+    /**
+     * Splits the payload of a device discovery message into one graph per (non-blank) subject, the way the graphs
+     * are stored in the registry.
+     */
+    public static List<DeviceGraph> getDeviceGraphs(String platformId, Message message) {
+        List<DeviceGraph> deviceGraphs = new ArrayList<>();
+        Model payloadModel = message.getPayload().getJenaModel();
+        GraphExtract graphExtract = new GraphExtract(TripleBoundary.stopNowhere);
+        ResIterator subjectIterator = payloadModel.listSubjects();
+
+        while (subjectIterator.hasNext()) {
+            // This iterates through all subjects in the device discovery graph response
+            Resource next = subjectIterator.next();
+            if (!next.isAnon()) {
+                Graph extract = graphExtract.extract(next.asNode(), payloadModel.getGraph());
+                deviceGraphs.add(new DeviceGraph(next.getURI(), platformId, ModelFactory.createModelForGraph(extract)));
+            }
+        }
+        return deviceGraphs;
     }
 
     public List<String> getDeviceIds(String platformId) throws MiddlewareException {
+        return queryDeviceIds(getDeviceIdsQuery(platformId));
+    }
+
+    /**
+     * Returns a page of device IDs ordered by device ID.
+     *
+     * @param platformId platform hosting the devices or null for all platforms
+     */
+    public List<String> getDeviceIds(String platformId, long offset, int limit) throws MiddlewareException {
+        Query query = getDeviceIdsQuery(platformId);
+        setPage(query, "deviceId", offset, limit);
+        return queryDeviceIds(query);
+    }
+
+    /**
+     * Iterates over device IDs, loading them from the registry one page at a time.
+     *
+     * @param platformId platform hosting the devices or null for all platforms
+     */
+    public Iterator<String> iterateDeviceIds(String platformId) {
+        return new PagedIterator<>((offset, limit) -> getDeviceIds(platformId, offset, limit), getPageSize());
+    }
+
+    private Query getDeviceIdsQuery(String platformId) throws MiddlewareException {
         ParameterizedSparqlString pss = getPSSfromTemplate("device-getAllPlatformDeviceIds.rq");
 
         if (StringUtils.isNotBlank(platformId)) {
             pss.setIri("?platformId", platformId);
         }
+        return pss.asQuery();
+    }
 
-        Query query = pss.asQuery();
-
-        String sparql = pss.toString();
+    private List<String> queryDeviceIds(Query query) {
         if (logger.isTraceEnabled()) {
-            logger.trace("SPARQL query:\n{}", sparql);
+            logger.trace("SPARQL query:\n{}", query);
         }
 
         List<String> results = new ArrayList<>();
-        try (RDFConnection conn = connect()) {
+        try (RDFConnection conn = connect("device-getAllPlatformDeviceIds")) {
             QueryExecution queryExecution = conn.query(query);
             ResultSet resultSet = queryExecution.execSelect();
 
@@ -555,19 +724,76 @@ public class ParliamentRegistry {
     }
 
     public List<IoTDevice> getDevices(List<String> deviceIds) throws MiddlewareException {
+        Map<String, IoTDevice> cachedDevices = deviceCache.getAll(deviceIds);
+        List<IoTDevice> devices = new ArrayList<>(cachedDevices.values());
+
+        Set<String> missingDeviceIds = new LinkedHashSet<>(deviceIds);
+        missingDeviceIds.removeAll(cachedDevices.keySet());
+        if (!missingDeviceIds.isEmpty()) {
+            long readStamp = deviceCache.startRead();
+            List<IoTDevice> fetchedDevices = fetchDevices(new ArrayList<>(missingDeviceIds));
+            deviceCache.putAll(fetchedDevices, readStamp);
+            devices.addAll(fetchedDevices);
+        }
+        return devices;
+    }
+
+    /**
+     * Fetches devices in chunks of <code>registry.fetch.chunkSize</code> graphs, so the query size stays bounded
+     * no matter how many devices are requested. With a remote store chunks are fetched in parallel.
+     */
+    private List<IoTDevice> fetchDevices(List<String> deviceIds) throws MiddlewareException {
+        List<List<String>> chunks = Lists.partition(deviceIds, getFetchChunkSize());
+        if (chunks.size() <= 1 || getConnectionPool() == null) {
+            // embedded stores serialize connections, parallel fetching would not gain anything
+            List<IoTDevice> devices = new ArrayList<>();
+            for (List<String> chunk : chunks) {
+                devices.addAll(fetchDeviceChunk(chunk));
+            }
+            return devices;
+        }
+
+        logger.debug("Fetching {} devices in {} chunks...", deviceIds.size(), chunks.size());
+        ExecutorService executor = fetchExecutors.computeIfAbsent(backend.getId(), id -> createFetchExecutor());
+        List<Future<List<IoTDevice>>> futures = new ArrayList<>();
+        for (List<String> chunk : chunks) {
+            futures.add(executor.submit(() -> fetchDeviceChunk(chunk)));
+        }
+
+        List<IoTDevice> devices = new ArrayList<>();
+        try {
+            for (Future<List<IoTDevice>> future : futures) {
+                devices.addAll(future.get());
+            }
+            return devices;
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MiddlewareException("Interrupted while fetching devices.", e);
+
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof MiddlewareException) {
+                throw (MiddlewareException) e.getCause();
+            }
+            throw new MiddlewareException("Failed to fetch devices.", e.getCause());
+
+        } finally {
+            for (Future<List<IoTDevice>> future : futures) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    private List<IoTDevice> fetchDeviceChunk(List<String> deviceIds) throws MiddlewareException {
         ParameterizedSparqlString pss = getPSSDeviceByIds(deviceIds);
 
-        try (RDFConnection conn = connect()) {
+        try (RDFConnection conn = connect("device-getByIds", deviceCache.isEnabled())) {
             Model model = conn.queryConstruct(pss.asQuery());
 
-
             Message message = new Message();
             message.setPayload(new IoTDevicePayload(model));
 
             DeviceRegistryInitializeRes res = new DeviceRegistryInitializeRes(message);
-
-            IoTDeviceExtractor.fromIoTDevicePayload(new IoTDevicePayload(model));
-
             return res.getIoTDevices();
         }
     }
@@ -585,7 +811,8 @@ public class ParliamentRegistry {
         }
 
         List<String> sensorIds = new ArrayList<>();
-        try (RDFConnection conn = connect()) {
+        long readStamp = deviceCache.startRead();
+        try (RDFConnection conn = connect("deviceId-getByType")) {
             QueryExecution queryExecution = conn.query(sensorIdsQuery);
             ResultSet resultSet = queryExecution.execSelect();
 
@@ -595,33 +822,152 @@ public class ParliamentRegistry {
                 Resource deviceIdRes = next.getResource("deviceId");
                 sensorIds.add(deviceIdRes.toString());
             }
-
-            ParameterizedSparqlString pssDeviceByIds = getPSSDeviceByIds(sensorIds);
-            Model model = conn.queryConstruct(pssDeviceByIds.asQuery());
-            return IoTDeviceExtractor.fromIoTDevicePayload(new IoTDevicePayload(model));
         }
+
+        List<IoTDevice> devices = fetchDevices(sensorIds);
+        deviceCache.putAll(devices, readStamp);
+        return devices;
     }
 
-    public void removeDevices(List<String> deviceIds) throws MiddlewareException {
-        for (String deviceId : deviceIds) {
-            logger.debug("Removing device {}...", deviceId);
+    public DeviceWriteResult removeDevices(List<String> deviceIds) throws MiddlewareException {
+        logger.debug("Removing {} devices...", deviceIds.size());
 
+        Map<String, UpdateRequest> updateRequests = new LinkedHashMap<>();
+        for (String deviceId : deviceIds) {
             ParameterizedSparqlString pss = getPSSfromTemplate("device-delete.rq");
             pss.setIri("?deviceId", deviceId);
-            UpdateRequest updateRequest = pss.asUpdate();
+            updateRequests.put(deviceId, pss.asUpdate());
+        }
+        DeviceWriteResult result;
+        try {
+            result = executeDeviceBatch("device-delete", updateRequests);
+        } finally {
+            queryResultCache.invalidateDeviceRemovals(deviceIds);
+        }
+        for (String deviceId : result.getSucceededDeviceIds()) {
+            platformStatisticsTracker.setDevicePlatform(deviceId, null);
+        }
+        return result;
+    }
 
-            String sparql = pss.toString();
-            if (logger.isTraceEnabled()) {
-                logger.trace("SPARQL query:\n{}", sparql);
+    private void trackDevicePlatforms(List<IoTDevice> devices, DeviceWriteResult result) {
+        Set<String> succeededDeviceIds = new HashSet<>(result.getSucceededDeviceIds());
+        for (IoTDevice device : devices) {
+            if (succeededDeviceIds.contains(device.getDeviceId())) {
+                platformStatisticsTracker.setDevicePlatform(device.getDeviceId(), device.getHostedBy());
             }
+        }
+    }
+
+    private UpdateRequest getDeviceUpdateRequest(String templateName, IoTDevice ioTDevice) throws MiddlewareException {
+        Map<String, String> replacements = new HashMap<>();
+        replacements.put("{type}", getDeviceTypeQueryClause(ioTDevice));
+
+        ParameterizedSparqlString pss = getPSSfromTemplate(templateName, replacements);
+        pss.setIri("?deviceId", ioTDevice.getDeviceId());
+        pss.setLiteral("?name", ioTDevice.getName());
+        pss.setIri("?hostedBy", ioTDevice.getHostedBy());
+        pss.setIri("?location", ioTDevice.getLocation());
+        return pss.asUpdate();
+    }
+
+    /**
+     * Sends per-device update requests merged into multi-operation requests of at most
+     * <code>parliament.batch.size</code> devices each. If a request fails, the devices of that chunk are retried one
+     * by one to find out which of them are failing. SPARQL Update doesn't require an endpoint to roll back the
+     * operations of a failed request which ran before the failure, so the per-device operations must be safe to
+     * repeat (e.g. <code>DROP SILENT GRAPH</code>, so a device graph which doesn't exist doesn't fail the chunk).
+     */
+    private DeviceWriteResult executeDeviceBatch(String operation, Map<String, UpdateRequest> updateRequests) {
+        DeviceWriteResult result = new DeviceWriteResult();
+        List<Map.Entry<String, UpdateRequest>> entries = new ArrayList<>(updateRequests.entrySet());
+        int batchSize = getBatchSize();
+
+        try (RDFConnection conn = connect(operation)) {
+            for (int from = 0; from < entries.size(); from += batchSize) {
+                List<Map.Entry<String, UpdateRequest>> chunk = entries.subList(from, Math.min(from + batchSize, entries.size()));
+                UpdateRequest chunkRequest = new UpdateRequest();
+                for (Map.Entry<String, UpdateRequest> entry : chunk) {
+                    for (Update update : entry.getValue().getOperations()) {
+                        chunkRequest.add(update);
+                    }
+                }
 
-            try (RDFConnection conn = connect()) {
-                conn.update(updateRequest);
-                logger.debug("Device {} has been removed successfully.", deviceId);
+                if (logger.isTraceEnabled()) {
+                    logger.trace("SPARQL query:\n{}", chunkRequest.toString());
+                }
+
+                try {
+                    conn.update(chunkRequest);
+                    for (Map.Entry<String, UpdateRequest> entry : chunk) {
+                        result.addSucceeded(entry.getKey());
+                    }
+                } catch (Exception e) {
+                    logger.warn("Batch update of {} devices failed, retrying devices one by one: {}", chunk.size(),
+                            e.getMessage());
+                    for (Map.Entry<String, UpdateRequest> entry : chunk) {
+                        try {
+                            conn.update(entry.getValue());
+                            result.addSucceeded(entry.getKey());
+                        } catch (Exception deviceException) {
+                            logger.error("Failed to write device {}.", entry.getKey(), deviceException);
+                            result.addFailed(entry.getKey(), deviceException.getMessage());
+                        }
+                    }
+                }
             }
+        } finally {
+            deviceCache.invalidate(updateRequests.keySet());
+        }
+
+        logger.debug("{} devices have been written successfully, {} failed.", result.getSucceededDeviceIds().size(),
+                result.getFailedDevices().size());
+        return result;
+    }
+
+    private int getPageSize() {
+        String pageSize = conf.getProperty(PAGE_SIZE_PROPERTY);
+        return pageSize != null ? Math.max(Integer.parseInt(pageSize), 1) : DEFAULT_PAGE_SIZE;
+    }
+
+    private static void setPage(Query query, String orderVariable, long offset, int limit) {
+        checkPage(offset, limit);
+        query.addOrderBy(Var.alloc(orderVariable), Query.ORDER_ASCENDING);
+        query.setOffset(offset);
+        query.setLimit(limit);
+    }
+
+    private static void checkPage(long offset, int limit) {
+        if (offset < 0 || limit <= 0) {
+            throw new IllegalArgumentException("Offset must not be negative and limit must be positive.");
         }
     }
 
+    int getFetchChunkSize() {
+        String chunkSize = conf.getProperty(FETCH_CHUNK_SIZE_PROPERTY);
+        return chunkSize != null ? Math.max(Integer.parseInt(chunkSize), 1) : DEFAULT_FETCH_CHUNK_SIZE;
+    }
+
+    private ExecutorService createFetchExecutor() {
+        String parallelismProperty = conf.getProperty(FETCH_PARALLELISM_PROPERTY);
+        int parallelism = parallelismProperty != null ?
+                Math.max(Integer.parseInt(parallelismProperty), 1) : DEFAULT_FETCH_PARALLELISM;
+        AtomicInteger threadCount = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(parallelism, parallelism, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), runnable -> {
+            Thread thread = new Thread(runnable, "registry-fetch-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    private int getBatchSize() {
+        String batchSize = conf.getProperty(BATCH_SIZE_PROPERTY);
+        return batchSize != null ? Math.max(Integer.parseInt(batchSize), 1) : DEFAULT_BATCH_SIZE;
+    }
+
     protected String getDeviceTypeQueryClause(IoTDevice ioTDevice) {
         StringBuilder sb = new StringBuilder();
         EnumSet<IoTDeviceType> deviceTypes = ioTDevice.getDeviceTypes();
@@ -638,15 +984,7 @@ public class ParliamentRegistry {
             throw new MiddlewareException("A subscription must have at least one device.");
         }
 
-        ParameterizedSparqlString pss = new ParameterizedSparqlString();
-        URL url = Resources.getResource("subscription-add.rq");
-        String template = null;
-        try {
-            template = Resources.toString(url, Charsets.UTF_8);
-        } catch (IOException e) {
-            throw new MiddlewareException("Failed to load SPARQL query.", e);
-        }
-        pss.setCommandText(template);
+        ParameterizedSparqlString pss = getPSSfromTemplate("subscription-add.rq");
         pss.setIri("?conversationId", SUBSCRIPTION_PREFIX + subscription.getConversationId());
         pss.setIri("?clientId", CLIENT_PREFIX + subscription.getClientId());
         pss.setLiteral("deviceId", "{DEVICE_IDS}");
@@ -665,23 +1003,21 @@ public class ParliamentRegistry {
             logger.trace("SPARQL query:\n{}", sparql);
         }
 
-        try (RDFConnection conn = connect()) {
+        try (RDFConnection conn = connect("subscription-add")) {
             conn.update(updateRequest);
             logger.debug("Subscription {} has been stored successfully.", subscription.getConversationId());
         }
+        platformStatisticsTracker.addSubscription(subscription.getConversationId(), subscription.getDeviceIds());
+        subscriptionIndex.addSubscription(subscription);
     }
 
     public Subscription getSubscriptionById(String conversationId) throws MiddlewareException {
         logger.debug("Retrieving subscription with ID {}...", conversationId);
-        ParameterizedSparqlString pss = new ParameterizedSparqlString();
-        URL url = Resources.getResource("subscription-getById.rq");
-        String template = null;
-        try {
-            template = Resources.toString(url, Charsets.UTF_8);
-        } catch (IOException e) {
-            throw new MiddlewareException("Failed to load SPARQL query.", e);
+        if (subscriptionIndex.isEnabled()) {
+            loadSubscriptionIndex();
+            return subscriptionIndex.getSubscription(conversationId);
         }
-        pss.setCommandText(template);
+        ParameterizedSparqlString pss = getPSSfromTemplate("subscription-getById.rq");
         pss.setIri("?conversationId", SUBSCRIPTION_PREFIX + conversationId);
 
         String sparql = pss.toString();
@@ -689,7 +1025,7 @@ public class ParliamentRegistry {
             logger.trace("SPARQL query:\n{}", sparql);
         }
 
-        try (RDFConnection conn = connect()) {
+        try (RDFConnection conn = connect("subscription-getById")) {
             QueryExecution queryExecution = conn.query(sparql);
             ResultSet resultSet = queryExecution.execSelect();
 
@@ -714,15 +1050,12 @@ public class ParliamentRegistry {
 
     public Subscription findSubscription(String clientId, String conversationId) throws MiddlewareException {
         logger.debug("Retrieving subscription with clientId={}, conversationId={}", clientId, conversationId);
-        ParameterizedSparqlString pss = new ParameterizedSparqlString();
-        URL url = Resources.getResource("subscription-findByClientIdConvId.rq");
-        String template = null;
-        try {
-            template = Resources.toString(url, Charsets.UTF_8);
-        } catch (IOException e) {
-            throw new MiddlewareException("Failed to load SPARQL query.", e);
+        if (subscriptionIndex.isEnabled()) {
+            loadSubscriptionIndex();
+            Subscription subscription = subscriptionIndex.getSubscription(conversationId);
+            return subscription != null && subscription.getClientId().equals(clientId) ? subscription : null;
         }
-        pss.setCommandText(template);
+        ParameterizedSparqlString pss = getPSSfromTemplate("subscription-findByClientIdConvId.rq");
         pss.setIri("?clientId", CLIENT_PREFIX + clientId);
         pss.setIri("conversationId", SUBSCRIPTION_PREFIX + conversationId);
 
@@ -731,7 +1064,7 @@ public class ParliamentRegistry {
             logger.trace("SPARQL query:\n{}", sparql);
         }
 
-        try (RDFConnection conn = connect()) {
+        try (RDFConnection conn = connect("subscription-findByClientIdConvId")) {
             QueryExecution queryExecution = conn.query(sparql);
             ResultSet resultSet = queryExecution.execSelect();
 
@@ -757,15 +1090,89 @@ public class ParliamentRegistry {
 
     public List<Subscription> listSubcriptions(String clientId) throws MiddlewareException {
         logger.debug("Retrieving subscriptions...");
-        ParameterizedSparqlString pss = new ParameterizedSparqlString();
-        URL url = Resources.getResource("subscription-getById.rq");
-        String template = null;
-        try {
-            template = Resources.toString(url, Charsets.UTF_8);
-        } catch (IOException e) {
-            throw new MiddlewareException("Failed to load SPARQL query.", e);
+        if (subscriptionIndex.isEnabled()) {
+            loadSubscriptionIndex();
+            return subscriptionIndex.getSubscriptions(clientId);
+        }
+        return querySubscriptions("subscription-getById", getPSSfromTemplate("subscription-getById.rq"), clientId);
+    }
+
+    /**
+     * Returns a page of subscriptions ordered by conversation ID. Paging is applied to subscriptions, not to
+     * subscribed devices, so every returned subscription is complete.
+     *
+     * @param clientId owner of the subscriptions or null for all clients
+     */
+    public List<Subscription> listSubcriptions(String clientId, long offset, int limit) throws MiddlewareException {
+        checkPage(offset, limit);
+        logger.debug("Retrieving subscriptions page (offset {}, limit {})...", offset, limit);
+        if (subscriptionIndex.isEnabled()) {
+            loadSubscriptionIndex();
+            return subscriptionIndex.getSubscriptions(clientId, offset, limit);
+        }
+        ParameterizedSparqlString pss = getPSSfromTemplate("subscription-getPage.rq",
+                Collections.singletonMap("{paging}", String.format("LIMIT %d OFFSET %d", limit, offset)));
+        List<Subscription> subscriptions = querySubscriptions("subscription-getPage", pss, clientId);
+        subscriptions.sort(Comparator.comparing(Subscription::getConversationId));
+        return subscriptions;
+    }
+
+    /**
+     * @return conversation IDs of client subscriptions covering the device
+     */
+    public Set<String> getSubscriptionIdsByDevice(String deviceId) throws MiddlewareException {
+        if (subscriptionIndex.isEnabled()) {
+            loadSubscriptionIndex();
+            return subscriptionIndex.getSubscriptionIds(deviceId);
+        }
+        Set<String> conversationIds = new HashSet<>();
+        for (Subscription subscription : listSubcriptions()) {
+            if (subscription.getDeviceIds().contains(deviceId)) {
+                conversationIds.add(subscription.getConversationId());
+            }
         }
-        pss.setCommandText(template);
+        return conversationIds;
+    }
+
+    /**
+     * @return conversation IDs of plat2plat subscriptions having the device as source or target
+     */
+    public Set<String> getPlat2PlatSubscriptionIdsByDevice(String deviceId) throws MiddlewareException {
+        if (subscriptionIndex.isEnabled()) {
+            loadSubscriptionIndex();
+            return subscriptionIndex.getPlat2PlatSubscriptionIds(deviceId);
+        }
+        Set<String> conversationIds = new HashSet<>();
+        for (Plat2PlatSubscription subscription : listPlat2PlatSubscriptions()) {
+            if (subscription.getSourceDeviceId().equals(deviceId) || subscription.getTargetDeviceId().equals(deviceId)) {
+                conversationIds.add(subscription.getConversationId());
+            }
+        }
+        return conversationIds;
+    }
+
+    private void loadSubscriptionIndex() throws MiddlewareException {
+        subscriptionIndex.loadIfNeeded(index -> {
+            for (Subscription subscription : querySubscriptions("subscription-getById",
+                    getPSSfromTemplate("subscription-getById.rq"), null)) {
+                index.loadSubscription(subscription);
+            }
+            for (Plat2PlatSubscription subscription : queryPlat2PlatSubscriptions(getPlat2PlatSubscriptionsQuery(null), null)) {
+                index.loadPlat2PlatSubscription(subscription);
+            }
+        });
+    }
+
+    /**
+     * Iterates over subscriptions, loading them from the registry one page at a time.
+     *
+     * @param clientId owner of the subscriptions or null for all clients
+     */
+    public Iterator<Subscription> iterateSubscriptions(String clientId) {
+        return new PagedIterator<>((offset, limit) -> listSubcriptions(clientId, offset, limit), getPageSize());
+    }
+
+    private List<Subscription> querySubscriptions(String operation, ParameterizedSparqlString pss, String clientId) {
         if (clientId != null) {
             pss.setIri("?clientId", CLIENT_PREFIX + clientId);
         }
@@ -775,7 +1182,7 @@ public class ParliamentRegistry {
             logger.trace("SPARQL query:\n{}", sparql);
         }
 
-        try (RDFConnection conn = connect()) {
+        try (RDFConnection conn = connect(operation)) {
             QueryExecution queryExecution = conn.query(sparql);
             ResultSet resultSet = queryExecution.execSelect();
 
@@ -783,16 +1190,15 @@ public class ParliamentRegistry {
             while (resultSet.hasNext()) {
                 QuerySolution qs = resultSet.next();
                 String conversationId = qs.getResource("conversationId").getURI().substring(SUBSCRIPTION_PREFIX.length());
-                if (clientId == null) {
-                    clientId = qs.getResource("clientId").getURI().substring(CLIENT_PREFIX.length());
-                }
+                String subscriptionClientId = clientId != null ? clientId :
+                        qs.getResource("clientId").getURI().substring(CLIENT_PREFIX.length());
                 String deviceId = qs.getResource("deviceId").getURI();
 
                 Subscription subscription;
                 if (!subscriptionsMap.containsKey(conversationId)) {
                     subscription = new Subscription();
                     subscription.setConversationId(conversationId);
-                    subscription.setClientId(clientId);
+                    subscription.setClientId(subscriptionClientId);
                     subscriptionsMap.put(conversationId, subscription);
 
                 } else {
@@ -809,15 +1215,7 @@ public class ParliamentRegistry {
     public void addPlat2PlatSubscription(Plat2PlatSubscription subscription) throws MiddlewareException {
         logger.debug("Storing plat2plat subscription {}...", subscription.getConversationId());
 
-        ParameterizedSparqlString pss = new ParameterizedSparqlString();
-        URL url = Resources.getResource("plat2plat-subs-create.rq");
-        String template;
-        try {
-            template = Resources.toString(url, Charsets.UTF_8);
-        } catch (IOException e) {
-            throw new MiddlewareException("Failed to load SPARQL query.", e);
-        }
-        pss.setCommandText(template);
+        ParameterizedSparqlString pss = getPSSfromTemplate("plat2plat-subs-create.rq");
         pss.setIri("?conversationId", SUBSCRIPTION_PREFIX + subscription.getConversationId());
         pss.setIri("?clientId", CLIENT_PREFIX + subscription.getClientId());
         pss.setIri("?sourceDeviceId", subscription.getSourceDeviceId());
@@ -831,23 +1229,20 @@ public class ParliamentRegistry {
             logger.trace("SPARQL query:\n{}", pss.toString());
         }
 
-        try (RDFConnection conn = connect()) {
+        try (RDFConnection conn = connect("plat2plat-subs-create")) {
             conn.update(updateRequest);
             logger.debug("Subscription {} has been stored successfully.", subscription.getConversationId());
         }
+        subscriptionIndex.addPlat2PlatSubscription(subscription);
     }
 
     public Plat2PlatSubscription getPlat2PlatSubscription(String conversationId) throws MiddlewareException {
         logger.debug("Retrieving plat2plat subscription with conversationId {}...", conversationId);
-        ParameterizedSparqlString pss = new ParameterizedSparqlString();
-        URL url = Resources.getResource("plat2plat-subs-getById.rq");
-        String template;
-        try {
-            template = Resources.toString(url, Charsets.UTF_8);
-        } catch (IOException e) {
-            throw new MiddlewareException("Failed to load SPARQL query.", e);
+        if (subscriptionIndex.isEnabled()) {
+            loadSubscriptionIndex();
+            return subscriptionIndex.getPlat2PlatSubscription(conversationId);
         }
-        pss.setCommandText(template);
+        ParameterizedSparqlString pss = getPSSfromTemplate("plat2plat-subs-getById.rq");
         pss.setIri("?conversationId", SUBSCRIPTION_PREFIX + conversationId);
 
         String sparql = pss.toString();
@@ -855,7 +1250,7 @@ public class ParliamentRegistry {
             logger.trace("SPARQL query:\n{}", sparql);
         }
 
-        try (RDFConnection conn = connect()) {
+        try (RDFConnection conn = connect("plat2plat-subs-getById")) {
             QueryExecution queryExecution = conn.query(sparql);
             ResultSet resultSet = queryExecution.execSelect();
 
@@ -877,15 +1272,11 @@ public class ParliamentRegistry {
     }
 
     public Plat2PlatSubscription findPlat2PlatSubscription(String sourceDeviceId, String targetDeviceId) throws MiddlewareException {
-        ParameterizedSparqlString pss = new ParameterizedSparqlString();
-        URL url = Resources.getResource("plat2plat-subs-getById.rq");
-        String template;
-        try {
-            template = Resources.toString(url, Charsets.UTF_8);
-        } catch (IOException e) {
-            throw new MiddlewareException("Failed to load SPARQL query.", e);
+        if (subscriptionIndex.isEnabled()) {
+            loadSubscriptionIndex();
+            return subscriptionIndex.findPlat2PlatSubscription(sourceDeviceId, targetDeviceId);
         }
-        pss.setCommandText(template);
+        ParameterizedSparqlString pss = getPSSfromTemplate("plat2plat-subs-getById.rq");
         pss.setIri("?sourceDeviceId", sourceDeviceId);
         pss.setIri("?targetDeviceId", targetDeviceId);
 
@@ -894,7 +1285,7 @@ public class ParliamentRegistry {
             logger.trace("SPARQL query:\n{}", sparql);
         }
 
-        try (RDFConnection conn = connect()) {
+        try (RDFConnection conn = connect("plat2plat-subs-getById")) {
             QueryExecution queryExecution = conn.query(sparql);
             ResultSet resultSet = queryExecution.execSelect();
 
@@ -921,39 +1312,66 @@ public class ParliamentRegistry {
 
     public List<Plat2PlatSubscription> listPlat2PlatSubscriptions(String clientId) throws MiddlewareException {
         logger.debug("Retrieving plat2plat subscriptions...");
-        ParameterizedSparqlString pss = new ParameterizedSparqlString();
-        URL url = Resources.getResource("plat2plat-subs-getById.rq");
-        String template = null;
-        try {
-            template = Resources.toString(url, Charsets.UTF_8);
-        } catch (IOException e) {
-            throw new MiddlewareException("Failed to load SPARQL query.", e);
+        if (subscriptionIndex.isEnabled()) {
+            loadSubscriptionIndex();
+            return subscriptionIndex.getPlat2PlatSubscriptions(clientId);
         }
-        pss.setCommandText(template);
+        return queryPlat2PlatSubscriptions(getPlat2PlatSubscriptionsQuery(clientId), clientId);
+    }
+
+    /**
+     * Returns a page of plat2plat subscriptions ordered by conversation ID.
+     *
+     * @param clientId owner of the subscriptions or null for all clients
+     */
+    public List<Plat2PlatSubscription> listPlat2PlatSubscriptions(String clientId, long offset, int limit) throws MiddlewareException {
+        logger.debug("Retrieving plat2plat subscriptions page (offset {}, limit {})...", offset, limit);
+        if (subscriptionIndex.isEnabled()) {
+            checkPage(offset, limit);
+            loadSubscriptionIndex();
+            return subscriptionIndex.getPlat2PlatSubscriptions(clientId, offset, limit);
+        }
+        Query query = getPlat2PlatSubscriptionsQuery(clientId);
+        setPage(query, "conversationId", offset, limit);
+        return queryPlat2PlatSubscriptions(query, clientId);
+    }
+
+    /**
+     * Iterates over plat2plat subscriptions, loading them from the registry one page at a time.
+     *
+     * @param clientId owner of the subscriptions or null for all clients
+     */
+    public Iterator<Plat2PlatSubscription> iteratePlat2PlatSubscriptions(String clientId) {
+        return new PagedIterator<>((offset, limit) -> listPlat2PlatSubscriptions(clientId, offset, limit), getPageSize());
+    }
+
+    private Query getPlat2PlatSubscriptionsQuery(String clientId) throws MiddlewareException {
+        ParameterizedSparqlString pss = getPSSfromTemplate("plat2plat-subs-getById.rq");
         if (clientId != null) {
             pss.setIri("?clientId", CLIENT_PREFIX + clientId);
         }
+        return pss.asQuery();
+    }
 
-        String sparql = pss.toString();
+    private List<Plat2PlatSubscription> queryPlat2PlatSubscriptions(Query query, String clientId) {
         if (logger.isTraceEnabled()) {
-            logger.trace("SPARQL query:\n{}", sparql);
+            logger.trace("SPARQL query:\n{}", query);
         }
 
-        try (RDFConnection conn = connect()) {
-            QueryExecution queryExecution = conn.query(sparql);
+        try (RDFConnection conn = connect("plat2plat-subs-getById")) {
+            QueryExecution queryExecution = conn.query(query);
             ResultSet resultSet = queryExecution.execSelect();
 
             List<Plat2PlatSubscription> subscriptions = new ArrayList<>();
             while (resultSet.hasNext()) {
                 QuerySolution qs = resultSet.next();
                 String conversationId = qs.getResource("conversationId").getURI().substring(SUBSCRIPTION_PREFIX.length());
-                if (clientId == null) {
-                    clientId = qs.getResource("clientId").getURI().substring(CLIENT_PREFIX.length());
-                }
+                String subscriptionClientId = clientId != null ? clientId :
+                        qs.getResource("clientId").getURI().substring(CLIENT_PREFIX.length());
 
                 Plat2PlatSubscription vs = new Plat2PlatSubscription();
                 vs.setConversationId(conversationId);
-                vs.setClientId(clientId);
+                vs.setClientId(subscriptionClientId);
                 vs.setTargetDeviceId(qs.getResource("targetDeviceId").getURI());
                 vs.setTargetPlatformId(qs.getResource("targetPlatformId").getURI());
                 vs.setSourceDeviceId(qs.getResource("sourceDeviceId").getURI());
@@ -968,15 +1386,7 @@ public class ParliamentRegistry {
     public void deletePlat2PlatSubscription(String conversationId) throws MiddlewareException {
         logger.debug("Deleting plat2plat subscription {}...", conversationId);
 
-        ParameterizedSparqlString pss = new ParameterizedSparqlString();
-        URL url = Resources.getResource("plat2plat-subs-remove.rq");
-        String template = null;
-        try {
-            template = Resources.toString(url, Charsets.UTF_8);
-        } catch (IOException e) {
-            throw new MiddlewareException("Failed to load SPARQL query.", e);
-        }
-        pss.setCommandText(template);
+        ParameterizedSparqlString pss = getPSSfromTemplate("plat2plat-subs-remove.rq");
         pss.setIri("?conversationId", SUBSCRIPTION_PREFIX + conversationId);
         UpdateRequest updateRequest = pss.asUpdate();
 
@@ -985,24 +1395,17 @@ public class ParliamentRegistry {
             logger.trace("SPARQL query:\n{}", sparql);
         }
 
-        try (RDFConnection conn = connect()) {
+        try (RDFConnection conn = connect("plat2plat-subs-remove")) {
             conn.update(updateRequest);
             logger.debug("Plat2Plat subscription {} has been deleted.", conversationId);
         }
+        subscriptionIndex.removePlat2PlatSubscription(conversationId);
     }
 
     public void deleteSubscription(String conversationId) throws MiddlewareException {
         logger.debug("Deleting subscription {}...", conversationId);
 
-        ParameterizedSparqlString pss = new ParameterizedSparqlString();
-        URL url = Resources.getResource("subscription-remove.rq");
-        String template = null;
-        try {
-            template = Resources.toString(url, Charsets.UTF_8);
-        } catch (IOException e) {
-            throw new MiddlewareException("Failed to load SPARQL query.", e);
-        }
-        pss.setCommandText(template);
+        ParameterizedSparqlString pss = getPSSfromTemplate("subscription-remove.rq");
         pss.setIri("?conversationId", SUBSCRIPTION_PREFIX + conversationId);
         UpdateRequest updateRequest = pss.asUpdate();
 
@@ -1011,10 +1414,12 @@ public class ParliamentRegistry {
             logger.trace("SPARQL query:\n{}", sparql);
         }
 
-        try (RDFConnection conn = connect()) {
+        try (RDFConnection conn = connect("subscription-remove")) {
             conn.update(updateRequest);
             logger.debug("Subscription {} has been deleted.", conversationId);
         }
+        platformStatisticsTracker.removeSubscription(conversationId);
+        subscriptionIndex.removeSubscription(conversationId);
     }
 
 
@@ -1032,10 +1437,11 @@ public class ParliamentRegistry {
 
         UpdateRequest updateRequest = pss.asUpdate();
 
-        try (RDFConnection conn = connect()) {
+        try (RDFConnection conn = connect("location_area_register")) {
             conn.update(updateRequest);
             logger.debug("Static location area {} has been registered.", staticLocationArea.getLocationId());
         }
+        spatialIndex.putArea(staticLocationArea);
     }
 
     public void registerLocationPoint(LocationPoint locationPoint) throws MiddlewareException {
@@ -1052,10 +1458,11 @@ public class ParliamentRegistry {
 
         UpdateRequest updateRequest = pss.asUpdate();
 
-        try (RDFConnection conn = connect()) {
+        try (RDFConnection conn = connect("location_point_register")) {
             conn.update(updateRequest);
             logger.debug("Dynamic location {} has been registered.", locationPoint.getLocationId());
         }
+        spatialIndex.putPoint(locationPoint);
     }
 
     public List<LocationArea> getLocationAreas(String platformId) throws MiddlewareException {
@@ -1067,7 +1474,7 @@ public class ParliamentRegistry {
         Query query = pss.asQuery();
         List<LocationArea> locationAreas = new ArrayList<>();
 
-        try (RDFConnection connect = connect()) {
+        try (RDFConnection connect = connect("location_area_getById")) {
             QueryExecution queryExecution = connect.query(query);
             ResultSet resultSet = queryExecution.execSelect();
 
@@ -1100,7 +1507,7 @@ public class ParliamentRegistry {
 
         LocationArea locationResult = null;
 
-        try (RDFConnection conn = connect()) {
+        try (RDFConnection conn = connect("location_area_getById")) {
             QueryExecution qe = conn.query(query);
 
             ResultSet resultSet = qe.execSelect();
@@ -1138,7 +1545,7 @@ public class ParliamentRegistry {
         Query query = pss.asQuery();
         List<LocationPoint> locationPoints = new ArrayList<>();
 
-        try (RDFConnection connect = connect()) {
+        try (RDFConnection connect = connect("location_point_getById")) {
             QueryExecution queryExecution = connect.query(query);
             ResultSet resultSet = queryExecution.execSelect();
 
@@ -1170,7 +1577,7 @@ public class ParliamentRegistry {
         Query query = pss.asQuery();
         LocationPoint locationPointResult = null;
 
-        try (RDFConnection connect = connect()) {
+        try (RDFConnection connect = connect("location_point_getById")) {
             QueryExecution qe = connect.query(query);
             ResultSet resultSet = qe.execSelect();
 
@@ -1212,11 +1619,13 @@ public class ParliamentRegistry {
         UpdateRequest removeByIdUpdateReq = pssRemoveById.asUpdate();
         UpdateRequest registerUpdateReq = pssRegister.asUpdate();
 
-        try (RDFConnection connect = connect()) {
+        try (RDFConnection connect = connect("location_area_update")) {
             connect.update(removeByIdUpdateReq);
             connect.update(registerUpdateReq);
             logger.debug("Static location area {} has been updated.", locationId);
         }
+        spatialIndex.removeArea(locationId);
+        spatialIndex.putArea(updateInput);
     }
 
     public void updateLocationPoint(String locationId, LocationPoint updateInput) throws MiddlewareException {
@@ -1237,11 +1646,13 @@ public class ParliamentRegistry {
         UpdateRequest removeByIdUpdateReq = pssRemoveById.asUpdate();
         UpdateRequest registerUpdateReq = pssRegister.asUpdate();
 
-        try (RDFConnection connect = connect()) {
+        try (RDFConnection connect = connect("location_point_update")) {
             connect.update(removeByIdUpdateReq);
             connect.update(registerUpdateReq);
             logger.debug("Dynamic location {} has been updated.", locationId);
         }
+        spatialIndex.removePoint(locationId);
+        spatialIndex.putPoint(updateInput);
     }
 
 
@@ -1253,10 +1664,11 @@ public class ParliamentRegistry {
         logger.debug("Delete query = \n " + pssDelete.toString());
 
         UpdateRequest deleteUpdateReq = pssDelete.asUpdate();
-        try (RDFConnection connect = connect()) {
+        try (RDFConnection connect = connect("location_point_removeById")) {
             connect.update(deleteUpdateReq);
             logger.debug("Dynamic location {} has been deleted.", locationId);
         }
+        spatialIndex.removePoint(locationId);
     }
 
     public void deleteLocationArea(String locationId) throws MiddlewareException {
@@ -1267,16 +1679,29 @@ public class ParliamentRegistry {
         logger.debug("Delete query = \n " + pssDelete.toString());
 
         UpdateRequest deleteUpdateReq = pssDelete.asUpdate();
-        try (RDFConnection connect = connect()) {
+        try (RDFConnection connect = connect("location_area_removeById")) {
             connect.update(deleteUpdateReq);
-            logger.debug("Dynamic location {} has been deleted.", locationId);
+            logger.debug("Static location area {} has been deleted.", locationId);
         }
+        spatialIndex.removeArea(locationId);
     }
 
+    /**
+     * Returns IDs of location points inside the specified location area. Uses the in-memory spatial index unless
+     * it is disabled.
+     * <p>
+     * Only points inside the given area are returned, an empty list if the area doesn't exist. Earlier versions
+     * didn't bind the area ID in the query and returned points inside any registered area.
+     */
     public List<String> getLocationPointsInsideArea(String areaLocationId) throws MiddlewareException {
+        if (spatialIndex.isEnabled()) {
+            loadSpatialIndex();
+            return spatialIndex.getPointsWithin(areaLocationId);
+        }
+
         ParameterizedSparqlString pss = getPSSfromTemplate("location_in_area_getById.rq");
 
-        pss.setIri("locationId", areaLocationId);
+        pss.setIri("areaLocationId", areaLocationId);
 
         logger.debug("Get points in area query = \n", pss.toString());
 
@@ -1284,7 +1709,7 @@ public class ParliamentRegistry {
 
         List<String> dynamicLocationsInsideArea = new ArrayList<>();
 
-        try (RDFConnection connect = connect()) {
+        try (RDFConnection connect = connect("location_in_area_getById")) {
             QueryExecution queryExecution = connect.query(query);
 
             ResultSet resultSet = queryExecution.execSelect();
@@ -1299,38 +1724,200 @@ public class ParliamentRegistry {
         return dynamicLocationsInsideArea;
     }
 
+    /**
+     * Returns IDs of location points inside the specified bounding box, using the in-memory spatial index.
+     */
+    public List<String> getLocationPointsInBoundingBox(double minLongitude, double minLatitude,
+                                                       double maxLongitude, double maxLatitude) throws MiddlewareException {
+        if (!spatialIndex.isEnabled()) {
+            throw new MiddlewareException("Bounding box queries require the registry spatial index to be enabled.");
+        }
+        loadSpatialIndex();
+        return spatialIndex.getPointsInBoundingBox(minLongitude, minLatitude, maxLongitude, maxLatitude);
+    }
+
+    /**
+     * Returns IDs of location areas intersecting the specified bounding box, using the in-memory spatial index.
+     */
+    public List<String> getLocationAreasInBoundingBox(double minLongitude, double minLatitude,
+                                                      double maxLongitude, double maxLatitude) throws MiddlewareException {
+        if (!spatialIndex.isEnabled()) {
+            throw new MiddlewareException("Bounding box queries require the registry spatial index to be enabled.");
+        }
+        loadSpatialIndex();
+        return spatialIndex.getAreasInBoundingBox(minLongitude, minLatitude, maxLongitude, maxLatitude);
+    }
+
+    private void loadSpatialIndex() throws MiddlewareException {
+        spatialIndex.loadIfNeeded(index -> {
+            loadLocations("location_area_getById", index::addArea);
+            loadLocations("location_point_getById", index::addPoint);
+        });
+    }
+
+    private void loadLocations(String templateName, BiConsumer<String, String> consumer) throws MiddlewareException {
+        Query query = getPSSfromTemplate(templateName + ".rq").asQuery();
+        try (RDFConnection conn = connect(templateName, true); QueryExecution queryExecution = conn.query(query)) {
+            ResultSet resultSet = queryExecution.execSelect();
+            while (resultSet.hasNext()) {
+                QuerySolution next = resultSet.next();
+                consumer.accept(next.getResource("locationId").getURI(), next.getLiteral("geometryWKT").getString());
+            }
+        }
+    }
+
     public QueryReturn executeQuery(String query, QueryType queryType) {
-        ParameterizedSparqlString pss = new ParameterizedSparqlString();
-        pss.setCommandText(query);
+        return executeQuery(query, queryType, false);
+    }
 
-        Query q = pss.asQuery();
+    /**
+     * Executes a raw query within the limits of {@link QueryGuard}. Results are read completely before the
+     * connection is closed.
+     *
+     * @param useCache whether the result may be served from (and stored to) the {@link QueryResultCache}
+     * @throws QueryLimitExceededException if the query times out or returns too many results
+     */
+    public QueryReturn executeQuery(String query, QueryType queryType, boolean useCache) {
+        QueryGuard guard = QueryGuard.create(conf);
+        Query q = parseRawQuery(query, guard);
+
+        String cacheKey = null;
+        long readStamp = 0;
+        if (useCache && queryResultCache.isEnabled()) {
+            cacheKey = queryType + "\n" + q.serialize();
+            QueryReturn cachedResult = queryResultCache.getSparqlResult(cacheKey);
+            if (cachedResult != null) {
+                return cachedResult;
+            }
+            readStamp = queryResultCache.startSparqlRead();
+        }
 
         QueryReturn qr = new QueryReturn();
 
-        try (RDFConnection conn = connect()) {
+        try (RDFConnection conn = connect("raw-query");
+             QueryExecution queryExecution = guard.configure(conn.query(q))) {
             switch (queryType) {
                 case ASK:
-                    boolean askResult = conn.queryAsk(q);
-                    qr.setAskResult(askResult);
+                    qr.setAskResult(queryExecution.execAsk());
                     break;
                 case CONSTRUCT:
-                    Model constructResult = conn.queryConstruct(q);
-                    qr.setConstructResult(constructResult);
+                    Graph graph = GraphFactory.createDefaultGraph();
+                    guard.guard(queryExecution.execConstructTriples()).forEachRemaining(graph::add);
+                    qr.setConstructResult(ModelFactory.createModelForGraph(graph));
                     break;
                 case SELECT:
-                    QueryExecution queryExecution = conn.query(q);
-                    ResultSet resultSet = queryExecution.execSelect();
-                    qr.setSelectResult(resultSet);
+                    qr.setSelectResult(ResultSetFactory.copyResults(guard.guard(queryExecution.execSelect())));
                     break;
             }
-            return qr;
+        } catch (QueryCancelledException e) {
+            throw guard.timeout(e);
         }
+        return cacheKey != null ? queryResultCache.putSparqlResult(cacheKey, qr, readStamp) : qr;
+    }
+
+    /**
+     * Executes a raw query within the limits of {@link QueryGuard} and writes results to <code>out</code> as they
+     * are read from the registry: SPARQL JSON results for SELECT and ASK queries, N-Triples for CONSTRUCT queries.
+     * If writing fails, e.g. because the client has disconnected, the query execution is aborted.
+     * <p>
+     * Limits are checked while writing, so a query exceeding them leaves a truncated output.
+     *
+     * @throws QueryLimitExceededException if the query times out or returns too many results
+     */
+    public void streamQuery(String query, QueryType queryType, OutputStream out) {
+        QueryGuard guard = QueryGuard.create(conf);
+        Query q = parseRawQuery(query, guard);
+
+        try (RDFConnection conn = connect("raw-query");
+             QueryExecution queryExecution = guard.configure(conn.query(q))) {
+            try {
+                switch (queryType) {
+                    case ASK:
+                        ResultSetFormatter.outputAsJSON(out, queryExecution.execAsk());
+                        break;
+                    case CONSTRUCT:
+                        StreamRDF stream = StreamRDFWriter.getWriterStream(out, RDFFormat.NTRIPLES);
+                        stream.start();
+                        guard.guard(queryExecution.execConstructTriples()).forEachRemaining(stream::triple);
+                        stream.finish();
+                        break;
+                    case SELECT:
+                        ResultSetFormatter.outputAsJSON(out, guard.guard(queryExecution.execSelect()));
+                        break;
+                }
+                out.flush();
+
+            } catch (QueryCancelledException e) {
+                throw guard.timeout(e);
+            } catch (IOException | RuntimeException e) {
+                logger.debug("Aborting raw query execution: {}", e.toString());
+                queryExecution.abort();
+                throw e instanceof RuntimeException ? (RuntimeException) e : new UncheckedIOException((IOException) e);
+            }
+        }
+    }
+
+    private Query parseRawQuery(String query, QueryGuard guard) {
+        ParameterizedSparqlString pss = new ParameterizedSparqlString();
+        pss.setCommandText(query);
+        Query q = pss.asQuery();
+        guard.limit(q);
+        return q;
     }
 
     public Configuration getConf() {
         return conf;
     }
 
+    public RegistryBackend getBackend() {
+        return backend;
+    }
+
+    /**
+     * @return Parliament connection pool statistics or null if the registry doesn't use Parliament
+     */
+    public ConnectionPoolStats getConnectionPoolStats() {
+        ParliamentConnectionPool connectionPool = getConnectionPool();
+        return connectionPool != null ? connectionPool.getStats() : null;
+    }
+
+    /**
+     * @return connection pool of the (primary) Parliament instance or null if the registry doesn't use Parliament
+     */
+    private ParliamentConnectionPool getConnectionPool() {
+        if (backend instanceof ReplicatedRegistryBackend) {
+            return ((ReplicatedRegistryBackend) backend).getPrimary();
+        }
+        return backend instanceof ParliamentConnectionPool ? (ParliamentConnectionPool) backend : null;
+    }
+
+    public CacheStatistics getDiscoveryQueryCacheStatistics() {
+        return queryResultCache.getDiscoveryStatistics();
+    }
+
+    public CacheStatistics getSparqlQueryCacheStatistics() {
+        return queryResultCache.getSparqlStatistics();
+    }
+
+    public CacheStatistics getDeviceCacheStatistics() {
+        return deviceCache.getStatistics();
+    }
+
+    public RegistryStatistics getRegistryStatistics() {
+        RegistryStatistics statistics = new RegistryStatistics();
+        statistics.setBackend(backend.getId());
+        statistics.setInFlight(metrics.getInFlight());
+        statistics.setOperations(metrics.getStatistics());
+        statistics.setConnectionPool(getConnectionPoolStats());
+        if (backend instanceof ReplicatedRegistryBackend) {
+            statistics.setReplicas(((ReplicatedRegistryBackend) backend).getReplicaHealth());
+        }
+        statistics.setDeviceCache(getDeviceCacheStatistics());
+        statistics.setDiscoveryQueryCache(getDiscoveryQueryCacheStatistics());
+        statistics.setSparqlQueryCache(getSparqlQueryCacheStatistics());
+        return statistics;
+    }
+
     private String getRefInsert(String graph, String refId) {
         StringWriter sw = new StringWriter();
         sw.append(PREFIXES).append("\n\n");
@@ -1352,47 +1939,34 @@ public class ParliamentRegistry {
     }
 
     private ParameterizedSparqlString getPSSfromTemplate(String templateResourceName, @Nullable Map<String, String> replacements) throws MiddlewareException {
-        ParameterizedSparqlString pss = new ParameterizedSparqlString();
-        URL url = Resources.getResource(templateResourceName);
-        String template = null;
-        try {
-            template = Resources.toString(url, Charsets.UTF_8);
-        } catch (IOException e) {
-            throw new MiddlewareException("Failed to load SPARQL query.", e);
-        }
-
-        if (replacements != null) {
-            for (Map.Entry<String, String> replacement : replacements.entrySet()) {
-                template = template.replace(replacement.getKey(), replacement.getValue());
-            }
-        }
-
-        pss.setCommandText(template);
-        return pss;
+        return SparqlTemplates.getInstance().get(templateResourceName, replacements);
     }
 
     private ParameterizedSparqlString getPSSDeviceByIds(List<String> deviceIds) throws MiddlewareException {
-        ParameterizedSparqlString pss = getPSSfromTemplate("device-getByIds.rq");
+        return getPSSfromTemplate("device-getByIds.rq", Collections.singletonMap("{device_graphs}", getIriList(deviceIds)));
+    }
 
+    static String getIriList(List<String> ids) {
         StringBuilder sb = new StringBuilder();
-
-        Iterator<String> platformDeviceGraphIteratior = deviceIds.iterator();
-
-        while (platformDeviceGraphIteratior.hasNext()) {
-            String deviceGraphId = platformDeviceGraphIteratior.next();
-            sb.append("{ GRAPH <").append(deviceGraphId).append("> { ?a ?b ?c } }");
-            if (platformDeviceGraphIteratior.hasNext()) {
-                sb.append(" UNION ");
-            }
+        for (String id : ids) {
+            sb.append('<').append(id).append("> ");
         }
-
-        String commandText = pss.getCommandText();
-        String deviceGraphUnion = sb.toString();
-        pss.setCommandText(commandText.replace("{device_graph_union}", deviceGraphUnion));
-        return pss;
+        return sb.toString();
     }
 
     private List<Platform> setPlatformStatistics(List<Platform> platforms) throws MiddlewareException {
+        if (platformStatisticsTracker.isEnabled()) {
+            try {
+                loadPlatformStatistics();
+                for (Platform platform : platforms) {
+                    platform.setPlatformStatistics(platformStatisticsTracker.getStatistics(platform.getPlatformId()));
+                }
+                return platforms;
+            } catch (MiddlewareException | RuntimeException e) {
+                logger.error("Failed to load platform statistics, counting them in the registry store.", e);
+            }
+        }
+
         ParameterizedSparqlString pssCountDevices = getPSSfromTemplate("platforms-countDevices.rq");
         ParameterizedSparqlString pssCountSubscribedDevices = getPSSfromTemplate("platforms-countSubscribedDevices.rq");
         ParameterizedSparqlString pssCountSubscriptions = getPSSfromTemplate("platforms-countSubscriptions.rq");
@@ -1401,25 +1975,31 @@ public class ParliamentRegistry {
         HashMap<String, Integer> subscribedDevicesPerPlatform = new HashMap<>();
         List<Platform> setPlatforms = new ArrayList<>();
 
-        try (RDFConnection conn = connect()) {
+        try {
             Consumer<QuerySolution> consumerDevicesPerPlatform = querySolution -> {
                 if (querySolution.contains("platformId") && querySolution.contains("devices")) {
                     devicesPerPlatform.put(querySolution.get("platformId").toString(), querySolution.get("devices").asLiteral().getInt());
                 }
             };
-            conn.querySelect(pssCountDevices.asQuery(), consumerDevicesPerPlatform);
+            try (RDFConnection conn = connect("platforms-countDevices")) {
+                conn.querySelect(pssCountDevices.asQuery(), consumerDevicesPerPlatform);
+            }
             Consumer<QuerySolution> consumerSubscribedDevicesPerPlatform = querySolution -> {
                 if (querySolution.contains("platformId") && querySolution.contains("subscribedDevices")) {
                     subscribedDevicesPerPlatform.put(querySolution.get("platformId").toString(), querySolution.get("subscribedDevices").asLiteral().getInt());
                 }
             };
-            conn.querySelect(pssCountSubscribedDevices.asQuery(), consumerSubscribedDevicesPerPlatform);
+            try (RDFConnection conn = connect("platforms-countSubscribedDevices")) {
+                conn.querySelect(pssCountSubscribedDevices.asQuery(), consumerSubscribedDevicesPerPlatform);
+            }
             Consumer<QuerySolution> consumerSubscriptionsPerPlatform = querySolution -> {
                 if (querySolution.contains("platformId") && querySolution.contains("subscriptions")) {
                     subscriptionsPerPlatform.put(querySolution.get("platformId").toString(), querySolution.get("subscriptions").asLiteral().getInt());
                 }
             };
-            conn.querySelect(pssCountSubscriptions.asQuery(), consumerSubscriptionsPerPlatform);
+            try (RDFConnection conn = connect("platforms-countSubscriptions")) {
+                conn.querySelect(pssCountSubscriptions.asQuery(), consumerSubscriptionsPerPlatform);
+            }
 
         } catch (Exception e) {
             logger.error("Error occurred while listing devices: {} ", e);
@@ -1437,16 +2017,59 @@ public class ParliamentRegistry {
         return setPlatforms;
     }
 
-    private RDFConnection connect() {
-        return RDFConnectionFactory.connect(getConf().getParliamentUrl(), "sparql", "sparql", "sparql");
+    private void loadPlatformStatistics() throws MiddlewareException {
+        platformStatisticsTracker.loadIfNeeded(tracker -> {
+            Query deviceHostsQuery = getPSSfromTemplate("platforms-getDeviceHosts.rq").asQuery();
+            try (RDFConnection conn = connect("platforms-getDeviceHosts")) {
+                conn.querySelect(deviceHostsQuery, querySolution ->
+                        tracker.loadDevice(querySolution.get("deviceId").toString(), querySolution.get("platformId").toString()));
+            }
+            for (Subscription subscription : listSubcriptions()) {
+                tracker.loadSubscription(subscription.getConversationId(), subscription.getDeviceIds());
+            }
+        });
+    }
+
+    /**
+     * Opens a registry store connection whose use is recorded by {@link RegistryMetrics} under the given operation
+     * name. While the query result cache is enabled, writes through the connection invalidate cached raw SPARQL
+     * results. Device, platform and location reads may be served by a read replica.
+     */
+    protected RDFConnection connect(String operation) {
+        return connect(operation, false);
+    }
+
+    /**
+     * @param cached whether the results are kept in a registry cache or index. Such reads always go to the primary
+     *               store: a replica is considered fresh only relative to this instance's own writes, so it may still
+     *               miss writes of other instances and a stale result would be served from the cache until evicted.
+     */
+    private RDFConnection connect(String operation, boolean cached) {
+        RDFConnection connection =
+                !cached && REPLICA_READ_OPERATIONS.contains(operation) ? backend.connectForRead() : backend.connect();
+        if (!queryResultCache.isEnabled()) {
+            return metrics.instrument(operation, connection);
+        }
+        // a single proxy both records the metrics and invalidates the cached results
+        InvocationHandler handler = metrics.getHandler(operation, connection);
+        return (RDFConnection) Proxy.newProxyInstance(RDFConnection.class.getClassLoader(),
+                new Class<?>[]{RDFConnection.class}, (proxy, method, args) -> {
+                    try {
+                        return handler.invoke(proxy, method, args);
+                    } finally {
+                        if (CONNECTION_WRITE_METHODS.contains(method.getName())) {
+                            queryResultCache.invalidateSparqlResults();
+                        }
+                    }
+                });
     }
 
-    private void update(ParameterizedSparqlString pss) {
+    private void update(String operation, ParameterizedSparqlString pss) {
         if (logger.isTraceEnabled()) {
             logger.trace("SPARQL query:\n{}", pss.toString());
         }
         UpdateRequest updateRequest = pss.asUpdate();
-        try (RDFConnection conn = connect()) {
+        try (RDFConnection conn = connect(operation)) {
             conn.update(updateRequest);
         }
     }
@@ -1532,41 +2155,16 @@ public class ParliamentRegistry {
         return new ArrayList<>(platformMap.values());
     }
 
-    private String getPlatformsQuery(List<String> platformIds) {
-        // TODO template in rq file
-
-        StringBuilder platformGraphs = new StringBuilder();
-
-        Iterator<String> iterator = platformIds.iterator();
-        while (iterator.hasNext()) {
-            String platformId = iterator.next();
-            platformGraphs.append("{ GRAPH <").append(platformId).append("> { ?s ?p ?o } }");
-            if (iterator.hasNext()) {
-                platformGraphs.append(" UNION ");
+    private Set<String> getSubjectIds(Model model) {
+        Set<String> subjectIds = new HashSet<>();
+        ResIterator subjectIterator = model.listSubjects();
+        while (subjectIterator.hasNext()) {
+            Resource subject = subjectIterator.next();
+            if (subject.isURIResource()) {
+                subjectIds.add(subject.getURI());
             }
         }
-
-        return "PREFIX afn: <http://jena.hpl.hp.com/ARQ/function#>\n" +
-                "PREFIX fn: <http://www.w3.org/2005/xpath-functions#>\n" +
-                "PREFIX owl: <http://www.w3.org/2002/07/owl#>\n" +
-                "PREFIX par: <http://parliament.semwebcentral.org/parliament#>\n" +
-                "PREFIX rdf: <http://www.w3.org/1999/02/22-rdf-syntax-ns#>\n" +
-                "PREFIX rdfs: <http://www.w3.org/2000/01/rdf-schema#>\n" +
-                "PREFIX time: <http://www.w3.org/2006/time#>\n" +
-                "PREFIX xml: <http://www.w3.org/XML/1998/namespace>\n" +
-                "PREFIX xsd: <http://www.w3.org/2001/XMLSchema#>\n" +
-                "PREFIX iiotex: <http://inter-iot.eu/GOIoTPex#>\n" +
-                "PREFIX geosparql: <http://www.opengis.net/ont/geosparql#>\n" +
-                "PREFIX iiot: <http://inter-iot.eu/GOIoTP#>\n" +
-                "PREFIX InterIoT: <http://inter-iot.eu/>\n" +
-                "PREFIX ssn: <http://www.w3.org/ns/ssn/>\n" +
-                "PREFIX sosa: <http://www.w3.org/ns/sosa/>\n" +
-                "\n" +
-                "\n" +
-                "CONSTRUCT {?s ?p ?o}\n{" +
-                platformGraphs.toString() +
-                "}";
-
+        return subjectIds;
     }
 
     private String buildDeviceDiscoverySparqlInsert(String platformId, Message message) {
@@ -1580,27 +2178,22 @@ public class ParliamentRegistry {
             }
         }
 
-        GraphExtract graphExtract = new GraphExtract(TripleBoundary.stopNowhere);
-        ResIterator subjectIterator = message.getPayload().getJenaModel().listSubjects();
-
-        while (subjectIterator.hasNext()) {
-            // This iterates through all subjects in the device discovery graph response
-            Resource next = subjectIterator.next();
-            if (!next.isAnon()) {
-                Graph extract = graphExtract.extract(next.asNode(), message.getPayload().getJenaModel().getGraph());
-
-                Model extractModel = ModelFactory.createModelForGraph(extract);
-                sw.append("INSERT DATA\n").append("{\n").append("\tGRAPH <").append(next.getURI()).append("> {\n");
-                RDFDataMgr.write(sw, extractModel, Lang.TTL);
-                sw.append("\t}\n};\n\n");
-
-                sw.append("INSERT DATA \n").append("{\n")
-                        .append("\tGRAPH <").append("http://inter-iot.eu/devices").append("> {\n")
-                        .append("<").append(next.getURI()).append(">").append(" sosa:isHostedBy ").append(" <").append(platformId).append(">;\n")
-                        .append("}")
-                        .append("};\n\n");
-            }
+        for (DeviceGraph deviceGraph : getDeviceGraphs(platformId, message)) {
+            appendDeviceGraphInsert(sw, deviceGraph);
         }
         return sw.toString();
     }
+
+    private static void appendDeviceGraphInsert(StringWriter sw, DeviceGraph deviceGraph) {
+        sw.append("INSERT DATA\n").append("{\n").append("\tGRAPH <").append(deviceGraph.getDeviceId()).append("> {\n");
+        RDFDataMgr.write(sw, deviceGraph.getModel(), Lang.TTL);
+        sw.append("\t}\n};\n\n");
+
+        sw.append("INSERT DATA \n").append("{\n")
+                .append("\tGRAPH <").append("http://inter-iot.eu/devices").append("> {\n")
+                .append("<").append(deviceGraph.getDeviceId()).append(">")
+                .append(" <http://www.w3.org/ns/sosa/isHostedBy> ").append(" <").append(deviceGraph.getPlatformId()).append(">;\n")
+                .append("}")
+                .append("};\n\n");
+    }
 }
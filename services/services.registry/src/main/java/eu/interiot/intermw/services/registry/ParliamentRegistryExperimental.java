@@ -30,3 +30,17 @@
  * See the License for the specific language governing permissions and
  * limitations under the License.
  */
+package eu.interiot.intermw.services.registry;
+
+import eu.interiot.intermw.commons.interfaces.Configuration;
+
+/**
+ * Playground for experimental registry features. Shares the Parliament connection pool with
+ * {@link ParliamentRegistry}.
+ */
+public class ParliamentRegistryExperimental extends ParliamentRegistry {
+
+    public ParliamentRegistryExperimental(Configuration conf) {
+        super(conf);
+    }
+}
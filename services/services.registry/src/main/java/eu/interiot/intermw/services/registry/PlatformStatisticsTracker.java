@@ -0,0 +1,298 @@
+/*
+ * Copyright 2016-2018 Universitat Politècnica de València
+ * Copyright 2016-2018 Università della Calabria
+ * Copyright 2016-2018 Prodevelop, SL
+ * Copyright 2016-2018 Technische Universiteit Eindhoven
+ * Copyright 2016-2018 Fundación de la Comunidad Valenciana para la
+ * Investigación, Promoción y Estudios Comerciales de Valenciaport
+ * Copyright 2016-2018 Rinicom Ltd
+ * Copyright 2016-2018 Association pour le développement de la formation
+ * professionnelle dans le transport
+ * Copyright 2016-2018 Noatum Ports Valenciana, S.A.U.
+ * Copyright 2016-2018 XLAB razvoj programske opreme in svetovanje d.o.o.
+ * Copyright 2016-2018 Systems Research Institute Polish Academy of Sciences
+ * Copyright 2016-2018 Azienda Sanitaria Locale TO5
+ * Copyright 2016-2018 Alessandro Bassi Consulting SARL
+ * Copyright 2016-2018 Neways Technologies B.V.
+ *
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.interiot.intermw.services.registry;
+
+import eu.interiot.intermw.commons.exceptions.MiddlewareException;
+import eu.interiot.intermw.commons.interfaces.Configuration;
+import eu.interiot.intermw.commons.model.PlatformStatistics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Per-platform device, subscription and subscribed device counters, maintained incrementally by the registry
+ * write paths, so platform statistics don't have to be aggregated by the registry store on every read.
+ * <p>
+ * Counters follow the semantics of the <code>platforms-count*.rq</code> queries: a subscribed device counts
+ * towards the platform currently hosting it, devices which aren't registered don't count. The tracker is loaded
+ * from the store on first use. Writes it can't follow precisely invalidate it, so it is reloaded on next read.
+ * <p>
+ * The registry store is read without holding the tracker lock, so the write paths updating the tracker aren't
+ * blocked by a slow load. Updates made while loading are recorded and replayed on top of the loaded state. All
+ * update operations are idempotent, so a write that is already visible to the load is not counted twice.
+ */
+public class PlatformStatisticsTracker {
+    private final static Logger logger = LoggerFactory.getLogger(PlatformStatisticsTracker.class);
+    private static final String ENABLED_PROPERTY = "registry.platformStatistics.incremental";
+
+    private static final Map<String, PlatformStatisticsTracker> trackers = new ConcurrentHashMap<>();
+
+    @FunctionalInterface
+    public interface Loader {
+        void load(PlatformStatisticsTracker tracker) throws MiddlewareException;
+    }
+
+    private final boolean enabled;
+    private final Map<String, String> devicePlatforms = new HashMap<>();
+    private final Map<String, Set<String>> subscriptionDevices = new HashMap<>();
+    private final Map<String, Set<String>> deviceSubscriptions = new HashMap<>();
+    private final Map<String, PlatformCounters> platformCounters = new HashMap<>();
+    private final Object loadLock = new Object();
+    private boolean loaded;
+    // updates made while a load is in progress, null if no load is in progress
+    private List<Runnable> pendingUpdates;
+
+    PlatformStatisticsTracker(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * Returns the tracker shared by all registry instances using the same store.
+     */
+    public static PlatformStatisticsTracker getInstance(Configuration conf) {
+        return trackers.computeIfAbsent(RegistryBackendFactory.getRegistryId(conf), id -> create(conf));
+    }
+
+    /**
+     * Creates a tracker which isn't shared with other registry instances.
+     */
+    static PlatformStatisticsTracker create(Configuration conf) {
+        String enabled = conf.getProperty(ENABLED_PROPERTY);
+        return new PlatformStatisticsTracker(enabled == null || Boolean.parseBoolean(enabled));
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Fills the tracker using <code>loader</code> unless it has already been loaded. The loader fills a separate
+     * tracker without holding this tracker's lock, updates made meanwhile are applied after the load. The load is
+     * discarded if the tracker is invalidated meanwhile.
+     */
+    public void loadIfNeeded(Loader loader) throws MiddlewareException {
+        synchronized (loadLock) {
+            synchronized (this) {
+                if (loaded) {
+                    return;
+                }
+                pendingUpdates = new ArrayList<>();
+            }
+            long start = System.currentTimeMillis();
+            PlatformStatisticsTracker loading = new PlatformStatisticsTracker(enabled);
+            try {
+                loader.load(loading);
+            } catch (MiddlewareException | RuntimeException e) {
+                synchronized (this) {
+                    pendingUpdates = null;
+                }
+                throw e;
+            }
+            synchronized (this) {
+                if (pendingUpdates == null) {
+                    logger.debug("Platform statistics were invalidated while loading, discarding the load.");
+                    return;
+                }
+                clear();
+                devicePlatforms.putAll(loading.devicePlatforms);
+                subscriptionDevices.putAll(loading.subscriptionDevices);
+                deviceSubscriptions.putAll(loading.deviceSubscriptions);
+                platformCounters.putAll(loading.platformCounters);
+                pendingUpdates.forEach(Runnable::run);
+                pendingUpdates = null;
+                loaded = true;
+                logger.debug("Platform statistics loaded for {} devices and {} subscriptions in {} ms.",
+                        devicePlatforms.size(), subscriptionDevices.size(), System.currentTimeMillis() - start);
+            }
+        }
+    }
+
+    /**
+     * Drops all counters, the tracker is reloaded from the store on next use.
+     */
+    public synchronized void invalidateAll() {
+        clear();
+        pendingUpdates = null;
+        loaded = false;
+    }
+
+    /**
+     * Records that a device is hosted by the given platform, or removed if <code>platformId</code> is null.
+     */
+    public synchronized void setDevicePlatform(String deviceId, String platformId) {
+        update(() -> applyDevicePlatform(deviceId, platformId));
+    }
+
+    public synchronized void addSubscription(String conversationId, Collection<String> deviceIds) {
+        List<String> devices = new ArrayList<>(deviceIds);
+        update(() -> applySubscription(conversationId, devices));
+    }
+
+    public synchronized void removeSubscription(String conversationId) {
+        update(() -> applySubscriptionRemoval(conversationId));
+    }
+
+    public synchronized PlatformStatistics getStatistics(String platformId) {
+        PlatformCounters counters = platformCounters.get(platformId);
+        PlatformStatistics statistics = new PlatformStatistics();
+        if (counters != null) {
+            statistics.setDeviceCount(counters.devices);
+            statistics.setSubscribedDeviceCount(counters.subscribedDevices);
+            statistics.setSubscriptionCount(counters.subscriptionDevices.size());
+        }
+        return statistics;
+    }
+
+    /**
+     * Adds a device while loading, only called on the tracker being filled by {@link #loadIfNeeded(Loader)}.
+     */
+    void loadDevice(String deviceId, String platformId) {
+        applyDevicePlatform(deviceId, platformId);
+    }
+
+    void loadSubscription(String conversationId, Collection<String> deviceIds) {
+        applySubscription(conversationId, deviceIds);
+    }
+
+    private void update(Runnable update) {
+        if (loaded) {
+            update.run();
+        } else if (pendingUpdates != null) {
+            pendingUpdates.add(update);
+        }
+    }
+
+    private void applyDevicePlatform(String deviceId, String platformId) {
+        String oldPlatformId = platformId != null ? devicePlatforms.put(deviceId, platformId) : devicePlatforms.remove(deviceId);
+        if (Objects.equals(oldPlatformId, platformId)) {
+            return;
+        }
+        Set<String> subscriptions = deviceSubscriptions.getOrDefault(deviceId, Collections.emptySet());
+        if (oldPlatformId != null) {
+            PlatformCounters counters = getCounters(oldPlatformId);
+            counters.devices--;
+            if (!subscriptions.isEmpty()) {
+                counters.subscribedDevices--;
+            }
+            for (String conversationId : subscriptions) {
+                counters.removeSubscriptionDevice(conversationId);
+            }
+            if (counters.isEmpty()) {
+                platformCounters.remove(oldPlatformId);
+            }
+        }
+        if (platformId != null) {
+            PlatformCounters counters = getCounters(platformId);
+            counters.devices++;
+            if (!subscriptions.isEmpty()) {
+                counters.subscribedDevices++;
+            }
+            for (String conversationId : subscriptions) {
+                counters.addSubscriptionDevice(conversationId);
+            }
+        }
+    }
+
+    private void applySubscription(String conversationId, Collection<String> deviceIds) {
+        Set<String> devices = subscriptionDevices.computeIfAbsent(conversationId, id -> new HashSet<>());
+        for (String deviceId : deviceIds) {
+            if (!devices.add(deviceId)) {
+                continue;
+            }
+            Set<String> subscriptions = deviceSubscriptions.computeIfAbsent(deviceId, id -> new HashSet<>());
+            subscriptions.add(conversationId);
+            String platformId = devicePlatforms.get(deviceId);
+            if (platformId != null) {
+                PlatformCounters counters = getCounters(platformId);
+                counters.addSubscriptionDevice(conversationId);
+                if (subscriptions.size() == 1) {
+                    counters.subscribedDevices++;
+                }
+            }
+        }
+    }
+
+    private void applySubscriptionRemoval(String conversationId) {
+        Set<String> devices = subscriptionDevices.remove(conversationId);
+        if (devices == null) {
+            return;
+        }
+        for (String deviceId : devices) {
+            Set<String> subscriptions = deviceSubscriptions.get(deviceId);
+            subscriptions.remove(conversationId);
+            if (subscriptions.isEmpty()) {
+                deviceSubscriptions.remove(deviceId);
+            }
+            String platformId = devicePlatforms.get(deviceId);
+            if (platformId != null) {
+                PlatformCounters counters = getCounters(platformId);
+                counters.removeSubscriptionDevice(conversationId);
+                if (subscriptions.isEmpty()) {
+                    counters.subscribedDevices--;
+                }
+            }
+        }
+    }
+
+    private PlatformCounters getCounters(String platformId) {
+        return platformCounters.computeIfAbsent(platformId, id -> new PlatformCounters());
+    }
+
+    private void clear() {
+        devicePlatforms.clear();
+        subscriptionDevices.clear();
+        deviceSubscriptions.clear();
+        platformCounters.clear();
+    }
+
+    private static class PlatformCounters {
+        private int devices;
+        private int subscribedDevices;
+        // number of devices hosted by the platform per subscription
+        private final Map<String, Integer> subscriptionDevices = new HashMap<>();
+
+        void addSubscriptionDevice(String conversationId) {
+            subscriptionDevices.merge(conversationId, 1, Integer::sum);
+        }
+
+        void removeSubscriptionDevice(String conversationId) {
+            subscriptionDevices.computeIfPresent(conversationId, (id, count) -> count > 1 ? count - 1 : null);
+        }
+
+        boolean isEmpty() {
+            return devices == 0 && subscribedDevices == 0 && subscriptionDevices.isEmpty();
+        }
+    }
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright 2016-2018 Universitat Politècnica de València
+ * Copyright 2016-2018 Università della Calabria
+ * Copyright 2016-2018 Prodevelop, SL
+ * Copyright 2016-2018 Technische Universiteit Eindhoven
+ * Copyright 2016-2018 Fundación de la Comunidad Valenciana para la
+ * Investigación, Promoción y Estudios Comerciales de Valenciaport
+ * Copyright 2016-2018 Rinicom Ltd
+ * Copyright 2016-2018 Association pour le développement de la formation
+ * professionnelle dans le transport
+ * Copyright 2016-2018 Noatum Ports Valenciana, S.A.U.
+ * Copyright 2016-2018 XLAB razvoj programske opreme in svetovanje d.o.o.
+ * Copyright 2016-2018 Systems Research Institute Polish Academy of Sciences
+ * Copyright 2016-2018 Azienda Sanitaria Locale TO5
+ * Copyright 2016-2018 Alessandro Bassi Consulting SARL
+ * Copyright 2016-2018 Neways Technologies B.V.
+ *
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.interiot.intermw.services.registry;
+
+import eu.interiot.intermw.commons.interfaces.Configuration;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.query.*;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.sparql.engine.binding.Binding;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Execution limits of a single raw SPARQL query: a timeout (<code>registry.rawQuery.timeout</code> ms, 0 for none)
+ * and a maximum number of result rows or triples (<code>registry.rawQuery.maxResults</code>, 0 for none).
+ * <p>
+ * The timeout is passed to the query execution and is also checked while results are read, since remote query
+ * executions only time out on an idle connection. Select queries without a smaller limit are limited to one row
+ * more than allowed, so the store doesn't compute results which would be rejected anyway.
+ */
+class QueryGuard {
+    private static final String TIMEOUT_PROPERTY = "registry.rawQuery.timeout";
+    private static final long DEFAULT_TIMEOUT = 30000;
+    private static final String MAX_RESULTS_PROPERTY = "registry.rawQuery.maxResults";
+    private static final long DEFAULT_MAX_RESULTS = 100000;
+
+    private final long timeout;
+    private final long maxResults;
+    private final long deadline;
+    private long resultCount;
+
+    QueryGuard(long timeout, long maxResults) {
+        this.timeout = timeout;
+        this.maxResults = maxResults;
+        this.deadline = timeout > 0 ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout) : Long.MAX_VALUE;
+    }
+
+    static QueryGuard create(Configuration conf) {
+        String timeout = conf.getProperty(TIMEOUT_PROPERTY);
+        String maxResults = conf.getProperty(MAX_RESULTS_PROPERTY);
+        return new QueryGuard(timeout != null ? Long.parseLong(timeout) : DEFAULT_TIMEOUT,
+                maxResults != null ? Long.parseLong(maxResults) : DEFAULT_MAX_RESULTS);
+    }
+
+    /**
+     * Lowers the limit of a select query to one row over the maximum.
+     */
+    void limit(Query query) {
+        if (maxResults > 0 && query.isSelectType()
+                && (!query.hasLimit() || query.getLimit() > maxResults + 1)) {
+            query.setLimit(maxResults + 1);
+        }
+    }
+
+    QueryExecution configure(QueryExecution queryExecution) {
+        if (timeout > 0) {
+            queryExecution.setTimeout(timeout);
+        }
+        return queryExecution;
+    }
+
+    /**
+     * Counts one result row or triple, failing if a limit has been exceeded.
+     */
+    void next() {
+        resultCount++;
+        if (maxResults > 0 && resultCount > maxResults) {
+            throw new QueryLimitExceededException(String.format(
+                    "Query result exceeds the maximum of %d rows or triples.", maxResults));
+        }
+        checkTimeout();
+    }
+
+    void checkTimeout() {
+        if (System.nanoTime() > deadline) {
+            throw timeout(null);
+        }
+    }
+
+    QueryLimitExceededException timeout(Throwable cause) {
+        return new QueryLimitExceededException(String.format("Query execution exceeded the timeout of %d ms.", timeout), cause);
+    }
+
+    ResultSet guard(ResultSet resultSet) {
+        return new GuardedResultSet(resultSet);
+    }
+
+    Iterator<Triple> guard(Iterator<Triple> triples) {
+        return new Iterator<Triple>() {
+            @Override
+            public boolean hasNext() {
+                return triples.hasNext();
+            }
+
+            @Override
+            public Triple next() {
+                if (!triples.hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                QueryGuard.this.next();
+                return triples.next();
+            }
+        };
+    }
+
+    private class GuardedResultSet implements ResultSet {
+        private final ResultSet resultSet;
+
+        GuardedResultSet(ResultSet resultSet) {
+            this.resultSet = resultSet;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return resultSet.hasNext();
+        }
+
+        @Override
+        public QuerySolution next() {
+            QueryGuard.this.next();
+            return resultSet.next();
+        }
+
+        @Override
+        public QuerySolution nextSolution() {
+            QueryGuard.this.next();
+            return resultSet.nextSolution();
+        }
+
+        @Override
+        public Binding nextBinding() {
+            QueryGuard.this.next();
+            return resultSet.nextBinding();
+        }
+
+        @Override
+        public int getRowNumber() {
+            return resultSet.getRowNumber();
+        }
+
+        @Override
+        public List<String> getResultVars() {
+            return resultSet.getResultVars();
+        }
+
+        @Override
+        public Model getResourceModel() {
+            return resultSet.getResourceModel();
+        }
+    }
+}
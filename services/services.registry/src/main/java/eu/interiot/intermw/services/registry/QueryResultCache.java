@@ -0,0 +1,318 @@
+/*
+ * Copyright 2016-2018 Universitat Politècnica de València
+ * Copyright 2016-2018 Università della Calabria
+ * Copyright 2016-2018 Prodevelop, SL
+ * Copyright 2016-2018 Technische Universiteit Eindhoven
+ * Copyright 2016-2018 Fundación de la Comunidad Valenciana para la
+ * Investigación, Promoción y Estudios Comerciales de Valenciaport
+ * Copyright 2016-2018 Rinicom Ltd
+ * Copyright 2016-2018 Association pour le développement de la formation
+ * professionnelle dans le transport
+ * Copyright 2016-2018 Noatum Ports Valenciana, S.A.U.
+ * Copyright 2016-2018 XLAB razvoj programske opreme in svetovanje d.o.o.
+ * Copyright 2016-2018 Systems Research Institute Polish Academy of Sciences
+ * Copyright 2016-2018 Azienda Sanitaria Locale TO5
+ * Copyright 2016-2018 Alessandro Bassi Consulting SARL
+ * Copyright 2016-2018 Neways Technologies B.V.
+ *
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.interiot.intermw.services.registry;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import eu.interiot.intermw.commons.interfaces.Configuration;
+import eu.interiot.intermw.commons.model.IoTDevice;
+import eu.interiot.intermw.commons.model.IoTDeviceFilter;
+import eu.interiot.intermw.commons.model.QueryReturn;
+import eu.interiot.intermw.commons.model.enums.IoTDeviceType;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.jena.query.ResultSetFactory;
+import org.apache.jena.query.ResultSetRewindable;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+
+import javax.annotation.Nullable;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounded, time-limited cache of device discovery query results (keyed by the normalized {@link IoTDeviceFilter})
+ * and of raw SPARQL query results (keyed by the normalized query, cached only on request).
+ * <p>
+ * Entries expire <code>registry.queryCache.ttl</code> ms after they were stored, at most
+ * <code>registry.queryCache.maxSize</code> entries are kept (0 disables caching). Device writes invalidate discovery
+ * results which contain one of the written devices or could now match them (results filtered by one of the written
+ * devices' platforms or not filtered by platform at all). Any registry write (see {@link ParliamentRegistry#connect(String)})
+ * invalidates raw SPARQL results. As in
+ * {@link DeviceCache}, a read that started before an invalidation doesn't put its result to the cache.
+ */
+public class QueryResultCache {
+    private static final String MAX_SIZE_PROPERTY = "registry.queryCache.maxSize";
+    private static final String TTL_PROPERTY = "registry.queryCache.ttl";
+    private static final long DEFAULT_MAX_SIZE = 1000;
+    private static final long DEFAULT_TTL = 30000;
+
+    private static final Map<String, QueryResultCache> caches = new ConcurrentHashMap<>();
+
+    private final Cache<String, DiscoveryResult> discoveryResults;
+    private final Cache<String, SparqlResult> sparqlResults;
+    private final long maxSize;
+    private final Object lock = new Object();
+    private volatile long discoveryInvalidationCount;
+    private volatile long sparqlInvalidationCount;
+
+    QueryResultCache(long maxSize, long ttl) {
+        this.maxSize = maxSize;
+        discoveryResults = CacheBuilder.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(ttl, TimeUnit.MILLISECONDS)
+                .recordStats()
+                .build();
+        sparqlResults = CacheBuilder.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(ttl, TimeUnit.MILLISECONDS)
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * Returns the query result cache shared by all registry instances using the same store.
+     */
+    public static QueryResultCache getInstance(Configuration conf) {
+        return caches.computeIfAbsent(RegistryBackendFactory.getRegistryId(conf), id -> create(conf));
+    }
+
+    /**
+     * Creates a query result cache which isn't shared with other registry instances.
+     */
+    static QueryResultCache create(Configuration conf) {
+        String maxSize = conf.getProperty(MAX_SIZE_PROPERTY);
+        String ttl = conf.getProperty(TTL_PROPERTY);
+        return new QueryResultCache(maxSize != null ? Long.parseLong(maxSize) : DEFAULT_MAX_SIZE,
+                ttl != null ? Long.parseLong(ttl) : DEFAULT_TTL);
+    }
+
+    public boolean isEnabled() {
+        return maxSize > 0;
+    }
+
+    /**
+     * Marks the start of a device discovery query. The returned value has to be passed to
+     * {@link #putDiscoveryResult(IoTDeviceFilter, List, long)}.
+     */
+    public long startDiscoveryRead() {
+        return discoveryInvalidationCount;
+    }
+
+    /**
+     * Marks the start of a raw SPARQL query. The returned value has to be passed to
+     * {@link #putSparqlResult(String, QueryReturn, long)}.
+     */
+    public long startSparqlRead() {
+        return sparqlInvalidationCount;
+    }
+
+    /**
+     * Returns copies of cached devices matching the filter, null if the result is not cached.
+     */
+    @Nullable
+    public List<IoTDevice> getDiscoveryResult(IoTDeviceFilter filter) {
+        DiscoveryResult result = discoveryResults.getIfPresent(getKey(filter));
+        if (result == null) {
+            return null;
+        }
+        List<IoTDevice> devices = new ArrayList<>(result.devices.size());
+        for (IoTDevice device : result.devices) {
+            devices.add(DeviceCache.copy(device));
+        }
+        return devices;
+    }
+
+    public void putDiscoveryResult(IoTDeviceFilter filter, List<IoTDevice> devices, long readStamp) {
+        if (!isEnabled()) {
+            return;
+        }
+        List<IoTDevice> copies = new ArrayList<>(devices.size());
+        Set<String> deviceIds = new HashSet<>();
+        for (IoTDevice device : devices) {
+            copies.add(DeviceCache.copy(device));
+            deviceIds.add(device.getDeviceId());
+        }
+        String platformId = StringUtils.isNotBlank(filter.getHostedBy()) ? filter.getHostedBy() : null;
+        synchronized (lock) {
+            if (discoveryInvalidationCount == readStamp) {
+                discoveryResults.put(getKey(filter), new DiscoveryResult(copies, deviceIds, platformId));
+            }
+        }
+    }
+
+    /**
+     * Returns a copy of the cached query result, null if the result is not cached.
+     *
+     * @param query normalized (parsed and serialized) query
+     */
+    @Nullable
+    public QueryReturn getSparqlResult(String query) {
+        SparqlResult result = sparqlResults.getIfPresent(query);
+        return result != null ? result.copy() : null;
+    }
+
+    /**
+     * Stores a query result. The select result set is consumed, the returned copy has to be used instead.
+     */
+    public QueryReturn putSparqlResult(String query, QueryReturn queryReturn, long readStamp) {
+        SparqlResult result = new SparqlResult(queryReturn);
+        if (isEnabled()) {
+            synchronized (lock) {
+                if (sparqlInvalidationCount == readStamp) {
+                    sparqlResults.put(query, result);
+                }
+            }
+        }
+        return result.copy();
+    }
+
+    /**
+     * Invalidates results affected by registering or updating devices of the given platforms.
+     */
+    public void invalidateDeviceWrites(Collection<String> deviceIds, Collection<String> platformIds) {
+        synchronized (lock) {
+            discoveryInvalidationCount++;
+            discoveryResults.asMap().values().removeIf(result -> result.platformId == null
+                    || platformIds.contains(result.platformId) || containsAny(result.deviceIds, deviceIds));
+        }
+    }
+
+    /**
+     * Invalidates results containing removed devices.
+     */
+    public void invalidateDeviceRemovals(Collection<String> deviceIds) {
+        synchronized (lock) {
+            discoveryInvalidationCount++;
+            discoveryResults.asMap().values().removeIf(result -> containsAny(result.deviceIds, deviceIds));
+        }
+    }
+
+    /**
+     * Invalidates raw SPARQL results, called on every registry write.
+     */
+    public void invalidateSparqlResults() {
+        synchronized (lock) {
+            sparqlInvalidationCount++;
+            sparqlResults.invalidateAll();
+        }
+    }
+
+    public void invalidateAll() {
+        synchronized (lock) {
+            discoveryInvalidationCount++;
+            sparqlInvalidationCount++;
+            discoveryResults.invalidateAll();
+            sparqlResults.invalidateAll();
+        }
+    }
+
+    public CacheStatistics getDiscoveryStatistics() {
+        return getStatistics(discoveryResults);
+    }
+
+    public CacheStatistics getSparqlStatistics() {
+        return getStatistics(sparqlResults);
+    }
+
+    private CacheStatistics getStatistics(Cache<String, ?> cache) {
+        CacheStats stats = cache.stats();
+        CacheStatistics statistics = new CacheStatistics();
+        statistics.setSize(cache.size());
+        statistics.setMaxSize(maxSize);
+        statistics.setHitCount(stats.hitCount());
+        statistics.setMissCount(stats.missCount());
+        statistics.setEvictionCount(stats.evictionCount());
+        return statistics;
+    }
+
+    /**
+     * Filter key independent of the order of device types and of blank fields.
+     */
+    static String getKey(IoTDeviceFilter filter) {
+        List<String> deviceTypes = new ArrayList<>();
+        if (filter.getDeviceTypes() != null) {
+            for (IoTDeviceType deviceType : filter.getDeviceTypes()) {
+                deviceTypes.add(deviceType.name());
+            }
+            Collections.sort(deviceTypes);
+        }
+        return StringUtils.join(deviceTypes, ",") + "|" + StringUtils.trimToEmpty(filter.getHostedBy()) + "|" +
+                StringUtils.trimToEmpty(filter.getLocation()) + "|" + StringUtils.trimToEmpty(filter.getName()) + "|" +
+                StringUtils.trimToEmpty(filter.getType()) + "|" + StringUtils.trimToEmpty(filter.getLocalId());
+    }
+
+    private static boolean containsAny(Set<String> set, Collection<String> values) {
+        for (String value : values) {
+            if (set.contains(value)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static class DiscoveryResult {
+        private final List<IoTDevice> devices;
+        private final Set<String> deviceIds;
+        private final String platformId;
+
+        DiscoveryResult(List<IoTDevice> devices, Set<String> deviceIds, @Nullable String platformId) {
+            this.devices = devices;
+            this.deviceIds = deviceIds;
+            this.platformId = platformId;
+        }
+    }
+
+    private static class SparqlResult {
+        private final Boolean askResult;
+        private final Model constructResult;
+        private final ResultSetRewindable selectResult;
+
+        SparqlResult(QueryReturn queryReturn) {
+            askResult = queryReturn.isAskResult();
+            constructResult = queryReturn.getConstructResult();
+            selectResult = queryReturn.getSelectResult() != null ?
+                    ResultSetFactory.copyResults(queryReturn.getSelectResult()) : null;
+        }
+
+        QueryReturn copy() {
+            QueryReturn copy = new QueryReturn();
+            if (askResult != null) {
+                copy.setAskResult(askResult);
+            }
+            if (constructResult != null) {
+                Model model = ModelFactory.createDefaultModel().add(constructResult);
+                model.setNsPrefixes(constructResult.getNsPrefixMap());
+                copy.setConstructResult(model);
+            }
+            if (selectResult != null) {
+                synchronized (selectResult) {
+                    selectResult.reset();
+                    copy.setSelectResult(ResultSetFactory.copyResults(selectResult));
+                }
+            }
+            return copy;
+        }
+    }
+}
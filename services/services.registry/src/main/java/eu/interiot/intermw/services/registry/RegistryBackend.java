@@ -0,0 +1,62 @@
+/*
+ * Copyright 2016-2018 Universitat Politècnica de València
+ * Copyright 2016-2018 Università della Calabria
+ * Copyright 2016-2018 Prodevelop, SL
+ * Copyright 2016-2018 Technische Universiteit Eindhoven
+ * Copyright 2016-2018 Fundación de la Comunidad Valenciana para la
+ * Investigación, Promoción y Estudios Comerciales de Valenciaport
+ * Copyright 2016-2018 Rinicom Ltd
+ * Copyright 2016-2018 Association pour le développement de la formation
+ * professionnelle dans le transport
+ * Copyright 2016-2018 Noatum Ports Valenciana, S.A.U.
+ * Copyright 2016-2018 XLAB razvoj programske opreme in svetovanje d.o.o.
+ * Copyright 2016-2018 Systems Research Institute Polish Academy of Sciences
+ * Copyright 2016-2018 Azienda Sanitaria Locale TO5
+ * Copyright 2016-2018 Alessandro Bassi Consulting SARL
+ * Copyright 2016-2018 Neways Technologies B.V.
+ *
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.interiot.intermw.services.registry;
+
+import org.apache.jena.rdfconnection.RDFConnection;
+
+/**
+ * Triple store used by the registry. All registry queries are plain SPARQL built from the same <code>*.rq</code>
+ * templates, so any backend that provides an {@link RDFConnection} behaves the same way.
+ *
+ * @see RegistryBackendFactory
+ */
+public interface RegistryBackend {
+
+    /**
+     * Opens a connection to the store. Connections are short-lived and have to be closed by the caller.
+     */
+    RDFConnection connect();
+
+    /**
+     * Opens a connection for reads which tolerate a slightly stale view of the store. Backends with read replicas
+     * may serve these from a replica, the default is the same as {@link #connect()}.
+     */
+    default RDFConnection connectForRead() {
+        return connect();
+    }
+
+    /**
+     * Identifies the store, registry instances using the same store share caches and indexes.
+     */
+    String getId();
+}
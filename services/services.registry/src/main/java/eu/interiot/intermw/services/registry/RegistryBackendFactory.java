@@ -0,0 +1,111 @@
+/*
+ * Copyright 2016-2018 Universitat Politècnica de València
+ * Copyright 2016-2018 Università della Calabria
+ * Copyright 2016-2018 Prodevelop, SL
+ * Copyright 2016-2018 Technische Universiteit Eindhoven
+ * Copyright 2016-2018 Fundación de la Comunidad Valenciana para la
+ * Investigación, Promoción y Estudios Comerciales de Valenciaport
+ * Copyright 2016-2018 Rinicom Ltd
+ * Copyright 2016-2018 Association pour le développement de la formation
+ * professionnelle dans le transport
+ * Copyright 2016-2018 Noatum Ports Valenciana, S.A.U.
+ * Copyright 2016-2018 XLAB razvoj programske opreme in svetovanje d.o.o.
+ * Copyright 2016-2018 Systems Research Institute Polish Academy of Sciences
+ * Copyright 2016-2018 Azienda Sanitaria Locale TO5
+ * Copyright 2016-2018 Alessandro Bassi Consulting SARL
+ * Copyright 2016-2018 Neways Technologies B.V.
+ *
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.interiot.intermw.services.registry;
+
+import eu.interiot.intermw.commons.interfaces.Configuration;
+import org.apache.jena.query.Dataset;
+import org.apache.jena.query.DatasetFactory;
+import org.apache.jena.tdb2.TDB2Factory;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Creates the registry backend selected by the <code>registry.backend</code> configuration property:
+ * <ul>
+ * <li><code>parliament</code> (default) - remote Parliament SPARQL endpoint at <code>parliament.url</code>, with
+ * optional read replicas listed in <code>parliament.replicas</code> (see {@link ReplicatedRegistryBackend})</li>
+ * <li><code>tdb2</code> - embedded Jena TDB2 database stored in <code>registry.tdb2.location</code></li>
+ * <li><code>memory</code> - embedded in-memory dataset, mostly useful for tests</li>
+ * </ul>
+ * Embedded datasets are opened once per JVM and shared by all registry instances.
+ */
+public class RegistryBackendFactory {
+    static final String BACKEND_PROPERTY = "registry.backend";
+    static final String TDB2_LOCATION_PROPERTY = "registry.tdb2.location";
+
+    private static final String PARLIAMENT = "parliament";
+    private static final String TDB2 = "tdb2";
+    private static final String MEMORY = "memory";
+
+    private static final Map<String, RegistryBackend> embeddedBackends = new ConcurrentHashMap<>();
+
+    private RegistryBackendFactory() {
+    }
+
+    public static RegistryBackend getBackend(Configuration conf) {
+        String backendType = getBackendType(conf);
+        switch (backendType) {
+            case PARLIAMENT:
+                return ReplicatedRegistryBackend.getReplicaUrls(conf).isEmpty() ?
+                        ParliamentConnectionPool.getInstance(conf) : ReplicatedRegistryBackend.getInstance(conf);
+            case TDB2:
+            case MEMORY:
+                return embeddedBackends.computeIfAbsent(getRegistryId(conf), id -> {
+                    Dataset dataset = backendType.equals(TDB2) ?
+                            TDB2Factory.connectDataset(getTdb2Location(conf)) : DatasetFactory.createTxnMem();
+                    return new EmbeddedRegistryBackend(id, dataset);
+                });
+            default:
+                throw new IllegalArgumentException("Unsupported registry backend: " + backendType);
+        }
+    }
+
+    /**
+     * Returns the ID of the configured store without opening it.
+     */
+    public static String getRegistryId(Configuration conf) {
+        String backendType = getBackendType(conf);
+        switch (backendType) {
+            case TDB2:
+                return TDB2 + ":" + getTdb2Location(conf);
+            case MEMORY:
+                return MEMORY;
+            default:
+                return conf.getParliamentUrl();
+        }
+    }
+
+    private static String getBackendType(Configuration conf) {
+        String backendType = conf.getProperty(BACKEND_PROPERTY);
+        return backendType != null && !backendType.isEmpty() ? backendType.toLowerCase() : PARLIAMENT;
+    }
+
+    private static String getTdb2Location(Configuration conf) {
+        String location = conf.getProperty(TDB2_LOCATION_PROPERTY);
+        if (location == null || location.isEmpty()) {
+            throw new IllegalArgumentException("Property " + TDB2_LOCATION_PROPERTY + " is required for the tdb2 registry backend.");
+        }
+        return location;
+    }
+}
@@ -0,0 +1,352 @@
+/*
+ * Copyright 2016-2018 Universitat Politècnica de València
+ * Copyright 2016-2018 Università della Calabria
+ * Copyright 2016-2018 Prodevelop, SL
+ * Copyright 2016-2018 Technische Universiteit Eindhoven
+ * Copyright 2016-2018 Fundación de la Comunidad Valenciana para la
+ * Investigación, Promoción y Estudios Comerciales de Valenciaport
+ * Copyright 2016-2018 Rinicom Ltd
+ * Copyright 2016-2018 Association pour le développement de la formation
+ * professionnelle dans le transport
+ * Copyright 2016-2018 Noatum Ports Valenciana, S.A.U.
+ * Copyright 2016-2018 XLAB razvoj programske opreme in svetovanje d.o.o.
+ * Copyright 2016-2018 Systems Research Institute Polish Academy of Sciences
+ * Copyright 2016-2018 Azienda Sanitaria Locale TO5
+ * Copyright 2016-2018 Alessandro Bassi Consulting SARL
+ * Copyright 2016-2018 Neways Technologies B.V.
+ *
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.interiot.intermw.services.registry;
+
+import eu.interiot.intermw.commons.interfaces.Configuration;
+import org.apache.jena.query.QueryExecution;
+import org.apache.jena.query.QuerySolution;
+import org.apache.jena.query.ResultSet;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdfconnection.RDFConnection;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Latency, error and result size metrics of registry operations, shared by all registry instances using the same
+ * store.
+ * <p>
+ * An operation is named after the SPARQL template it runs (e.g. <code>device-getByIds</code>) or after the registry
+ * method if it runs several. It lasts from opening the registry connection until closing it, so result processing
+ * is included. The result size is the number of triples of construct queries and the number of rows of select
+ * queries. Operations slower than <code>registry.metrics.slowOperationThreshold</code> ms are logged as warnings.
+ * Metrics are collected unless <code>registry.metrics.enabled</code> is set to false.
+ */
+public class RegistryMetrics {
+    private final static Logger logger = LoggerFactory.getLogger(RegistryMetrics.class);
+
+    private static final String ENABLED_PROPERTY = "registry.metrics.enabled";
+    private static final String SLOW_OPERATION_THRESHOLD_PROPERTY = "registry.metrics.slowOperationThreshold";
+    private static final long DEFAULT_SLOW_OPERATION_THRESHOLD = 1000;
+
+    /**
+     * Upper bounds (ms) of latency histogram buckets, the last bucket is unbounded
+     */
+    static final long[] LATENCY_BUCKETS = {1, 2, 5, 10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000};
+
+    private static final Map<String, RegistryMetrics> instances = new ConcurrentHashMap<>();
+
+    private final boolean enabled;
+    private final long slowOperationThresholdNanos;
+    private final Map<String, OperationMetrics> operations = new ConcurrentHashMap<>();
+    private final AtomicLong inFlight = new AtomicLong();
+
+    RegistryMetrics(boolean enabled, long slowOperationThreshold) {
+        this.enabled = enabled;
+        this.slowOperationThresholdNanos = TimeUnit.MILLISECONDS.toNanos(slowOperationThreshold);
+    }
+
+    public static RegistryMetrics getInstance(Configuration conf) {
+        return instances.computeIfAbsent(RegistryBackendFactory.getRegistryId(conf), id -> {
+            String enabled = conf.getProperty(ENABLED_PROPERTY);
+            String threshold = conf.getProperty(SLOW_OPERATION_THRESHOLD_PROPERTY);
+            return new RegistryMetrics(enabled == null || Boolean.parseBoolean(enabled),
+                    threshold != null ? Long.parseLong(threshold) : DEFAULT_SLOW_OPERATION_THRESHOLD);
+        });
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Wraps the connection so that everything done with it until it is closed is recorded as the operation.
+     */
+    public RDFConnection instrument(String operation, RDFConnection connection) {
+        if (!enabled) {
+            return connection;
+        }
+        return (RDFConnection) Proxy.newProxyInstance(RDFConnection.class.getClassLoader(),
+                new Class<?>[]{RDFConnection.class}, getHandler(operation, connection));
+    }
+
+    /**
+     * Returns the invocation handler of an instrumented connection, for connection proxies which add behaviour of
+     * their own, so the calls don't go through a second proxy. If metrics are disabled, the handler only delegates
+     * to the connection. Exceptions thrown by the connection are rethrown unwrapped.
+     */
+    public InvocationHandler getHandler(String operation, RDFConnection connection) {
+        if (!enabled) {
+            return (proxy, method, args) -> {
+                try {
+                    return method.invoke(connection, args);
+                } catch (InvocationTargetException e) {
+                    throw e.getCause();
+                }
+            };
+        }
+        return new InstrumentedConnection(start(operation), connection);
+    }
+
+    /**
+     * Starts recording an operation which doesn't run through an instrumented connection.
+     */
+    public Sample start(String operation) {
+        return new Sample(operations.computeIfAbsent(operation, OperationMetrics::new));
+    }
+
+    public long getInFlight() {
+        return inFlight.get();
+    }
+
+    /**
+     * @return statistics of all operations recorded so far, ordered by operation name
+     */
+    public List<OperationStatistics> getStatistics() {
+        List<OperationStatistics> statistics = new ArrayList<>();
+        for (OperationMetrics metrics : operations.values()) {
+            statistics.add(metrics.getStatistics());
+        }
+        statistics.sort(Comparator.comparing(OperationStatistics::getOperation));
+        return statistics;
+    }
+
+    public void reset() {
+        operations.clear();
+    }
+
+    /**
+     * A single running operation.
+     */
+    public class Sample {
+        private final OperationMetrics metrics;
+        private final long startTime = System.nanoTime();
+        private long resultSize;
+        private boolean failed;
+        private boolean stopped;
+
+        private Sample(OperationMetrics metrics) {
+            this.metrics = metrics;
+            metrics.inFlight.incrementAndGet();
+            inFlight.incrementAndGet();
+        }
+
+        public void addResultSize(long size) {
+            resultSize += size;
+        }
+
+        public void failed() {
+            failed = true;
+        }
+
+        public void stop() {
+            if (stopped) {
+                return;
+            }
+            stopped = true;
+            long duration = System.nanoTime() - startTime;
+            metrics.inFlight.decrementAndGet();
+            inFlight.decrementAndGet();
+            metrics.record(duration, resultSize, failed);
+            if (duration > slowOperationThresholdNanos) {
+                logger.warn("Slow registry operation {}: {} ms, result size {}{}.", metrics.operation,
+                        TimeUnit.NANOSECONDS.toMillis(duration), resultSize, failed ? ", failed" : "");
+            }
+        }
+    }
+
+    private static class OperationMetrics {
+        private final String operation;
+        private final LongAdder count = new LongAdder();
+        private final LongAdder errorCount = new LongAdder();
+        private final AtomicLong inFlight = new AtomicLong();
+        private final LongAdder totalNanos = new LongAdder();
+        private final AtomicLong maxNanos = new AtomicLong();
+        private final AtomicLongArray latencyBuckets = new AtomicLongArray(LATENCY_BUCKETS.length + 1);
+        private final LongAdder totalResultSize = new LongAdder();
+        private volatile long lastResultSize;
+
+        OperationMetrics(String operation) {
+            this.operation = operation;
+        }
+
+        void record(long durationNanos, long resultSize, boolean failed) {
+            count.increment();
+            if (failed) {
+                errorCount.increment();
+            }
+            totalNanos.add(durationNanos);
+            maxNanos.accumulateAndGet(durationNanos, Math::max);
+            latencyBuckets.incrementAndGet(getBucket(TimeUnit.NANOSECONDS.toMillis(durationNanos)));
+            totalResultSize.add(resultSize);
+            lastResultSize = resultSize;
+        }
+
+        OperationStatistics getStatistics() {
+            OperationStatistics statistics = new OperationStatistics();
+            long count = this.count.sum();
+            statistics.setOperation(operation);
+            statistics.setCount(count);
+            statistics.setErrorCount(errorCount.sum());
+            statistics.setInFlight(inFlight.get());
+            statistics.setMeanMillis(count > 0 ? TimeUnit.NANOSECONDS.toMicros(totalNanos.sum() / count) / 1000.0 : 0);
+            statistics.setMaxMillis(TimeUnit.NANOSECONDS.toMicros(maxNanos.get()) / 1000.0);
+            statistics.setLastResultSize(lastResultSize);
+            statistics.setMeanResultSize(count > 0 ? (double) totalResultSize.sum() / count : 0);
+
+            Map<String, Long> buckets = new LinkedHashMap<>();
+            long[] counts = new long[latencyBuckets.length()];
+            long cumulativeCount = 0;
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] = latencyBuckets.get(i);
+                cumulativeCount += counts[i];
+                buckets.put(i < LATENCY_BUCKETS.length ? String.valueOf(LATENCY_BUCKETS[i]) : "+Inf", cumulativeCount);
+            }
+            statistics.setLatencyBuckets(buckets);
+            statistics.setP50Millis(getPercentile(counts, cumulativeCount, 0.50));
+            statistics.setP95Millis(getPercentile(counts, cumulativeCount, 0.95));
+            statistics.setP99Millis(getPercentile(counts, cumulativeCount, 0.99));
+            return statistics;
+        }
+
+        /**
+         * @return upper bound of the bucket containing the percentile, -1 if it is in the unbounded bucket
+         */
+        private static long getPercentile(long[] counts, long total, double percentile) {
+            if (total == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(percentile * total);
+            long cumulativeCount = 0;
+            for (int i = 0; i < LATENCY_BUCKETS.length; i++) {
+                cumulativeCount += counts[i];
+                if (cumulativeCount >= rank) {
+                    return LATENCY_BUCKETS[i];
+                }
+            }
+            return -1;
+        }
+
+        private static int getBucket(long millis) {
+            for (int i = 0; i < LATENCY_BUCKETS.length; i++) {
+                if (millis <= LATENCY_BUCKETS[i]) {
+                    return i;
+                }
+            }
+            return LATENCY_BUCKETS.length;
+        }
+    }
+
+    /**
+     * Records the operation on close and failures and result sizes of the calls made in between. Query executions
+     * and select results are wrapped as well, since remote queries are executed lazily.
+     */
+    private static class InstrumentedConnection implements InvocationHandler {
+        private final Sample sample;
+        private final RDFConnection connection;
+
+        InstrumentedConnection(Sample sample, RDFConnection connection) {
+            this.sample = sample;
+            this.connection = connection;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            if (method.getName().equals("close") && method.getParameterCount() == 0) {
+                try {
+                    connection.close();
+                } finally {
+                    sample.stop();
+                }
+                return null;
+            }
+            if (method.getName().equals("querySelect") && args != null && args.length == 2 && args[1] instanceof Consumer) {
+                Consumer<QuerySolution> consumer = (Consumer<QuerySolution>) args[1];
+                args = new Object[]{args[0], (Consumer<QuerySolution>) querySolution -> {
+                    sample.addResultSize(1);
+                    consumer.accept(querySolution);
+                }};
+            }
+            return wrapResult(invoke(sample, connection, method, args));
+        }
+
+        private Object wrapResult(Object result) {
+            if (result instanceof Model) {
+                sample.addResultSize(((Model) result).size());
+            } else if (result instanceof Boolean) {
+                sample.addResultSize(1);
+            } else if (result instanceof QueryExecution) {
+                return wrap(QueryExecution.class, (QueryExecution) result);
+            } else if (result instanceof ResultSet) {
+                return wrap(ResultSet.class, (ResultSet) result);
+            }
+            return result;
+        }
+
+        private <T> T wrap(Class<T> type, T target) {
+            return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, (proxy, method, args) -> {
+                Object result = invoke(sample, target, method, args);
+                if (target instanceof ResultSet) {
+                    // hasNext() results are not ask results
+                    if (method.getName().equals("next") || method.getName().equals("nextSolution")
+                            || method.getName().equals("nextBinding")) {
+                        sample.addResultSize(1);
+                    }
+                    return result;
+                }
+                return wrapResult(result);
+            }));
+        }
+
+        private static Object invoke(Sample sample, Object target, Method method, Object[] args) throws Throwable {
+            try {
+                return method.invoke(target, args);
+            } catch (InvocationTargetException e) {
+                sample.failed();
+                throw e.getCause();
+            }
+        }
+    }
+}
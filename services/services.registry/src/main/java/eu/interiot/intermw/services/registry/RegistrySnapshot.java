@@ -0,0 +1,326 @@
+/*
+ * Copyright 2016-2018 Universitat Politècnica de València
+ * Copyright 2016-2018 Università della Calabria
+ * Copyright 2016-2018 Prodevelop, SL
+ * Copyright 2016-2018 Technische Universiteit Eindhoven
+ * Copyright 2016-2018 Fundación de la Comunidad Valenciana para la
+ * Investigación, Promoción y Estudios Comerciales de Valenciaport
+ * Copyright 2016-2018 Rinicom Ltd
+ * Copyright 2016-2018 Association pour le développement de la formation
+ * professionnelle dans le transport
+ * Copyright 2016-2018 Noatum Ports Valenciana, S.A.U.
+ * Copyright 2016-2018 XLAB razvoj programske opreme in svetovanje d.o.o.
+ * Copyright 2016-2018 Systems Research Institute Polish Academy of Sciences
+ * Copyright 2016-2018 Azienda Sanitaria Locale TO5
+ * Copyright 2016-2018 Alessandro Bassi Consulting SARL
+ * Copyright 2016-2018 Neways Technologies B.V.
+ *
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.interiot.intermw.services.registry;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import eu.interiot.intermw.commons.exceptions.MiddlewareException;
+import eu.interiot.intermw.commons.interfaces.Configuration;
+import org.apache.jena.query.Dataset;
+import org.apache.jena.query.DatasetFactory;
+import org.apache.jena.query.ParameterizedSparqlString;
+import org.apache.jena.query.Query;
+import org.apache.jena.query.QueryExecution;
+import org.apache.jena.query.QueryExecutionFactory;
+import org.apache.jena.query.QuerySolution;
+import org.apache.jena.query.ReadWrite;
+import org.apache.jena.rdf.model.Literal;
+import org.apache.jena.rdfconnection.RDFConnection;
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.RDFDataMgr;
+import org.apache.jena.riot.RDFFormat;
+import org.apache.jena.riot.system.StreamRDF;
+import org.apache.jena.riot.system.StreamRDFWriter;
+import org.apache.jena.sparql.core.DatasetGraph;
+import org.apache.jena.sparql.core.Quad;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Binary snapshot of the registry store, used to restore the middleware state at boot without a store round trip
+ * for every platform, client, subscription and device.
+ * <p>
+ * The snapshot holds all named graphs of the store (clients, platforms, devices, subscriptions, locations) as gzip
+ * compressed RDF Thrift. It is written to <code>registry.snapshot.location</code> on {@link #close()} and, if
+ * <code>registry.snapshot.interval</code> (ms) is positive, periodically. {@link #restore()} loads the snapshot into
+ * an in-memory dataset and checks it against the store with a single query returning a content hash of every graph.
+ * The same query is run on the snapshot. Device graphs, the bulk of the store, are kept if their hash matches, the
+ * remaining graphs are few and are fetched from the store again, and graphs which no longer exist are dropped. A
+ * stale snapshot therefore only costs the queries for what has changed. A store computing the hash differently
+ * (e.g. ordering the triples differently) only causes device graphs to be fetched again.
+ */
+public class RegistrySnapshot implements AutoCloseable {
+    private final static Logger logger = LoggerFactory.getLogger(RegistrySnapshot.class);
+
+    private static final String LOCATION_PROPERTY = "registry.snapshot.location";
+    private static final String INTERVAL_PROPERTY = "registry.snapshot.interval";
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final String DEVICES_GRAPH = "http://inter-iot.eu/devices";
+
+    /**
+     * Restored snapshots are shared by the request managers restoring their state at the same time and released
+     * once no longer used
+     */
+    private static final Cache<String, ParliamentRegistry> restoredRegistries = CacheBuilder.newBuilder()
+            .weakValues()
+            .build();
+
+    private final ParliamentRegistry registry;
+    private final Path location;
+    private final long interval;
+    private ScheduledExecutorService scheduler;
+
+    public RegistrySnapshot(ParliamentRegistry registry) {
+        this.registry = registry;
+        Configuration conf = registry.getConf();
+        String location = conf.getProperty(LOCATION_PROPERTY);
+        this.location = location != null && !location.isEmpty() ? Paths.get(location) : null;
+        String interval = conf.getProperty(INTERVAL_PROPERTY);
+        this.interval = interval != null && !interval.isEmpty() ? Long.parseLong(interval) : 0;
+    }
+
+    /**
+     * @return whether <code>registry.snapshot.location</code> is set
+     */
+    public boolean isEnabled() {
+        return location != null;
+    }
+
+    /**
+     * Starts writing snapshots every <code>registry.snapshot.interval</code> ms, if set.
+     */
+    public synchronized void start() {
+        if (!isEnabled() || interval <= 0 || scheduler != null) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "registry-snapshot");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                write();
+            } catch (Exception e) {
+                logger.error("Failed to write registry snapshot: " + e.getMessage(), e);
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Dumps all named graphs of the store to the snapshot file. The file is replaced atomically, so a failed write
+     * leaves the previous snapshot in place.
+     */
+    public synchronized void write() throws MiddlewareException {
+        if (!isEnabled()) {
+            return;
+        }
+        long startTime = System.currentTimeMillis();
+        Path tempFile = location.resolveSibling(location.getFileName() + ".tmp");
+        long[] quadCount = {0};
+        try {
+            Path directory = location.toAbsolutePath().getParent();
+            if (directory != null) {
+                Files.createDirectories(directory);
+            }
+            try (OutputStream out = new BufferedOutputStream(
+                    new GZIPOutputStream(Files.newOutputStream(tempFile), BUFFER_SIZE), BUFFER_SIZE);
+                 RDFConnection conn = registry.connect("snapshot-dump")) {
+                StreamRDF stream = StreamRDFWriter.getWriterStream(out, RDFFormat.RDF_THRIFT);
+                stream.start();
+                conn.querySelect(SparqlTemplates.getInstance().get("snapshot-dump.rq").asQuery(), querySolution -> {
+                    stream.quad(toQuad(querySolution));
+                    quadCount[0]++;
+                });
+                stream.finish();
+            }
+            Files.move(tempFile, location, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        } catch (IOException | RuntimeException e) {
+            try {
+                Files.deleteIfExists(tempFile);
+            } catch (IOException e1) {
+                logger.warn("Failed to delete {}: {}", tempFile, e1.getMessage());
+            }
+            throw new MiddlewareException("Failed to write registry snapshot to " + location + ".", e);
+        }
+        logger.info("Registry snapshot with {} quads has been written to {} in {} ms.", quadCount[0], location,
+                System.currentTimeMillis() - startTime);
+    }
+
+    /**
+     * Returns a registry to restore the middleware state from: a registry reading from the snapshot, synchronized
+     * with the store, or the store registry itself if there is no usable snapshot. The returned registry is meant
+     * for reading only. A snapshot registry has its own caches and indexes, so what it reads doesn't end up in the
+     * caches of the store registry.
+     */
+    public ParliamentRegistry restore() {
+        if (!isEnabled() || !Files.isRegularFile(location)) {
+            return registry;
+        }
+        String key = RegistryBackendFactory.getRegistryId(registry.getConf()) + "|" + location.toAbsolutePath();
+        try {
+            return restoredRegistries.get(key, this::load);
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            logger.warn(String.format("Failed to restore registry snapshot %s, the state will be restored from the store: %s",
+                    location, e.getCause().getMessage()), e.getCause());
+            return registry;
+        }
+    }
+
+    /**
+     * Stops periodic snapshots and writes the final one.
+     */
+    @Override
+    public void close() throws MiddlewareException {
+        synchronized (this) {
+            if (scheduler != null) {
+                scheduler.shutdownNow();
+                scheduler = null;
+            }
+        }
+        write();
+    }
+
+    private ParliamentRegistry load() throws IOException, MiddlewareException {
+        long startTime = System.currentTimeMillis();
+        Dataset dataset = DatasetFactory.createTxnMem();
+        dataset.begin(ReadWrite.WRITE);
+        try (InputStream in = new BufferedInputStream(
+                new GZIPInputStream(Files.newInputStream(location), BUFFER_SIZE), BUFFER_SIZE)) {
+            RDFDataMgr.read(dataset, in, Lang.RDFTHRIFT);
+            dataset.commit();
+        } finally {
+            dataset.end();
+        }
+        long loadTime = System.currentTimeMillis() - startTime;
+
+        synchronize(dataset);
+        logger.info("Registry snapshot {} has been restored in {} ms ({} ms loading, {} ms synchronizing with the store).",
+                location, System.currentTimeMillis() - startTime, loadTime, System.currentTimeMillis() - startTime - loadTime);
+        return new ParliamentRegistry(registry.getConf(),
+                new EmbeddedRegistryBackend("snapshot:" + location.toAbsolutePath(), dataset));
+    }
+
+    /**
+     * Brings the snapshot up to date with the store. Device graphs are kept if their content hash matches the
+     * store, all other graphs (indexes, subscriptions, locations, clients, platforms) are few and are always fetched
+     * again. Device graphs with blank nodes are fetched again as well, as blank nodes can't be told apart by the hash.
+     */
+    private void synchronize(Dataset dataset) throws MiddlewareException {
+        Query graphHashesQuery = SparqlTemplates.getInstance().get("snapshot-graphHashes.rq").asQuery();
+        Map<String, String> storeGraphHashes = new HashMap<>();
+        try (RDFConnection conn = registry.connect("snapshot-graphHashes")) {
+            conn.querySelect(graphHashesQuery, querySolution -> putGraphHash(storeGraphHashes, querySolution));
+        }
+
+        int keptCount = 0;
+        int fetchedCount = 0;
+        dataset.begin(ReadWrite.WRITE);
+        try {
+            Map<String, String> snapshotGraphHashes = new HashMap<>();
+            try (QueryExecution queryExecution = QueryExecutionFactory.create(graphHashesQuery, dataset)) {
+                queryExecution.execSelect().forEachRemaining(querySolution ->
+                        putGraphHash(snapshotGraphHashes, querySolution));
+            }
+
+            dataset.removeNamedModel(DEVICES_GRAPH);
+            if (storeGraphHashes.containsKey(DEVICES_GRAPH)) {
+                fetchGraphs(dataset, Collections.singletonList(DEVICES_GRAPH));
+            }
+            Set<String> deviceGraphs = new HashSet<>();
+            dataset.getNamedModel(DEVICES_GRAPH).listSubjects().forEachRemaining(subject -> {
+                if (subject.isURIResource()) {
+                    deviceGraphs.add(subject.getURI());
+                }
+            });
+
+            Set<String> snapshotGraphs = new HashSet<>();
+            dataset.listNames().forEachRemaining(snapshotGraphs::add);
+            snapshotGraphs.remove(DEVICES_GRAPH);
+            for (String graph : snapshotGraphs) {
+                String storeGraphHash = storeGraphHashes.get(graph);
+                if (storeGraphHash != null && deviceGraphs.contains(graph)
+                        && storeGraphHash.equals(snapshotGraphHashes.get(graph))) {
+                    keptCount++;
+                } else {
+                    dataset.removeNamedModel(graph);
+                }
+            }
+
+            List<String> changedGraphs = new ArrayList<>();
+            for (String graph : storeGraphHashes.keySet()) {
+                if (!graph.equals(DEVICES_GRAPH) && !dataset.containsNamedModel(graph)) {
+                    changedGraphs.add(graph);
+                }
+            }
+            fetchGraphs(dataset, changedGraphs);
+            fetchedCount = changedGraphs.size();
+            dataset.commit();
+        } finally {
+            dataset.end();
+        }
+        logger.debug("Registry snapshot has been synchronized with the store: {} device graphs kept, {} graphs fetched.",
+                keptCount, fetchedCount);
+    }
+
+    private void fetchGraphs(Dataset dataset, List<String> graphs) throws MiddlewareException {
+        DatasetGraph datasetGraph = dataset.asDatasetGraph();
+        for (List<String> chunk : Lists.partition(graphs, registry.getFetchChunkSize())) {
+            ParameterizedSparqlString pss = SparqlTemplates.getInstance().get("snapshot-getGraphs.rq",
+                    Collections.singletonMap("{graphs}", ParliamentRegistry.getIriList(chunk)));
+            try (RDFConnection conn = registry.connect("snapshot-getGraphs")) {
+                conn.querySelect(pss.asQuery(), querySolution -> datasetGraph.add(toQuad(querySolution)));
+            }
+        }
+    }
+
+    private static void putGraphHash(Map<String, String> graphHashes, QuerySolution querySolution) {
+        // no hash (e.g. a store without SHA1) means the graph is always fetched, the hash of a graph with blank nodes
+        // only covers the triples with blank nodes replaced by "_", so such graphs are always fetched as well
+        Literal hash = querySolution.getLiteral("hash");
+        Literal blankNodes = querySolution.getLiteral("blankNodes");
+        boolean comparable = hash != null && (blankNodes == null || blankNodes.getInt() == 0);
+        graphHashes.put(querySolution.getResource("g").getURI(), comparable ? hash.getString() : null);
+    }
+
+    private static Quad toQuad(QuerySolution querySolution) {
+        return Quad.create(querySolution.get("g").asNode(), querySolution.get("s").asNode(),
+                querySolution.get("p").asNode(), querySolution.get("o").asNode());
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2016-2018 Universitat Politècnica de València
+ * Copyright 2016-2018 Università della Calabria
+ * Copyright 2016-2018 Prodevelop, SL
+ * Copyright 2016-2018 Technische Universiteit Eindhoven
+ * Copyright 2016-2018 Fundación de la Comunidad Valenciana para la
+ * Investigación, Promoción y Estudios Comerciales de Valenciaport
+ * Copyright 2016-2018 Rinicom Ltd
+ * Copyright 2016-2018 Association pour le développement de la formation
+ * professionnelle dans le transport
+ * Copyright 2016-2018 Noatum Ports Valenciana, S.A.U.
+ * Copyright 2016-2018 XLAB razvoj programske opreme in svetovanje d.o.o.
+ * Copyright 2016-2018 Systems Research Institute Polish Academy of Sciences
+ * Copyright 2016-2018 Azienda Sanitaria Locale TO5
+ * Copyright 2016-2018 Alessandro Bassi Consulting SARL
+ * Copyright 2016-2018 Neways Technologies B.V.
+ *
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.interiot.intermw.services.registry;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Registry metrics published by the REST API: per-operation statistics, connection pool usage and read replica
+ * health (Parliament backend only) and cache statistics.
+ */
+public class RegistryStatistics {
+
+    private String backend;
+    private long inFlight;
+    private List<OperationStatistics> operations;
+    private ConnectionPoolStats connectionPool;
+    private Map<String, Boolean> replicas;
+    private CacheStatistics deviceCache;
+    private CacheStatistics discoveryQueryCache;
+    private CacheStatistics sparqlQueryCache;
+
+    public String getBackend() {
+        return backend;
+    }
+
+    public void setBackend(String backend) {
+        this.backend = backend;
+    }
+
+    public long getInFlight() {
+        return inFlight;
+    }
+
+    public void setInFlight(long inFlight) {
+        this.inFlight = inFlight;
+    }
+
+    public List<OperationStatistics> getOperations() {
+        return operations;
+    }
+
+    public void setOperations(List<OperationStatistics> operations) {
+        this.operations = operations;
+    }
+
+    public ConnectionPoolStats getConnectionPool() {
+        return connectionPool;
+    }
+
+    public void setConnectionPool(ConnectionPoolStats connectionPool) {
+        this.connectionPool = connectionPool;
+    }
+
+    public Map<String, Boolean> getReplicas() {
+        return replicas;
+    }
+
+    public void setReplicas(Map<String, Boolean> replicas) {
+        this.replicas = replicas;
+    }
+
+    public CacheStatistics getDeviceCache() {
+        return deviceCache;
+    }
+
+    public void setDeviceCache(CacheStatistics deviceCache) {
+        this.deviceCache = deviceCache;
+    }
+
+    public CacheStatistics getDiscoveryQueryCache() {
+        return discoveryQueryCache;
+    }
+
+    public void setDiscoveryQueryCache(CacheStatistics discoveryQueryCache) {
+        this.discoveryQueryCache = discoveryQueryCache;
+    }
+
+    public CacheStatistics getSparqlQueryCache() {
+        return sparqlQueryCache;
+    }
+
+    public void setSparqlQueryCache(CacheStatistics sparqlQueryCache) {
+        this.sparqlQueryCache = sparqlQueryCache;
+    }
+}
@@ -0,0 +1,353 @@
+/*
+ * Copyright 2016-2018 Universitat Politècnica de València
+ * Copyright 2016-2018 Università della Calabria
+ * Copyright 2016-2018 Prodevelop, SL
+ * Copyright 2016-2018 Technische Universiteit Eindhoven
+ * Copyright 2016-2018 Fundación de la Comunidad Valenciana para la
+ * Investigación, Promoción y Estudios Comerciales de Valenciaport
+ * Copyright 2016-2018 Rinicom Ltd
+ * Copyright 2016-2018 Association pour le développement de la formation
+ * professionnelle dans le transport
+ * Copyright 2016-2018 Noatum Ports Valenciana, S.A.U.
+ * Copyright 2016-2018 XLAB razvoj programske opreme in svetovanje d.o.o.
+ * Copyright 2016-2018 Systems Research Institute Polish Academy of Sciences
+ * Copyright 2016-2018 Azienda Sanitaria Locale TO5
+ * Copyright 2016-2018 Alessandro Bassi Consulting SARL
+ * Copyright 2016-2018 Neways Technologies B.V.
+ *
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.interiot.intermw.services.registry;
+
+import eu.interiot.intermw.commons.interfaces.Configuration;
+import org.apache.jena.atlas.web.HttpException;
+import org.apache.jena.query.QueryExecution;
+import org.apache.jena.rdfconnection.RDFConnection;
+import org.apache.jena.sparql.engine.http.QueryExceptionHTTP;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Parliament registry backend with read replicas. Writes and most reads go to the primary Parliament instance
+ * (<code>parliament.url</code>), reads which tolerate replication lag (see {@link #connectForRead()}) are
+ * load-balanced round-robin across the replicas listed in <code>parliament.replicas</code>.
+ * <p>
+ * Replicas are probed every <code>parliament.replicas.healthCheckInterval</code> ms. A replica failing a probe or a
+ * read is skipped until it answers a probe again, the failed read is repeated on the primary. For
+ * <code>parliament.replicas.maxLag</code> ms after a write all reads go to the primary, so clients read their own
+ * writes.
+ */
+public class ReplicatedRegistryBackend implements RegistryBackend {
+    private final static Logger logger = LoggerFactory.getLogger(ReplicatedRegistryBackend.class);
+
+    static final String REPLICAS_PROPERTY = "parliament.replicas";
+    private static final String HEALTH_CHECK_INTERVAL_PROPERTY = "parliament.replicas.healthCheckInterval";
+    private static final long DEFAULT_HEALTH_CHECK_INTERVAL = 5000;
+    private static final String MAX_LAG_PROPERTY = "parliament.replicas.maxLag";
+    private static final long DEFAULT_MAX_LAG = 1000;
+    private static final Set<String> CONNECTION_WRITE_METHODS = new HashSet<>(Arrays.asList(
+            "update", "load", "loadDataset", "put", "putDataset", "delete", "deleteDataset"));
+
+    private static final Map<String, ReplicatedRegistryBackend> backends = new ConcurrentHashMap<>();
+
+    private final ParliamentConnectionPool primary;
+    private final List<Replica> replicas = new ArrayList<>();
+    private final AtomicInteger nextReplica = new AtomicInteger();
+    private final long maxLag;
+    private final ScheduledExecutorService healthChecker;
+    private volatile long lastWriteTime;
+
+    private ReplicatedRegistryBackend(Configuration conf, List<String> replicaUrls) {
+        primary = ParliamentConnectionPool.getInstance(conf);
+        for (String replicaUrl : replicaUrls) {
+            replicas.add(new Replica(ParliamentConnectionPool.getInstance(replicaUrl, conf)));
+        }
+        String maxLagProperty = conf.getProperty(MAX_LAG_PROPERTY);
+        maxLag = maxLagProperty != null ? Long.parseLong(maxLagProperty) : DEFAULT_MAX_LAG;
+        String intervalProperty = conf.getProperty(HEALTH_CHECK_INTERVAL_PROPERTY);
+        long healthCheckInterval = intervalProperty != null ?
+                Math.max(Long.parseLong(intervalProperty), 100) : DEFAULT_HEALTH_CHECK_INTERVAL;
+
+        healthChecker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "parliament-replica-health-check");
+            thread.setDaemon(true);
+            return thread;
+        });
+        healthChecker.scheduleWithFixedDelay(this::checkReplicas, healthCheckInterval, healthCheckInterval,
+                TimeUnit.MILLISECONDS);
+
+        logger.debug("Parliament {} uses read replicas {}: healthCheckInterval={} ms, maxLag={} ms.",
+                primary.getId(), replicaUrls, healthCheckInterval, maxLag);
+    }
+
+    /**
+     * Returns the backend for the Parliament instance configured in <code>conf</code>, creating it on first use.
+     */
+    public static ReplicatedRegistryBackend getInstance(Configuration conf) {
+        return backends.computeIfAbsent(conf.getParliamentUrl(),
+                url -> new ReplicatedRegistryBackend(conf, getReplicaUrls(conf)));
+    }
+
+    /**
+     * Returns the replica URLs listed (comma-separated) in <code>parliament.replicas</code>.
+     */
+    static List<String> getReplicaUrls(Configuration conf) {
+        List<String> replicaUrls = new ArrayList<>();
+        String replicasProperty = conf.getProperty(REPLICAS_PROPERTY);
+        if (replicasProperty != null) {
+            for (String replicaUrl : replicasProperty.split(",")) {
+                if (!replicaUrl.trim().isEmpty()) {
+                    replicaUrls.add(replicaUrl.trim());
+                }
+            }
+        }
+        return replicaUrls;
+    }
+
+    /**
+     * Opens a connection to the primary. Writes through the connection route reads to the primary for the next
+     * <code>parliament.replicas.maxLag</code> ms.
+     */
+    @Override
+    public RDFConnection connect() {
+        RDFConnection connection = primary.connect();
+        return (RDFConnection) Proxy.newProxyInstance(RDFConnection.class.getClassLoader(),
+                new Class<?>[]{RDFConnection.class}, (proxy, method, args) -> {
+                    if (CONNECTION_WRITE_METHODS.contains(method.getName())) {
+                        lastWriteTime = System.currentTimeMillis();
+                    }
+                    try {
+                        return method.invoke(connection, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                });
+    }
+
+    /**
+     * Opens a read-only connection to the next healthy replica, or to the primary if there is none or there has
+     * been a recent write.
+     */
+    @Override
+    public RDFConnection connectForRead() {
+        Replica replica = System.currentTimeMillis() - lastWriteTime < maxLag ? null : selectReplica();
+        if (replica == null) {
+            return primary.connect();
+        }
+        return (RDFConnection) Proxy.newProxyInstance(RDFConnection.class.getClassLoader(),
+                new Class<?>[]{RDFConnection.class}, new FailoverConnection(replica));
+    }
+
+    @Override
+    public String getId() {
+        return primary.getId();
+    }
+
+    public ParliamentConnectionPool getPrimary() {
+        return primary;
+    }
+
+    /**
+     * @return replica URL mapped to whether the replica is currently used for reads
+     */
+    public Map<String, Boolean> getReplicaHealth() {
+        Map<String, Boolean> health = new LinkedHashMap<>();
+        for (Replica replica : replicas) {
+            health.put(replica.pool.getId(), replica.healthy);
+        }
+        return health;
+    }
+
+    /**
+     * Stops health checks and shuts down the connection pools of the primary and of the replicas.
+     */
+    public void shutdown() {
+        backends.remove(primary.getId(), this);
+        healthChecker.shutdownNow();
+        for (Replica replica : replicas) {
+            replica.pool.shutdown();
+        }
+        primary.shutdown();
+    }
+
+    private Replica selectReplica() {
+        int start = Math.floorMod(nextReplica.getAndIncrement(), replicas.size());
+        for (int i = 0; i < replicas.size(); i++) {
+            Replica replica = replicas.get((start + i) % replicas.size());
+            if (replica.healthy) {
+                return replica;
+            }
+        }
+        return null;
+    }
+
+    private void checkReplicas() {
+        for (Replica replica : replicas) {
+            try (RDFConnection conn = replica.pool.connect()) {
+                conn.queryAsk("ASK {}");
+                if (!replica.healthy) {
+                    logger.info("Parliament replica {} is available again.", replica.pool.getId());
+                    replica.healthy = true;
+                }
+            } catch (Exception e) {
+                markFailed(replica, e);
+            }
+        }
+    }
+
+    private void markFailed(Replica replica, Throwable cause) {
+        if (replica.healthy) {
+            logger.warn("Parliament replica {} is not available, reading from {} instead: {}", replica.pool.getId(),
+                    primary.getId(), cause.toString());
+            replica.healthy = false;
+        }
+    }
+
+    /**
+     * Whether a read failed because of the replica rather than because of the query.
+     */
+    private static boolean isReplicaFailure(Throwable e) {
+        if (e instanceof QueryExceptionHTTP) {
+            int responseCode = ((QueryExceptionHTTP) e).getResponseCode();
+            return responseCode <= 0 || responseCode >= 500;
+        }
+        if (e instanceof HttpException) {
+            int responseCode = ((HttpException) e).getResponseCode();
+            return responseCode <= 0 || responseCode >= 500;
+        }
+        return e instanceof IOException || e.getCause() instanceof IOException;
+    }
+
+    private static class Replica {
+        private final ParliamentConnectionPool pool;
+        private volatile boolean healthy = true;
+
+        Replica(ParliamentConnectionPool pool) {
+            this.pool = pool;
+        }
+    }
+
+    /**
+     * Replica connection repeating failed reads on the primary. Query executions are wrapped the same way, as
+     * remote queries are only sent once they are executed.
+     */
+    private class FailoverConnection implements InvocationHandler {
+        private final Replica replica;
+        private final RDFConnection connection;
+        private RDFConnection primaryConnection;
+
+        FailoverConnection(Replica replica) {
+            this.replica = replica;
+            this.connection = replica.pool.connect();
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            if (method.getName().equals("close") && method.getParameterCount() == 0) {
+                try {
+                    connection.close();
+                } finally {
+                    if (primaryConnection != null) {
+                        primaryConnection.close();
+                    }
+                }
+                return null;
+            }
+            if (primaryConnection != null || CONNECTION_WRITE_METHODS.contains(method.getName())) {
+                return invokeOn(getPrimaryConnection(), method, args);
+            }
+
+            Object result;
+            try {
+                result = invokeOn(connection, method, args);
+            } catch (Throwable e) {
+                if (!isReplicaFailure(e)) {
+                    throw e;
+                }
+                markFailed(replica, e);
+                return invokeOn(getPrimaryConnection(), method, args);
+            }
+            if (result instanceof QueryExecution) {
+                return Proxy.newProxyInstance(QueryExecution.class.getClassLoader(),
+                        new Class<?>[]{QueryExecution.class}, new FailoverQueryExecution((QueryExecution) result, method, args));
+            }
+            return result;
+        }
+
+        private RDFConnection getPrimaryConnection() {
+            if (primaryConnection == null) {
+                primaryConnection = primary.connect();
+            }
+            return primaryConnection;
+        }
+
+        private Object invokeOn(Object target, Method method, Object[] args) throws Throwable {
+            try {
+                return method.invoke(target, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+
+        private class FailoverQueryExecution implements InvocationHandler {
+            private final Method queryMethod;
+            private final Object[] queryArgs;
+            private QueryExecution queryExecution;
+            private boolean failedOver;
+
+            FailoverQueryExecution(QueryExecution queryExecution, Method queryMethod, Object[] queryArgs) {
+                this.queryExecution = queryExecution;
+                this.queryMethod = queryMethod;
+                this.queryArgs = queryArgs;
+            }
+
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                if (failedOver || !method.getName().startsWith("exec")) {
+                    return invokeOn(queryExecution, method, args);
+                }
+                try {
+                    return invokeOn(queryExecution, method, args);
+                } catch (Throwable e) {
+                    if (!isReplicaFailure(e)) {
+                        throw e;
+                    }
+                    markFailed(replica, e);
+                    failedOver = true;
+                    QueryExecution replicaExecution = queryExecution;
+                    queryExecution = (QueryExecution) invokeOn(getPrimaryConnection(), queryMethod, queryArgs);
+                    if (replicaExecution.getTimeout1() >= 0 || replicaExecution.getTimeout2() >= 0) {
+                        queryExecution.setTimeout(replicaExecution.getTimeout1(), replicaExecution.getTimeout2());
+                    }
+                    replicaExecution.close();
+                    return invokeOn(queryExecution, method, args);
+                }
+            }
+        }
+    }
+}
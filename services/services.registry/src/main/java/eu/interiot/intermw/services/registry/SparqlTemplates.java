@@ -0,0 +1,235 @@
+/*
+ * Copyright 2016-2018 Universitat Politècnica de València
+ * Copyright 2016-2018 Università della Calabria
+ * Copyright 2016-2018 Prodevelop, SL
+ * Copyright 2016-2018 Technische Universiteit Eindhoven
+ * Copyright 2016-2018 Fundación de la Comunidad Valenciana para la
+ * Investigación, Promoción y Estudios Comerciales de Valenciaport
+ * Copyright 2016-2018 Rinicom Ltd
+ * Copyright 2016-2018 Association pour le développement de la formation
+ * professionnelle dans le transport
+ * Copyright 2016-2018 Noatum Ports Valenciana, S.A.U.
+ * Copyright 2016-2018 XLAB razvoj programske opreme in svetovanje d.o.o.
+ * Copyright 2016-2018 Systems Research Institute Polish Academy of Sciences
+ * Copyright 2016-2018 Azienda Sanitaria Locale TO5
+ * Copyright 2016-2018 Alessandro Bassi Consulting SARL
+ * Copyright 2016-2018 Neways Technologies B.V.
+ *
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.interiot.intermw.services.registry;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Resources;
+import eu.interiot.intermw.commons.exceptions.MiddlewareException;
+import org.apache.jena.query.ParameterizedSparqlString;
+import org.apache.jena.query.QueryFactory;
+import org.apache.jena.query.QueryParseException;
+import org.apache.jena.update.UpdateFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Registry SPARQL templates (<code>*.rq</code> resources), loaded and validated once and handed out as
+ * {@link ParameterizedSparqlString} copies.
+ * <p>
+ * Some templates contain textual placeholders (<code>{type}</code>, <code>{conditions}</code>,
+ * <code>{device_graphs}</code>, <code>{lat_long}</code>) which have to be replaced before the SPARQL
+ * parameters are set. During validation placeholders are replaced with empty strings and typed-literal parameters
+ * (e.g. <code>?point^^geo:wktLiteral</code>) with a dummy literal, so the template can be parsed.
+ */
+public class SparqlTemplates {
+    private final static Logger logger = LoggerFactory.getLogger(SparqlTemplates.class);
+
+    static final List<String> TEMPLATE_NAMES = Collections.unmodifiableList(Arrays.asList(
+            "client-create.rq",
+            "client-exists.rq",
+            "client-getAll.rq",
+            "client-getById-construct.rq",
+            "client-remove.rq",
+            "client-update.rq",
+            "device-create.rq",
+            "device-delete.rq",
+            "device-discovery-query.rq",
+            "device-getAllPlatformDeviceIds.rq",
+            "device-getByIds.rq",
+            "device-update.rq",
+            "deviceId-getByType.rq",
+            "location-getAll.rq",
+            "location-getById.rq",
+            "location-register.rq",
+            "location-removeById.rq",
+            "location-update.rq",
+            "location_area_getById.rq",
+            "location_area_register.rq",
+            "location_area_removeById.rq",
+            "location_in_area_getById.rq",
+            "location_point_getById.rq",
+            "location_point_register.rq",
+            "location_point_removeById.rq",
+            "plat2plat-subs-create.rq",
+            "plat2plat-subs-getById.rq",
+            "plat2plat-subs-remove.rq",
+            "platform-getById.rq",
+            "platform-register.rq",
+            "platform-remove.rq",
+            "platform-update.rq",
+            "platforms-countDevices.rq",
+            "platforms-countSubscribedDevices.rq",
+            "platforms-countSubscriptions.rq",
+            "platforms-getAll.rq",
+            "platforms-getByIds.rq",
+            "platforms-getDeviceHosts.rq",
+            "snapshot-dump.rq",
+            "snapshot-getGraphs.rq",
+            "snapshot-graphHashes.rq",
+            "subscription-add.rq",
+            "subscription-findByClientIdConvId.rq",
+            "subscription-getById.rq",
+            "subscription-getPage.rq",
+            "subscription-isClientSubscribed.rq",
+            "subscription-remove.rq"
+    ));
+
+    private static final String PLACEHOLDER_REGEX = "\\{[a-z_]+}";
+    private static final String TYPED_PARAMETER_REGEX = "\\?[A-Za-z_]+\\^\\^";
+    private static final String PARAMETER_REGEX = "\\?([A-Za-z_][A-Za-z0-9_]*)";
+    private static final String COMMENT_REGEX = "(?m)^\\s*#.*$";
+    private static final String PREFIX_REGEX = "(?i)PREFIX\\s+[^\\s:]*:\\s*<[^>]*>";
+
+    private static volatile SparqlTemplates instance;
+
+    private final Map<String, ParameterizedSparqlString> templates;
+
+    private SparqlTemplates(Map<String, ParameterizedSparqlString> templates) {
+        this.templates = templates;
+    }
+
+    /**
+     * Returns the template cache, loading and validating all templates on first use.
+     *
+     * @throws MiddlewareException if a template cannot be read or is not valid SPARQL
+     */
+    public static SparqlTemplates getInstance() throws MiddlewareException {
+        SparqlTemplates result = instance;
+        if (result == null) {
+            synchronized (SparqlTemplates.class) {
+                result = instance;
+                if (result == null) {
+                    result = load();
+                    instance = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    private static SparqlTemplates load() throws MiddlewareException {
+        Map<String, ParameterizedSparqlString> templates = new HashMap<>();
+        for (String templateName : TEMPLATE_NAMES) {
+            String template;
+            try {
+                URL url = Resources.getResource(templateName);
+                template = Resources.toString(url, Charsets.UTF_8);
+            } catch (IOException | IllegalArgumentException e) {
+                throw new MiddlewareException("Failed to load SPARQL query " + templateName + ".", e);
+            }
+            validate(templateName, template);
+            templates.put(templateName, new ParameterizedSparqlString(template));
+        }
+        logger.debug("{} SPARQL templates have been loaded.", templates.size());
+        return new SparqlTemplates(templates);
+    }
+
+    private static void validate(String templateName, String template) throws MiddlewareException {
+        String sparql = template
+                .replaceAll(PLACEHOLDER_REGEX, "")
+                .replaceAll(TYPED_PARAMETER_REGEX, "\"\"^^");
+        try {
+            if (isQuery(sparql)) {
+                QueryFactory.create(sparql);
+            } else {
+                // INSERT DATA does not allow variables, bind them the same way ParameterizedSparqlString would
+                UpdateFactory.create(sparql.replaceAll(PARAMETER_REGEX, "<urn:template-parameter:$1>"));
+            }
+        } catch (QueryParseException e) {
+            throw new MiddlewareException(e, "Invalid SPARQL template %s: %s", templateName, e.getMessage());
+        }
+    }
+
+    private static boolean isQuery(String sparql) {
+        String body = sparql
+                .replaceAll(COMMENT_REGEX, "")
+                .replaceAll(PREFIX_REGEX, "")
+                .trim()
+                .toUpperCase();
+        return body.startsWith("SELECT") || body.startsWith("CONSTRUCT") || body.startsWith("ASK")
+                || body.startsWith("DESCRIBE");
+    }
+
+    public Set<String> getTemplateNames() {
+        return Collections.unmodifiableSet(templates.keySet());
+    }
+
+    /**
+     * Returns a fresh copy of the template, ready for setting parameters.
+     */
+    public ParameterizedSparqlString get(String templateName) throws MiddlewareException {
+        return getTemplate(templateName).copy();
+    }
+
+    /**
+     * Returns a fresh copy of the template with textual placeholders replaced.
+     *
+     * @param replacements placeholder (e.g. <code>{type}</code>) to replacement text
+     */
+    public ParameterizedSparqlString get(String templateName, @Nullable Map<String, String> replacements)
+            throws MiddlewareException {
+        if (replacements == null || replacements.isEmpty()) {
+            return get(templateName);
+        }
+        String commandText = getTemplate(templateName).getCommandText();
+        for (Map.Entry<String, String> replacement : replacements.entrySet()) {
+            commandText = commandText.replace(replacement.getKey(), replacement.getValue());
+        }
+        return new ParameterizedSparqlString(commandText);
+    }
+
+    /**
+     * Returns the unparameterized template text.
+     */
+    public String getText(String templateName) throws MiddlewareException {
+        return getTemplate(templateName).getCommandText();
+    }
+
+    private ParameterizedSparqlString getTemplate(String templateName) throws MiddlewareException {
+        ParameterizedSparqlString template = templates.get(templateName);
+        if (template == null) {
+            throw new MiddlewareException("Unknown SPARQL template: " + templateName);
+        }
+        return template;
+    }
+}
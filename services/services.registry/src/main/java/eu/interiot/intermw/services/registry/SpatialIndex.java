@@ -0,0 +1,373 @@
+/*
+ * Copyright 2016-2018 Universitat Politècnica de València
+ * Copyright 2016-2018 Università della Calabria
+ * Copyright 2016-2018 Prodevelop, SL
+ * Copyright 2016-2018 Technische Universiteit Eindhoven
+ * Copyright 2016-2018 Fundación de la Comunidad Valenciana para la
+ * Investigación, Promoción y Estudios Comerciales de Valenciaport
+ * Copyright 2016-2018 Rinicom Ltd
+ * Copyright 2016-2018 Association pour le développement de la formation
+ * professionnelle dans le transport
+ * Copyright 2016-2018 Noatum Ports Valenciana, S.A.U.
+ * Copyright 2016-2018 XLAB razvoj programske opreme in svetovanje d.o.o.
+ * Copyright 2016-2018 Systems Research Institute Polish Academy of Sciences
+ * Copyright 2016-2018 Azienda Sanitaria Locale TO5
+ * Copyright 2016-2018 Alessandro Bassi Consulting SARL
+ * Copyright 2016-2018 Neways Technologies B.V.
+ *
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.interiot.intermw.services.registry;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.prep.PreparedGeometry;
+import com.vividsolutions.jts.geom.prep.PreparedGeometryFactory;
+import com.vividsolutions.jts.index.quadtree.Quadtree;
+import com.vividsolutions.jts.index.strtree.STRtree;
+import com.vividsolutions.jts.io.ParseException;
+import com.vividsolutions.jts.io.WKTReader;
+import eu.interiot.intermw.commons.exceptions.MiddlewareException;
+import eu.interiot.intermw.commons.interfaces.Configuration;
+import eu.interiot.intermw.commons.model.LocationArea;
+import eu.interiot.intermw.commons.model.LocationPoint;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In-memory spatial index of registry location points and location areas. The registry remains the system of
+ * record, the index is loaded from it on first use and kept in sync by the registry location methods.
+ * <p>
+ * Location points move constantly, so they are kept in a dynamic quadtree. Location areas rarely change, so they
+ * are kept in an STR-tree which is rebuilt on the first query after a change. Area geometries are prepared once,
+ * so containment checks don't have to rebuild them.
+ * <p>
+ * The index can be disabled with <code>registry.spatialIndex.enabled=false</code>, in which case spatial queries
+ * are evaluated by the registry store.
+ */
+public class SpatialIndex {
+    private final static Logger logger = LoggerFactory.getLogger(SpatialIndex.class);
+    private static final String ENABLED_PROPERTY = "registry.spatialIndex.enabled";
+    private static final String CRS_PREFIX = "<";
+
+    private static final Map<String, SpatialIndex> indexes = new ConcurrentHashMap<>();
+
+    @FunctionalInterface
+    public interface Loader {
+        void load(SpatialIndex index) throws MiddlewareException;
+    }
+
+    private final boolean enabled;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<String, IndexEntry> points = new HashMap<>();
+    private final Quadtree pointTree = new Quadtree();
+    private final Map<String, IndexEntry> areas = new HashMap<>();
+    private STRtree areaTree;
+    private boolean loaded;
+
+    SpatialIndex(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * Returns the spatial index shared by all registry instances using the same store.
+     */
+    public static SpatialIndex getInstance(Configuration conf) {
+        return indexes.computeIfAbsent(RegistryBackendFactory.getRegistryId(conf), id -> create(conf));
+    }
+
+    /**
+     * Creates a spatial index which isn't shared with other registry instances.
+     */
+    static SpatialIndex create(Configuration conf) {
+        String enabled = conf.getProperty(ENABLED_PROPERTY);
+        return new SpatialIndex(enabled == null || Boolean.parseBoolean(enabled));
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Fills the index using <code>loader</code> unless it has already been loaded. Updates are blocked while
+     * loading, so none of them is lost.
+     */
+    public void loadIfNeeded(Loader loader) throws MiddlewareException {
+        lock.readLock().lock();
+        try {
+            if (loaded) {
+                return;
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        lock.writeLock().lock();
+        try {
+            if (!loaded) {
+                long start = System.currentTimeMillis();
+                clearEntries();
+                loader.load(this);
+                loaded = true;
+                logger.debug("Spatial index loaded with {} location points and {} location areas in {} ms.",
+                        points.size(), areas.size(), System.currentTimeMillis() - start);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Drops all entries, the index is reloaded from the registry on next use.
+     */
+    public void invalidateAll() {
+        lock.writeLock().lock();
+        try {
+            clearEntries();
+            loaded = false;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Adds or replaces a location point. Ignored until the index is loaded, the point is picked up by loading.
+     */
+    public void putPoint(LocationPoint locationPoint) {
+        put(locationPoint.getLocationId(), locationPoint.getWktPoint(), false);
+    }
+
+    public void removePoint(String locationId) {
+        remove(locationId, false);
+    }
+
+    /**
+     * Adds or replaces a location area. Ignored until the index is loaded, the area is picked up by loading.
+     */
+    public void putArea(LocationArea locationArea) {
+        put(locationArea.getLocationId(), locationArea.getWktGeometry(), true);
+    }
+
+    public void removeArea(String locationId) {
+        remove(locationId, true);
+    }
+
+    /**
+     * Returns IDs of location points within the given location area or an empty list if the area doesn't exist.
+     */
+    public List<String> getPointsWithin(String areaLocationId) {
+        lock.readLock().lock();
+        try {
+            IndexEntry area = areas.get(areaLocationId);
+            if (area == null) {
+                return new ArrayList<>();
+            }
+            List<String> result = new ArrayList<>();
+            for (Object item : pointTree.query(area.geometry.getEnvelopeInternal())) {
+                IndexEntry point = (IndexEntry) item;
+                if (area.prepared.contains(point.geometry)) {
+                    result.add(point.id);
+                }
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns IDs of location points inside the given bounding box.
+     */
+    public List<String> getPointsInBoundingBox(double minX, double minY, double maxX, double maxY) {
+        Envelope envelope = new Envelope(minX, maxX, minY, maxY);
+        lock.readLock().lock();
+        try {
+            List<String> result = new ArrayList<>();
+            for (Object item : pointTree.query(envelope)) {
+                IndexEntry point = (IndexEntry) item;
+                if (envelope.intersects(point.geometry.getEnvelopeInternal())) {
+                    result.add(point.id);
+                }
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns IDs of location areas intersecting the given bounding box.
+     */
+    public List<String> getAreasInBoundingBox(double minX, double minY, double maxX, double maxY) {
+        Envelope envelope = new Envelope(minX, maxX, minY, maxY);
+        List<String> result = new ArrayList<>();
+        for (Object item : getAreaTree().query(envelope)) {
+            IndexEntry area = (IndexEntry) item;
+            if (area.prepared.intersects(area.geometry.getFactory().toGeometry(envelope))) {
+                result.add(area.id);
+            }
+        }
+        return result;
+    }
+
+    public int getPointCount() {
+        lock.readLock().lock();
+        try {
+            return points.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int getAreaCount() {
+        lock.readLock().lock();
+        try {
+            return areas.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Adds an entry while loading, lock is already held by {@link #loadIfNeeded(Loader)}.
+     */
+    void addPoint(String locationId, String wkt) {
+        addEntry(locationId, wkt, false);
+    }
+
+    void addArea(String locationId, String wkt) {
+        addEntry(locationId, wkt, true);
+    }
+
+    private void put(String locationId, String wkt, boolean area) {
+        lock.writeLock().lock();
+        try {
+            if (!loaded) {
+                return;
+            }
+            removeEntry(locationId, area);
+            addEntry(locationId, wkt, area);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void remove(String locationId, boolean area) {
+        lock.writeLock().lock();
+        try {
+            removeEntry(locationId, area);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void addEntry(String locationId, String wkt, boolean area) {
+        Geometry geometry = parse(locationId, wkt);
+        if (geometry == null) {
+            return;
+        }
+        IndexEntry entry = new IndexEntry(locationId, geometry, area);
+        if (area) {
+            areas.put(locationId, entry);
+            areaTree = null;
+        } else {
+            points.put(locationId, entry);
+            pointTree.insert(geometry.getEnvelopeInternal(), entry);
+        }
+    }
+
+    private void removeEntry(String locationId, boolean area) {
+        if (area) {
+            if (areas.remove(locationId) != null) {
+                areaTree = null;
+            }
+        } else {
+            IndexEntry entry = points.remove(locationId);
+            if (entry != null) {
+                pointTree.remove(entry.geometry.getEnvelopeInternal(), entry);
+            }
+        }
+    }
+
+    private void clearEntries() {
+        for (IndexEntry entry : points.values()) {
+            pointTree.remove(entry.geometry.getEnvelopeInternal(), entry);
+        }
+        points.clear();
+        areas.clear();
+        areaTree = null;
+    }
+
+    private STRtree getAreaTree() {
+        lock.readLock().lock();
+        try {
+            if (areaTree != null) {
+                return areaTree;
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        lock.writeLock().lock();
+        try {
+            if (areaTree == null) {
+                STRtree tree = new STRtree();
+                for (IndexEntry entry : areas.values()) {
+                    tree.insert(entry.geometry.getEnvelopeInternal(), entry);
+                }
+                tree.build();
+                areaTree = tree;
+            }
+            return areaTree;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private static Geometry parse(String locationId, String wkt) {
+        if (wkt == null) {
+            return null;
+        }
+        String geometryWkt = wkt.trim();
+        // GeoSPARQL WKT literals may start with a CRS IRI
+        if (geometryWkt.startsWith(CRS_PREFIX)) {
+            geometryWkt = geometryWkt.substring(geometryWkt.indexOf('>') + 1).trim();
+        }
+        try {
+            return new WKTReader().read(geometryWkt);
+        } catch (ParseException e) {
+            logger.warn("Location {} has invalid WKT geometry and won't be indexed: {}", locationId, e.getMessage());
+            return null;
+        }
+    }
+
+    private static class IndexEntry {
+        private final String id;
+        private final Geometry geometry;
+        private final PreparedGeometry prepared;
+
+        IndexEntry(String id, Geometry geometry, boolean prepare) {
+            this.id = id;
+            this.geometry = geometry;
+            this.prepared = prepare ? PreparedGeometryFactory.prepare(geometry) : null;
+        }
+    }
+}
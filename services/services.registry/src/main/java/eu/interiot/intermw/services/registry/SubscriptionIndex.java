@@ -0,0 +1,373 @@
+/*
+ * Copyright 2016-2018 Universitat Politècnica de València
+ * Copyright 2016-2018 Università della Calabria
+ * Copyright 2016-2018 Prodevelop, SL
+ * Copyright 2016-2018 Technische Universiteit Eindhoven
+ * Copyright 2016-2018 Fundación de la Comunidad Valenciana para la
+ * Investigación, Promoción y Estudios Comerciales de Valenciaport
+ * Copyright 2016-2018 Rinicom Ltd
+ * Copyright 2016-2018 Association pour le développement de la formation
+ * professionnelle dans le transport
+ * Copyright 2016-2018 Noatum Ports Valenciana, S.A.U.
+ * Copyright 2016-2018 XLAB razvoj programske opreme in svetovanje d.o.o.
+ * Copyright 2016-2018 Systems Research Institute Polish Academy of Sciences
+ * Copyright 2016-2018 Azienda Sanitaria Locale TO5
+ * Copyright 2016-2018 Alessandro Bassi Consulting SARL
+ * Copyright 2016-2018 Neways Technologies B.V.
+ *
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.interiot.intermw.services.registry;
+
+import eu.interiot.intermw.commons.exceptions.MiddlewareException;
+import eu.interiot.intermw.commons.interfaces.Configuration;
+import eu.interiot.intermw.commons.model.Plat2PlatSubscription;
+import eu.interiot.intermw.commons.model.Subscription;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * In-memory index of client and plat2plat subscriptions, shared by all registry instances using the same store.
+ * <p>
+ * Besides the subscriptions themselves it maps device IDs and client IDs to the conversation IDs of subscriptions
+ * covering them, so subscription lookups by device or client don't need to read the whole subscriptions graph.
+ * Plat2plat subscriptions are indexed by both source and target device. Subscriptions are kept sorted by
+ * conversation ID, overall and per client, so a page can be copied without sorting the rest.
+ * <p>
+ * The index is loaded from the store on first use and kept up to date by the registry subscription write paths,
+ * which update it after writing the store. Reads run concurrently, updates and loading hold an exclusive lock. An
+ * update racing the initial load waits for it and is applied on top of the loaded state; updates made while the
+ * index isn't loaded are skipped, as the next load reads them from the store. Enabled unless
+ * <code>registry.subscriptionIndex.enabled</code> is set to false.
+ */
+public class SubscriptionIndex {
+    private final static Logger logger = LoggerFactory.getLogger(SubscriptionIndex.class);
+    private static final String ENABLED_PROPERTY = "registry.subscriptionIndex.enabled";
+
+    private static final Map<String, SubscriptionIndex> indexes = new ConcurrentHashMap<>();
+
+    @FunctionalInterface
+    public interface Loader {
+        void load(SubscriptionIndex index) throws MiddlewareException;
+    }
+
+    private final boolean enabled;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final NavigableMap<String, Subscription> subscriptions = new TreeMap<>();
+    private final Map<String, Set<String>> deviceSubscriptions = new HashMap<>();
+    private final Map<String, NavigableSet<String>> clientSubscriptions = new HashMap<>();
+    private final NavigableMap<String, Plat2PlatSubscription> plat2PlatSubscriptions = new TreeMap<>();
+    private final Map<String, Set<String>> devicePlat2PlatSubscriptions = new HashMap<>();
+    private final Map<String, NavigableSet<String>> clientPlat2PlatSubscriptions = new HashMap<>();
+    private volatile boolean loaded;
+
+    SubscriptionIndex(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public static SubscriptionIndex getInstance(Configuration conf) {
+        return indexes.computeIfAbsent(RegistryBackendFactory.getRegistryId(conf), id -> create(conf));
+    }
+
+    /**
+     * Creates a subscription index which isn't shared with other registry instances.
+     */
+    static SubscriptionIndex create(Configuration conf) {
+        String enabled = conf.getProperty(ENABLED_PROPERTY);
+        return new SubscriptionIndex(enabled == null || Boolean.parseBoolean(enabled));
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Fills the index using <code>loader</code> unless it has already been loaded. Updates made while loading wait
+     * for the load to finish and are applied after it.
+     */
+    public void loadIfNeeded(Loader loader) throws MiddlewareException {
+        if (loaded) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            if (loaded) {
+                return;
+            }
+            long start = System.currentTimeMillis();
+            clear();
+            try {
+                loader.load(this);
+            } catch (MiddlewareException | RuntimeException e) {
+                clear();
+                throw e;
+            }
+            loaded = true;
+            logger.debug("Subscription index loaded with {} subscriptions and {} plat2plat subscriptions in {} ms.",
+                    subscriptions.size(), plat2PlatSubscriptions.size(), System.currentTimeMillis() - start);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Drops the index, it is reloaded from the store on next use.
+     */
+    public void invalidateAll() {
+        lock.writeLock().lock();
+        try {
+            clear();
+            loaded = false;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Adds a subscription, or devices of an existing one, the same way the store does.
+     */
+    public void addSubscription(Subscription subscription) {
+        update(() -> applySubscription(subscription));
+    }
+
+    public void removeSubscription(String conversationId) {
+        update(() -> {
+            Subscription subscription = subscriptions.remove(conversationId);
+            if (subscription != null) {
+                for (String deviceId : subscription.getDeviceIds()) {
+                    removeEntry(deviceSubscriptions, deviceId, conversationId);
+                }
+                removeEntry(clientSubscriptions, subscription.getClientId(), conversationId);
+            }
+        });
+    }
+
+    public void addPlat2PlatSubscription(Plat2PlatSubscription subscription) {
+        update(() -> applyPlat2PlatSubscription(subscription));
+    }
+
+    public void removePlat2PlatSubscription(String conversationId) {
+        update(() -> applyPlat2PlatRemoval(conversationId));
+    }
+
+    /**
+     * @return copy of the subscription or null if it doesn't exist
+     */
+    public Subscription getSubscription(String conversationId) {
+        return read(() -> copy(subscriptions.get(conversationId)));
+    }
+
+    /**
+     * @param clientId owner of the subscriptions or null for all clients
+     * @return copies of the subscriptions ordered by conversation ID
+     */
+    public List<Subscription> getSubscriptions(String clientId) {
+        return getSubscriptions(clientId, 0, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @param clientId owner of the subscriptions or null for all clients
+     * @return copies of a page of the subscriptions ordered by conversation ID
+     */
+    public List<Subscription> getSubscriptions(String clientId, long offset, int limit) {
+        return read(() -> collect(subscriptions, clientSubscriptions, clientId, offset, limit, SubscriptionIndex::copy));
+    }
+
+    /**
+     * @return conversation IDs of subscriptions covering the device
+     */
+    public Set<String> getSubscriptionIds(String deviceId) {
+        return read(() -> new HashSet<>(deviceSubscriptions.getOrDefault(deviceId, Collections.emptySet())));
+    }
+
+    public Plat2PlatSubscription getPlat2PlatSubscription(String conversationId) {
+        return read(() -> copy(plat2PlatSubscriptions.get(conversationId)));
+    }
+
+    /**
+     * @param clientId owner of the subscriptions or null for all clients
+     * @return copies of the plat2plat subscriptions ordered by conversation ID
+     */
+    public List<Plat2PlatSubscription> getPlat2PlatSubscriptions(String clientId) {
+        return getPlat2PlatSubscriptions(clientId, 0, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @param clientId owner of the subscriptions or null for all clients
+     * @return copies of a page of the plat2plat subscriptions ordered by conversation ID
+     */
+    public List<Plat2PlatSubscription> getPlat2PlatSubscriptions(String clientId, long offset, int limit) {
+        return read(() -> collect(plat2PlatSubscriptions, clientPlat2PlatSubscriptions, clientId, offset, limit,
+                SubscriptionIndex::copy));
+    }
+
+    /**
+     * @return conversation IDs of plat2plat subscriptions having the device as source or target
+     */
+    public Set<String> getPlat2PlatSubscriptionIds(String deviceId) {
+        return read(() -> new HashSet<>(devicePlat2PlatSubscriptions.getOrDefault(deviceId, Collections.emptySet())));
+    }
+
+    public Plat2PlatSubscription findPlat2PlatSubscription(String sourceDeviceId, String targetDeviceId) {
+        return read(() -> {
+            for (String conversationId : devicePlat2PlatSubscriptions.getOrDefault(sourceDeviceId, Collections.emptySet())) {
+                Plat2PlatSubscription subscription = plat2PlatSubscriptions.get(conversationId);
+                if (subscription.getSourceDeviceId().equals(sourceDeviceId)
+                        && subscription.getTargetDeviceId().equals(targetDeviceId)) {
+                    return copy(subscription);
+                }
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Adds a subscription while loading, lock is already held by {@link #loadIfNeeded(Loader)}.
+     */
+    void loadSubscription(Subscription subscription) {
+        applySubscription(subscription);
+    }
+
+    void loadPlat2PlatSubscription(Plat2PlatSubscription subscription) {
+        applyPlat2PlatSubscription(subscription);
+    }
+
+    private void applySubscription(Subscription subscription) {
+        String conversationId = subscription.getConversationId();
+        Subscription indexed = subscriptions.computeIfAbsent(conversationId, id -> {
+            Subscription newSubscription = new Subscription();
+            newSubscription.setConversationId(conversationId);
+            newSubscription.setClientId(subscription.getClientId());
+            return newSubscription;
+        });
+        for (String deviceId : subscription.getDeviceIds()) {
+            if (deviceSubscriptions.computeIfAbsent(deviceId, id -> new HashSet<>()).add(conversationId)) {
+                indexed.addDeviceId(deviceId);
+            }
+        }
+        clientSubscriptions.computeIfAbsent(indexed.getClientId(), id -> new TreeSet<>()).add(conversationId);
+    }
+
+    private void applyPlat2PlatSubscription(Plat2PlatSubscription subscription) {
+        String conversationId = subscription.getConversationId();
+        applyPlat2PlatRemoval(conversationId);
+        plat2PlatSubscriptions.put(conversationId, copy(subscription));
+        devicePlat2PlatSubscriptions.computeIfAbsent(subscription.getSourceDeviceId(), id -> new HashSet<>()).add(conversationId);
+        devicePlat2PlatSubscriptions.computeIfAbsent(subscription.getTargetDeviceId(), id -> new HashSet<>()).add(conversationId);
+        clientPlat2PlatSubscriptions.computeIfAbsent(subscription.getClientId(), id -> new TreeSet<>()).add(conversationId);
+    }
+
+    private void applyPlat2PlatRemoval(String conversationId) {
+        Plat2PlatSubscription subscription = plat2PlatSubscriptions.remove(conversationId);
+        if (subscription != null) {
+            removeEntry(devicePlat2PlatSubscriptions, subscription.getSourceDeviceId(), conversationId);
+            removeEntry(devicePlat2PlatSubscriptions, subscription.getTargetDeviceId(), conversationId);
+            removeEntry(clientPlat2PlatSubscriptions, subscription.getClientId(), conversationId);
+        }
+    }
+
+    private void update(Runnable update) {
+        // no unlocked fast path, an update racing the load must wait for it instead of being dropped
+        lock.writeLock().lock();
+        try {
+            if (loaded) {
+                update.run();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private <T> T read(Supplier<T> reader) {
+        lock.readLock().lock();
+        try {
+            return reader.get();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private static <T> List<T> collect(NavigableMap<String, T> subscriptions,
+                                       Map<String, NavigableSet<String>> clientSubscriptions, String clientId,
+                                       long offset, int limit, Function<T, T> copier) {
+        // both key sets are sorted, only the requested page is copied
+        NavigableSet<String> conversationIds = clientId != null ?
+                clientSubscriptions.getOrDefault(clientId, Collections.emptyNavigableSet()) : subscriptions.navigableKeySet();
+        if (offset >= conversationIds.size()) {
+            return new ArrayList<>();
+        }
+        List<T> result = new ArrayList<>((int) Math.min(limit, conversationIds.size() - offset));
+        Iterator<String> iterator = conversationIds.iterator();
+        for (long i = 0; i < offset; i++) {
+            iterator.next();
+        }
+        while (iterator.hasNext() && result.size() < limit) {
+            result.add(copier.apply(subscriptions.get(iterator.next())));
+        }
+        return result;
+    }
+
+    private static <S extends Set<String>> void removeEntry(Map<String, S> index, String key, String conversationId) {
+        Set<String> conversationIds = index.get(key);
+        if (conversationIds != null) {
+            conversationIds.remove(conversationId);
+            if (conversationIds.isEmpty()) {
+                index.remove(key);
+            }
+        }
+    }
+
+    private void clear() {
+        subscriptions.clear();
+        deviceSubscriptions.clear();
+        clientSubscriptions.clear();
+        plat2PlatSubscriptions.clear();
+        devicePlat2PlatSubscriptions.clear();
+        clientPlat2PlatSubscriptions.clear();
+    }
+
+    private static Subscription copy(Subscription subscription) {
+        if (subscription == null) {
+            return null;
+        }
+        Subscription copy = new Subscription();
+        copy.setConversationId(subscription.getConversationId());
+        copy.setClientId(subscription.getClientId());
+        copy.setDeviceIds(new ArrayList<>(subscription.getDeviceIds()));
+        return copy;
+    }
+
+    private static Plat2PlatSubscription copy(Plat2PlatSubscription subscription) {
+        if (subscription == null) {
+            return null;
+        }
+        Plat2PlatSubscription copy = new Plat2PlatSubscription();
+        copy.setConversationId(subscription.getConversationId());
+        copy.setClientId(subscription.getClientId());
+        copy.setSourceDeviceId(subscription.getSourceDeviceId());
+        copy.setSourcePlatformId(subscription.getSourcePlatformId());
+        copy.setTargetDeviceId(subscription.getTargetDeviceId());
+        copy.setTargetPlatformId(subscription.getTargetPlatformId());
+        return copy;
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2016-2018 Universitat Politècnica de València
+ * Copyright 2016-2018 Università della Calabria
+ * Copyright 2016-2018 Prodevelop, SL
+ * Copyright 2016-2018 Technische Universiteit Eindhoven
+ * Copyright 2016-2018 Fundación de la Comunidad Valenciana para la
+ * Investigación, Promoción y Estudios Comerciales de Valenciaport
+ * Copyright 2016-2018 Rinicom Ltd
+ * Copyright 2016-2018 Association pour le développement de la formation
+ * professionnelle dans le transport
+ * Copyright 2016-2018 Noatum Ports Valenciana, S.A.U.
+ * Copyright 2016-2018 XLAB razvoj programske opreme in svetovanje d.o.o.
+ * Copyright 2016-2018 Systems Research Institute Polish Academy of Sciences
+ * Copyright 2016-2018 Azienda Sanitaria Locale TO5
+ * Copyright 2016-2018 Alessandro Bassi Consulting SARL
+ * Copyright 2016-2018 Neways Technologies B.V.
+ *
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.interiot.intermw.services.registry;
+
+import eu.interiot.intermw.commons.DefaultConfiguration;
+import eu.interiot.intermw.commons.exceptions.MiddlewareException;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.*;
+
+public class AsyncRegistryTest {
+    private AsyncRegistry asyncRegistry;
+
+    @Before
+    public void setUp() throws MiddlewareException {
+        asyncRegistry = new AsyncRegistry(new ParliamentRegistry(new DefaultConfiguration("intermw-embedded-test.properties")));
+    }
+
+    @Test
+    public void testOrderedCalls() throws Exception {
+        List<Integer> executionOrder = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch firstStarted = new CountDownLatch(1);
+
+        CompletableFuture<Void> first = asyncRegistry.submit("first", "platform1", registry -> {
+            firstStarted.countDown();
+            sleep(200);
+            executionOrder.add(1);
+            return null;
+        });
+        assertTrue(firstStarted.await(5, TimeUnit.SECONDS));
+        CompletableFuture<Void> second = asyncRegistry.submit("second", "platform1", registry -> {
+            executionOrder.add(2);
+            return null;
+        });
+
+        CompletableFuture.allOf(first, second).get(5, TimeUnit.SECONDS);
+        assertEquals(Arrays.asList(1, 2), executionOrder);
+    }
+
+    @Test
+    public void testFailureDoesNotBlockOrderedCalls() throws Exception {
+        CompletableFuture<Void> failing = asyncRegistry.submit("failing", "platform1", registry -> {
+            throw new MiddlewareException("Registry failure.");
+        });
+        CompletableFuture<String> next = asyncRegistry.submit("next", "platform1", registry -> "done");
+
+        try {
+            failing.get(5, TimeUnit.SECONDS);
+            fail("ExecutionException expected.");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof MiddlewareException);
+        }
+        assertEquals("done", next.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testOperationTimeout() throws Exception {
+        // running calls aren't interrupted, keep the I/O thread busy only briefly
+        CompletableFuture<Void> slow = asyncRegistry.submit("slow", null, registry -> {
+            sleep(1000);
+            return null;
+        });
+
+        try {
+            slow.get(5, TimeUnit.SECONDS);
+            fail("ExecutionException expected.");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof TimeoutException);
+        }
+    }
+
+    @Test
+    public void testOrderedCallWaitsForTimedOutPredecessor() throws Exception {
+        CountDownLatch slowFinished = new CountDownLatch(1);
+        CompletableFuture<Void> slow = asyncRegistry.submit("slow", "platform1", registry -> {
+            sleep(500);
+            slowFinished.countDown();
+            return null;
+        });
+        CompletableFuture<Boolean> next = asyncRegistry.submit("next", "platform1",
+                registry -> slowFinished.getCount() == 0);
+
+        try {
+            slow.get(5, TimeUnit.SECONDS);
+            fail("ExecutionException expected.");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof TimeoutException);
+        }
+        assertFalse(next.isDone());
+        assertTrue(next.get(5, TimeUnit.SECONDS));
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2016-2018 Universitat Politècnica de València
+ * Copyright 2016-2018 Università della Calabria
+ * Copyright 2016-2018 Prodevelop, SL
+ * Copyright 2016-2018 Technische Universiteit Eindhoven
+ * Copyright 2016-2018 Fundación de la Comunidad Valenciana para la
+ * Investigación, Promoción y Estudios Comerciales de Valenciaport
+ * Copyright 2016-2018 Rinicom Ltd
+ * Copyright 2016-2018 Association pour le développement de la formation
+ * professionnelle dans le transport
+ * Copyright 2016-2018 Noatum Ports Valenciana, S.A.U.
+ * Copyright 2016-2018 XLAB razvoj programske opreme in svetovanje d.o.o.
+ * Copyright 2016-2018 Systems Research Institute Polish Academy of Sciences
+ * Copyright 2016-2018 Azienda Sanitaria Locale TO5
+ * Copyright 2016-2018 Alessandro Bassi Consulting SARL
+ * Copyright 2016-2018 Neways Technologies B.V.
+ *
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.interiot.intermw.services.registry;
+
+import eu.interiot.intermw.commons.model.IoTDevice;
+import eu.interiot.intermw.commons.model.enums.IoTDeviceType;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class DeviceCacheTest {
+    private static final String DEVICE1_ID = "http://test.inter-iot.eu/device1";
+    private static final String DEVICE2_ID = "http://test.inter-iot.eu/device2";
+
+    @Test
+    public void testHitsAndMisses() {
+        DeviceCache cache = new DeviceCache(100);
+        cache.putAll(Collections.singletonList(createDevice(DEVICE1_ID)), cache.startRead());
+
+        Map<String, IoTDevice> devices = cache.getAll(Arrays.asList(DEVICE1_ID, DEVICE2_ID));
+        assertEquals(1, devices.size());
+        assertEquals("Device 1", devices.get(DEVICE1_ID).getName());
+
+        CacheStatistics statistics = cache.getStatistics();
+        assertEquals(1, statistics.getHitCount());
+        assertEquals(1, statistics.getMissCount());
+        assertEquals(1, statistics.getSize());
+    }
+
+    @Test
+    public void testInvalidation() {
+        DeviceCache cache = new DeviceCache(100);
+        cache.putAll(Arrays.asList(createDevice(DEVICE1_ID), createDevice(DEVICE2_ID)), cache.startRead());
+
+        cache.invalidate(Collections.singletonList(DEVICE1_ID));
+        assertEquals(Collections.singleton(DEVICE2_ID), cache.getAll(Arrays.asList(DEVICE1_ID, DEVICE2_ID)).keySet());
+
+        cache.invalidateAll();
+        assertTrue(cache.getAll(Arrays.asList(DEVICE1_ID, DEVICE2_ID)).isEmpty());
+    }
+
+    @Test
+    public void testStaleReadIsNotCached() {
+        DeviceCache cache = new DeviceCache(100);
+        long readStamp = cache.startRead();
+        cache.invalidate(Collections.singletonList(DEVICE1_ID));
+        cache.putAll(Collections.singletonList(createDevice(DEVICE1_ID)), readStamp);
+
+        assertTrue(cache.getAll(Collections.singletonList(DEVICE1_ID)).isEmpty());
+    }
+
+    @Test
+    public void testCachedDevicesAreCopies() {
+        DeviceCache cache = new DeviceCache(100);
+        IoTDevice device = createDevice(DEVICE1_ID);
+        cache.putAll(Collections.singletonList(device), cache.startRead());
+        device.setName("Changed");
+        cache.getAll(Collections.singletonList(DEVICE1_ID)).get(DEVICE1_ID).setLocation("http://test.inter-iot.eu/other");
+
+        IoTDevice cached = cache.getAll(Collections.singletonList(DEVICE1_ID)).get(DEVICE1_ID);
+        assertEquals("Device 1", cached.getName());
+        assertEquals("http://test.inter-iot.eu/location1", cached.getLocation());
+    }
+
+    @Test
+    public void testDisabled() {
+        DeviceCache cache = new DeviceCache(0);
+        cache.putAll(Collections.singletonList(createDevice(DEVICE1_ID)), cache.startRead());
+
+        assertFalse(cache.isEnabled());
+        assertTrue(cache.getAll(Collections.singletonList(DEVICE1_ID)).isEmpty());
+    }
+
+    private IoTDevice createDevice(String deviceId) {
+        return new IoTDevice(deviceId, "Device 1", "http://test.inter-iot.eu/platform1",
+                "http://test.inter-iot.eu/location1", EnumSet.of(IoTDeviceType.DEVICE));
+    }
+}
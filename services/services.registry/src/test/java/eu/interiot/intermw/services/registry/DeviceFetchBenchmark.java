@@ -0,0 +1,154 @@
+/*
+ * Copyright 2016-2018 Universitat Politècnica de València
+ * Copyright 2016-2018 Università della Calabria
+ * Copyright 2016-2018 Prodevelop, SL
+ * Copyright 2016-2018 Technische Universiteit Eindhoven
+ * Copyright 2016-2018 Fundación de la Comunidad Valenciana para la
+ * Investigación, Promoción y Estudios Comerciales de Valenciaport
+ * Copyright 2016-2018 Rinicom Ltd
+ * Copyright 2016-2018 Association pour le développement de la formation
+ * professionnelle dans le transport
+ * Copyright 2016-2018 Noatum Ports Valenciana, S.A.U.
+ * Copyright 2016-2018 XLAB razvoj programske opreme in svetovanje d.o.o.
+ * Copyright 2016-2018 Systems Research Institute Polish Academy of Sciences
+ * Copyright 2016-2018 Azienda Sanitaria Locale TO5
+ * Copyright 2016-2018 Alessandro Bassi Consulting SARL
+ * Copyright 2016-2018 Neways Technologies B.V.
+ *
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.interiot.intermw.services.registry;
+
+import com.google.common.collect.Lists;
+import org.apache.jena.query.*;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.rdf.model.Resource;
+import org.apache.jena.vocabulary.RDF;
+import org.apache.jena.vocabulary.RDFS;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Shows how fetching devices by id scales with the number of devices: one <code>GRAPH</code> pattern per device
+ * joined with <code>UNION</code> (the way the registry used to do it), a single <code>VALUES</code> query and
+ * <code>VALUES</code> queries over chunks of {@link #CHUNK_SIZE} devices. Queries are parsed and evaluated
+ * against an in-memory dataset, so the numbers show query size and planning cost without network latency. Not run
+ * as part of the build, start it with the main method.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DeviceFetchBenchmark {
+
+    private static final int CHUNK_SIZE = 200;
+    private static final String DEVICE_PREFIX = "http://test.inter-iot.eu/devices#device";
+
+    @Param({"10", "100", "1000", "5000"})
+    private int deviceCount;
+
+    private Dataset dataset;
+    private List<String> deviceIds;
+
+    @Setup
+    public void setup() throws Exception {
+        SparqlTemplates.getInstance();
+        dataset = DatasetFactory.createTxnMem();
+        deviceIds = new ArrayList<>();
+        dataset.begin(ReadWrite.WRITE);
+        try {
+            for (int i = 0; i < deviceCount; i++) {
+                String deviceId = DEVICE_PREFIX + i;
+                Model model = ModelFactory.createDefaultModel();
+                Resource device = model.createResource(deviceId);
+                device.addProperty(RDF.type, model.createResource("http://www.w3.org/ns/sosa/Sensor"));
+                device.addProperty(RDFS.label, "Device " + i);
+                device.addProperty(model.createProperty("http://www.w3.org/ns/sosa/isHostedBy"),
+                        model.createResource("http://test.inter-iot.eu/platform1"));
+                dataset.addNamedModel(deviceId, model);
+                deviceIds.add(deviceId);
+            }
+            dataset.commit();
+        } finally {
+            dataset.end();
+        }
+    }
+
+    @Benchmark
+    public long graphUnion() {
+        StringBuilder sb = new StringBuilder("CONSTRUCT {?a ?b ?c}\n{\n");
+        Iterator<String> iterator = deviceIds.iterator();
+        while (iterator.hasNext()) {
+            sb.append("{ GRAPH <").append(iterator.next()).append("> { ?a ?b ?c } }");
+            if (iterator.hasNext()) {
+                sb.append(" UNION ");
+            }
+        }
+        sb.append("\n}");
+        return construct(QueryFactory.create(sb.toString()));
+    }
+
+    @Benchmark
+    public long values() throws Exception {
+        return construct(getValuesQuery(deviceIds));
+    }
+
+    @Benchmark
+    public long chunkedValues() throws Exception {
+        long size = 0;
+        for (List<String> chunk : Lists.partition(deviceIds, CHUNK_SIZE)) {
+            size += construct(getValuesQuery(chunk));
+        }
+        return size;
+    }
+
+    private Query getValuesQuery(List<String> ids) throws Exception {
+        StringBuilder sb = new StringBuilder();
+        for (String id : ids) {
+            sb.append('<').append(id).append("> ");
+        }
+        return SparqlTemplates.getInstance().get("device-getByIds.rq",
+                Collections.singletonMap("{device_graphs}", sb.toString())).asQuery();
+    }
+
+    private long construct(Query query) {
+        dataset.begin(ReadWrite.READ);
+        try (QueryExecution queryExecution = QueryExecutionFactory.create(query, dataset)) {
+            return queryExecution.execConstruct().size();
+        } finally {
+            dataset.end();
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(DeviceFetchBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,243 @@
+/*
+ * Copyright 2016-2018 Universitat Politècnica de València
+ * Copyright 2016-2018 Università della Calabria
+ * Copyright 2016-2018 Prodevelop, SL
+ * Copyright 2016-2018 Technische Universiteit Eindhoven
+ * Copyright 2016-2018 Fundación de la Comunidad Valenciana para la
+ * Investigación, Promoción y Estudios Comerciales de Valenciaport
+ * Copyright 2016-2018 Rinicom Ltd
+ * Copyright 2016-2018 Association pour le développement de la formation
+ * professionnelle dans le transport
+ * Copyright 2016-2018 Noatum Ports Valenciana, S.A.U.
+ * Copyright 2016-2018 XLAB razvoj programske opreme in svetovanje d.o.o.
+ * Copyright 2016-2018 Systems Research Institute Polish Academy of Sciences
+ * Copyright 2016-2018 Azienda Sanitaria Locale TO5
+ * Copyright 2016-2018 Alessandro Bassi Consulting SARL
+ * Copyright 2016-2018 Neways Technologies B.V.
+ *
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.interiot.intermw.services.registry;
+
+import eu.interiot.intermw.commons.DefaultConfiguration;
+import eu.interiot.intermw.commons.exceptions.MiddlewareException;
+import eu.interiot.message.Message;
+import eu.interiot.message.payload.types.IoTDevicePayload;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.vocabulary.RDFS;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.Assert.*;
+
+public class DeviceWriteBehindQueueTest {
+    private static final String PLATFORM_ID = "http://test.inter-iot.eu/platforms/platform1";
+    private static final String DEVICE_PREFIX = "http://test.inter-iot.eu/devices#";
+
+    private DeviceWriteBehindQueue queue;
+
+    @After
+    public void tearDown() {
+        if (queue != null) {
+            queue.close();
+        }
+    }
+
+    @Test
+    public void testCoalescing() throws Exception {
+        RecordingRegistry registry = createRegistry(10, 200, 100);
+        queue = new DeviceWriteBehindQueue(registry);
+
+        CompletableFuture<Void> first = queue.submit(PLATFORM_ID, createMessage("v1", "device1"));
+        CompletableFuture<Void> second = queue.submit(PLATFORM_ID, createMessage("v2", "device1", "device2"));
+        CompletableFuture.allOf(first, second).get(5, TimeUnit.SECONDS);
+
+        assertEquals(1, registry.batches.size());
+        List<DeviceGraph> batch = registry.batches.get(0);
+        assertEquals(2, batch.size());
+        DeviceGraph device1 = batch.get(0);
+        assertEquals(DEVICE_PREFIX + "device1", device1.getDeviceId());
+        assertEquals("v2", device1.getModel().listObjectsOfProperty(RDFS.label).next().asLiteral().getString());
+    }
+
+    @Test
+    public void testFlushOnBatchSize() throws Exception {
+        RecordingRegistry registry = createRegistry(2, 60000, 100);
+        queue = new DeviceWriteBehindQueue(registry);
+
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            futures.add(queue.submit(PLATFORM_ID, createMessage("v1", "device" + i)));
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get(5, TimeUnit.SECONDS);
+
+        assertEquals(2, registry.batches.size());
+        assertEquals(2, registry.batches.get(0).size());
+        assertEquals(2, registry.batches.get(1).size());
+    }
+
+    @Test
+    public void testFlushOnClose() throws Exception {
+        RecordingRegistry registry = createRegistry(100, 60000, 1000);
+        queue = new DeviceWriteBehindQueue(registry);
+
+        CompletableFuture<Void> future = queue.submit(PLATFORM_ID, createMessage("v1", "device1", "device2"));
+        assertFalse(future.isDone());
+        queue.close();
+
+        assertTrue(future.isDone());
+        assertEquals(1, registry.batches.size());
+        assertEquals(2, registry.batches.get(0).size());
+
+        // submitted after close, written directly
+        queue.submit(PLATFORM_ID, createMessage("v1", "device3")).get(5, TimeUnit.SECONDS);
+        assertEquals(2, registry.batches.size());
+    }
+
+    @Test
+    public void testDiscard() throws Exception {
+        RecordingRegistry registry = createRegistry(100, 60000, 1000);
+        queue = new DeviceWriteBehindQueue(registry);
+
+        CompletableFuture<Void> future = queue.submit(PLATFORM_ID, createMessage("v1", "device1"));
+        queue.submit(PLATFORM_ID, createMessage("v1", "device2"));
+        queue.discard(Collections.singletonList(DEVICE_PREFIX + "device1"));
+        assertTrue(future.isDone());
+        assertEquals(1, queue.getPendingCount());
+
+        queue.discardPlatform(PLATFORM_ID);
+        assertEquals(0, queue.getPendingCount());
+        queue.close();
+        assertTrue(registry.batches.isEmpty());
+    }
+
+    @Test
+    public void testDiscardWaitsForInFlightBatch() throws Exception {
+        RecordingRegistry registry = createRegistry(1, 0, 100);
+        registry.writeLatch = new CountDownLatch(1);
+        queue = new DeviceWriteBehindQueue(registry);
+
+        // device1 has left the queue and is being written (blocked)
+        CompletableFuture<Void> registration = queue.submit(PLATFORM_ID, createMessage("v1", "device1"));
+        waitUntil(() -> queue.getPendingCount() == 0);
+
+        CompletableFuture<Void> removal = queue.discard(Collections.singletonList(DEVICE_PREFIX + "device1"));
+        CompletableFuture<Void> platformRemoval = queue.discardPlatform(PLATFORM_ID);
+        assertTrue(queue.discard(Collections.singletonList(DEVICE_PREFIX + "device2")).isDone());
+        assertFalse(removal.isDone());
+        assertFalse(platformRemoval.isDone());
+
+        registry.writeLatch.countDown();
+        removal.get(5, TimeUnit.SECONDS);
+        platformRemoval.get(5, TimeUnit.SECONDS);
+        assertTrue(registration.isDone());
+        assertEquals(1, registry.batches.size());
+    }
+
+    @Test
+    public void testBackpressure() throws Exception {
+        RecordingRegistry registry = createRegistry(1, 0, 1);
+        registry.writeLatch = new CountDownLatch(1);
+        queue = new DeviceWriteBehindQueue(registry);
+
+        // the first device is being written (blocked), the second one fills the queue
+        queue.submit(PLATFORM_ID, createMessage("v1", "device1"));
+        waitUntil(() -> queue.getPendingCount() == 0);
+        queue.submit(PLATFORM_ID, createMessage("v1", "device2"));
+
+        CompletableFuture<CompletableFuture<Void>> blockedSubmit = CompletableFuture.supplyAsync(() -> {
+            try {
+                return queue.submit(PLATFORM_ID, createMessage("v1", "device3"));
+            } catch (MiddlewareException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        try {
+            blockedSubmit.get(200, TimeUnit.MILLISECONDS);
+            fail("Submit should block while the queue is full.");
+        } catch (TimeoutException e) {
+            // expected
+        }
+
+        registry.writeLatch.countDown();
+        blockedSubmit.get(5, TimeUnit.SECONDS).get(5, TimeUnit.SECONDS);
+        assertEquals(3, registry.batches.size());
+    }
+
+    @Test
+    public void testDisabledByDefault() throws MiddlewareException {
+        DefaultConfiguration conf = new DefaultConfiguration("intermw-embedded-test.properties");
+        assertFalse(DeviceWriteBehindQueue.isEnabled(conf));
+        conf.getProperties().setProperty("registry.writeBehind.enabled", "true");
+        assertTrue(DeviceWriteBehindQueue.isEnabled(conf));
+    }
+
+    private RecordingRegistry createRegistry(int batchSize, long flushInterval, int maxPending) throws MiddlewareException {
+        DefaultConfiguration conf = new DefaultConfiguration("intermw-embedded-test.properties");
+        conf.getProperties().setProperty("registry.writeBehind.batchSize", String.valueOf(batchSize));
+        conf.getProperties().setProperty("registry.writeBehind.flushInterval", String.valueOf(flushInterval));
+        conf.getProperties().setProperty("registry.writeBehind.maxPending", String.valueOf(maxPending));
+        return new RecordingRegistry(conf);
+    }
+
+    private static Message createMessage(String label, String... deviceNames) {
+        Model model = ModelFactory.createDefaultModel();
+        for (String deviceName : deviceNames) {
+            model.createResource(DEVICE_PREFIX + deviceName).addProperty(RDFS.label, label);
+        }
+        Message message = new Message();
+        message.setPayload(new IoTDevicePayload(model));
+        return message;
+    }
+
+    private static void waitUntil(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean()) {
+            assertTrue("Condition not met in time.", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    private static class RecordingRegistry extends ParliamentRegistry {
+        private final List<List<DeviceGraph>> batches = Collections.synchronizedList(new ArrayList<>());
+        private volatile CountDownLatch writeLatch;
+
+        RecordingRegistry(DefaultConfiguration conf) {
+            super(conf);
+        }
+
+        @Override
+        public void registerDeviceGraphs(Collection<DeviceGraph> deviceGraphs) throws MiddlewareException {
+            if (writeLatch != null) {
+                try {
+                    writeLatch.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    throw new MiddlewareException("Interrupted.", e);
+                }
+            }
+            batches.add(new ArrayList<>(deviceGraphs));
+            super.registerDeviceGraphs(deviceGraphs);
+        }
+    }
+}
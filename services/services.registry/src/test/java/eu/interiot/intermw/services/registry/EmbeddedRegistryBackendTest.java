@@ -0,0 +1,140 @@
+/*
+ * Copyright 2016-2018 Universitat Politècnica de València
+ * Copyright 2016-2018 Università della Calabria
+ * Copyright 2016-2018 Prodevelop, SL
+ * Copyright 2016-2018 Technische Universiteit Eindhoven
+ * Copyright 2016-2018 Fundación de la Comunidad Valenciana para la
+ * Investigación, Promoción y Estudios Comerciales de Valenciaport
+ * Copyright 2016-2018 Rinicom Ltd
+ * Copyright 2016-2018 Association pour le développement de la formation
+ * professionnelle dans le transport
+ * Copyright 2016-2018 Noatum Ports Valenciana, S.A.U.
+ * Copyright 2016-2018 XLAB razvoj programske opreme in svetovanje d.o.o.
+ * Copyright 2016-2018 Systems Research Institute Polish Academy of Sciences
+ * Copyright 2016-2018 Azienda Sanitaria Locale TO5
+ * Copyright 2016-2018 Alessandro Bassi Consulting SARL
+ * Copyright 2016-2018 Neways Technologies B.V.
+ *
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.interiot.intermw.services.registry;
+
+import org.apache.jena.query.DatasetFactory;
+import org.apache.jena.query.QueryExecution;
+import org.apache.jena.rdfconnection.RDFConnection;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class EmbeddedRegistryBackendTest {
+    private static final String INSERT = "INSERT DATA { GRAPH <http://inter-iot.eu/g> { <http://inter-iot.eu/s> <http://inter-iot.eu/p> \"%s\" } }";
+    private static final String COUNT = "SELECT (COUNT(*) AS ?count) WHERE { GRAPH ?g { ?s ?p ?o } }";
+    private static final String ASK = "ASK { GRAPH ?g { ?s ?p ?o } }";
+
+    private EmbeddedRegistryBackend backend;
+
+    @Before
+    public void setUp() {
+        backend = new EmbeddedRegistryBackend("memory-test", DatasetFactory.createTxnMem());
+    }
+
+    @Test
+    public void testCommitOnClose() {
+        try (RDFConnection conn = backend.connect()) {
+            conn.update(String.format(INSERT, "a"));
+        }
+        assertFalse(backend.getDataset().isInTransaction());
+        assertEquals(1, count());
+    }
+
+    @Test
+    public void testAbortOnFailure() {
+        try (RDFConnection conn = backend.connect()) {
+            conn.update(String.format(INSERT, "a"));
+            conn.update("INSERT DATA { not valid }");
+            fail("Invalid update should have failed.");
+        } catch (Exception e) {
+            // expected
+        }
+        assertFalse(backend.getDataset().isInTransaction());
+        assertEquals(0, count());
+    }
+
+    @Test
+    public void testNestedConnectionJoinsTransaction() {
+        try (RDFConnection outer = backend.connect()) {
+            outer.update(String.format(INSERT, "a"));
+            try (RDFConnection inner = backend.connect()) {
+                inner.update(String.format(INSERT, "b"));
+            }
+            assertTrue(backend.getDataset().isInTransaction());
+        }
+        assertEquals(2, count());
+    }
+
+    @Test
+    public void testReadDoesNotWaitForWriter() throws Exception {
+        try (RDFConnection conn = backend.connect()) {
+            conn.update(String.format(INSERT, "a"));
+        }
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try (RDFConnection writer = backend.connect()) {
+            writer.update(String.format(INSERT, "b"));
+            // the write isn't committed yet, readers see the last committed state
+            assertEquals(1, (int) executor.submit(this::count).get(5, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(2, count());
+    }
+
+    @Test
+    public void testWriteAfterRead() {
+        try (RDFConnection conn = backend.connect()) {
+            assertFalse(conn.queryAsk(ASK));
+            conn.update(String.format(INSERT, "a"));
+        }
+        assertFalse(backend.getDataset().isInTransaction());
+        assertEquals(1, count());
+    }
+
+    @Test
+    public void testNestedWriteAfterRead() {
+        try (RDFConnection outer = backend.connect()) {
+            assertFalse(outer.queryAsk(ASK));
+            try (RDFConnection inner = backend.connect()) {
+                inner.update(String.format(INSERT, "a"));
+            }
+            assertTrue(backend.getDataset().isInTransaction());
+            assertTrue(outer.queryAsk(ASK));
+        }
+        assertFalse(backend.getDataset().isInTransaction());
+        assertEquals(1, count());
+    }
+
+    private int count() {
+        try (RDFConnection conn = backend.connect();
+             QueryExecution queryExecution = conn.query(COUNT)) {
+            return queryExecution.execSelect().next().getLiteral("count").getInt();
+        }
+    }
+}
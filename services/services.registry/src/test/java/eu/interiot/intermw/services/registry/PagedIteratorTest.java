@@ -0,0 +1,103 @@
+/*
+ * Copyright 2016-2018 Universitat Politècnica de València
+ * Copyright 2016-2018 Università della Calabria
+ * Copyright 2016-2018 Prodevelop, SL
+ * Copyright 2016-2018 Technische Universiteit Eindhoven
+ * Copyright 2016-2018 Fundación de la Comunidad Valenciana para la
+ * Investigación, Promoción y Estudios Comerciales de Valenciaport
+ * Copyright 2016-2018 Rinicom Ltd
+ * Copyright 2016-2018 Association pour le développement de la formation
+ * professionnelle dans le transport
+ * Copyright 2016-2018 Noatum Ports Valenciana, S.A.U.
+ * Copyright 2016-2018 XLAB razvoj programske opreme in svetovanje d.o.o.
+ * Copyright 2016-2018 Systems Research Institute Polish Academy of Sciences
+ * Copyright 2016-2018 Azienda Sanitaria Locale TO5
+ * Copyright 2016-2018 Alessandro Bassi Consulting SARL
+ * Copyright 2016-2018 Neways Technologies B.V.
+ *
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.interiot.intermw.services.registry;
+
+import eu.interiot.intermw.commons.exceptions.MiddlewareException;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.*;
+
+public class PagedIteratorTest {
+
+    @Test
+    public void testIteratesAllPages() {
+        List<Integer> source = IntStream.range(0, 25).boxed().collect(Collectors.toList());
+        List<Long> offsets = new ArrayList<>();
+        Iterator<Integer> iterator = new PagedIterator<>((offset, limit) -> {
+            offsets.add(offset);
+            return source.subList((int) Math.min(offset, source.size()), (int) Math.min(offset + limit, source.size()));
+        }, 10);
+
+        List<Integer> result = new ArrayList<>();
+        iterator.forEachRemaining(result::add);
+
+        assertEquals(source, result);
+        assertEquals(3, offsets.size());
+        assertEquals(Long.valueOf(20), offsets.get(2));
+    }
+
+    @Test
+    public void testStopsAfterFullLastPage() {
+        List<Long> offsets = new ArrayList<>();
+        Iterator<Integer> iterator = new PagedIterator<>((offset, limit) -> {
+            offsets.add(offset);
+            return offset == 0 ? IntStream.range(0, limit).boxed().collect(Collectors.toList()) : new ArrayList<>();
+        }, 5);
+
+        int count = 0;
+        while (iterator.hasNext()) {
+            iterator.next();
+            count++;
+        }
+        assertEquals(5, count);
+        assertEquals(2, offsets.size());
+        try {
+            iterator.next();
+            fail("NoSuchElementException expected.");
+        } catch (NoSuchElementException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testLoaderFailure() {
+        MiddlewareException failure = new MiddlewareException("Registry unavailable.");
+        Iterator<String> iterator = new PagedIterator<>((offset, limit) -> {
+            throw failure;
+        }, 10);
+
+        try {
+            iterator.hasNext();
+            fail("IllegalStateException expected.");
+        } catch (IllegalStateException e) {
+            assertSame(failure, e.getCause());
+        }
+    }
+}
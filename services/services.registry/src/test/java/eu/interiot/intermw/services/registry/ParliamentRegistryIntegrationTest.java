@@ -101,6 +101,11 @@ public class ParliamentRegistryIntegrationTest {
                 conn.update(updateRequest);
             }
         }
+        DeviceCache.getInstance(conf).invalidateAll();
+        SpatialIndex.getInstance(conf).invalidateAll();
+        PlatformStatisticsTracker.getInstance(conf).invalidateAll();
+        QueryResultCache.getInstance(conf).invalidateAll();
+        SubscriptionIndex.getInstance(conf).invalidateAll();
 //        registry = new ParliamentRegistry(conf);
         registry = new ParliamentRegistry(conf);
     }
@@ -552,7 +557,9 @@ public class ParliamentRegistryIntegrationTest {
                 LOCATION1_ID,
                 DEVICE_NAME_PREFIX,
                 EnumSet.of(IoTDeviceType.DEVICE));
-        registry.registerDevices(devices1);
+        DeviceWriteResult result1 = registry.registerDevices(devices1);
+        assertFalse(result1.hasFailures());
+        assertEquals(devices1.size(), result1.getSucceededDeviceIds().size());
 
         // register devices on platform 2
         List<IoTDevice> devices2 = generateIoTDevices(
@@ -563,7 +570,9 @@ public class ParliamentRegistryIntegrationTest {
                 LOCATION1_ID,
                 DEVICE_NAME_PREFIX,
                 EnumSet.of(IoTDeviceType.DEVICE));
-        registry.registerDevices(devices2);
+        DeviceWriteResult result2 = registry.registerDevices(devices2);
+        assertFalse(result2.hasFailures());
+        assertEquals(devices2.size(), result2.getSucceededDeviceIds().size());
 
         // get all devices
         List<String> deviceIdsAllPlatforms = registry.getDeviceIds(PLATFORM1_ID);
@@ -613,7 +622,8 @@ public class ParliamentRegistryIntegrationTest {
                 LOCATION2_ID,
                 DEVICE_NAME_PREFIX,
                 EnumSet.of(IoTDeviceType.DEVICE));
-        registry.updateDevices(devicesNew);
+        DeviceWriteResult result = registry.updateDevices(devicesNew);
+        assertFalse(result.hasFailures());
 
         List<String> deviceIds = new ArrayList<>();
         deviceIds.add(DEVICE_ID_PREFIX + 1);
@@ -693,7 +703,8 @@ public class ParliamentRegistryIntegrationTest {
         List<String> deviceIds = new ArrayList<>();
         deviceIds.add(DEVICE_ID_PREFIX + "1");
         deviceIds.add(DEVICE_ID_PREFIX + "29");
-        registry.removeDevices(deviceIds);
+        DeviceWriteResult result = registry.removeDevices(deviceIds);
+        assertFalse(result.hasFailures());
 
         List<String> deletedDeviceIds = new ArrayList<>();
         deletedDeviceIds.add(DEVICE_ID_PREFIX + 1);
@@ -0,0 +1,179 @@
+/*
+ * Copyright 2016-2018 Universitat Politècnica de València
+ * Copyright 2016-2018 Università della Calabria
+ * Copyright 2016-2018 Prodevelop, SL
+ * Copyright 2016-2018 Technische Universiteit Eindhoven
+ * Copyright 2016-2018 Fundación de la Comunidad Valenciana para la
+ * Investigación, Promoción y Estudios Comerciales de Valenciaport
+ * Copyright 2016-2018 Rinicom Ltd
+ * Copyright 2016-2018 Association pour le développement de la formation
+ * professionnelle dans le transport
+ * Copyright 2016-2018 Noatum Ports Valenciana, S.A.U.
+ * Copyright 2016-2018 XLAB razvoj programske opreme in svetovanje d.o.o.
+ * Copyright 2016-2018 Systems Research Institute Polish Academy of Sciences
+ * Copyright 2016-2018 Azienda Sanitaria Locale TO5
+ * Copyright 2016-2018 Alessandro Bassi Consulting SARL
+ * Copyright 2016-2018 Neways Technologies B.V.
+ *
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.interiot.intermw.services.registry;
+
+import eu.interiot.intermw.commons.DefaultConfiguration;
+import eu.interiot.intermw.commons.exceptions.MiddlewareException;
+import eu.interiot.intermw.commons.model.IoTDevice;
+import eu.interiot.intermw.commons.model.IoTDeviceFilter;
+import eu.interiot.intermw.commons.model.Platform;
+import eu.interiot.intermw.commons.model.enums.IoTDeviceType;
+import org.apache.jena.query.DatasetFactory;
+import org.apache.jena.rdfconnection.RDFConnection;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the registry running on the in-memory backend.
+ */
+public class ParliamentRegistryTest {
+    private static final String PLATFORM_ID = "http://test.inter-iot.eu/platforms/platform1";
+    private static final String DEVICE_PREFIX = "http://test.inter-iot.eu/devices/device";
+
+    private DefaultConfiguration conf;
+
+    @Before
+    public void setUp() throws MiddlewareException {
+        conf = new DefaultConfiguration("intermw-embedded-test.properties");
+    }
+
+    @Test
+    public void testCachedReadsIgnoreLaggingReplica() throws Exception {
+        ParliamentRegistry registry = new ParliamentRegistry(conf, new LaggingReplicaBackend());
+        registry.registerPlatform(createPlatform());
+        List<String> deviceIds = registerDevices(registry, 3);
+
+        // the replica hasn't received any of the writes, cached reads must not come from it
+        assertEquals(3, registry.getDevices(deviceIds).size());
+        IoTDeviceFilter filter = new IoTDeviceFilter();
+        filter.setHostedBy(PLATFORM_ID);
+        assertEquals(3, registry.deviceDiscoveryQuery(filter).size());
+
+        // reads which aren't cached may still be served by the replica
+        assertTrue(registry.listPlatforms().isEmpty());
+    }
+
+    @Test
+    public void testDeviceReadsUseReplicaWithoutCache() throws MiddlewareException {
+        conf.getProperties().setProperty("registry.deviceCache.maxSize", "0");
+        ParliamentRegistry registry = new ParliamentRegistry(conf, new LaggingReplicaBackend());
+        List<String> deviceIds = registerDevices(registry, 2);
+
+        assertTrue(registry.getDevices(deviceIds).isEmpty());
+    }
+
+    @Test
+    public void testReadsDontWaitForWriteTransaction() throws Exception {
+        EmbeddedRegistryBackend backend = new EmbeddedRegistryBackend("read-transaction-test",
+                DatasetFactory.createTxnMem());
+        ParliamentRegistry registry = new ParliamentRegistry(conf, backend);
+        registry.registerPlatform(createPlatform());
+        List<String> deviceIds = registerDevices(registry, 2);
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try (RDFConnection writer = backend.connect()) {
+            // another registry write is still in progress
+            writer.update("INSERT DATA { GRAPH <http://test.inter-iot.eu/g> { "
+                    + "<http://test.inter-iot.eu/s> <http://test.inter-iot.eu/p> \"o\" } }");
+
+            assertEquals(1, (int) executor.submit(() -> registry.listPlatforms().size()).get(5, TimeUnit.SECONDS));
+            IoTDeviceFilter filter = new IoTDeviceFilter();
+            filter.setHostedBy(PLATFORM_ID);
+            assertEquals(2, (int) executor.submit(() -> registry.deviceDiscoveryQuery(filter).size())
+                    .get(5, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+
+        registry.removePlatform(PLATFORM_ID);
+        assertTrue(registry.listPlatforms().isEmpty());
+        assertEquals(2, registry.getDevices(deviceIds).size());
+    }
+
+    private static List<String> registerDevices(ParliamentRegistry registry, int count) throws MiddlewareException {
+        List<IoTDevice> devices = new ArrayList<>();
+        List<String> deviceIds = new ArrayList<>();
+        for (int i = 1; i <= count; i++) {
+            IoTDevice device = new IoTDevice(DEVICE_PREFIX + i);
+            device.setName("Device " + i);
+            device.setHostedBy(PLATFORM_ID);
+            device.setDeviceTypes(EnumSet.of(IoTDeviceType.DEVICE));
+            devices.add(device);
+            deviceIds.add(device.getDeviceId());
+        }
+        assertFalse(registry.registerDevices(devices).hasFailures());
+        return deviceIds;
+    }
+
+    private static Platform createPlatform() throws MalformedURLException {
+        Platform platform = new Platform();
+        platform.setPlatformId(PLATFORM_ID);
+        platform.setName("Platform 1");
+        platform.setType("ExamplePlatform");
+        platform.setBaseEndpoint(new URL("http://localhost:4568"));
+        platform.setClientId("client1");
+        platform.setDownstreamInputAlignmentName("");
+        platform.setDownstreamInputAlignmentVersion("");
+        platform.setDownstreamOutputAlignmentName("");
+        platform.setDownstreamOutputAlignmentVersion("");
+        platform.setUpstreamInputAlignmentName("");
+        platform.setUpstreamInputAlignmentVersion("");
+        platform.setUpstreamOutputAlignmentName("");
+        platform.setUpstreamOutputAlignmentVersion("");
+        return platform;
+    }
+
+    /**
+     * In-memory primary with a replica which never receives any writes
+     */
+    private static class LaggingReplicaBackend implements RegistryBackend {
+        private final EmbeddedRegistryBackend primary = new EmbeddedRegistryBackend("lagging-replica-test",
+                DatasetFactory.createTxnMem());
+        private final EmbeddedRegistryBackend replica = new EmbeddedRegistryBackend("lagging-replica-test-replica",
+                DatasetFactory.createTxnMem());
+
+        @Override
+        public RDFConnection connect() {
+            return primary.connect();
+        }
+
+        @Override
+        public RDFConnection connectForRead() {
+            return replica.connect();
+        }
+
+        @Override
+        public String getId() {
+            return primary.getId();
+        }
+    }
+}
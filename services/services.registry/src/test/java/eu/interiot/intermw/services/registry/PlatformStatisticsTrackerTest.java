@@ -0,0 +1,156 @@
+/*
+ * Copyright 2016-2018 Universitat Politècnica de València
+ * Copyright 2016-2018 Università della Calabria
+ * Copyright 2016-2018 Prodevelop, SL
+ * Copyright 2016-2018 Technische Universiteit Eindhoven
+ * Copyright 2016-2018 Fundación de la Comunidad Valenciana para la
+ * Investigación, Promoción y Estudios Comerciales de Valenciaport
+ * Copyright 2016-2018 Rinicom Ltd
+ * Copyright 2016-2018 Association pour le développement de la formation
+ * professionnelle dans le transport
+ * Copyright 2016-2018 Noatum Ports Valenciana, S.A.U.
+ * Copyright 2016-2018 XLAB razvoj programske opreme in svetovanje d.o.o.
+ * Copyright 2016-2018 Systems Research Institute Polish Academy of Sciences
+ * Copyright 2016-2018 Azienda Sanitaria Locale TO5
+ * Copyright 2016-2018 Alessandro Bassi Consulting SARL
+ * Copyright 2016-2018 Neways Technologies B.V.
+ *
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.interiot.intermw.services.registry;
+
+import eu.interiot.intermw.commons.exceptions.MiddlewareException;
+import eu.interiot.intermw.commons.model.PlatformStatistics;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+public class PlatformStatisticsTrackerTest {
+    private static final String PLATFORM1_ID = "http://inter-iot.eu/example-platform1";
+    private static final String PLATFORM2_ID = "http://inter-iot.eu/example-platform2";
+    private static final String DEVICE1_ID = "http://inter-iot.eu/device1";
+    private static final String DEVICE2_ID = "http://inter-iot.eu/device2";
+    private static final String DEVICE3_ID = "http://inter-iot.eu/device3";
+
+    private PlatformStatisticsTracker tracker;
+
+    @Before
+    public void setUp() throws MiddlewareException {
+        tracker = new PlatformStatisticsTracker(true);
+        tracker.loadIfNeeded(loader -> {
+            loader.loadDevice(DEVICE1_ID, PLATFORM1_ID);
+            loader.loadDevice(DEVICE2_ID, PLATFORM1_ID);
+            loader.loadDevice(DEVICE3_ID, PLATFORM2_ID);
+            loader.loadSubscription("conv1", Arrays.asList(DEVICE1_ID, DEVICE3_ID));
+        });
+    }
+
+    @Test
+    public void testLoadedStatistics() {
+        assertStatistics(PLATFORM1_ID, 2, 1, 1);
+        assertStatistics(PLATFORM2_ID, 1, 1, 1);
+        assertStatistics("http://inter-iot.eu/unknown", 0, 0, 0);
+    }
+
+    @Test
+    public void testSubscriptions() {
+        tracker.addSubscription("conv2", Arrays.asList(DEVICE1_ID, DEVICE2_ID));
+        assertStatistics(PLATFORM1_ID, 2, 2, 2);
+
+        // repeated updates are not counted twice
+        tracker.addSubscription("conv2", Collections.singletonList(DEVICE1_ID));
+        assertStatistics(PLATFORM1_ID, 2, 2, 2);
+
+        tracker.removeSubscription("conv1");
+        assertStatistics(PLATFORM1_ID, 2, 2, 1);
+        assertStatistics(PLATFORM2_ID, 1, 0, 0);
+
+        tracker.removeSubscription("conv2");
+        tracker.removeSubscription("conv2");
+        assertStatistics(PLATFORM1_ID, 2, 0, 0);
+    }
+
+    @Test
+    public void testDeviceChanges() {
+        tracker.setDevicePlatform(DEVICE1_ID, PLATFORM2_ID);
+        assertStatistics(PLATFORM1_ID, 1, 0, 0);
+        assertStatistics(PLATFORM2_ID, 2, 2, 1);
+
+        tracker.setDevicePlatform(DEVICE3_ID, null);
+        assertStatistics(PLATFORM2_ID, 1, 1, 1);
+
+        // a subscribed device registered later counts towards its platform
+        tracker.setDevicePlatform(DEVICE3_ID, PLATFORM1_ID);
+        assertStatistics(PLATFORM1_ID, 2, 1, 1);
+    }
+
+    @Test
+    public void testUpdatesIgnoredUntilLoaded() throws MiddlewareException {
+        tracker.invalidateAll();
+        tracker.setDevicePlatform(DEVICE1_ID, PLATFORM1_ID);
+        assertStatistics(PLATFORM1_ID, 0, 0, 0);
+
+        tracker.loadIfNeeded(loader -> loader.loadDevice(DEVICE2_ID, PLATFORM1_ID));
+        assertStatistics(PLATFORM1_ID, 1, 0, 0);
+    }
+
+    @Test
+    public void testUpdatesMadeWhileLoadingAreApplied() throws Exception {
+        tracker.invalidateAll();
+        tracker.loadIfNeeded(loader -> {
+            loader.loadDevice(DEVICE1_ID, PLATFORM1_ID);
+            loader.loadSubscription("conv1", Collections.singletonList(DEVICE1_ID));
+            // a device update writing the store during the load must not wait for it
+            Thread writer = new Thread(() -> {
+                tracker.setDevicePlatform(DEVICE1_ID, PLATFORM2_ID);
+                tracker.setDevicePlatform(DEVICE2_ID, PLATFORM1_ID);
+            });
+            writer.start();
+            try {
+                writer.join(5000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            assertFalse(writer.isAlive());
+        });
+        assertStatistics(PLATFORM1_ID, 1, 0, 0);
+        assertStatistics(PLATFORM2_ID, 1, 1, 1);
+    }
+
+    @Test
+    public void testLoadDiscardedIfInvalidatedMeanwhile() throws MiddlewareException {
+        tracker.invalidateAll();
+        tracker.loadIfNeeded(loader -> {
+            loader.loadDevice(DEVICE1_ID, PLATFORM1_ID);
+            tracker.invalidateAll();
+        });
+        assertStatistics(PLATFORM1_ID, 0, 0, 0);
+
+        tracker.loadIfNeeded(loader -> loader.loadDevice(DEVICE2_ID, PLATFORM1_ID));
+        assertStatistics(PLATFORM1_ID, 1, 0, 0);
+    }
+
+    private void assertStatistics(String platformId, int devices, int subscribedDevices, int subscriptions) {
+        PlatformStatistics statistics = tracker.getStatistics(platformId);
+        assertEquals(devices, statistics.getDeviceCount());
+        assertEquals(subscribedDevices, statistics.getSubscribedDeviceCount());
+        assertEquals(subscriptions, statistics.getSubscriptionCount());
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright 2016-2018 Universitat Politècnica de València
+ * Copyright 2016-2018 Università della Calabria
+ * Copyright 2016-2018 Prodevelop, SL
+ * Copyright 2016-2018 Technische Universiteit Eindhoven
+ * Copyright 2016-2018 Fundación de la Comunidad Valenciana para la
+ * Investigación, Promoción y Estudios Comerciales de Valenciaport
+ * Copyright 2016-2018 Rinicom Ltd
+ * Copyright 2016-2018 Association pour le développement de la formation
+ * professionnelle dans le transport
+ * Copyright 2016-2018 Noatum Ports Valenciana, S.A.U.
+ * Copyright 2016-2018 XLAB razvoj programske opreme in svetovanje d.o.o.
+ * Copyright 2016-2018 Systems Research Institute Polish Academy of Sciences
+ * Copyright 2016-2018 Azienda Sanitaria Locale TO5
+ * Copyright 2016-2018 Alessandro Bassi Consulting SARL
+ * Copyright 2016-2018 Neways Technologies B.V.
+ *
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.interiot.intermw.services.registry;
+
+import eu.interiot.intermw.commons.DefaultConfiguration;
+import eu.interiot.intermw.commons.model.QueryReturn;
+import eu.interiot.intermw.commons.model.enums.QueryType;
+import org.apache.jena.query.Query;
+import org.apache.jena.query.QueryFactory;
+import org.apache.jena.query.ResultSet;
+import org.apache.jena.query.ResultSetFactory;
+import org.apache.jena.query.ResultSetFormatter;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.RDFDataMgr;
+import org.apache.jena.sparql.resultset.JSONInput;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import static org.junit.Assert.*;
+
+public class QueryGuardTest {
+    private static final String SELECT_QUERY = "SELECT ?x WHERE { VALUES ?x { 1 2 3 } }";
+    private static final String CONSTRUCT_QUERY =
+            "CONSTRUCT { ?x <http://test.inter-iot.eu/value> ?x } WHERE { VALUES ?x { <http://test.inter-iot.eu/1> " +
+                    "<http://test.inter-iot.eu/2> <http://test.inter-iot.eu/3> } }";
+
+    private DefaultConfiguration conf;
+
+    @Before
+    public void setUp() throws Exception {
+        conf = new DefaultConfiguration("intermw-embedded-test.properties");
+        conf.getProperties().setProperty("registry.rawQuery.maxResults", "3");
+    }
+
+    @Test
+    public void testSelectLimit() {
+        QueryGuard guard = new QueryGuard(0, 10);
+        Query query = QueryFactory.create(SELECT_QUERY);
+        guard.limit(query);
+        assertEquals(11, query.getLimit());
+
+        query = QueryFactory.create(SELECT_QUERY + " LIMIT 5");
+        guard.limit(query);
+        assertEquals(5, query.getLimit());
+
+        query = QueryFactory.create(CONSTRUCT_QUERY);
+        guard.limit(query);
+        assertFalse(query.hasLimit());
+    }
+
+    @Test(expected = QueryLimitExceededException.class)
+    public void testTimeout() throws InterruptedException {
+        QueryGuard guard = new QueryGuard(1, 0);
+        Thread.sleep(10);
+        guard.next();
+    }
+
+    @Test
+    public void testExecuteWithinLimits() {
+        ParliamentRegistry registry = new ParliamentRegistry(conf);
+        QueryReturn queryReturn = registry.executeQuery(SELECT_QUERY, QueryType.SELECT);
+        assertEquals(3, ResultSetFormatter.consume(queryReturn.getSelectResult()));
+
+        queryReturn = registry.executeQuery(CONSTRUCT_QUERY, QueryType.CONSTRUCT);
+        assertEquals(3, queryReturn.getConstructResult().size());
+    }
+
+    @Test
+    public void testExecuteExceedingMaxResults() {
+        conf.getProperties().setProperty("registry.rawQuery.maxResults", "2");
+        ParliamentRegistry registry = new ParliamentRegistry(conf);
+        try {
+            registry.executeQuery(SELECT_QUERY, QueryType.SELECT);
+            fail("QueryLimitExceededException expected.");
+        } catch (QueryLimitExceededException e) {
+            // expected
+        }
+        try {
+            registry.executeQuery(CONSTRUCT_QUERY, QueryType.CONSTRUCT);
+            fail("QueryLimitExceededException expected.");
+        } catch (QueryLimitExceededException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testStreamQuery() {
+        ParliamentRegistry registry = new ParliamentRegistry(conf);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        registry.streamQuery(SELECT_QUERY, QueryType.SELECT, out);
+        ResultSet resultSet = ResultSetFactory.fromJSON(new ByteArrayInputStream(out.toByteArray()));
+        assertEquals(3, ResultSetFormatter.consume(resultSet));
+
+        out = new ByteArrayOutputStream();
+        registry.streamQuery(CONSTRUCT_QUERY, QueryType.CONSTRUCT, out);
+        Model model = ModelFactory.createDefaultModel();
+        RDFDataMgr.read(model, new ByteArrayInputStream(out.toByteArray()), Lang.NTRIPLES);
+        assertEquals(3, model.size());
+
+        out = new ByteArrayOutputStream();
+        registry.streamQuery("ASK { VALUES ?x { 1 } }", QueryType.ASK, out);
+        assertTrue(JSONInput.make(new ByteArrayInputStream(out.toByteArray())).getBooleanResult());
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void testStreamQueryToDisconnectedClient() {
+        ParliamentRegistry registry = new ParliamentRegistry(conf);
+        OutputStream out = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                throw new IOException("Broken pipe");
+            }
+        };
+        registry.streamQuery(SELECT_QUERY, QueryType.SELECT, out);
+    }
+}
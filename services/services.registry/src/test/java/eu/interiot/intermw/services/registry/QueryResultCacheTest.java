@@ -0,0 +1,209 @@
+/*
+ * Copyright 2016-2018 Universitat Politècnica de València
+ * Copyright 2016-2018 Università della Calabria
+ * Copyright 2016-2018 Prodevelop, SL
+ * Copyright 2016-2018 Technische Universiteit Eindhoven
+ * Copyright 2016-2018 Fundación de la Comunidad Valenciana para la
+ * Investigación, Promoción y Estudios Comerciales de Valenciaport
+ * Copyright 2016-2018 Rinicom Ltd
+ * Copyright 2016-2018 Association pour le développement de la formation
+ * professionnelle dans le transport
+ * Copyright 2016-2018 Noatum Ports Valenciana, S.A.U.
+ * Copyright 2016-2018 XLAB razvoj programske opreme in svetovanje d.o.o.
+ * Copyright 2016-2018 Systems Research Institute Polish Academy of Sciences
+ * Copyright 2016-2018 Azienda Sanitaria Locale TO5
+ * Copyright 2016-2018 Alessandro Bassi Consulting SARL
+ * Copyright 2016-2018 Neways Technologies B.V.
+ *
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.interiot.intermw.services.registry;
+
+import eu.interiot.intermw.commons.model.IoTDevice;
+import eu.interiot.intermw.commons.model.IoTDeviceFilter;
+import eu.interiot.intermw.commons.model.QueryReturn;
+import eu.interiot.intermw.commons.model.enums.IoTDeviceType;
+import org.apache.jena.query.DatasetFactory;
+import org.apache.jena.query.QueryExecution;
+import org.apache.jena.query.QueryExecutionFactory;
+import org.apache.jena.query.ResultSet;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.vocabulary.RDFS;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class QueryResultCacheTest {
+    private static final String PLATFORM1_ID = "http://test.inter-iot.eu/platform1";
+    private static final String PLATFORM2_ID = "http://test.inter-iot.eu/platform2";
+    private static final String DEVICE1_ID = "http://test.inter-iot.eu/device1";
+    private static final String DEVICE2_ID = "http://test.inter-iot.eu/device2";
+
+    @Test
+    public void testNormalizedFilterKey() {
+        IoTDeviceFilter filter1 = new IoTDeviceFilter();
+        filter1.addDeviceType(IoTDeviceType.SENSOR);
+        filter1.addDeviceType(IoTDeviceType.DEVICE);
+        filter1.setHostedBy(PLATFORM1_ID);
+        filter1.setName("");
+
+        IoTDeviceFilter filter2 = new IoTDeviceFilter();
+        filter2.addDeviceType(IoTDeviceType.DEVICE);
+        filter2.addDeviceType(IoTDeviceType.SENSOR);
+        filter2.setHostedBy(" " + PLATFORM1_ID);
+
+        assertEquals(QueryResultCache.getKey(filter1), QueryResultCache.getKey(filter2));
+        assertNotEquals(QueryResultCache.getKey(filter1), QueryResultCache.getKey(createFilter(PLATFORM1_ID)));
+    }
+
+    @Test
+    public void testHitsAndMisses() {
+        QueryResultCache cache = new QueryResultCache(100, 60000);
+        IoTDeviceFilter filter = createFilter(PLATFORM1_ID);
+        assertNull(cache.getDiscoveryResult(filter));
+
+        cache.putDiscoveryResult(filter, Collections.singletonList(createDevice(DEVICE1_ID, PLATFORM1_ID)),
+                cache.startDiscoveryRead());
+        List<IoTDevice> devices = cache.getDiscoveryResult(createFilter(PLATFORM1_ID));
+        assertNotNull(devices);
+        assertEquals(DEVICE1_ID, devices.get(0).getDeviceId());
+
+        CacheStatistics statistics = cache.getDiscoveryStatistics();
+        assertEquals(1, statistics.getHitCount());
+        assertEquals(1, statistics.getMissCount());
+        assertEquals(0.5, statistics.getHitRate(), 0.001);
+    }
+
+    @Test
+    public void testDeviceWriteInvalidation() {
+        QueryResultCache cache = new QueryResultCache(100, 60000);
+        IoTDeviceFilter platform1Filter = createFilter(PLATFORM1_ID);
+        IoTDeviceFilter platform2Filter = createFilter(PLATFORM2_ID);
+        IoTDeviceFilter anyPlatformFilter = createFilter(null);
+        putAll(cache, platform1Filter, platform2Filter, anyPlatformFilter);
+
+        // a new device of platform 1 can match platform 1 and unrestricted filters only
+        cache.invalidateDeviceWrites(Collections.singleton(DEVICE2_ID), Collections.singleton(PLATFORM1_ID));
+        assertNull(cache.getDiscoveryResult(platform1Filter));
+        assertNotNull(cache.getDiscoveryResult(platform2Filter));
+        assertNull(cache.getDiscoveryResult(anyPlatformFilter));
+
+        // device 1 (platform 1) moved to platform 2
+        putAll(cache, platform1Filter, anyPlatformFilter);
+        cache.invalidateDeviceWrites(Collections.singleton(DEVICE1_ID), Collections.singleton(PLATFORM2_ID));
+        assertNull(cache.getDiscoveryResult(platform1Filter));
+        assertNull(cache.getDiscoveryResult(platform2Filter));
+    }
+
+    @Test
+    public void testDeviceRemovalInvalidation() {
+        QueryResultCache cache = new QueryResultCache(100, 60000);
+        IoTDeviceFilter platform1Filter = createFilter(PLATFORM1_ID);
+        IoTDeviceFilter platform2Filter = createFilter(PLATFORM2_ID);
+        putAll(cache, platform1Filter, platform2Filter);
+
+        cache.invalidateDeviceRemovals(Collections.singleton(DEVICE1_ID));
+        assertNull(cache.getDiscoveryResult(platform1Filter));
+        assertNotNull(cache.getDiscoveryResult(platform2Filter));
+    }
+
+    @Test
+    public void testStaleReadIsNotCached() {
+        QueryResultCache cache = new QueryResultCache(100, 60000);
+        IoTDeviceFilter filter = createFilter(PLATFORM1_ID);
+        long readStamp = cache.startDiscoveryRead();
+        cache.invalidateDeviceRemovals(Collections.singleton(DEVICE2_ID));
+        cache.putDiscoveryResult(filter, Collections.singletonList(createDevice(DEVICE1_ID, PLATFORM1_ID)), readStamp);
+
+        assertNull(cache.getDiscoveryResult(filter));
+    }
+
+    @Test
+    public void testExpiration() throws Exception {
+        QueryResultCache cache = new QueryResultCache(100, 50);
+        IoTDeviceFilter filter = createFilter(PLATFORM1_ID);
+        putAll(cache, filter);
+        assertNotNull(cache.getDiscoveryResult(filter));
+
+        Thread.sleep(100);
+        assertNull(cache.getDiscoveryResult(filter));
+    }
+
+    @Test
+    public void testSparqlSelectResultCanBeReadRepeatedly() {
+        QueryResultCache cache = new QueryResultCache(100, 60000);
+        Model model = ModelFactory.createDefaultModel();
+        model.createResource(DEVICE1_ID).addProperty(RDFS.label, "Device 1");
+        model.createResource(DEVICE2_ID).addProperty(RDFS.label, "Device 2");
+        String query = "SELECT ?s WHERE { ?s ?p ?o }";
+
+        try (QueryExecution queryExecution = QueryExecutionFactory.create(query, DatasetFactory.create(model))) {
+            QueryReturn queryReturn = new QueryReturn();
+            queryReturn.setSelectResult(queryExecution.execSelect());
+            assertEquals(2, count(cache.putSparqlResult(query, queryReturn, cache.startSparqlRead()).getSelectResult()));
+        }
+
+        assertEquals(2, count(cache.getSparqlResult(query).getSelectResult()));
+        assertEquals(2, count(cache.getSparqlResult(query).getSelectResult()));
+
+        cache.invalidateSparqlResults();
+        assertNull(cache.getSparqlResult(query));
+    }
+
+    @Test
+    public void testDisabled() {
+        QueryResultCache cache = new QueryResultCache(0, 60000);
+        IoTDeviceFilter filter = createFilter(PLATFORM1_ID);
+        putAll(cache, filter);
+        assertFalse(cache.isEnabled());
+        assertNull(cache.getDiscoveryResult(filter));
+    }
+
+    private static void putAll(QueryResultCache cache, IoTDeviceFilter... filters) {
+        for (IoTDeviceFilter filter : filters) {
+            String platformId = filter.getHostedBy() != null ? filter.getHostedBy() : PLATFORM1_ID;
+            String deviceId = PLATFORM2_ID.equals(platformId) ? DEVICE2_ID + "-platform2" : DEVICE1_ID;
+            cache.putDiscoveryResult(filter, Collections.singletonList(createDevice(deviceId, platformId)),
+                    cache.startDiscoveryRead());
+        }
+    }
+
+    private static int count(ResultSet resultSet) {
+        int count = 0;
+        while (resultSet.hasNext()) {
+            resultSet.next();
+            count++;
+        }
+        return count;
+    }
+
+    private static IoTDeviceFilter createFilter(String platformId) {
+        IoTDeviceFilter filter = new IoTDeviceFilter();
+        filter.setDeviceTypes(Arrays.asList(IoTDeviceType.SENSOR));
+        filter.setHostedBy(platformId);
+        return filter;
+    }
+
+    private static IoTDevice createDevice(String deviceId, String platformId) {
+        return new IoTDevice(deviceId, "Device", platformId, null, EnumSet.of(IoTDeviceType.SENSOR));
+    }
+}
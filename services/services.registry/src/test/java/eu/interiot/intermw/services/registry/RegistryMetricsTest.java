@@ -0,0 +1,185 @@
+/*
+ * Copyright 2016-2018 Universitat Politècnica de València
+ * Copyright 2016-2018 Università della Calabria
+ * Copyright 2016-2018 Prodevelop, SL
+ * Copyright 2016-2018 Technische Universiteit Eindhoven
+ * Copyright 2016-2018 Fundación de la Comunidad Valenciana para la
+ * Investigación, Promoción y Estudios Comerciales de Valenciaport
+ * Copyright 2016-2018 Rinicom Ltd
+ * Copyright 2016-2018 Association pour le développement de la formation
+ * professionnelle dans le transport
+ * Copyright 2016-2018 Noatum Ports Valenciana, S.A.U.
+ * Copyright 2016-2018 XLAB razvoj programske opreme in svetovanje d.o.o.
+ * Copyright 2016-2018 Systems Research Institute Polish Academy of Sciences
+ * Copyright 2016-2018 Azienda Sanitaria Locale TO5
+ * Copyright 2016-2018 Alessandro Bassi Consulting SARL
+ * Copyright 2016-2018 Neways Technologies B.V.
+ *
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.interiot.intermw.services.registry;
+
+import org.apache.jena.query.Dataset;
+import org.apache.jena.query.DatasetFactory;
+import org.apache.jena.query.QueryExecution;
+import org.apache.jena.query.QueryParseException;
+import org.apache.jena.query.ResultSet;
+import org.apache.jena.rdfconnection.RDFConnection;
+import org.apache.jena.rdfconnection.RDFConnectionFactory;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class RegistryMetricsTest {
+    private static final String INSERT = "INSERT DATA { GRAPH <http://test.inter-iot.eu/graph> { " +
+            "<http://test.inter-iot.eu/s1> <http://test.inter-iot.eu/p> 1 . " +
+            "<http://test.inter-iot.eu/s2> <http://test.inter-iot.eu/p> 2 . " +
+            "<http://test.inter-iot.eu/s3> <http://test.inter-iot.eu/p> 3 } }";
+    private static final String SELECT = "SELECT ?s WHERE { GRAPH ?g { ?s ?p ?o } }";
+    private static final String CONSTRUCT = "CONSTRUCT { ?s ?p ?o } WHERE { GRAPH ?g { ?s ?p ?o } }";
+
+    private Dataset dataset;
+
+    @Before
+    public void setUp() {
+        dataset = DatasetFactory.create();
+        try (RDFConnection connection = connect()) {
+            connection.update(INSERT);
+        }
+    }
+
+    @Test
+    public void testResultSizes() {
+        RegistryMetrics metrics = new RegistryMetrics(true, 10000);
+        try (RDFConnection conn = metrics.instrument("select", connect())) {
+            conn.querySelect(SELECT, querySolution -> {
+            });
+        }
+        try (RDFConnection conn = metrics.instrument("construct", connect())) {
+            conn.queryConstruct(CONSTRUCT);
+        }
+        try (RDFConnection conn = metrics.instrument("query", connect());
+             QueryExecution queryExecution = conn.query(SELECT)) {
+            ResultSet resultSet = queryExecution.execSelect();
+            while (resultSet.hasNext()) {
+                resultSet.next();
+            }
+        }
+
+        assertEquals(3, getStatistics(metrics, "select").getLastResultSize());
+        assertEquals(3, getStatistics(metrics, "construct").getLastResultSize());
+        assertEquals(3, getStatistics(metrics, "query").getLastResultSize());
+        assertEquals(0, metrics.getInFlight());
+    }
+
+    @Test
+    public void testCountsAndErrors() {
+        RegistryMetrics metrics = new RegistryMetrics(true, 10000);
+        for (int i = 0; i < 3; i++) {
+            try (RDFConnection conn = metrics.instrument("construct", connect())) {
+                conn.queryConstruct(CONSTRUCT);
+            }
+        }
+        try (RDFConnection conn = metrics.instrument("construct", connect())) {
+            conn.queryConstruct("CONSTRUCT WHERE {");
+            fail("Malformed query should fail.");
+        } catch (Exception e) {
+            // expected
+        }
+
+        OperationStatistics statistics = getStatistics(metrics, "construct");
+        assertEquals(4, statistics.getCount());
+        assertEquals(1, statistics.getErrorCount());
+        assertEquals(0, statistics.getInFlight());
+        assertEquals(2.25, statistics.getMeanResultSize(), 0.001);
+        assertEquals(Long.valueOf(4), statistics.getLatencyBuckets().get("+Inf"));
+        assertEquals(RegistryMetrics.LATENCY_BUCKETS.length + 1, statistics.getLatencyBuckets().size());
+        assertTrue(statistics.getP99Millis() >= statistics.getP50Millis());
+
+        metrics.reset();
+        assertTrue(metrics.getStatistics().isEmpty());
+    }
+
+    @Test
+    public void testInFlight() {
+        RegistryMetrics metrics = new RegistryMetrics(true, 10000);
+        RDFConnection conn1 = metrics.instrument("select", connect());
+        RegistryMetrics.Sample sample = metrics.start("load");
+        assertEquals(2, metrics.getInFlight());
+        assertEquals(1, getStatistics(metrics, "select").getInFlight());
+
+        conn1.close();
+        sample.stop();
+        sample.stop();
+        assertEquals(0, metrics.getInFlight());
+        assertEquals(1, getStatistics(metrics, "load").getCount());
+    }
+
+    @Test
+    public void testDisabled() {
+        RegistryMetrics metrics = new RegistryMetrics(false, 10000);
+        RDFConnection connection = connect();
+        assertSame(connection, metrics.instrument("select", connection));
+        assertTrue(metrics.getStatistics().isEmpty());
+    }
+
+    @Test
+    public void testHandler() {
+        for (boolean enabled : new boolean[]{true, false}) {
+            RegistryMetrics metrics = new RegistryMetrics(enabled, 10000);
+            InvocationHandler handler = metrics.getHandler("construct", connect());
+            RDFConnection conn = (RDFConnection) Proxy.newProxyInstance(RDFConnection.class.getClassLoader(),
+                    new Class<?>[]{RDFConnection.class}, handler);
+            assertEquals(3, conn.queryConstruct(CONSTRUCT).size());
+            try {
+                conn.queryConstruct("CONSTRUCT WHERE {");
+                fail("Malformed query should fail.");
+            } catch (QueryParseException e) {
+                // expected, not wrapped in an InvocationTargetException
+            }
+            conn.close();
+
+            if (enabled) {
+                OperationStatistics statistics = getStatistics(metrics, "construct");
+                assertEquals(1, statistics.getCount());
+                assertEquals(1, statistics.getErrorCount());
+                assertEquals(3, statistics.getLastResultSize());
+            } else {
+                assertTrue(metrics.getStatistics().isEmpty());
+            }
+        }
+    }
+
+    // closing a connection closes the dataset connection too, every instrumented connection gets its own
+    private RDFConnection connect() {
+        return RDFConnectionFactory.connect(dataset);
+    }
+
+    private static OperationStatistics getStatistics(RegistryMetrics metrics, String operation) {
+        List<OperationStatistics> statistics = metrics.getStatistics();
+        for (OperationStatistics operationStatistics : statistics) {
+            if (operationStatistics.getOperation().equals(operation)) {
+                return operationStatistics;
+            }
+        }
+        throw new AssertionError("No statistics for " + operation);
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright 2016-2018 Universitat Politècnica de València
+ * Copyright 2016-2018 Università della Calabria
+ * Copyright 2016-2018 Prodevelop, SL
+ * Copyright 2016-2018 Technische Universiteit Eindhoven
+ * Copyright 2016-2018 Fundación de la Comunidad Valenciana para la
+ * Investigación, Promoción y Estudios Comerciales de Valenciaport
+ * Copyright 2016-2018 Rinicom Ltd
+ * Copyright 2016-2018 Association pour le développement de la formation
+ * professionnelle dans le transport
+ * Copyright 2016-2018 Noatum Ports Valenciana, S.A.U.
+ * Copyright 2016-2018 XLAB razvoj programske opreme in svetovanje d.o.o.
+ * Copyright 2016-2018 Systems Research Institute Polish Academy of Sciences
+ * Copyright 2016-2018 Azienda Sanitaria Locale TO5
+ * Copyright 2016-2018 Alessandro Bassi Consulting SARL
+ * Copyright 2016-2018 Neways Technologies B.V.
+ *
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.interiot.intermw.services.registry;
+
+import eu.interiot.intermw.commons.DefaultConfiguration;
+import eu.interiot.intermw.commons.exceptions.MiddlewareException;
+import eu.interiot.intermw.commons.model.Client;
+import eu.interiot.intermw.commons.model.IoTDevice;
+import eu.interiot.intermw.commons.model.enums.IoTDeviceType;
+import org.apache.jena.query.QueryExecution;
+import org.apache.jena.rdfconnection.RDFConnection;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+public class RegistrySnapshotTest {
+    private static final String CLIENT_ID1 = "snapshot-client1";
+    private static final String CLIENT_ID2 = "snapshot-client2";
+    private static final String CLIENT_ID3 = "snapshot-client3";
+    private static final String INSERT_READINGS = "INSERT DATA { GRAPH <%1$s> { <%1$s> <http://test.inter-iot.eu/reading>"
+            + " [ <http://test.inter-iot.eu/name> \"a\"; <http://test.inter-iot.eu/value> \"%2$s\" ],"
+            + " [ <http://test.inter-iot.eu/name> \"b\"; <http://test.inter-iot.eu/value> \"%3$s\" ] } }";
+    private static final String DELETE_READINGS = "DELETE WHERE { GRAPH <%1$s> { "
+            + "<%1$s> <http://test.inter-iot.eu/reading> ?reading . ?reading ?p ?o } }";
+    private static final String SELECT_READING = "SELECT ?value WHERE { GRAPH <%s> { "
+            + "?reading <http://test.inter-iot.eu/name> \"%s\"; <http://test.inter-iot.eu/value> ?value } }";
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private ParliamentRegistry registry;
+    private File snapshotFile;
+
+    @Before
+    public void setUp() throws Exception {
+        DefaultConfiguration conf = new DefaultConfiguration("intermw-embedded-test.properties");
+        snapshotFile = new File(temporaryFolder.getRoot(), "registry.rt.gz");
+        conf.getProperties().setProperty("registry.snapshot.location", snapshotFile.getPath());
+        registry = new ParliamentRegistry(conf);
+        for (String clientId : new String[]{CLIENT_ID1, CLIENT_ID2, CLIENT_ID3}) {
+            if (registry.isClientRegistered(clientId)) {
+                registry.removeClient(clientId);
+            }
+        }
+    }
+
+    @Test
+    public void testWriteAndRestore() throws MiddlewareException {
+        registry.registerClient(createClient(CLIENT_ID1));
+        registry.registerClient(createClient(CLIENT_ID2));
+
+        RegistrySnapshot registrySnapshot = new RegistrySnapshot(registry);
+        registrySnapshot.write();
+        assertTrue(snapshotFile.isFile());
+        assertFalse(new File(snapshotFile.getPath() + ".tmp").exists());
+
+        ParliamentRegistry restoreRegistry = registrySnapshot.restore();
+        assertNotSame(registry, restoreRegistry);
+        assertTrue(restoreRegistry.isClientRegistered(CLIENT_ID1));
+        assertTrue(restoreRegistry.isClientRegistered(CLIENT_ID2));
+        assertEquals(Client.ResponseDelivery.CLIENT_PULL, restoreRegistry.getClientById(CLIENT_ID1).getResponseDelivery());
+    }
+
+    @Test
+    public void testStaleSnapshotIsSynchronized() throws MiddlewareException {
+        registry.registerClient(createClient(CLIENT_ID1));
+        registry.registerClient(createClient(CLIENT_ID2));
+        new RegistrySnapshot(registry).write();
+
+        registry.removeClient(CLIENT_ID2);
+        registry.registerClient(createClient(CLIENT_ID3));
+
+        ParliamentRegistry restoreRegistry = new RegistrySnapshot(registry).restore();
+        assertNotSame(registry, restoreRegistry);
+        assertTrue(restoreRegistry.isClientRegistered(CLIENT_ID1));
+        assertFalse(restoreRegistry.isClientRegistered(CLIENT_ID2));
+        assertTrue(restoreRegistry.isClientRegistered(CLIENT_ID3));
+    }
+
+    @Test
+    public void testDeviceGraphWithBlankNodesIsFetchedAgain() throws MiddlewareException {
+        String deviceId = "http://test.inter-iot.eu/devices/snapshot-" + UUID.randomUUID();
+        IoTDevice device = new IoTDevice(deviceId);
+        device.setName("Snapshot device");
+        device.setHostedBy("http://test.inter-iot.eu/platforms/snapshot-platform");
+        device.setDeviceTypes(EnumSet.of(IoTDeviceType.DEVICE));
+        assertFalse(registry.registerDevices(Collections.singletonList(device)).hasFailures());
+        update(String.format(INSERT_READINGS, deviceId, "1", "2"));
+        new RegistrySnapshot(registry).write();
+
+        // only the blank nodes holding the values are swapped, the graph hash can't tell the difference
+        update(String.format(DELETE_READINGS, deviceId));
+        update(String.format(INSERT_READINGS, deviceId, "2", "1"));
+
+        ParliamentRegistry restoreRegistry = new RegistrySnapshot(registry).restore();
+        assertNotSame(registry, restoreRegistry);
+        assertEquals("2", getReadingValue(restoreRegistry, deviceId, "a"));
+        assertEquals("1", getReadingValue(restoreRegistry, deviceId, "b"));
+    }
+
+    @Test
+    public void testRestoreFallsBackToStore() throws Exception {
+        RegistrySnapshot registrySnapshot = new RegistrySnapshot(registry);
+        assertSame(registry, registrySnapshot.restore());
+
+        Files.write(snapshotFile.toPath(), new byte[]{1, 2, 3});
+        assertSame(registry, registrySnapshot.restore());
+    }
+
+    private void update(String update) {
+        try (RDFConnection conn = registry.connect("test-update")) {
+            conn.update(update);
+        }
+    }
+
+    private static String getReadingValue(ParliamentRegistry registry, String deviceId, String name) {
+        try (RDFConnection conn = registry.connect("test-query");
+             QueryExecution queryExecution = conn.query(String.format(SELECT_READING, deviceId, name))) {
+            return queryExecution.execSelect().next().getLiteral("value").getString();
+        }
+    }
+
+    private static Client createClient(String clientId) {
+        Client client = new Client();
+        client.setClientId(clientId);
+        client.setReceivingCapacity(10);
+        client.setResponseDelivery(Client.ResponseDelivery.CLIENT_PULL);
+        client.setResponseFormat(Client.ResponseFormat.JSON_LD);
+        return client;
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2016-2018 Universitat Politècnica de València
+ * Copyright 2016-2018 Università della Calabria
+ * Copyright 2016-2018 Prodevelop, SL
+ * Copyright 2016-2018 Technische Universiteit Eindhoven
+ * Copyright 2016-2018 Fundación de la Comunidad Valenciana para la
+ * Investigación, Promoción y Estudios Comerciales de Valenciaport
+ * Copyright 2016-2018 Rinicom Ltd
+ * Copyright 2016-2018 Association pour le développement de la formation
+ * professionnelle dans le transport
+ * Copyright 2016-2018 Noatum Ports Valenciana, S.A.U.
+ * Copyright 2016-2018 XLAB razvoj programske opreme in svetovanje d.o.o.
+ * Copyright 2016-2018 Systems Research Institute Polish Academy of Sciences
+ * Copyright 2016-2018 Azienda Sanitaria Locale TO5
+ * Copyright 2016-2018 Alessandro Bassi Consulting SARL
+ * Copyright 2016-2018 Neways Technologies B.V.
+ *
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.interiot.intermw.services.registry;
+
+import eu.interiot.intermw.commons.DefaultConfiguration;
+import org.apache.jena.rdfconnection.RDFConnection;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+public class ReplicatedRegistryBackendTest {
+    // nothing listens on these ports, every request fails with a connection error
+    private static final String PRIMARY_URL = "http://localhost:1/parliament";
+    private static final String REPLICA_URL = "http://localhost:2/parliament";
+
+    private DefaultConfiguration conf;
+    private ReplicatedRegistryBackend backend;
+
+    @Before
+    public void setUp() throws Exception {
+        conf = new DefaultConfiguration("intermw-embedded-test.properties");
+        conf.getProperties().setProperty("parliament.url", PRIMARY_URL);
+        conf.getProperties().setProperty("parliament.replicas", " " + REPLICA_URL + ", ");
+        conf.getProperties().setProperty("parliament.replicas.healthCheckInterval", "3600000");
+        conf.getProperties().setProperty("parliament.replicas.maxLag", "0");
+        conf.getProperties().setProperty("parliament.pool.connectTimeout", "1000");
+    }
+
+    @After
+    public void tearDown() {
+        if (backend != null) {
+            backend.shutdown();
+        }
+    }
+
+    @Test
+    public void testReplicaUrls() {
+        assertEquals(Collections.singletonList(REPLICA_URL), ReplicatedRegistryBackend.getReplicaUrls(conf));
+
+        conf.getProperties().setProperty("parliament.replicas", "http://a/parliament,http://b/parliament");
+        assertEquals(Arrays.asList("http://a/parliament", "http://b/parliament"),
+                ReplicatedRegistryBackend.getReplicaUrls(conf));
+
+        conf.getProperties().setProperty("parliament.replicas", "");
+        assertTrue(ReplicatedRegistryBackend.getReplicaUrls(conf).isEmpty());
+    }
+
+    @Test
+    public void testFailedReplicaIsSkipped() {
+        backend = ReplicatedRegistryBackend.getInstance(conf);
+        assertEquals(PRIMARY_URL, backend.getId());
+        assertTrue(backend.getReplicaHealth().get(REPLICA_URL));
+
+        // the read fails on the replica and then on the primary
+        try (RDFConnection conn = backend.connectForRead()) {
+            conn.queryAsk("ASK {}");
+            fail("Connection error expected.");
+        } catch (RuntimeException e) {
+            // expected
+        }
+        assertFalse(backend.getReplicaHealth().get(REPLICA_URL));
+    }
+}
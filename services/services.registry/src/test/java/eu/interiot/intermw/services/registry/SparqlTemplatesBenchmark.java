@@ -0,0 +1,116 @@
+/*
+ * Copyright 2016-2018 Universitat Politècnica de València
+ * Copyright 2016-2018 Università della Calabria
+ * Copyright 2016-2018 Prodevelop, SL
+ * Copyright 2016-2018 Technische Universiteit Eindhoven
+ * Copyright 2016-2018 Fundación de la Comunidad Valenciana para la
+ * Investigación, Promoción y Estudios Comerciales de Valenciaport
+ * Copyright 2016-2018 Rinicom Ltd
+ * Copyright 2016-2018 Association pour le développement de la formation
+ * professionnelle dans le transport
+ * Copyright 2016-2018 Noatum Ports Valenciana, S.A.U.
+ * Copyright 2016-2018 XLAB razvoj programske opreme in svetovanje d.o.o.
+ * Copyright 2016-2018 Systems Research Institute Polish Academy of Sciences
+ * Copyright 2016-2018 Azienda Sanitaria Locale TO5
+ * Copyright 2016-2018 Alessandro Bassi Consulting SARL
+ * Copyright 2016-2018 Neways Technologies B.V.
+ *
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.interiot.intermw.services.registry;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Resources;
+import org.apache.jena.query.ParameterizedSparqlString;
+import org.apache.jena.update.UpdateRequest;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares loading SPARQL templates from the classpath on every call (the way the registry used to do it) with
+ * {@link SparqlTemplates}. Not run as part of the build, start it with the main method; the GC profiler reports
+ * allocation per call (<code>gc.alloc.rate.norm</code>).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SparqlTemplatesBenchmark {
+
+    private static final String DEVICE_TYPE = "rdf:type <http://inter-iot.eu/GOIoTPex#Sensor>;";
+
+    @Setup
+    public void setup() throws Exception {
+        SparqlTemplates.getInstance();
+    }
+
+    @Benchmark
+    public UpdateRequest classpathTemplate() throws IOException {
+        String template = Resources.toString(Resources.getResource("device-create.rq"), Charsets.UTF_8);
+        ParameterizedSparqlString pss = new ParameterizedSparqlString();
+        pss.setCommandText(template.replace("{type}", DEVICE_TYPE));
+        return bindDevice(pss);
+    }
+
+    @Benchmark
+    public UpdateRequest cachedTemplate() throws Exception {
+        ParameterizedSparqlString pss = SparqlTemplates.getInstance().get("device-create.rq",
+                Collections.singletonMap("{type}", DEVICE_TYPE));
+        return bindDevice(pss);
+    }
+
+    @Benchmark
+    public String classpathTemplateNoReplacements() throws IOException {
+        String template = Resources.toString(Resources.getResource("subscription-getById.rq"), Charsets.UTF_8);
+        ParameterizedSparqlString pss = new ParameterizedSparqlString();
+        pss.setCommandText(template);
+        pss.setIri("?conversationId", "subscriptions:conv1");
+        return pss.toString();
+    }
+
+    @Benchmark
+    public String cachedTemplateNoReplacements() throws Exception {
+        ParameterizedSparqlString pss = SparqlTemplates.getInstance().get("subscription-getById.rq");
+        pss.setIri("?conversationId", "subscriptions:conv1");
+        return pss.toString();
+    }
+
+    private UpdateRequest bindDevice(ParameterizedSparqlString pss) {
+        pss.setIri("?deviceId", "http://test.inter-iot.eu/device1");
+        pss.setLiteral("?name", "Device 1");
+        pss.setIri("?hostedBy", "http://test.inter-iot.eu/platform1");
+        pss.setIri("?location", "http://test.inter-iot.eu/location1");
+        return pss.asUpdate();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(SparqlTemplatesBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
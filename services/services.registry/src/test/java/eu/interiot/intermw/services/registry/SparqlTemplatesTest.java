@@ -0,0 +1,80 @@
+/*
+ * Copyright 2016-2018 Universitat Politècnica de València
+ * Copyright 2016-2018 Università della Calabria
+ * Copyright 2016-2018 Prodevelop, SL
+ * Copyright 2016-2018 Technische Universiteit Eindhoven
+ * Copyright 2016-2018 Fundación de la Comunidad Valenciana para la
+ * Investigación, Promoción y Estudios Comerciales de Valenciaport
+ * Copyright 2016-2018 Rinicom Ltd
+ * Copyright 2016-2018 Association pour le développement de la formation
+ * professionnelle dans le transport
+ * Copyright 2016-2018 Noatum Ports Valenciana, S.A.U.
+ * Copyright 2016-2018 XLAB razvoj programske opreme in svetovanje d.o.o.
+ * Copyright 2016-2018 Systems Research Institute Polish Academy of Sciences
+ * Copyright 2016-2018 Azienda Sanitaria Locale TO5
+ * Copyright 2016-2018 Alessandro Bassi Consulting SARL
+ * Copyright 2016-2018 Neways Technologies B.V.
+ *
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.interiot.intermw.services.registry;
+
+import eu.interiot.intermw.commons.exceptions.MiddlewareException;
+import org.apache.jena.query.ParameterizedSparqlString;
+import org.junit.Test;
+
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+public class SparqlTemplatesTest {
+
+    @Test
+    public void testAllTemplatesLoaded() throws Exception {
+        SparqlTemplates templates = SparqlTemplates.getInstance();
+        assertEquals(SparqlTemplates.TEMPLATE_NAMES.size(), templates.getTemplateNames().size());
+        assertSame(templates, SparqlTemplates.getInstance());
+    }
+
+    @Test
+    public void testCopiesAreIndependent() throws Exception {
+        SparqlTemplates templates = SparqlTemplates.getInstance();
+
+        ParameterizedSparqlString pss1 = templates.get("subscription-getById.rq");
+        pss1.setIri("?conversationId", "subscriptions:conv1");
+        ParameterizedSparqlString pss2 = templates.get("subscription-getById.rq");
+
+        assertTrue(pss1.toString().contains("<subscriptions:conv1>"));
+        assertFalse(pss2.toString().contains("<subscriptions:conv1>"));
+        pss1.asQuery();
+        pss2.asQuery();
+    }
+
+    @Test
+    public void testReplacements() throws Exception {
+        ParameterizedSparqlString pss = SparqlTemplates.getInstance().get("device-getByIds.rq",
+                Collections.singletonMap("{device_graphs}", "<http://test.com/device1> <http://test.com/device2>"));
+
+        assertFalse(pss.getCommandText().contains("{device_graphs}"));
+        assertTrue(pss.asQuery().toString().contains("<http://test.com/device1>"));
+        assertTrue(SparqlTemplates.getInstance().getText("device-getByIds.rq").contains("{device_graphs}"));
+    }
+
+    @Test(expected = MiddlewareException.class)
+    public void testUnknownTemplate() throws Exception {
+        SparqlTemplates.getInstance().get("does-not-exist.rq");
+    }
+}
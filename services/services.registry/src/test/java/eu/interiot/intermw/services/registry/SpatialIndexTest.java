@@ -0,0 +1,112 @@
+/*
+ * Copyright 2016-2018 Universitat Politècnica de València
+ * Copyright 2016-2018 Università della Calabria
+ * Copyright 2016-2018 Prodevelop, SL
+ * Copyright 2016-2018 Technische Universiteit Eindhoven
+ * Copyright 2016-2018 Fundación de la Comunidad Valenciana para la
+ * Investigación, Promoción y Estudios Comerciales de Valenciaport
+ * Copyright 2016-2018 Rinicom Ltd
+ * Copyright 2016-2018 Association pour le développement de la formation
+ * professionnelle dans le transport
+ * Copyright 2016-2018 Noatum Ports Valenciana, S.A.U.
+ * Copyright 2016-2018 XLAB razvoj programske opreme in svetovanje d.o.o.
+ * Copyright 2016-2018 Systems Research Institute Polish Academy of Sciences
+ * Copyright 2016-2018 Azienda Sanitaria Locale TO5
+ * Copyright 2016-2018 Alessandro Bassi Consulting SARL
+ * Copyright 2016-2018 Neways Technologies B.V.
+ *
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.interiot.intermw.services.registry;
+
+import eu.interiot.intermw.commons.exceptions.MiddlewareException;
+import eu.interiot.intermw.commons.model.LocationArea;
+import eu.interiot.intermw.commons.model.LocationPoint;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class SpatialIndexTest {
+    private static final String PLATFORM_ID = "http://inter-iot.eu/example-platform1";
+    private static final String AREA_ID = "http://inter-iot.eu/area1";
+    private static final String AREA = "POLYGON((0 0, 10 0, 10 10, 0 10, 0 0))";
+
+    private SpatialIndex index;
+
+    @Before
+    public void setUp() throws MiddlewareException {
+        index = new SpatialIndex(true);
+        index.loadIfNeeded(loader -> {
+            loader.addArea(AREA_ID, "<http://www.opengis.net/def/crs/OGC/1.3/CRS84> " + AREA);
+            loader.addPoint("http://inter-iot.eu/point-inside", "POINT(5 5)");
+            loader.addPoint("http://inter-iot.eu/point-outside", "POINT(15 5)");
+            loader.addPoint("http://inter-iot.eu/point-invalid", "POINT(");
+        });
+    }
+
+    @Test
+    public void testPointsWithinArea() {
+        assertEquals(2, index.getPointCount());
+        assertEquals(Collections.singletonList("http://inter-iot.eu/point-inside"), index.getPointsWithin(AREA_ID));
+        assertTrue(index.getPointsWithin("http://inter-iot.eu/unknown-area").isEmpty());
+    }
+
+    @Test
+    public void testMovingPoint() {
+        index.putPoint(new LocationPoint("http://inter-iot.eu/point-outside", PLATFORM_ID, "", "POINT(2 3)"));
+        assertEquals(new HashSet<>(Arrays.asList("http://inter-iot.eu/point-inside", "http://inter-iot.eu/point-outside")),
+                new HashSet<>(index.getPointsWithin(AREA_ID)));
+
+        index.removePoint("http://inter-iot.eu/point-inside");
+        index.putPoint(new LocationPoint("http://inter-iot.eu/point-outside", PLATFORM_ID, "", "POINT(20 20)"));
+        assertTrue(index.getPointsWithin(AREA_ID).isEmpty());
+        assertEquals(1, index.getPointCount());
+    }
+
+    @Test
+    public void testAreaUpdates() {
+        index.putArea(new LocationArea(AREA_ID, PLATFORM_ID, "", "POLYGON((10 0, 20 0, 20 10, 10 10, 10 0))"));
+        assertEquals(Collections.singletonList("http://inter-iot.eu/point-outside"), index.getPointsWithin(AREA_ID));
+
+        List<String> areas = index.getAreasInBoundingBox(18, 8, 30, 30);
+        assertEquals(Collections.singletonList(AREA_ID), areas);
+
+        index.removeArea(AREA_ID);
+        assertTrue(index.getAreasInBoundingBox(18, 8, 30, 30).isEmpty());
+    }
+
+    @Test
+    public void testBoundingBox() {
+        assertEquals(Collections.singletonList("http://inter-iot.eu/point-inside"), index.getPointsInBoundingBox(4, 4, 6, 6));
+        assertTrue(index.getPointsInBoundingBox(100, 100, 110, 110).isEmpty());
+    }
+
+    @Test
+    public void testUpdatesIgnoredUntilLoaded() throws MiddlewareException {
+        index.invalidateAll();
+        index.putPoint(new LocationPoint("http://inter-iot.eu/point-early", PLATFORM_ID, "", "POINT(1 1)"));
+        index.loadIfNeeded(loader -> loader.addArea(AREA_ID, AREA));
+
+        assertEquals(0, index.getPointCount());
+        assertTrue(index.getPointsWithin(AREA_ID).isEmpty());
+    }
+}
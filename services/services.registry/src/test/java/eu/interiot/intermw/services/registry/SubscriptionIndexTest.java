@@ -0,0 +1,181 @@
+/*
+ * Copyright 2016-2018 Universitat Politècnica de València
+ * Copyright 2016-2018 Università della Calabria
+ * Copyright 2016-2018 Prodevelop, SL
+ * Copyright 2016-2018 Technische Universiteit Eindhoven
+ * Copyright 2016-2018 Fundación de la Comunidad Valenciana para la
+ * Investigación, Promoción y Estudios Comerciales de Valenciaport
+ * Copyright 2016-2018 Rinicom Ltd
+ * Copyright 2016-2018 Association pour le développement de la formation
+ * professionnelle dans le transport
+ * Copyright 2016-2018 Noatum Ports Valenciana, S.A.U.
+ * Copyright 2016-2018 XLAB razvoj programske opreme in svetovanje d.o.o.
+ * Copyright 2016-2018 Systems Research Institute Polish Academy of Sciences
+ * Copyright 2016-2018 Azienda Sanitaria Locale TO5
+ * Copyright 2016-2018 Alessandro Bassi Consulting SARL
+ * Copyright 2016-2018 Neways Technologies B.V.
+ *
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.interiot.intermw.services.registry;
+
+import eu.interiot.intermw.commons.exceptions.MiddlewareException;
+import eu.interiot.intermw.commons.model.Plat2PlatSubscription;
+import eu.interiot.intermw.commons.model.Subscription;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class SubscriptionIndexTest {
+    private static final String CLIENT1_ID = "client1";
+    private static final String CLIENT2_ID = "client2";
+    private static final String DEVICE1_ID = "http://test.inter-iot.eu/device1";
+    private static final String DEVICE2_ID = "http://test.inter-iot.eu/device2";
+    private static final String DEVICE3_ID = "http://test.inter-iot.eu/device3";
+    private static final String PLATFORM1_ID = "http://test.inter-iot.eu/platform1";
+    private static final String PLATFORM2_ID = "http://test.inter-iot.eu/platform2";
+
+    private SubscriptionIndex index;
+
+    @Before
+    public void setUp() throws MiddlewareException {
+        index = new SubscriptionIndex(true);
+        index.loadIfNeeded(loading -> {
+            loading.loadSubscription(createSubscription("conv2", CLIENT1_ID, DEVICE1_ID, DEVICE2_ID));
+            loading.loadSubscription(createSubscription("conv1", CLIENT2_ID, DEVICE2_ID));
+            loading.loadPlat2PlatSubscription(createPlat2PlatSubscription("conv3", CLIENT1_ID, DEVICE1_ID, DEVICE3_ID));
+        });
+    }
+
+    @Test
+    public void testLookups() {
+        assertEquals(Collections.singleton("conv2"), index.getSubscriptionIds(DEVICE1_ID));
+        assertEquals(new HashSet<>(Arrays.asList("conv1", "conv2")), index.getSubscriptionIds(DEVICE2_ID));
+        assertTrue(index.getSubscriptionIds(DEVICE3_ID).isEmpty());
+
+        List<Subscription> subscriptions = index.getSubscriptions(null);
+        assertEquals(2, subscriptions.size());
+        assertEquals("conv1", subscriptions.get(0).getConversationId());
+        assertEquals("conv2", subscriptions.get(1).getConversationId());
+        assertEquals(1, index.getSubscriptions(CLIENT2_ID).size());
+        assertTrue(index.getSubscriptions("unknown").isEmpty());
+
+        Subscription subscription = index.getSubscription("conv2");
+        assertEquals(CLIENT1_ID, subscription.getClientId());
+        assertEquals(Arrays.asList(DEVICE1_ID, DEVICE2_ID), subscription.getDeviceIds());
+        assertNull(index.getSubscription("unknown"));
+
+        assertEquals(Collections.singleton("conv3"), index.getPlat2PlatSubscriptionIds(DEVICE1_ID));
+        assertEquals(Collections.singleton("conv3"), index.getPlat2PlatSubscriptionIds(DEVICE3_ID));
+        assertEquals("conv3", index.findPlat2PlatSubscription(DEVICE1_ID, DEVICE3_ID).getConversationId());
+        assertNull(index.findPlat2PlatSubscription(DEVICE3_ID, DEVICE1_ID));
+        assertEquals(1, index.getPlat2PlatSubscriptions(CLIENT1_ID).size());
+    }
+
+    @Test
+    public void testPages() {
+        index.addSubscription(createSubscription("conv0", CLIENT1_ID, DEVICE3_ID));
+        index.addSubscription(createSubscription("conv5", CLIENT1_ID, DEVICE3_ID));
+
+        List<Subscription> page = index.getSubscriptions(null, 1, 2);
+        assertEquals(2, page.size());
+        assertEquals("conv1", page.get(0).getConversationId());
+        assertEquals("conv2", page.get(1).getConversationId());
+
+        page = index.getSubscriptions(CLIENT1_ID, 1, 5);
+        assertEquals(2, page.size());
+        assertEquals("conv2", page.get(0).getConversationId());
+        assertEquals("conv5", page.get(1).getConversationId());
+
+        assertTrue(index.getSubscriptions(null, 4, 2).isEmpty());
+        assertTrue(index.getSubscriptions("unknown", 0, 2).isEmpty());
+        assertEquals(1, index.getPlat2PlatSubscriptions(CLIENT1_ID, 0, 1).size());
+        assertTrue(index.getPlat2PlatSubscriptions(CLIENT1_ID, 1, 1).isEmpty());
+    }
+
+    @Test
+    public void testReturnedSubscriptionsAreCopies() {
+        index.getSubscription("conv1").addDeviceId(DEVICE3_ID);
+        index.getSubscriptions(null).get(0).setClientId(CLIENT1_ID);
+
+        Subscription subscription = index.getSubscription("conv1");
+        assertEquals(Collections.singletonList(DEVICE2_ID), subscription.getDeviceIds());
+        assertEquals(CLIENT2_ID, subscription.getClientId());
+        assertTrue(index.getSubscriptionIds(DEVICE3_ID).isEmpty());
+    }
+
+    @Test
+    public void testUpdates() {
+        index.addSubscription(createSubscription("conv4", CLIENT2_ID, DEVICE3_ID));
+        index.addSubscription(createSubscription("conv4", CLIENT2_ID, DEVICE3_ID, DEVICE1_ID));
+        assertEquals(Arrays.asList(DEVICE3_ID, DEVICE1_ID), index.getSubscription("conv4").getDeviceIds());
+        assertEquals(new HashSet<>(Arrays.asList("conv2", "conv4")), index.getSubscriptionIds(DEVICE1_ID));
+
+        index.removeSubscription("conv2");
+        assertEquals(Collections.singleton("conv4"), index.getSubscriptionIds(DEVICE1_ID));
+        assertEquals(Collections.singleton("conv1"), index.getSubscriptionIds(DEVICE2_ID));
+        assertTrue(index.getSubscriptions(CLIENT1_ID).isEmpty());
+
+        index.addPlat2PlatSubscription(createPlat2PlatSubscription("conv3", CLIENT1_ID, DEVICE2_ID, DEVICE3_ID));
+        assertTrue(index.getPlat2PlatSubscriptionIds(DEVICE1_ID).isEmpty());
+        assertEquals(Collections.singleton("conv3"), index.getPlat2PlatSubscriptionIds(DEVICE2_ID));
+
+        index.removePlat2PlatSubscription("conv3");
+        assertTrue(index.getPlat2PlatSubscriptionIds(DEVICE3_ID).isEmpty());
+        assertTrue(index.getPlat2PlatSubscriptions(null).isEmpty());
+    }
+
+    @Test
+    public void testUpdatesBeforeLoadAreIgnored() throws MiddlewareException {
+        SubscriptionIndex index = new SubscriptionIndex(true);
+        index.addSubscription(createSubscription("conv1", CLIENT1_ID, DEVICE1_ID));
+        index.loadIfNeeded(loading -> loading.loadSubscription(createSubscription("conv2", CLIENT1_ID, DEVICE1_ID)));
+        assertEquals(Collections.singleton("conv2"), index.getSubscriptionIds(DEVICE1_ID));
+
+        index.invalidateAll();
+        assertTrue(index.getSubscriptions(null).isEmpty());
+        index.loadIfNeeded(loading -> loading.loadSubscription(createSubscription("conv3", CLIENT1_ID, DEVICE1_ID)));
+        assertEquals(Collections.singleton("conv3"), index.getSubscriptionIds(DEVICE1_ID));
+    }
+
+    private static Subscription createSubscription(String conversationId, String clientId, String... deviceIds) {
+        Subscription subscription = new Subscription();
+        subscription.setConversationId(conversationId);
+        subscription.setClientId(clientId);
+        for (String deviceId : deviceIds) {
+            subscription.addDeviceId(deviceId);
+        }
+        return subscription;
+    }
+
+    private static Plat2PlatSubscription createPlat2PlatSubscription(String conversationId, String clientId,
+                                                                     String sourceDeviceId, String targetDeviceId) {
+        Plat2PlatSubscription subscription = new Plat2PlatSubscription();
+        subscription.setConversationId(conversationId);
+        subscription.setClientId(clientId);
+        subscription.setSourceDeviceId(sourceDeviceId);
+        subscription.setSourcePlatformId(PLATFORM1_ID);
+        subscription.setTargetDeviceId(targetDeviceId);
+        subscription.setTargetPlatformId(PLATFORM2_ID);
+        return subscription;
+    }
+}